@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2018 E.S.R.Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package mindroid.benchmarks;
+
+import examples.eliza.IEliza;
+import examples.eliza.IElizaListener;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import mindroid.os.RemoteException;
+import mindroid.runtime.system.Runtime;
+import mindroid.util.concurrent.Future;
+import mindroid.util.concurrent.Promise;
+
+/**
+ * A node of a {@link Cluster} that provides an {@code IEliza} service echoing the questions.
+ *
+ * <pre>
+ * BenchmarkNode &lt;node id&gt; &lt;configuration file&gt; [&lt;service time in microseconds&gt;]
+ * </pre>
+ *
+ * {@code ask1} and {@code ask2} spin for the service time on the single service thread before they
+ * reply, so requests queue up once the request rate exceeds the service rate. The node exits when its
+ * standard input is closed.
+ */
+public class BenchmarkNode {
+    static final String READY = "READY";
+
+    public static void main(String[] args) throws Exception {
+        final int nodeId = Integer.parseInt(args[0]);
+        final long serviceTime = (args.length > 2) ? Long.parseLong(args[2]) * 1000 : 0;
+        Runtime.start(nodeId, new File(args[1])).get();
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        IEliza.Stub service = new IEliza.Stub(executor) {
+            @Override
+            public String ask1(String question) throws RemoteException {
+                serve();
+                return question;
+            }
+
+            @Override
+            public Future<String> ask2(String question) throws RemoteException {
+                serve();
+                return new Promise<>(mindroid.util.concurrent.Executors.SYNCHRONOUS_EXECUTOR, question);
+            }
+
+            @Override
+            public void ask3(String question, IElizaListener listener) throws RemoteException {
+                listener.onReply(question);
+            }
+
+            private void serve() {
+                long endTime = System.nanoTime() + serviceTime;
+                while (System.nanoTime() < endTime) {
+                    Thread.onSpinWait();
+                }
+            }
+        };
+        Runtime.getRuntime().addService(URI.create("mindroid://" + Cluster.getServiceName(nodeId)), service);
+        System.out.println(READY);
+
+        try {
+            while (System.in.read() >= 0) {
+            }
+        } catch (IOException ignore) {
+        }
+        Runtime.shutdown();
+        System.exit(0);
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2018 E.S.R.Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package mindroid.benchmarks;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import mindroid.os.Binder;
+import mindroid.os.Bundle;
+import mindroid.os.Parcel;
+import mindroid.os.RemoteException;
+import mindroid.runtime.system.Runtime;
+import mindroid.util.concurrent.Promise;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures transactions with a binder of the same node that runs on another thread.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BinderBenchmark {
+    private static final int MSG_ECHO = 1;
+
+    private ExecutorService mExecutor;
+    private Binder mBinder;
+
+    @Setup
+    public void setUp() throws Exception {
+        Runtime.start(1, null).get();
+        mExecutor = Executors.newSingleThreadExecutor();
+        mBinder = new Binder(mExecutor) {
+            @Override
+            protected void onTransact(int what, Parcel data, Promise<Parcel> result) throws RemoteException {
+                Parcel reply = Parcel.obtain(4);
+                reply.putInt(data.getInt());
+                result.complete(reply);
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            protected void onTransact(int what, int num, Object obj, Bundle data, Promise<?> result) throws RemoteException {
+                ((Promise<Integer>) result).complete(num);
+            }
+        };
+    }
+
+    @TearDown
+    public void tearDown() {
+        mBinder.dispose();
+        mExecutor.shutdown();
+        Runtime.shutdown();
+    }
+
+    @Benchmark
+    public int transact() throws RemoteException {
+        Parcel data = Parcel.obtain(4);
+        data.putInt(42);
+        return Binder.get(mBinder.transact(MSG_ECHO, data, 0)).getInt();
+    }
+
+    @Benchmark
+    public int lightweightTransact() throws RemoteException {
+        Promise<Integer> promise = new Promise<>(mindroid.util.concurrent.Executors.SYNCHRONOUS_EXECUTOR);
+        mBinder.transact(MSG_ECHO, 42, null, null, promise, 0);
+        return Binder.get(promise);
+    }
+}
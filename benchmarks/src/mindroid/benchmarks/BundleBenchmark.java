@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2018 E.S.R.Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package mindroid.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import mindroid.os.Bundle;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares bundles with a {@code HashMap} of boxed values, which is how bundles stored their values before.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BundleBenchmark {
+    @Param({ "4", "16", "64" })
+    public int size;
+
+    private String[] mKeys;
+    private Bundle mBundle;
+    private Map<String, Object> mMap;
+
+    @Setup
+    public void setUp() {
+        mKeys = new String[size];
+        mBundle = new Bundle();
+        mMap = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            mKeys[i] = "key" + i;
+            mBundle.putLong(mKeys[i], 1000L + i);
+            mMap.put(mKeys[i], Long.valueOf(1000L + i));
+        }
+    }
+
+    @Benchmark
+    public long bundlePutAndGet() {
+        Bundle bundle = new Bundle();
+        for (int i = 0; i < mKeys.length; i++) {
+            bundle.putLong(mKeys[i], 1000L + i);
+        }
+        long sum = 0;
+        for (String key : mKeys) {
+            sum += bundle.getLong(key, 0);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long hashMapPutAndGet() {
+        Map<String, Object> map = new HashMap<>();
+        for (int i = 0; i < mKeys.length; i++) {
+            map.put(mKeys[i], Long.valueOf(1000L + i));
+        }
+        long sum = 0;
+        for (String key : mKeys) {
+            Object value = map.get(key);
+            sum += (value instanceof Long) ? (Long) value : 0;
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long bundleGet() {
+        long sum = 0;
+        for (String key : mKeys) {
+            sum += mBundle.getLong(key, 0);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long hashMapGet() {
+        long sum = 0;
+        for (String key : mKeys) {
+            Object value = mMap.get(key);
+            sum += (value instanceof Long) ? (Long) value : 0;
+        }
+        return sum;
+    }
+
+    /**
+     * Copies a bundle and modifies the copy.
+     */
+    @Benchmark
+    public Bundle bundleCopy() {
+        Bundle bundle = new Bundle(mBundle);
+        bundle.putLong(mKeys[0], 0);
+        return bundle;
+    }
+
+    @Benchmark
+    public Map<String, Object> hashMapCopy() {
+        Map<String, Object> map = new HashMap<>(mMap);
+        map.put(mKeys[0], Long.valueOf(0));
+        return map;
+    }
+}
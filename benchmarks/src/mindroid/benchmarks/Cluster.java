@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2018 E.S.R.Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package mindroid.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs nodes of a runtime system on localhost, each in its own process. Node 1 is the node of the
+ * calling process, nodes 2 to n are {@link BenchmarkNode} processes. Each node has the mindroid and
+ * xmlrpc plugins on free ports, and each node except node 1 announces an {@code IEliza} service, see
+ * {@link #getServiceName(int)}.
+ */
+final class Cluster implements AutoCloseable {
+    private static final long NODE_STARTUP_TIMEOUT = 30_000;
+    private final int mNodeCount;
+    private final File mConfiguration;
+    private final List<Process> mProcesses = new ArrayList<>();
+
+    Cluster(int nodeCount) throws IOException {
+        mNodeCount = nodeCount;
+        mConfiguration = File.createTempFile("MindroidRuntimeSystem", ".xml");
+        mConfiguration.deleteOnExit();
+        try (PrintWriter writer = new PrintWriter(mConfiguration, StandardCharsets.UTF_8.name())) {
+            writer.println("<?xml version='1.0' encoding='UTF-8' ?>");
+            writer.println("<runtime>");
+            writer.println("    <nodes>");
+            for (int nodeId = 1; nodeId <= nodeCount; nodeId++) {
+                writer.println("        <node id=\"" + nodeId + "\">");
+                writer.println("            <plugin scheme=\"mindroid\" class=\"mindroid.runtime.system.Mindroid\">");
+                writer.println("                <server uri=\"tcp://localhost:" + getFreePort() + "\" />");
+                writer.println("            </plugin>");
+                writer.println("            <plugin scheme=\"xmlrpc\" class=\"mindroid.runtime.system.plugins.xmlrpc.XmlRpc\">");
+                writer.println("                <server uri=\"tcp://localhost:" + getFreePort() + "\" />");
+                writer.println("            </plugin>");
+                writer.println("        </node>");
+            }
+            writer.println("    </nodes>");
+            writer.println();
+            writer.println("    <serviceDiscovery>");
+            for (int nodeId = 2; nodeId <= nodeCount; nodeId++) {
+                writer.println("        <node id=\"" + nodeId + "\">");
+                writer.println("            <service id=\"1\" name=\"" + getServiceName(nodeId) + "\">");
+                writer.println("                <announcement interfaceDescriptor=\"mindroid://interfaces/examples/eliza/IEliza\" />");
+                writer.println("                <announcement interfaceDescriptor=\"xmlrpc://interfaces/examples/eliza/IEliza\" />");
+                writer.println("            </service>");
+                writer.println("        </node>");
+            }
+            writer.println("    </serviceDiscovery>");
+            writer.println("</runtime>");
+        }
+    }
+
+    static String getServiceName(int nodeId) {
+        return "eliza" + nodeId;
+    }
+
+    int getNodeCount() {
+        return mNodeCount;
+    }
+
+    File getConfiguration() {
+        return mConfiguration;
+    }
+
+    /**
+     * Starts the nodes 2 to n and waits until their services have been added.
+     *
+     * @param serviceTime The service time of the services in microseconds, see {@link BenchmarkNode}.
+     */
+    void start(long serviceTime) throws IOException, InterruptedException {
+        for (int nodeId = 2; nodeId <= mNodeCount; nodeId++) {
+            startNode(nodeId, serviceTime);
+        }
+    }
+
+    private void startNode(int nodeId, long serviceTime) throws IOException, InterruptedException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                BenchmarkNode.class.getName(), String.valueOf(nodeId), mConfiguration.getPath(), String.valueOf(serviceTime))
+                .redirectErrorStream(true)
+                .start();
+        mProcesses.add(process);
+        CountDownLatch ready = new CountDownLatch(1);
+        Thread thread = new Thread(() -> {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.equals(BenchmarkNode.READY)) {
+                        ready.countDown();
+                    } else if (line.startsWith("E/") || line.startsWith("W/")) {
+                        System.err.println("[Node " + nodeId + "] " + line);
+                    }
+                }
+            } catch (IOException ignore) {
+            }
+        }, "Node " + nodeId);
+        thread.setDaemon(true);
+        thread.start();
+        if (!ready.await(NODE_STARTUP_TIMEOUT, TimeUnit.MILLISECONDS)) {
+            throw new IOException("Node " + nodeId + " failed to start");
+        }
+    }
+
+    @Override
+    public void close() {
+        for (Process process : mProcesses) {
+            process.destroy();
+        }
+        for (Process process : mProcesses) {
+            try {
+                if (!process.waitFor(5, TimeUnit.SECONDS)) {
+                    process.destroyForcibly();
+                }
+            } catch (InterruptedException e) {
+                process.destroyForcibly();
+                Thread.currentThread().interrupt();
+            }
+        }
+        mProcesses.clear();
+        mConfiguration.delete();
+    }
+
+    private static int getFreePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
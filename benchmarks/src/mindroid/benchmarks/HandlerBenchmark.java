@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2018 E.S.R.Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package mindroid.benchmarks;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import mindroid.os.Handler;
+import mindroid.os.HandlerThread;
+import mindroid.os.Message;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures the dispatch of messages from a thread to the {@code Looper} of another thread.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class HandlerBenchmark {
+    private static final int MESSAGE_COUNT = 1000;
+    private static final int MSG_COUNT_DOWN = 1;
+
+    private HandlerThread mThread;
+    private Handler mHandler;
+
+    @Setup
+    public void setUp() {
+        mThread = new HandlerThread("HandlerBenchmark");
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper()) {
+            @Override
+            public void handleMessage(Message message) {
+                if (message.what == MSG_COUNT_DOWN) {
+                    ((CountDownLatch) message.obj).countDown();
+                }
+            }
+        };
+    }
+
+    @TearDown
+    public void tearDown() {
+        mThread.quit();
+    }
+
+    /**
+     * Sends a burst of messages and waits until the looper has dispatched all of them.
+     */
+    @Benchmark
+    @OperationsPerInvocation(MESSAGE_COUNT)
+    public void sendMessage() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        for (int i = 1; i < MESSAGE_COUNT; i++) {
+            mHandler.sendMessage(mHandler.obtainMessage(0));
+        }
+        mHandler.sendMessage(mHandler.obtainMessage(MSG_COUNT_DOWN, latch));
+        latch.await();
+    }
+
+    /**
+     * Sends a single message and waits until it has been dispatched, i.e. the latency of waking up the looper.
+     */
+    @Benchmark
+    public void sendMessageAndWait() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        mHandler.sendMessage(mHandler.obtainMessage(MSG_COUNT_DOWN, latch));
+        latch.await();
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2018 E.S.R.Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package mindroid.benchmarks;
+
+import examples.eliza.IEliza;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import mindroid.os.IBinder;
+import mindroid.os.RemoteException;
+import mindroid.runtime.system.Runtime;
+import mindroid.util.concurrent.Executors;
+
+/**
+ * Drives an open-loop request load against the {@code IEliza} services of a {@link Cluster} and reports
+ * throughput and latency percentiles per plugin, payload size and request rate.
+ *
+ * <pre>
+ * java mindroid.benchmarks.LoadGenerator [-n &lt;nodes&gt;] [-p &lt;plugins&gt;] [-s &lt;payload sizes&gt;] [-r &lt;requests per second&gt;]
+ *         [-t &lt;service time in microseconds&gt;] [-d &lt;duration in seconds&gt;] [-w &lt;warmup in seconds&gt;]
+ * </pre>
+ *
+ * Plugins, payload sizes and rates are comma separated lists, e.g. {@code -p mindroid,xmlrpc -s 16,4096}.
+ * The local node sends {@code ask2} requests round-robin to the services of nodes 2 to n at fixed intervals
+ * regardless of outstanding replies. Latencies are measured from the time at which a request was due, so
+ * a sender that falls behind does not hide queueing delays.
+ */
+public class LoadGenerator {
+    private static final long REPLY_TIMEOUT = 10_000;
+
+    public static void main(String[] args) throws Exception {
+        int nodeCount = 2;
+        String[] plugins = { "mindroid", "xmlrpc" };
+        int[] sizes = { 16, 4096 };
+        int[] rates = { 1000 };
+        long serviceTime = 0;
+        long duration = 10;
+        long warmup = 2;
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("-") || args[i].length() != 2 || i + 1 >= args.length) {
+                usage();
+            }
+            String value = args[++i];
+            try {
+                switch (args[i - 1].charAt(1)) {
+                case 'n':
+                    nodeCount = Integer.parseInt(value);
+                    break;
+                case 'p':
+                    plugins = value.split(",");
+                    break;
+                case 's':
+                    sizes = parseInts(value);
+                    break;
+                case 'r':
+                    rates = parseInts(value);
+                    break;
+                case 't':
+                    serviceTime = Long.parseLong(value);
+                    break;
+                case 'd':
+                    duration = Long.parseLong(value);
+                    break;
+                case 'w':
+                    warmup = Long.parseLong(value);
+                    break;
+                default:
+                    usage();
+                }
+            } catch (NumberFormatException e) {
+                usage();
+            }
+        }
+        if (nodeCount < 2 || Arrays.stream(rates).anyMatch(rate -> rate <= 0)) {
+            usage();
+        }
+
+        try (Cluster cluster = new Cluster(nodeCount)) {
+            cluster.start(serviceTime);
+            Runtime.start(1, cluster.getConfiguration()).get();
+            try {
+                System.out.println(Report.HEADER);
+                for (String plugin : plugins) {
+                    IEliza[] services = getServices(plugin, nodeCount);
+                    for (int size : sizes) {
+                        String question = newPayload(size);
+                        for (int rate : rates) {
+                            run(services, question, rate, TimeUnit.SECONDS.toNanos(warmup));
+                            Report report = run(services, question, rate, TimeUnit.SECONDS.toNanos(duration));
+                            System.out.println(report.toString(plugin, size, rate));
+                        }
+                    }
+                }
+            } finally {
+                Runtime.shutdown();
+            }
+        }
+        System.exit(0);
+    }
+
+    private static IEliza[] getServices(String plugin, int nodeCount) {
+        IEliza[] services = new IEliza[nodeCount - 1];
+        for (int nodeId = 2; nodeId <= nodeCount; nodeId++) {
+            IBinder binder = Runtime.getRuntime().getService(URI.create(plugin + "://" + Cluster.getServiceName(nodeId)));
+            if (binder == null) {
+                throw new IllegalArgumentException("Service " + Cluster.getServiceName(nodeId) + " not found for plugin " + plugin);
+            }
+            services[nodeId - 2] = IEliza.Stub.asInterface(binder);
+        }
+        return services;
+    }
+
+    private static Report run(IEliza[] services, String question, int rate, long duration) throws InterruptedException {
+        final int count = (int) Math.max(1, duration * rate / TimeUnit.SECONDS.toNanos(1));
+        final long interval = TimeUnit.SECONDS.toNanos(1) / rate;
+        final Report report = new Report(count);
+        final long startTime = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            final long dueTime = startTime + i * interval;
+            long delay;
+            while ((delay = dueTime - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(delay);
+            }
+            try {
+                services[i % services.length].ask2(question).then(Executors.SYNCHRONOUS_EXECUTOR, (value, exception) -> {
+                    report.onReply(dueTime, exception);
+                });
+            } catch (RemoteException e) {
+                report.onReply(dueTime, e);
+            }
+        }
+        report.await(startTime, REPLY_TIMEOUT);
+        return report;
+    }
+
+    private static String newPayload(int size) {
+        char[] chars = new char[size];
+        for (int i = 0; i < size; i++) {
+            chars[i] = (char) ('a' + i % 26);
+        }
+        return new String(chars);
+    }
+
+    private static int[] parseInts(String value) {
+        return Arrays.stream(value.split(",")).mapToInt(Integer::parseInt).toArray();
+    }
+
+    private static void usage() {
+        System.err.println("Usage: LoadGenerator [-n <nodes>] [-p <plugins>] [-s <payload sizes>] [-r <requests per second>]"
+                + " [-t <service time in microseconds>] [-d <duration in seconds>] [-w <warmup in seconds>]");
+        System.exit(1);
+    }
+
+    /**
+     * Collects the latencies of the replies of one run.
+     */
+    private static final class Report {
+        static final String HEADER = String.format("%-10s %8s %8s %8s %10s %10s %10s %10s %10s %8s",
+                "plugin", "size", "rate", "replies", "req/s", "p50 [us]", "p99 [us]", "p999 [us]", "max [us]", "errors");
+
+        private final long[] mLatencies;
+        private final CountDownLatch mDone;
+        // Guarded by this. Replies that arrive after the report has been closed are counted as timeouts only.
+        private int mReplies;
+        private int mErrors;
+        private long mEndTime;
+        private boolean mClosed = false;
+        private long mDuration;
+        private int mTimeouts;
+
+        Report(int count) {
+            mLatencies = new long[count];
+            mDone = new CountDownLatch(count);
+        }
+
+        void onReply(long dueTime, Throwable exception) {
+            long now = System.nanoTime();
+            synchronized (this) {
+                if (mClosed) {
+                    return;
+                }
+                if (exception == null) {
+                    mLatencies[mReplies++] = now - dueTime;
+                } else {
+                    mErrors++;
+                }
+                mEndTime = now;
+            }
+            mDone.countDown();
+        }
+
+        void await(long startTime, long timeout) throws InterruptedException {
+            mDone.await(timeout, TimeUnit.MILLISECONDS);
+            synchronized (this) {
+                mClosed = true;
+                mTimeouts = mLatencies.length - mReplies - mErrors;
+                mDuration = Math.max(1, mEndTime - startTime);
+            }
+        }
+
+        synchronized String toString(String plugin, int size, int rate) {
+            int replies = mReplies;
+            long[] latencies = Arrays.copyOf(mLatencies, replies);
+            Arrays.sort(latencies);
+            double throughput = replies * 1e9 / mDuration;
+            return String.format("%-10s %8d %8d %8d %10.1f %10.1f %10.1f %10.1f %10.1f %8d",
+                    plugin, size, rate, replies, throughput,
+                    percentile(latencies, 0.5), percentile(latencies, 0.99), percentile(latencies, 0.999),
+                    percentile(latencies, 1.0), mErrors + mTimeouts);
+        }
+
+        private static double percentile(long[] latencies, double p) {
+            if (latencies.length == 0) {
+                return Double.NaN;
+            }
+            int i = (int) Math.ceil(p * latencies.length) - 1;
+            return latencies[Math.max(0, i)] / 1000.0;
+        }
+    }
+}
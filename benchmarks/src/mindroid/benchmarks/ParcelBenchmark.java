@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2018 E.S.R.Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package mindroid.benchmarks;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import mindroid.os.Parcel;
+import mindroid.os.RemoteException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures writing values into parcels and reading them back.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ParcelBenchmark {
+    @Param({ "16", "1024", "65536" })
+    public int size;
+
+    private String mAsciiString;
+    private String mString;
+    private int[] mIntArray;
+
+    @Setup
+    public void setUp() {
+        char[] chars = new char[size];
+        for (int i = 0; i < size; i++) {
+            chars[i] = (char) ('a' + i % 26);
+        }
+        mAsciiString = new String(chars);
+        for (int i = 0; i < size; i += 4) {
+            chars[i] = 'ä';
+        }
+        mString = new String(chars);
+        mIntArray = new int[size / 4];
+        Arrays.fill(mIntArray, 42);
+    }
+
+    @Benchmark
+    public long primitives() throws RemoteException {
+        Parcel parcel = Parcel.obtain();
+        parcel.putBoolean(true);
+        parcel.putInt(42);
+        parcel.putLong(42L);
+        parcel.putFloat(42.0f);
+        parcel.putDouble(42.0);
+        parcel.asInput();
+        return (parcel.getBoolean() ? 1 : 0) + parcel.getInt() + parcel.getLong()
+                + (long) parcel.getFloat() + (long) parcel.getDouble();
+    }
+
+    @Benchmark
+    public String asciiString() throws RemoteException {
+        Parcel parcel = Parcel.obtain();
+        parcel.putString(mAsciiString);
+        parcel.asInput();
+        return parcel.getString();
+    }
+
+    @Benchmark
+    public String string() throws RemoteException {
+        Parcel parcel = Parcel.obtain();
+        parcel.putString(mString);
+        parcel.asInput();
+        return parcel.getString();
+    }
+
+    @Benchmark
+    public int[] intArray() throws RemoteException {
+        Parcel parcel = Parcel.obtain();
+        parcel.putIntArray(mIntArray);
+        parcel.asInput();
+        return parcel.getIntArray();
+    }
+}
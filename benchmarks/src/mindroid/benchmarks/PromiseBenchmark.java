@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2018 E.S.R.Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package mindroid.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import mindroid.util.concurrent.Executors;
+import mindroid.util.concurrent.Promise;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures the completion of promises and the execution of their continuations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PromiseBenchmark {
+    @Benchmark
+    public Integer complete() throws Exception {
+        Promise<Integer> promise = new Promise<>(Executors.SYNCHRONOUS_EXECUTOR);
+        promise.complete(42);
+        return promise.get();
+    }
+
+    /**
+     * Adds continuations to an incomplete promise and completes it.
+     */
+    @Benchmark
+    public Integer completeChain() throws Exception {
+        Promise<Integer> promise = new Promise<>(Executors.SYNCHRONOUS_EXECUTOR);
+        Promise<Integer> result = promise.then(value -> value + 1)
+                .then(value -> value * 2)
+                .then((value, exception) -> (exception == null) ? value : -1);
+        promise.complete(42);
+        return result.get();
+    }
+
+    /**
+     * Adds continuations to a completed promise, which run immediately.
+     */
+    @Benchmark
+    public Integer chainCompleted() throws Exception {
+        Promise<Integer> promise = new Promise<>(Executors.SYNCHRONOUS_EXECUTOR, 42);
+        return promise.then(value -> value + 1)
+                .then(value -> value * 2)
+                .then((value, exception) -> (exception == null) ? value : -1)
+                .get();
+    }
+
+    @Benchmark
+    public boolean completeExceptionally() {
+        Promise<Integer> promise = new Promise<>(Executors.SYNCHRONOUS_EXECUTOR);
+        Promise<Integer> result = promise.then(value -> value + 1);
+        promise.completeWith(new IllegalStateException());
+        return result.isCompletedExceptionally();
+    }
+}
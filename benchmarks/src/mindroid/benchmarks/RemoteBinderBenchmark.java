@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2018 E.S.R.Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package mindroid.benchmarks;
+
+import examples.eliza.IEliza;
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+import mindroid.os.IBinder;
+import mindroid.os.RemoteException;
+import mindroid.runtime.system.Runtime;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures synchronous transactions with a service of another node on localhost through the mindroid
+ * plugin (io) and the xmlrpc plugin (aio).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RemoteBinderBenchmark {
+    @Param({ "mindroid", "xmlrpc" })
+    public String scheme;
+
+    @Param({ "16", "4096" })
+    public int size;
+
+    private Cluster mCluster;
+    private IEliza mService;
+    private String mQuestion;
+
+    @Setup
+    public void setUp() throws Exception {
+        mCluster = new Cluster(2);
+        mCluster.start(0);
+        Runtime.start(1, mCluster.getConfiguration()).get();
+        IBinder binder = Runtime.getRuntime().getService(URI.create(scheme + "://" + Cluster.getServiceName(2)));
+        if (binder == null) {
+            throw new IllegalStateException("Service " + Cluster.getServiceName(2) + " not found");
+        }
+        mService = IEliza.Stub.asInterface(binder);
+        char[] chars = new char[size];
+        for (int i = 0; i < size; i++) {
+            chars[i] = (char) ('a' + i % 26);
+        }
+        mQuestion = new String(chars);
+    }
+
+    @TearDown
+    public void tearDown() {
+        Runtime.shutdown();
+        mCluster.close();
+    }
+
+    @Benchmark
+    public String transact() throws RemoteException {
+        return mService.ask1(mQuestion);
+    }
+}
@@ -16,11 +16,15 @@
 
 package examples.eliza;
 
+import java.util.concurrent.Executor;
 import mindroid.os.Binder;
+import mindroid.os.Bundle;
 import mindroid.os.IBinder;
 import mindroid.os.IInterface;
+import mindroid.os.Looper;
 import mindroid.os.Parcel;
 import mindroid.os.RemoteException;
+import mindroid.util.concurrent.Executors;
 import mindroid.util.concurrent.Future;
 import mindroid.util.concurrent.Promise;
 
@@ -32,6 +36,16 @@ public interface IEliza extends IInterface {
             this.attachInterface(this, DESCRIPTOR);
         }
 
+        public Stub(Looper looper) {
+            super(looper);
+            this.attachInterface(this, DESCRIPTOR);
+        }
+
+        public Stub(Executor executor) {
+            super(executor);
+            this.attachInterface(this, DESCRIPTOR);
+        }
+
         public static IEliza asInterface(IBinder binder) {
             if (binder == null) {
                 return null;
@@ -50,7 +64,7 @@ public interface IEliza extends IInterface {
             case MSG_ASK1: {
                 String _question = data.getString();
                 String _reply = ask1(_question);
-                Parcel _parcel = Parcel.obtain();
+                Parcel _parcel = Parcel.obtain(2 + _reply.length());
                 _parcel.putString(_reply);
                 result.complete(_parcel);
                 break;
@@ -60,7 +74,7 @@ public interface IEliza extends IInterface {
                 Future<String> _reply = ask2(_question);
                 _reply.then((value, exception) -> {
                     if (exception == null) {
-                        Parcel _parcel = Parcel.obtain();
+                        Parcel _parcel = Parcel.obtain(2 + value.length());
                         try {
                             _parcel.putString(value);
                             result.complete(_parcel);
@@ -85,6 +99,42 @@ public interface IEliza extends IInterface {
             }
         }
 
+        @Override
+        @SuppressWarnings("unchecked")
+        protected void onTransact(int what, int num, Object obj, Bundle data, Promise<?> result) throws RemoteException {
+            switch (what) {
+            case MSG_ASK1: {
+                String _question = (String) obj;
+                String _reply = ask1(_question);
+                ((Promise<String>) result).complete(_reply);
+                break;
+            }
+            case MSG_ASK2: {
+                String _question = (String) obj;
+                Future<String> _reply = ask2(_question);
+                Promise<String> _result = (Promise<String>) result;
+                _reply.then((value, exception) -> {
+                    if (exception == null) {
+                        _result.complete(value);
+                    } else {
+                        _result.completeWith(exception);
+                    }
+                });
+                break;
+            }
+            case MSG_ASK3: {
+                Object[] _arguments = (Object[]) obj;
+                String _question = (String) _arguments[0];
+                IElizaListener _listener = (IElizaListener) _arguments[1];
+                ask3(_question, _listener);
+                break;
+            }
+            default:
+                super.onTransact(what, num, obj, data, result);
+                break;
+            }
+        }
+
         private static class Proxy implements IEliza {
             private final IBinder mRemote;
 
@@ -115,36 +165,22 @@ public interface IEliza extends IInterface {
 
             @Override
             public String ask1(String question) throws RemoteException {
-                Promise<String> _promise = new Promise<>();
-                Parcel _data = Parcel.obtain();
+                Parcel _data = Parcel.obtain(2 + question.length());
                 _data.putString(question);
-                mRemote.transact(MSG_ASK1, _data, 0)
-                        .then((parcel, exception) -> {
-                            if (exception == null) {
-                                try {
-                                    String _reply = parcel.getString();
-                                    _promise.complete(_reply);
-                                } catch (RemoteException e) {
-                                    _promise.completeWith(e);
-                                }
-                            } else {
-                                _promise.completeWith(exception);
-                            }
-                        });
-                return Binder.get(_promise);
+                Parcel _reply = Binder.get(mRemote.transact(MSG_ASK1, _data, 0));
+                return _reply.getString();
             }
 
             @Override
             public Future<String> ask2(String question) throws RemoteException {
-                Promise<String> _promise = new Promise<>();
-                Parcel _data = Parcel.obtain();
+                Parcel _data = Parcel.obtain(2 + question.length());
                 _data.putString(question);
+                Promise<String> _promise = new Promise<>();
                 mRemote.transact(MSG_ASK2, _data, 0)
                         .then((parcel, exception) -> {
                             if (exception == null) {
                                 try {
-                                    String _reply = parcel.getString();
-                                    _promise.complete(_reply);
+                                    _promise.complete(parcel.getString());
                                 } catch (RemoteException e) {
                                     _promise.completeWith(e);
                                 }
@@ -157,7 +193,7 @@ public interface IEliza extends IInterface {
 
             @Override
             public void ask3(String question, IElizaListener listener) throws RemoteException {
-                Parcel _data = Parcel.obtain();
+                Parcel _data = Parcel.obtain(34 + question.length());
                 _data.putString(question);
                 _data.putBinder(mRemote, listener.asBinder());
                 mRemote.transact(MSG_ASK3, _data, FLAG_ONEWAY);
@@ -172,17 +208,14 @@ public interface IEliza extends IInterface {
     static class Proxy implements IEliza {
         private final IBinder mBinder;
         private final Stub mStub;
-        private final IEliza mProxy;
+        private volatile IEliza mProxy;
 
         Proxy(IBinder binder) {
             mBinder = binder;
             if (binder.getUri().getScheme().equals("mindroid")) {
                 mStub = (Stub) binder.queryLocalInterface(Stub.DESCRIPTOR);
-                mProxy = new Stub.Proxy(binder);
             } else {
-                mindroid.runtime.system.Runtime runtime = mindroid.runtime.system.Runtime.getRuntime();
-                mStub = (Stub) runtime.getBinder(binder.getId());
-                mProxy = (IEliza) runtime.getProxy(binder);
+                mStub = (Stub) mindroid.runtime.system.Runtime.getRuntime().getBinder(binder.getId());
             }
         }
 
@@ -211,8 +244,12 @@ public interface IEliza extends IInterface {
         public String ask1(String question) throws RemoteException {
             if (mStub != null && mStub.isCurrentThread()) {
                 return mStub.ask1(question);
+            } else if (mStub != null) {
+                Promise<String> _promise = new Promise<>(Executors.SYNCHRONOUS_EXECUTOR);
+                mStub.transact(Stub.MSG_ASK1, 0, question, null, _promise, 0);
+                return Binder.get(_promise);
             } else {
-                return mProxy.ask1(question);
+                return getProxy().ask1(question);
             }
         }
 
@@ -220,8 +257,12 @@ public interface IEliza extends IInterface {
         public Future<String> ask2(String question) throws RemoteException {
             if (mStub != null && mStub.isCurrentThread()) {
                 return mStub.ask2(question);
+            } else if (mStub != null) {
+                Promise<String> _promise = new Promise<>();
+                mStub.transact(Stub.MSG_ASK2, 0, question, null, _promise, 0);
+                return _promise;
             } else {
-                return mProxy.ask2(question);
+                return getProxy().ask2(question);
             }
         }
 
@@ -229,9 +270,24 @@ public interface IEliza extends IInterface {
         public void ask3(String question, IElizaListener listener) throws RemoteException {
             if (mStub != null && mStub.isCurrentThread()) {
                 mStub.ask3(question, IElizaListener.Stub.asInterface(listener.asBinder()));
+            } else if (mStub != null) {
+                mStub.transact(Stub.MSG_ASK3, 0, new Object[] { question, IElizaListener.Stub.asInterface(listener.asBinder()) }, null, null, IBinder.FLAG_ONEWAY);
             } else {
-                mProxy.ask3(question, listener);
+                getProxy().ask3(question, listener);
+            }
+        }
+
+        private IEliza getProxy() {
+            IEliza proxy = mProxy;
+            if (proxy == null) {
+                if (mBinder.getUri().getScheme().equals("mindroid")) {
+                    proxy = new Stub.Proxy(mBinder);
+                } else {
+                    proxy = (IEliza) mindroid.runtime.system.Runtime.getRuntime().getProxy(mBinder);
+                }
+                mProxy = proxy;
             }
+            return proxy;
         }
     }
 
@@ -16,11 +16,15 @@
 
 package examples.eliza;
 
+import java.util.concurrent.Executor;
 import mindroid.os.Binder;
+import mindroid.os.Bundle;
 import mindroid.os.IBinder;
 import mindroid.os.IInterface;
+import mindroid.os.Looper;
 import mindroid.os.Parcel;
 import mindroid.os.RemoteException;
+import mindroid.util.concurrent.Executors;
 import mindroid.util.concurrent.Future;
 import mindroid.util.concurrent.Promise;
 
@@ -32,6 +36,16 @@ public interface IElizaListener extends IInterface {
             this.attachInterface(this, DESCRIPTOR);
         }
 
+        public Stub(Looper looper) {
+            super(looper);
+            this.attachInterface(this, DESCRIPTOR);
+        }
+
+        public Stub(Executor executor) {
+            super(executor);
+            this.attachInterface(this, DESCRIPTOR);
+        }
+
         public static IElizaListener asInterface(IBinder binder) {
             if (binder == null) {
                 return null;
@@ -58,6 +72,21 @@ public interface IElizaListener extends IInterface {
             }
         }
 
+        @Override
+        @SuppressWarnings("unchecked")
+        protected void onTransact(int what, int num, Object obj, Bundle data, Promise<?> result) throws RemoteException {
+            switch (what) {
+            case MSG_ON_REPLY: {
+                String _reply = (String) obj;
+                onReply(_reply);
+                break;
+            }
+            default:
+                super.onTransact(what, num, obj, data, result);
+                break;
+            }
+        }
+
         private static class Proxy implements IElizaListener {
             private final IBinder mRemote;
 
@@ -88,7 +117,7 @@ public interface IElizaListener extends IInterface {
 
             @Override
             public void onReply(String reply) throws RemoteException {
-                Parcel _data = Parcel.obtain();
+                Parcel _data = Parcel.obtain(2 + reply.length());
                 _data.putString(reply);
                 mRemote.transact(MSG_ON_REPLY, _data, FLAG_ONEWAY);
             }
@@ -100,17 +129,14 @@ public interface IElizaListener extends IInterface {
     static class Proxy implements IElizaListener {
         private final IBinder mBinder;
         private final Stub mStub;
-        private final IElizaListener mProxy;
+        private volatile IElizaListener mProxy;
 
         Proxy(IBinder binder) {
             mBinder = binder;
             if (binder.getUri().getScheme().equals("mindroid")) {
                 mStub = (Stub) binder.queryLocalInterface(Stub.DESCRIPTOR);
-                mProxy = new Stub.Proxy(binder);
             } else {
-                mindroid.runtime.system.Runtime runtime = mindroid.runtime.system.Runtime.getRuntime();
-                mStub = (Stub) runtime.getBinder(binder.getId());
-                mProxy = (IElizaListener) runtime.getProxy(binder);
+                mStub = (Stub) mindroid.runtime.system.Runtime.getRuntime().getBinder(binder.getId());
             }
         }
 
@@ -139,9 +165,24 @@ public interface IElizaListener extends IInterface {
         public void onReply(String reply) throws RemoteException {
             if (mStub != null && mStub.isCurrentThread()) {
                 mStub.onReply(reply);
+            } else if (mStub != null) {
+                mStub.transact(Stub.MSG_ON_REPLY, 0, reply, null, null, IBinder.FLAG_ONEWAY);
             } else {
-                mProxy.onReply(reply);
+                getProxy().onReply(reply);
+            }
+        }
+
+        private IElizaListener getProxy() {
+            IElizaListener proxy = mProxy;
+            if (proxy == null) {
+                if (mBinder.getUri().getScheme().equals("mindroid")) {
+                    proxy = new Stub.Proxy(mBinder);
+                } else {
+                    proxy = (IElizaListener) mindroid.runtime.system.Runtime.getRuntime().getProxy(mBinder);
+                }
+                mProxy = proxy;
             }
+            return proxy;
         }
     }
 
@@ -27,6 +27,7 @@ import mindroid.os.Looper;
 import mindroid.os.RemoteException;
 import mindroid.os.ServiceManager;
 import mindroid.util.Log;
+import mindroid.util.concurrent.Promise;
 import mindroid.util.logging.Logger;
 import mindroid.runtime.system.Runtime;
 
@@ -66,7 +67,7 @@ public class Main {
         Environment.setRootDirectory(rootDir);
 
         File file = new File(Environment.getRootDirectory(), "res/MindroidRuntimeSystem.xml");
-        Runtime.start(nodeId, file.exists() ? file : null);
+        Promise<Void> runtimeStartup = Runtime.start(nodeId, file.exists() ? file : null);
 
         ServiceManager serviceManager = new ServiceManager();
         serviceManager.start();
@@ -77,6 +78,12 @@ public class Main {
             throw new RuntimeException("System failure");
         }
 
+        try {
+            runtimeStartup.get();
+        } catch (Exception e) {
+            Log.println('E', LOG_TAG, "Failed to start Mindroid runtime system", e);
+        }
+
         try {
             startServices();
         } catch (Exception e) {
@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2018 E.S.R.Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package mindroid.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * An {@link InputStream} over data of a known size that arrives in chunks.
+ *
+ * <p>
+ * The producer appends the chunks using {@link #append(ByteBuffer)} while the consumer reads them
+ * either as a stream or as a sequence of {@link ByteBuffer}s using {@link #nextChunk()}. Reads block
+ * until data is available. If the producer fails, all subsequent reads throw the cause of the failure.
+ *
+ * <p>
+ * Subclasses may override {@link #onConsumed(int)} to learn when buffered data has been drained,
+ * e.g. to let the producer send more chunks.
+ */
+public class ChunkedInputStream extends InputStream {
+    private final int mSize;
+    private final ArrayDeque<ByteBuffer> mChunks = new ArrayDeque<>();
+    private int mAppendedBytes = 0;
+    private int mRemainingBytes;
+    private IOException mException;
+    private boolean mClosed = false;
+
+    /**
+     * Creates a stream.
+     *
+     * @param size The total number of bytes of all chunks.
+     */
+    public ChunkedInputStream(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("size < 0");
+        }
+        mSize = size;
+        mRemainingBytes = size;
+    }
+
+    /**
+     * Returns the total number of bytes of all chunks.
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Appends a chunk. The stream takes ownership of the buffer.
+     *
+     * @throws IOException if the chunk exceeds the size of the stream.
+     */
+    public void append(ByteBuffer chunk) throws IOException {
+        int size = chunk.remaining();
+        boolean discarded;
+        synchronized (this) {
+            if (size > mSize - mAppendedBytes) {
+                throw new IOException("Chunk exceeds stream size");
+            }
+            mAppendedBytes += size;
+            discarded = mClosed;
+            if (!mClosed && size > 0) {
+                mChunks.add(chunk);
+                notifyAll();
+            }
+        }
+        if (discarded && size > 0) {
+            onConsumed(size);
+        }
+    }
+
+    /**
+     * Returns true if all chunks have been appended.
+     */
+    public synchronized boolean isComplete() {
+        return mAppendedBytes == mSize;
+    }
+
+    /**
+     * Fails the stream. Reads of data that has not been appended yet throw {@code cause}.
+     */
+    public synchronized void fail(IOException cause) {
+        if (mException == null && mAppendedBytes < mSize) {
+            mException = cause;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Returns the next chunk or the remaining part of the chunk that is currently being read.
+     * Blocks until the chunk is available.
+     *
+     * @return The chunk or null at the end of the stream.
+     */
+    public ByteBuffer nextChunk() throws IOException {
+        ByteBuffer chunk;
+        synchronized (this) {
+            chunk = awaitChunk();
+            if (chunk != null) {
+                mChunks.poll();
+                mRemainingBytes -= chunk.remaining();
+            }
+        }
+        if (chunk != null) {
+            onConsumed(chunk.remaining());
+        }
+        return chunk;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int value;
+        synchronized (this) {
+            ByteBuffer chunk = awaitChunk();
+            if (chunk == null) {
+                return -1;
+            }
+            value = chunk.get() & 0xFF;
+            consumed(chunk, 1);
+        }
+        onConsumed(1);
+        return value;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) throws IOException {
+        if (buffer == null) {
+            throw new NullPointerException();
+        } else if ((offset < 0) || (count < 0) || ((offset + count) > buffer.length)) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (count == 0) {
+            return 0;
+        }
+        synchronized (this) {
+            ByteBuffer chunk = awaitChunk();
+            if (chunk == null) {
+                return -1;
+            }
+            count = Math.min(count, chunk.remaining());
+            chunk.get(buffer, offset, count);
+            consumed(chunk, count);
+        }
+        onConsumed(count);
+        return count;
+    }
+
+    @Override
+    public long skip(long count) throws IOException {
+        long skipped = 0;
+        while (skipped < count) {
+            int size;
+            synchronized (this) {
+                ByteBuffer chunk = awaitChunk();
+                if (chunk == null) {
+                    break;
+                }
+                size = (int) Math.min(count - skipped, chunk.remaining());
+                chunk.position(chunk.position() + size);
+                consumed(chunk, size);
+            }
+            onConsumed(size);
+            skipped += size;
+        }
+        return skipped;
+    }
+
+    /**
+     * Returns the number of bytes that can be read without blocking.
+     */
+    @Override
+    public synchronized int available() {
+        int available = 0;
+        for (ByteBuffer chunk : mChunks) {
+            available += chunk.remaining();
+        }
+        return available;
+    }
+
+    /**
+     * Closes the stream and discards all chunks that have not been read.
+     */
+    @Override
+    public void close() {
+        int discarded = 0;
+        synchronized (this) {
+            if (!mClosed) {
+                mClosed = true;
+                for (ByteBuffer chunk : mChunks) {
+                    discarded += chunk.remaining();
+                }
+                mChunks.clear();
+                notifyAll();
+            }
+        }
+        if (discarded > 0) {
+            onConsumed(discarded);
+        }
+    }
+
+    /**
+     * Called when {@code count} bytes have been read, skipped or discarded. Appended data that is discarded
+     * because the stream has been closed is reported as well. The method is called without holding the lock
+     * of the stream.
+     */
+    protected void onConsumed(int count) {
+    }
+
+    private ByteBuffer awaitChunk() throws IOException {
+        while (true) {
+            if (mClosed) {
+                throw new IOException("Stream closed");
+            }
+            ByteBuffer chunk = mChunks.peek();
+            if (chunk != null) {
+                return chunk;
+            }
+            if (mRemainingBytes == 0) {
+                return null;
+            }
+            if (mException != null) {
+                throw mException;
+            }
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+    }
+
+    private void consumed(ByteBuffer chunk, int count) {
+        mRemainingBytes -= count;
+        if (!chunk.hasRemaining()) {
+            mChunks.poll();
+        }
+    }
+}
@@ -18,20 +18,17 @@
 package mindroid.os;
 
 import java.util.ArrayDeque;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.FutureTask;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
 import mindroid.util.Log;
+import mindroid.util.concurrent.ThreadPool;
 
 /**
  * <p>AsyncTask enables proper and easy use of the UI thread. This class allows to
@@ -167,28 +164,11 @@ import mindroid.util.Log;
 public abstract class AsyncTask<Params, Progress, Result> {
     private static final String LOG_TAG = "AsyncTask";
 
-    private static final int CPU_COUNT = Runtime.getRuntime().availableProcessors();
-    private static final int CORE_POOL_SIZE = CPU_COUNT + 1;
-    private static final int MAXIMUM_POOL_SIZE = CPU_COUNT * 2 + 1;
-    private static final int KEEP_ALIVE = 1;
-    
-    private static final ThreadFactory sThreadFactory = new ThreadFactory() {
-        private final AtomicInteger mCount = new AtomicInteger(1);
-
-        public Thread newThread(Runnable r) {
-            Thread t = new Thread(r, "AsyncTask #" + mCount.getAndIncrement());
-            t.setPriority(Thread.MIN_PRIORITY);
-            return t;
-        }
-    };
-
-    private static final BlockingQueue<Runnable> sPoolWorkQueue = new LinkedBlockingQueue<Runnable>(128);
-    
     /**
      * An {@link Executor} that can be used to execute tasks in parallel.
+     * The pool is configured by the {@code THREAD_POOL_*} {@link mindroid.util.Properties} using the pool name "AsyncTask".
      */
-    public static final Executor THREAD_POOL_EXECUTOR = new ThreadPoolExecutor(CORE_POOL_SIZE, MAXIMUM_POOL_SIZE, KEEP_ALIVE,
-            TimeUnit.SECONDS, sPoolWorkQueue, sThreadFactory);
+    public static final ThreadPool THREAD_POOL_EXECUTOR = ThreadPool.create("AsyncTask", Thread.MIN_PRIORITY);
 
     /**
      * An {@link Executor} that executes tasks one at a time in serial
@@ -23,9 +23,18 @@ import mindroid.util.concurrent.ExecutionException;
 import mindroid.util.concurrent.Executors;
 import mindroid.util.concurrent.Promise;
 import mindroid.util.concurrent.TimeoutException;
+import mindroid.util.metrics.Counter;
+import mindroid.util.metrics.Metrics;
+import mindroid.util.tracing.Span;
+import mindroid.util.tracing.TraceContext;
+import mindroid.runtime.system.Plugin;
 import mindroid.runtime.system.Runtime;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.Executor;
 import java.util.concurrent.RejectedExecutionException;
@@ -47,12 +56,26 @@ public class Binder implements IBinder {
     private static final int LIGHTWEIGHT_TRANSACTION = 2;
     private static final String EXCEPTION_MESSAGE = "Binder transaction failure";
     private static final ThreadLocal<Integer> sCallingPid = new ThreadLocal<>();
+    // Parcel extras that carry the trace context of remote transactions.
+    private static final String TRACE_ID = "traceId";
+    private static final String SPAN_ID = "spanId";
+    private static final String PARENT_SPAN_ID = "parentSpanId";
+    // The time in milliseconds until the deadline of the trace when the transaction was sent.
+    private static final String REMAINING_TIME = "remainingTime";
+    private static final String TIMEOUT = "timeout";
+    // Transactions of binders without an interface.
+    private static final Counter TRANSACTIONS = Metrics.counter("binder.transactions");
+    private static final Counter FAILURES = Metrics.counter("binder.failures");
     private final Runtime mRuntime;
     private final IMessenger mTarget;
     private long mId;
     private IInterface mOwner;
     private String mDescriptor;
     private URI mUri;
+    private Counter mTransactions = TRANSACTIONS;
+    private Counter mFailures = FAILURES;
+    // The representation of the binder in parcels, see Parcel#putBinder.
+    volatile Parcel.BinderUri mBinderUri;
 
     public Binder() {
         mRuntime = Runtime.getRuntime();
@@ -81,21 +104,14 @@ public class Binder implements IBinder {
         mId = binder.mId;
         if (binder.mTarget instanceof Messenger) {
             mTarget = new Messenger(((Messenger) binder.mTarget).mHandler.mLooper);
+        } else if (binder.mTarget instanceof ExecutorMessenger) {
+            mTarget = new ExecutorMessenger(((ExecutorMessenger) binder.mTarget).mExecutor);
         } else {
             mTarget = binder.mTarget;
         }
         setCallingPid(Process.myPid());
     }
 
-    @Override
-    protected void finalize() throws Throwable {
-        try {
-            mRuntime.detachBinder(mId, mUri);
-        } finally {
-            super.finalize();
-        }
-    }
-
     @Override
     public final long getId() {
         return mId & 0xFFFFFFFFL;
@@ -114,6 +130,9 @@ public class Binder implements IBinder {
     public void attachInterface(IInterface owner, String descriptor) {
         mOwner = owner;
         mDescriptor = descriptor;
+        mTransactions = Metrics.counter("binder.transactions", descriptor);
+        mFailures = Metrics.counter("binder.failures", descriptor);
+        mBinderUri = null;
 
         try {
             URI uri = new URI(mDescriptor);
@@ -211,6 +230,7 @@ public class Binder implements IBinder {
         message.arg1 = what;
         message.obj = data;
         message.sendingPid = Process.myPid();
+        message.span = newSpan(what, getTraceContext(data));
         Promise<Parcel> promise;
         if ((flags & FLAG_ONEWAY) != 0 && (flags & (FLAG_ONEWAY_WITH_EXCEPTION_HANDLING ^ FLAG_ONEWAY)) == 0) {
             message.result = null;
@@ -223,6 +243,7 @@ public class Binder implements IBinder {
             });
         }
         if (!mTarget.send(message)) {
+            mFailures.increment();
             throw new RemoteException(EXCEPTION_MESSAGE);
         }
         return promise;
@@ -238,14 +259,32 @@ public class Binder implements IBinder {
         message.setData(data);
         message.result = promise;
         message.sendingPid = Process.myPid();
+        message.span = newSpan(what, getTraceContext(null));
         if (!mTarget.send(message)) {
+            mFailures.increment();
             throw new RemoteException(EXCEPTION_MESSAGE);
         }
     }
 
     private final void onTransact(final Message message) {
         final int origPid = setCallingPid(message.sendingPid);
+        final Span span = message.span;
+        final Promise<?> result = message.result;
+        TraceContext origContext = null;
+        if (span != null) {
+            span.onDispatch();
+            if (result != null) {
+                result.then(Executors.SYNCHRONOUS_EXECUTOR, (value, exception) -> {
+                    span.end(exception);
+                });
+            }
+            origContext = TraceContext.setCurrent(span.getContext());
+        }
+        mTransactions.increment();
         try {
+            if (span != null && span.getContext().isExpired()) {
+                throw new RemoteException(EXCEPTION_MESSAGE + ": Deadline exceeded");
+            }
             switch (message.what) {
             case TRANSACTION:
                 onTransact(message.arg1, (Parcel) message.obj, (Promise<Parcel>) message.result);
@@ -257,6 +296,7 @@ public class Binder implements IBinder {
                 break;
             }
         } catch (RemoteException e) {
+            mFailures.increment();
             Throwable caughtException = checkException(e);
             if (message.result != null) {
                 message.result.completeWith(caughtException);
@@ -264,6 +304,7 @@ public class Binder implements IBinder {
                 Log.w(LOG_TAG, EXCEPTION_MESSAGE, e);
             }
         } catch (RuntimeException e) {
+            mFailures.increment();
             Throwable caughtException = checkException(e);
             if (message.result != null) {
                 message.result.completeWith(caughtException);
@@ -272,10 +313,39 @@ public class Binder implements IBinder {
             }
         } finally {
             message.result = null;
+            message.span = null;
+            if (span != null) {
+                if (result == null) {
+                    span.end(null);
+                }
+                TraceContext.setCurrent(origContext);
+            }
             setCallingPid(origPid);
         }
     }
 
+    /**
+     * Returns the trace context of a transaction, which is a new span of either the client span carried
+     * by the parcel of a remote transaction or the trace of the calling thread.
+     */
+    private static TraceContext getTraceContext(Parcel data) {
+        if (data != null && data.hasExtra(TRACE_ID)) {
+            long deadline = data.hasExtra(REMAINING_TIME)
+                    ? SystemClock.uptimeMillis() + data.getLongExtra(REMAINING_TIME, 0) : TraceContext.NO_DEADLINE;
+            return new TraceContext(data.getLongExtra(TRACE_ID, 0), data.getLongExtra(SPAN_ID, 0),
+                    data.getLongExtra(PARENT_SPAN_ID, 0), deadline).newChild();
+        }
+        TraceContext context = TraceContext.current();
+        return (context != null) ? context.newChild() : null;
+    }
+
+    private Span newSpan(int what, TraceContext context) {
+        if (context == null) {
+            return null;
+        }
+        return new Span(context, Span.SERVER, ((mDescriptor != null) ? mDescriptor : "binder") + "#" + what);
+    }
+
     private final Throwable checkException(Exception e) throws RuntimeException {
         Throwable caughtException = null;
         if (e instanceof SecurityException) {
@@ -433,6 +503,139 @@ public class Binder implements IBinder {
         }
     }
 
+    /**
+     * A batch collects the remote transactions issued by the current thread and sends all
+     * transactions to the same remote node within a single message when the batch is flushed or
+     * closed. The results are delivered through the promises returned by the proxies, as usual.
+     *
+     * <pre>
+     * try (Binder.Batch batch = Binder.Batch.begin()) {
+     *     Future&lt;String&gt; reply1 = eliza.ask2("Hello");
+     *     Future&lt;String&gt; reply2 = eliza.ask2("How are you?");
+     * }
+     * </pre>
+     *
+     * Blocking on a result (e.g. by calling a synchronous interface method or {@link Promise#get()})
+     * flushes the current batch first. Batches may be nested, the innermost batch is the current
+     * one. Flushing a nested batch flushes the enclosing batches first, so transactions are sent in
+     * the order in which they were issued. Nested batches must be closed before their enclosing
+     * batch.
+     */
+    public static final class Batch implements AutoCloseable {
+        private static final int MAX_BATCH_SIZE = 64;
+        private static final ThreadLocal<Batch> sCurrentBatch = new ThreadLocal<>();
+        private final Batch mParent;
+        private final Thread mThread;
+        private Map<Plugin, List<Plugin.Transaction>> mTransactions = new LinkedHashMap<>();
+        private int mSize = 0;
+        private boolean mClosed = false;
+
+        private Batch() {
+            mParent = sCurrentBatch.get();
+            mThread = Thread.currentThread();
+            sCurrentBatch.set(this);
+        }
+
+        /**
+         * Begins a new batch on the current thread.
+         */
+        public static Batch begin() {
+            return new Batch();
+        }
+
+        /**
+         * Returns the current batch of the calling thread or null.
+         */
+        public static Batch currentBatch() {
+            return sCurrentBatch.get();
+        }
+
+        /** @hide */
+        public static void flushCurrentBatch() {
+            Batch batch = sCurrentBatch.get();
+            if (batch != null) {
+                batch.flush();
+            }
+        }
+
+        /** @hide */
+        public Promise<Parcel> add(Plugin plugin, IBinder binder, int what, Parcel data, int flags) throws RemoteException {
+            if (mClosed) {
+                throw new RemoteException(EXCEPTION_MESSAGE + ": Batch is closed");
+            }
+            Promise<Parcel> result = ((flags & FLAG_ONEWAY) != 0) ? null : new Promise<>(Executors.SYNCHRONOUS_EXECUTOR);
+            List<Plugin.Transaction> transactions = mTransactions.get(plugin);
+            if (transactions == null) {
+                transactions = new ArrayList<>();
+                mTransactions.put(plugin, transactions);
+            }
+            transactions.add(new Plugin.Transaction(binder, what, data, flags, result));
+            if (++mSize >= MAX_BATCH_SIZE) {
+                flush();
+            }
+            return result;
+        }
+
+        public int size() {
+            return mSize;
+        }
+
+        /**
+         * Sends all collected transactions.
+         */
+        public void flush() {
+            if (mParent != null) {
+                mParent.flush();
+            }
+            if (mSize == 0) {
+                return;
+            }
+            Map<Plugin, List<Plugin.Transaction>> transactions = mTransactions;
+            mTransactions = new LinkedHashMap<>();
+            mSize = 0;
+            for (Map.Entry<Plugin, List<Plugin.Transaction>> entry : transactions.entrySet()) {
+                try {
+                    entry.getKey().transact(entry.getValue());
+                } catch (RemoteException e) {
+                    for (Plugin.Transaction transaction : entry.getValue()) {
+                        if (transaction.result != null) {
+                            transaction.result.completeWith(e);
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Flushes the batch and ends it.
+         *
+         * @throws IllegalStateException if the batch is closed by another thread or while a nested
+         * batch is still open.
+         */
+        @Override
+        public void close() {
+            if (mClosed) {
+                return;
+            }
+            if (Thread.currentThread() != mThread) {
+                throw new IllegalStateException("A batch must be closed by the thread that began it");
+            }
+            if (sCurrentBatch.get() != this) {
+                throw new IllegalStateException("A batch must not be closed before its nested batches");
+            }
+            try {
+                flush();
+            } finally {
+                mClosed = true;
+                if (mParent != null) {
+                    sCurrentBatch.set(mParent);
+                } else {
+                    sCurrentBatch.remove();
+                }
+            }
+        }
+    }
+
     public static final class Proxy implements IBinder {
         private static final String EXCEPTION_MESSAGE = "Binder transaction failure";
         private volatile Runtime mRuntime;
@@ -440,6 +643,7 @@ public class Binder implements IBinder {
         private long mId;
         private String mDescriptor;
         private URI mUri;
+        volatile Parcel.BinderUri mBinderUri;
 
         public Proxy(URI uri) throws IllegalArgumentException {
             if (uri == null) {
@@ -471,15 +675,6 @@ public class Binder implements IBinder {
             mProxyId = mRuntime.attachProxy(this);
         }
 
-        @Override
-        protected void finalize() throws Throwable {
-            try {
-                dispose();
-            } finally {
-                super.finalize();
-            }
-        }
-
         @Override
         public long getId() {
             return mId;
@@ -503,15 +698,52 @@ public class Binder implements IBinder {
         @Override
         public Promise<Parcel> transact(int what, Parcel data, int flags) throws RemoteException {
             final Runtime runtime = mRuntime;
-            if (runtime != null) {
+            if (runtime == null) {
+                throw new RemoteException(EXCEPTION_MESSAGE + ": Invalid proxy");
+            }
+            final TraceContext context = TraceContext.current();
+            if (context == null || data == null) {
                 return runtime.transact(this, what, data, flags);
+            }
+            if (context.isExpired()) {
+                throw new RemoteException(EXCEPTION_MESSAGE + ": Deadline exceeded");
+            }
+            final Span span = new Span(context.newChild(), Span.CLIENT, mDescriptor + "#" + what);
+            putTraceContext(data, span.getContext());
+            final Promise<Parcel> promise;
+            try {
+                promise = runtime.transact(this, what, data, flags);
+            } catch (RemoteException e) {
+                span.end(e);
+                throw e;
+            }
+            if (promise != null) {
+                promise.then(Executors.SYNCHRONOUS_EXECUTOR, (value, exception) -> {
+                    span.end(exception);
+                });
             } else {
-                throw new RemoteException(EXCEPTION_MESSAGE + ": Invalid proxy");
+                span.end(null);
+            }
+            return promise;
+        }
+
+        private static void putTraceContext(Parcel data, TraceContext context) {
+            data.putExtra(TRACE_ID, context.getTraceId());
+            data.putExtra(SPAN_ID, context.getSpanId());
+            data.putExtra(PARENT_SPAN_ID, context.getParentSpanId());
+            if (context.hasDeadline()) {
+                // The clocks of the nodes are not synchronized, so the deadline is sent relative to now.
+                long remainingTime = context.getRemainingTime();
+                data.putExtra(REMAINING_TIME, remainingTime);
+                // Do not wait for the result beyond the deadline.
+                if (!data.hasExtra(TIMEOUT)) {
+                    data.putExtra(TIMEOUT, Math.max(1, remainingTime));
+                }
             }
         }
 
         public void transact(int what, int num, Object obj, Bundle data, Promise<?> promise, int flags) throws RemoteException {
-            throw new RemoteException(EXCEPTION_MESSAGE);
+            throw new RemoteException(EXCEPTION_MESSAGE + ": Lightweight transactions require a local binder");
         }
 
         @Override
@@ -579,6 +811,7 @@ public class Binder implements IBinder {
         }
 
         private void setId(URI uri) {
+            mBinderUri = null;
             String authority = uri.getAuthority();
             String[] parts = authority.split("\\.");
             if (parts.length == 2) {
@@ -598,6 +831,7 @@ public class Binder implements IBinder {
     /** @hide */
     public void setId(long id) {
         mId = id;
+        mBinderUri = null;
         mUri = URI.create(mUri.getScheme() + "://" + String.valueOf((int) ((mId >> 32) & 0xFFFFFFFFL)) + "." + String.valueOf((int) (mId & 0xFFFFFFFFL)));
     }
 }
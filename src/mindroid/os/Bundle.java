@@ -17,21 +17,25 @@
 
 package mindroid.os;
 
+import java.util.AbstractSet;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 /**
  * A mapping from String values to various types.
  *
+ * <p>
+ * Primitive values are stored unboxed. Copies of a Bundle share their mappings until one of them is modified.
  */
 public final class Bundle {
-    private HashMap<String, Object> mMap;
+    private BundleMap mMap;
 
     public Bundle() {
-        mMap = new HashMap<>();
+        mMap = new BundleMap();
     }
 
     /**
@@ -40,14 +44,7 @@ public final class Bundle {
      * @param other a Bundle to be copied.
      */
     public Bundle(Bundle other) {
-        mMap = new HashMap<>();
-        Iterator<Map.Entry<String, Object>> itr = other.mMap.entrySet().iterator();
-        while (itr.hasNext()) {
-            Map.Entry<String, Object> entry = itr.next();
-            String key = entry.getKey();
-            Object value = entry.getValue();
-            mMap.put(key, value);
-        }
+        mMap = other.mMap.share();
     }
 
     /**
@@ -62,7 +59,11 @@ public final class Bundle {
      * Removes all elements from the mapping of this Bundle.
      */
     public void clear() {
-        mMap.clear();
+        if (mMap.isShared()) {
+            mMap = new BundleMap();
+        } else {
+            mMap.clear();
+        }
     }
 
     /**
@@ -78,7 +79,7 @@ public final class Bundle {
      * Returns true if the mapping of this Bundle is empty, false otherwise.
      */
     public boolean isEmpty() {
-        return mMap.isEmpty();
+        return mMap.size() == 0;
     }
 
     /**
@@ -88,16 +89,17 @@ public final class Bundle {
      * @return true if the key is part of the mapping, false otherwise
      */
     public boolean containsKey(String key) {
-        return mMap.containsKey(key);
+        return mMap.indexOf(key) >= 0;
     }
 
     /**
-     * Returns a Set containing the Strings used as keys in this Bundle.
+     * Returns a Set containing the Strings used as keys in this Bundle. Removing a key from the set
+     * removes its mapping from this Bundle.
      *
      * @return a Set of String keys
      */
     public Set<String> keySet() {
-        return mMap.keySet();
+        return new KeySet();
     }
 
     /**
@@ -116,7 +118,9 @@ public final class Bundle {
      * @param key a String key
      */
     public void remove(String key) {
-        mMap.remove(key);
+        if (mMap.indexOf(key) >= 0) {
+            mutableMap().remove(key);
+        }
     }
 
     /**
@@ -125,8 +129,12 @@ public final class Bundle {
      * @param bundle a Bundle
      */
     public void putAll(Bundle bundle) {
-        if (bundle != null) {
-            mMap.putAll(bundle.mMap);
+        if (bundle != null && bundle.mMap != mMap) {
+            if (mMap.size() == 0) {
+                mMap = bundle.mMap.share();
+            } else {
+                mutableMap().putAll(bundle.mMap);
+            }
         }
     }
 
@@ -138,7 +146,7 @@ public final class Bundle {
      * @param value a Boolean, or null
      */
     public void putBoolean(String key, boolean value) {
-        mMap.put(key, new Boolean(value));
+        mutableMap().putValue(key, BundleMap.TYPE_BOOLEAN, value ? 1 : 0);
     }
 
     /**
@@ -149,7 +157,7 @@ public final class Bundle {
      * @param value a byte
      */
     public void putByte(String key, byte value) {
-        mMap.put(key, new Byte(value));
+        mutableMap().putValue(key, BundleMap.TYPE_BYTE, value);
     }
 
     /**
@@ -160,7 +168,7 @@ public final class Bundle {
      * @param value a char, or null
      */
     public void putChar(String key, char value) {
-        mMap.put(key, new Character(value));
+        mutableMap().putValue(key, BundleMap.TYPE_CHAR, value);
     }
 
     /**
@@ -171,7 +179,7 @@ public final class Bundle {
      * @param value a short
      */
     public void putShort(String key, short value) {
-        mMap.put(key, new Short(value));
+        mutableMap().putValue(key, BundleMap.TYPE_SHORT, value);
     }
 
     /**
@@ -182,7 +190,7 @@ public final class Bundle {
      * @param value an int, or null
      */
     public void putInt(String key, int value) {
-        mMap.put(key, new Integer(value));
+        mutableMap().putValue(key, BundleMap.TYPE_INT, value);
     }
 
     /**
@@ -193,7 +201,7 @@ public final class Bundle {
      * @param value a long
      */
     public void putLong(String key, long value) {
-        mMap.put(key, new Long(value));
+        mutableMap().putValue(key, BundleMap.TYPE_LONG, value);
     }
 
     /**
@@ -204,7 +212,7 @@ public final class Bundle {
      * @param value a float
      */
     public void putFloat(String key, float value) {
-        mMap.put(key, new Float(value));
+        mutableMap().putValue(key, BundleMap.TYPE_FLOAT, Float.floatToRawIntBits(value));
     }
 
     /**
@@ -215,7 +223,7 @@ public final class Bundle {
      * @param value a double
      */
     public void putDouble(String key, double value) {
-        mMap.put(key, new Double(value));
+        mutableMap().putValue(key, BundleMap.TYPE_DOUBLE, Double.doubleToRawLongBits(value));
     }
 
     /**
@@ -227,7 +235,7 @@ public final class Bundle {
      */
     public void putString(String key, String value) {
         if (value != null) {
-            mMap.put(key, value);
+            mutableMap().put(key, value);
         }
     }
 
@@ -240,7 +248,7 @@ public final class Bundle {
      */
     public void putObject(String key, Object value) {
         if (value != null) {
-            mMap.put(key, value);
+            mutableMap().put(key, value);
         }
     }
 
@@ -253,7 +261,7 @@ public final class Bundle {
      */
     public void putBooleanArray(String key, boolean[] value) {
         if (value != null) {
-            mMap.put(key, value);
+            mutableMap().put(key, value);
         }
     }
 
@@ -266,7 +274,7 @@ public final class Bundle {
      */
     public void putByteArray(String key, byte[] value) {
         if (value != null) {
-            mMap.put(key, value);
+            mutableMap().put(key, value);
         }
     }
 
@@ -279,7 +287,7 @@ public final class Bundle {
      */
     public void putShortArray(String key, short[] value) {
         if (value != null) {
-            mMap.put(key, value);
+            mutableMap().put(key, value);
         }
     }
 
@@ -292,7 +300,7 @@ public final class Bundle {
      */
     public void putCharArray(String key, char[] value) {
         if (value != null) {
-            mMap.put(key, value);
+            mutableMap().put(key, value);
         }
     }
 
@@ -305,7 +313,7 @@ public final class Bundle {
      */
     public void putIntArray(String key, int[] value) {
         if (value != null) {
-            mMap.put(key, value);
+            mutableMap().put(key, value);
         }
     }
 
@@ -318,7 +326,7 @@ public final class Bundle {
      */
     public void putLongArray(String key, long[] value) {
         if (value != null) {
-            mMap.put(key, value);
+            mutableMap().put(key, value);
         }
     }
 
@@ -331,7 +339,7 @@ public final class Bundle {
      */
     public void putFloatArray(String key, float[] value) {
         if (value != null) {
-            mMap.put(key, value);
+            mutableMap().put(key, value);
         }
     }
 
@@ -344,7 +352,7 @@ public final class Bundle {
      */
     public void putDoubleArray(String key, double[] value) {
         if (value != null) {
-            mMap.put(key, value);
+            mutableMap().put(key, value);
         }
     }
 
@@ -357,7 +365,7 @@ public final class Bundle {
      */
     public void putStringArray(String key, String[] value) {
         if (value != null) {
-            mMap.put(key, value);
+            mutableMap().put(key, value);
         }
     }
 
@@ -370,7 +378,7 @@ public final class Bundle {
      */
     public void putIntegerArrayList(String key, ArrayList<Integer> value) {
         if (value != null) {
-            mMap.put(key, value);
+            mutableMap().put(key, value);
         }
     }
 
@@ -383,7 +391,7 @@ public final class Bundle {
      */
     public void putStringArrayList(String key, ArrayList<String> value) {
         if (value != null) {
-            mMap.put(key, value);
+            mutableMap().put(key, value);
         }
     }
 
@@ -396,7 +404,7 @@ public final class Bundle {
      */
     public void putBundle(String key, Bundle value) {
         if (value != null) {
-            mMap.put(key, value);
+            mutableMap().put(key, value);
         }
     }
 
@@ -417,7 +425,7 @@ public final class Bundle {
      */
     public void putBinder(String key, IBinder value) {
         if (value != null) {
-            mMap.put(key, value);
+            mutableMap().put(key, value);
         }
     }
 
@@ -441,15 +449,7 @@ public final class Bundle {
      * @return a boolean value
      */
     public boolean getBoolean(String key, boolean defaultValue) {
-        Object o = mMap.get(key);
-        if (o == null) {
-            return defaultValue;
-        }
-        try {
-            return ((Boolean) o).booleanValue();
-        } catch (ClassCastException e) {
-            return defaultValue;
-        }
+        return mMap.getValue(key, BundleMap.TYPE_BOOLEAN, defaultValue ? 1 : 0) != 0;
     }
 
     /**
@@ -472,15 +472,7 @@ public final class Bundle {
      * @return a byte value
      */
     public byte getByte(String key, byte defaultValue) {
-        Object o = mMap.get(key);
-        if (o == null) {
-            return defaultValue;
-        }
-        try {
-            return ((Byte) o).byteValue();
-        } catch (ClassCastException e) {
-            return defaultValue;
-        }
+        return (byte) mMap.getValue(key, BundleMap.TYPE_BYTE, defaultValue);
     }
 
     /**
@@ -503,15 +495,7 @@ public final class Bundle {
      * @return a char value
      */
     public char getChar(String key, char defaultValue) {
-        Object o = mMap.get(key);
-        if (o == null) {
-            return defaultValue;
-        }
-        try {
-            return ((Character) o).charValue();
-        } catch (ClassCastException e) {
-            return defaultValue;
-        }
+        return (char) mMap.getValue(key, BundleMap.TYPE_CHAR, defaultValue);
     }
 
     /**
@@ -534,15 +518,7 @@ public final class Bundle {
      * @return a short value
      */
     public short getShort(String key, short defaultValue) {
-        Object o = mMap.get(key);
-        if (o == null) {
-            return defaultValue;
-        }
-        try {
-            return ((Short) o).shortValue();
-        } catch (ClassCastException e) {
-            return defaultValue;
-        }
+        return (short) mMap.getValue(key, BundleMap.TYPE_SHORT, defaultValue);
     }
 
     /**
@@ -565,15 +541,7 @@ public final class Bundle {
      * @return an int value
      */
     public int getInt(String key, int defaultValue) {
-        Object o = mMap.get(key);
-        if (o == null) {
-            return defaultValue;
-        }
-        try {
-            return ((Integer) o).intValue();
-        } catch (ClassCastException e) {
-            return defaultValue;
-        }
+        return (int) mMap.getValue(key, BundleMap.TYPE_INT, defaultValue);
     }
 
     /**
@@ -596,15 +564,7 @@ public final class Bundle {
      * @return a long value
      */
     public long getLong(String key, long defaultValue) {
-        Object o = mMap.get(key);
-        if (o == null) {
-            return defaultValue;
-        }
-        try {
-            return ((Long) o).longValue();
-        } catch (ClassCastException e) {
-            return defaultValue;
-        }
+        return mMap.getValue(key, BundleMap.TYPE_LONG, defaultValue);
     }
 
     /**
@@ -627,15 +587,8 @@ public final class Bundle {
      * @return a float value
      */
     public float getFloat(String key, float defaultValue) {
-        Object o = mMap.get(key);
-        if (o == null) {
-            return defaultValue;
-        }
-        try {
-            return ((Float) o).floatValue();
-        } catch (ClassCastException e) {
-            return defaultValue;
-        }
+        long value = mMap.getValue(key, BundleMap.TYPE_FLOAT, Float.floatToRawIntBits(defaultValue));
+        return Float.intBitsToFloat((int) value);
     }
 
     /**
@@ -658,15 +611,8 @@ public final class Bundle {
      * @return a double value
      */
     public double getDouble(String key, double defaultValue) {
-        Object o = mMap.get(key);
-        if (o == null) {
-            return defaultValue;
-        }
-        try {
-            return ((Double) o).doubleValue();
-        } catch (ClassCastException e) {
-            return defaultValue;
-        }
+        long value = mMap.getValue(key, BundleMap.TYPE_DOUBLE, Double.doubleToRawLongBits(defaultValue));
+        return Double.longBitsToDouble(value);
     }
 
     /**
@@ -995,7 +941,13 @@ public final class Bundle {
      * @throws NullPointerException
      */
     public Map<String, ?> getAll() {
-        return new HashMap<>(mMap);
+        HashMap<String, Object> map = new HashMap<>();
+        for (int i = 0; i < mMap.capacity(); i++) {
+            if (mMap.typeAt(i) != BundleMap.TYPE_NONE) {
+                map.put(mMap.keyAt(i), mMap.valueAt(i));
+            }
+        }
+        return map;
     }
 
     /** @hide */
@@ -1018,26 +970,103 @@ public final class Bundle {
      * @hide
      */
     public void retainBasicTypes() {
-        if (mMap != null) {
-            Iterator<Map.Entry<String, Object>> itr = mMap.entrySet().iterator();
-            while (itr.hasNext()) {
-                Map.Entry<String, Object> entry = itr.next();
-                Object value = entry.getValue();
-
-                if (isBasicType(value)) {
-                    continue;
-                }
+        int i = 0;
+        while (i < mMap.capacity()) {
+            if (mMap.typeAt(i) == BundleMap.TYPE_OBJECT) {
+                Object value = mMap.valueAt(i);
                 if (value instanceof Bundle) {
                     ((Bundle) value).retainBasicTypes();
+                } else if (!isBasicType(value)) {
+                    // Removal may move another entry into this slot.
+                    mutableMap().removeAt(i);
                     continue;
                 }
-                itr.remove();
             }
+            i++;
         }
     }
 
     @Override
     public String toString() {
-        return mMap.toString();
+        StringBuilder sb = new StringBuilder();
+        sb.append('{');
+        for (int i = 0; i < mMap.capacity(); i++) {
+            if (mMap.typeAt(i) != BundleMap.TYPE_NONE) {
+                if (sb.length() > 1) {
+                    sb.append(", ");
+                }
+                Object value = mMap.valueAt(i);
+                sb.append(mMap.keyAt(i)).append('=').append(value == this ? "(this Bundle)" : value);
+            }
+        }
+        return sb.append('}').toString();
+    }
+
+    private BundleMap mutableMap() {
+        if (mMap.isShared()) {
+            mMap = mMap.copy();
+        }
+        return mMap;
+    }
+
+    private class KeySet extends AbstractSet<String> {
+        private final String[] mKeys;
+
+        KeySet() {
+            mKeys = new String[mMap.size()];
+            int j = 0;
+            for (int i = 0; i < mMap.capacity(); i++) {
+                if (mMap.typeAt(i) != BundleMap.TYPE_NONE) {
+                    mKeys[j++] = mMap.keyAt(i);
+                }
+            }
+        }
+
+        @Override
+        public Iterator<String> iterator() {
+            return new Iterator<String>() {
+                private int mIndex = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return mIndex < mKeys.length;
+                }
+
+                @Override
+                public String next() {
+                    if (mIndex >= mKeys.length) {
+                        throw new NoSuchElementException();
+                    }
+                    return mKeys[mIndex++];
+                }
+
+                @Override
+                public void remove() {
+                    if (mIndex == 0) {
+                        throw new IllegalStateException();
+                    }
+                    Bundle.this.remove(mKeys[mIndex - 1]);
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return mKeys.length;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return (o == null || o instanceof String) && containsKey((String) o);
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            if (contains(o)) {
+                Bundle.this.remove((String) o);
+                return true;
+            }
+            return false;
+        }
     }
 }
@@ -0,0 +1,345 @@
+/*
+ * Copyright (C) 2018 E.S.R.Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package mindroid.os;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * The storage of a {@link Bundle}.
+ *
+ * <p>
+ * Keys, value types and primitive values are kept in parallel arrays so that primitive values are not boxed.
+ * References are only stored for object values. Up to {@link #SMALL_SIZE} entries are packed at the front of
+ * the arrays and looked up by a linear scan, larger maps use open addressing with linear probing. A map may be
+ * shared by several bundles after {@link #share()}, in which case it must be copied before it is modified.
+ */
+final class BundleMap {
+    static final byte TYPE_NONE = 0;
+    static final byte TYPE_BOOLEAN = 1;
+    static final byte TYPE_BYTE = 2;
+    static final byte TYPE_CHAR = 3;
+    static final byte TYPE_SHORT = 4;
+    static final byte TYPE_INT = 5;
+    static final byte TYPE_LONG = 6;
+    static final byte TYPE_FLOAT = 7;
+    static final byte TYPE_DOUBLE = 8;
+    static final byte TYPE_OBJECT = 9;
+    private static final int SMALL_SIZE = 8;
+
+    private String[] mKeys;
+    private byte[] mTypes;
+    private long[] mValues;
+    private Object[] mObjects;
+    private int mSize = 0;
+    private boolean mShared = false;
+
+    BundleMap() {
+        this(SMALL_SIZE);
+    }
+
+    private BundleMap(int capacity) {
+        mKeys = new String[capacity];
+        mTypes = new byte[capacity];
+        mValues = new long[capacity];
+    }
+
+    /**
+     * Marks the map as shared and returns it.
+     */
+    BundleMap share() {
+        mShared = true;
+        return this;
+    }
+
+    boolean isShared() {
+        return mShared;
+    }
+
+    BundleMap copy() {
+        BundleMap map = new BundleMap(mKeys.length);
+        System.arraycopy(mKeys, 0, map.mKeys, 0, mKeys.length);
+        System.arraycopy(mTypes, 0, map.mTypes, 0, mTypes.length);
+        System.arraycopy(mValues, 0, map.mValues, 0, mValues.length);
+        if (mObjects != null) {
+            map.mObjects = mObjects.clone();
+        }
+        map.mSize = mSize;
+        return map;
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    /**
+     * Returns the number of slots. Slots for which {@link #typeAt(int)} returns {@link #TYPE_NONE} are empty.
+     */
+    int capacity() {
+        return mKeys.length;
+    }
+
+    String keyAt(int slot) {
+        return mKeys[slot];
+    }
+
+    byte typeAt(int slot) {
+        return mTypes[slot];
+    }
+
+    /**
+     * Returns the value of a slot. Primitive values are boxed.
+     */
+    Object valueAt(int slot) {
+        long value = mValues[slot];
+        switch (mTypes[slot]) {
+        case TYPE_BOOLEAN:
+            return Boolean.valueOf(value != 0);
+        case TYPE_BYTE:
+            return Byte.valueOf((byte) value);
+        case TYPE_CHAR:
+            return Character.valueOf((char) value);
+        case TYPE_SHORT:
+            return Short.valueOf((short) value);
+        case TYPE_INT:
+            return Integer.valueOf((int) value);
+        case TYPE_LONG:
+            return Long.valueOf(value);
+        case TYPE_FLOAT:
+            return Float.valueOf(Float.intBitsToFloat((int) value));
+        case TYPE_DOUBLE:
+            return Double.valueOf(Double.longBitsToDouble(value));
+        case TYPE_OBJECT:
+            return mObjects[slot];
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * Returns the slot of {@code key} or -1.
+     */
+    int indexOf(String key) {
+        if (mKeys.length <= SMALL_SIZE) {
+            for (int i = 0; i < mSize; i++) {
+                if (Objects.equals(mKeys[i], key)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        int mask = mKeys.length - 1;
+        for (int i = hash(key) & mask; mTypes[i] != TYPE_NONE; i = (i + 1) & mask) {
+            if (Objects.equals(mKeys[i], key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the raw value of {@code key} if it has the given type.
+     */
+    long getValue(String key, byte type, long defaultValue) {
+        int i = indexOf(key);
+        return (i >= 0 && mTypes[i] == type) ? mValues[i] : defaultValue;
+    }
+
+    Object get(String key) {
+        int i = indexOf(key);
+        return (i >= 0) ? valueAt(i) : null;
+    }
+
+    void putValue(String key, byte type, long value) {
+        int i = insert(key);
+        mTypes[i] = type;
+        mValues[i] = value;
+        if (mObjects != null) {
+            mObjects[i] = null;
+        }
+    }
+
+    /**
+     * Puts an object value. Boxed primitives are unboxed.
+     */
+    void put(String key, Object value) {
+        if (value instanceof Integer) {
+            putValue(key, TYPE_INT, ((Integer) value).intValue());
+        } else if (value instanceof Long) {
+            putValue(key, TYPE_LONG, ((Long) value).longValue());
+        } else if (value instanceof Boolean) {
+            putValue(key, TYPE_BOOLEAN, ((Boolean) value).booleanValue() ? 1 : 0);
+        } else if (value instanceof Double) {
+            putValue(key, TYPE_DOUBLE, Double.doubleToRawLongBits((Double) value));
+        } else if (value instanceof Float) {
+            putValue(key, TYPE_FLOAT, Float.floatToRawIntBits((Float) value));
+        } else if (value instanceof Byte) {
+            putValue(key, TYPE_BYTE, ((Byte) value).byteValue());
+        } else if (value instanceof Short) {
+            putValue(key, TYPE_SHORT, ((Short) value).shortValue());
+        } else if (value instanceof Character) {
+            putValue(key, TYPE_CHAR, ((Character) value).charValue());
+        } else {
+            int i = insert(key);
+            if (mObjects == null) {
+                mObjects = new Object[mKeys.length];
+            }
+            mTypes[i] = TYPE_OBJECT;
+            mValues[i] = 0;
+            mObjects[i] = value;
+        }
+    }
+
+    /**
+     * Copies all entries of {@code other} without boxing primitive values.
+     */
+    void putAll(BundleMap other) {
+        for (int j = 0; j < other.mKeys.length; j++) {
+            byte type = other.mTypes[j];
+            if (type == TYPE_OBJECT) {
+                put(other.mKeys[j], other.mObjects[j]);
+            } else if (type != TYPE_NONE) {
+                putValue(other.mKeys[j], type, other.mValues[j]);
+            }
+        }
+    }
+
+    boolean remove(String key) {
+        int i = indexOf(key);
+        if (i < 0) {
+            return false;
+        }
+        removeAt(i);
+        return true;
+    }
+
+    /**
+     * Removes the entry of a slot. In the small mode, the last entry is moved into the slot. Otherwise, the
+     * entries following the slot are shifted back to keep their probe sequences intact.
+     */
+    void removeAt(int slot) {
+        mSize--;
+        if (mKeys.length <= SMALL_SIZE) {
+            move(mSize, slot);
+            clearAt(mSize);
+            return;
+        }
+        int mask = mKeys.length - 1;
+        int hole = slot;
+        for (int i = (slot + 1) & mask; mTypes[i] != TYPE_NONE; i = (i + 1) & mask) {
+            int home = hash(mKeys[i]) & mask;
+            // Move the entry into the hole unless its home slot lies cyclically in (hole, i].
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                move(i, hole);
+                hole = i;
+            }
+        }
+        clearAt(hole);
+    }
+
+    void clear() {
+        if (mKeys.length > SMALL_SIZE) {
+            mKeys = new String[SMALL_SIZE];
+            mTypes = new byte[SMALL_SIZE];
+            mValues = new long[SMALL_SIZE];
+            mObjects = null;
+        } else {
+            Arrays.fill(mKeys, null);
+            Arrays.fill(mTypes, TYPE_NONE);
+            if (mObjects != null) {
+                Arrays.fill(mObjects, null);
+            }
+        }
+        mSize = 0;
+    }
+
+    private int insert(String key) {
+        int i = indexOf(key);
+        if (i >= 0) {
+            return i;
+        }
+        if (mKeys.length <= SMALL_SIZE) {
+            if (mSize < mKeys.length) {
+                mKeys[mSize] = key;
+                return mSize++;
+            }
+            resize(SMALL_SIZE * 4);
+        } else if ((mSize + 1) * 4 > mKeys.length * 3) {
+            resize(mKeys.length * 2);
+        }
+        int mask = mKeys.length - 1;
+        i = hash(key) & mask;
+        while (mTypes[i] != TYPE_NONE) {
+            i = (i + 1) & mask;
+        }
+        mKeys[i] = key;
+        mSize++;
+        return i;
+    }
+
+    private void resize(int capacity) {
+        String[] keys = mKeys;
+        byte[] types = mTypes;
+        long[] values = mValues;
+        Object[] objects = mObjects;
+        mKeys = new String[capacity];
+        mTypes = new byte[capacity];
+        mValues = new long[capacity];
+        mObjects = (objects != null) ? new Object[capacity] : null;
+        int mask = capacity - 1;
+        for (int j = 0; j < keys.length; j++) {
+            if (types[j] != TYPE_NONE) {
+                int i = hash(keys[j]) & mask;
+                while (mTypes[i] != TYPE_NONE) {
+                    i = (i + 1) & mask;
+                }
+                mKeys[i] = keys[j];
+                mTypes[i] = types[j];
+                mValues[i] = values[j];
+                if (objects != null) {
+                    mObjects[i] = objects[j];
+                }
+            }
+        }
+    }
+
+    private void move(int from, int to) {
+        mKeys[to] = mKeys[from];
+        mTypes[to] = mTypes[from];
+        mValues[to] = mValues[from];
+        if (mObjects != null) {
+            mObjects[to] = mObjects[from];
+        }
+    }
+
+    private void clearAt(int slot) {
+        mKeys[slot] = null;
+        mTypes[slot] = TYPE_NONE;
+        mValues[slot] = 0;
+        if (mObjects != null) {
+            mObjects[slot] = null;
+        }
+    }
+
+    private static int hash(String key) {
+        if (key == null) {
+            return 0;
+        }
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+}
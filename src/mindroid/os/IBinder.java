@@ -41,6 +41,13 @@ public interface IBinder {
      */
     public static final int FLAG_ONEWAY_WITH_EXCEPTION_HANDLING = FLAG_ONEWAY | 0x00000002;
 
+    /**
+     * Flag to {@link #transact}: The transaction may safely be executed more than once. If the
+     * connection to the callee is lost while the transaction is in flight, the runtime system
+     * replays it on the next connection instead of failing it.
+     */
+    public static final int FLAG_IDEMPOTENT = 0x00000004;
+
     /**
      * Returns the binder's id.
      */
@@ -74,12 +81,15 @@ public interface IBinder {
     public Promise<Parcel> transact(int what, Parcel data, int flags) throws RemoteException;
 
     /**
-     * Perform a lightweight operation with the object.
+     * Perform a lightweight operation with the object. The objects are handed over to the target by
+     * reference without marshaling, so they must not be modified afterwards. Only supported by
+     * binders of the same node.
      *
      * @param what The action to perform.
      * @param num A number to send to the target.
      * @param obj An object to send to the target.
      * @param data data to send to the target.
+     * @param promise The promise that the target completes with the result, or null.
      * @param flags Additional operation flags. Either 0 for a normal RPC, or {@link #FLAG_ONEWAY}
      * for a one-way RPC.
      */
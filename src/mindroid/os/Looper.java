@@ -18,6 +18,7 @@
 package mindroid.os;
 
 import java.lang.ThreadLocal;
+import mindroid.util.metrics.Metrics;
 
 /**
  * Class used to run a message loop for a thread. Threads by default do not have a message loop
@@ -56,6 +57,7 @@ public class Looper {
     static final ThreadLocal<Looper> sThreadLocal = new ThreadLocal<>();
     final MessageQueue mMessageQueue;
     final Thread mThread;
+    private final String mMetricsLabel;
 
     /**
      * Initialize the current thread as a looper. This gives you a chance to create handlers that
@@ -114,6 +116,8 @@ public class Looper {
     private Looper(boolean quitAllowed) {
         mMessageQueue = new MessageQueue(quitAllowed);
         mThread = Thread.currentThread();
+        mMetricsLabel = mThread.getName() + "#" + mThread.getId();
+        Metrics.gauge("looper.queueDepth", mMetricsLabel, mMessageQueue::size);
     }
 
     /**
@@ -130,6 +134,7 @@ public class Looper {
      */
     public void quit() {
         mMessageQueue.quit();
+        Metrics.remove("looper.queueDepth", mMetricsLabel);
     }
 
     /**
@@ -18,6 +18,7 @@
 package mindroid.os;
 
 import mindroid.util.concurrent.Promise;
+import mindroid.util.tracing.Span;
 
 /**
  * Defines a message containing a description and arbitrary data object that can be sent to a
@@ -242,6 +243,7 @@ public final class Message {
         data = null;
         result = null;
         sendingPid = -1;
+        span = null;
         prevMessage = null;
         nextMessage = null;
 
@@ -375,4 +377,7 @@ public final class Message {
      * @hide
      */
     public int sendingPid = -1;
+
+    // The trace span of a binder transaction.
+    /*package*/ Span span;
 }
@@ -36,6 +36,7 @@ public class MessageQueue {
 
     Message mHeadMessage;
     Message mTailMessage;
+    private int mSize = 0;
     private boolean mQuitting;
 
     MessageQueue(boolean quitAllowed) {
@@ -61,6 +62,7 @@ public class MessageQueue {
             }
             mHeadMessage = null;
             mTailMessage = null;
+            mSize = 0;
 
             notify();
         }
@@ -114,11 +116,19 @@ public class MessageQueue {
                 nextMessage.prevMessage = message;
                 curMessage.nextMessage = message;
             }
+            mSize++;
             notify();
         }
         return true;
     }
 
+    /**
+     * Returns the number of messages in the queue, including delayed messages.
+     */
+    final synchronized int size() {
+        return mSize;
+    }
+
     final Message dequeueMessage() {
         for (;;) {
             synchronized (this) {
@@ -149,6 +159,7 @@ public class MessageQueue {
                         }
                         message.prevMessage = null;
                         message.nextMessage = null;
+                        mSize--;
                         return message;
                     }
                 } else {
@@ -217,6 +228,7 @@ public class MessageQueue {
                     mTailMessage = null;
                 }
                 curMessage.recycle();
+                mSize--;
                 curMessage = nextMessage;
             }
 
@@ -234,6 +246,7 @@ public class MessageQueue {
                         }
                         curMessage.nextMessage = nextButOneMessage;
                         nextMessage.recycle();
+                        mSize--;
                         continue;
                     }
                 }
@@ -265,6 +278,7 @@ public class MessageQueue {
                     mTailMessage = null;
                 }
                 curMessage.recycle();
+                mSize--;
                 curMessage = nextMessage;
             }
 
@@ -282,6 +296,7 @@ public class MessageQueue {
                         }
                         curMessage.nextMessage = nextButOneMessage;
                         nextMessage.recycle();
+                        mSize--;
                         continue;
                     }
                 }
@@ -313,6 +328,7 @@ public class MessageQueue {
                     mTailMessage = null;
                 }
                 curMessage.recycle();
+                mSize--;
                 curMessage = nextMessage;
             }
 
@@ -330,6 +346,7 @@ public class MessageQueue {
                         }
                         curMessage.nextMessage = nextButOneMessage;
                         nextMessage.recycle();
+                        mSize--;
                         continue;
                     }
                 }
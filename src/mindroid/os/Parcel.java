@@ -18,8 +18,12 @@
 package mindroid.os;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
+import java.io.UTFDataFormatException;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import mindroid.io.ByteArrayInputStream;
 import mindroid.io.ByteArrayOutputStream;
@@ -28,11 +32,27 @@ import mindroid.io.DataOutputStream;
 import mindroid.runtime.system.Runtime;
 
 public final class Parcel {
+    /**
+     * Strings are encoded like {@link java.io.DataOutput#writeUTF(String)} if their encoding is shorter
+     * than this. Longer strings are encoded as an escape length of 0xFFFF followed by the actual length as int.
+     */
+    public static final int MAX_SHORT_STRING_SIZE = 0xFFFF;
+    private static final int ARRAY_BUFFER_SIZE = 8192;
     private ByteArrayOutputStream mOutputStream;
     private ByteArrayInputStream mInputStream;
     private DataOutputStream mDataOutputStream;
     private DataInputStream mDataInputStream;
+    // The data of a streamed parcel that is read while it is being received.
+    private InputStream mStream;
+    private int mStreamSize;
     private Bundle mExtras;
+    // Extras received in their binary encoding, which are decoded on the first modification.
+    private byte[] mMarshalledExtras;
+    // Set if the data may contain strings in the long string encoding, see putString.
+    private boolean mLongStrings = false;
+    // Reused by the string and array codecs.
+    private byte[] mBuffer;
+    private char[] mCharBuffer;
 
     private Parcel() {
         mOutputStream = new ByteArrayOutputStream();
@@ -55,6 +75,12 @@ public final class Parcel {
         asInput();
     }
 
+    private Parcel(InputStream inputStream, int size) {
+        mStream = inputStream;
+        mStreamSize = size;
+        mDataInputStream = new DataInputStream(inputStream);
+    }
+
     /**
      * Retrieve a new Parcel object from the pool.
      */
@@ -80,6 +106,21 @@ public final class Parcel {
         return new Parcel(buffer, offset, size);
     }
 
+    /**
+     * Retrieve a streamed Parcel object in input mode that reads its data of {@code size} bytes
+     * from {@code inputStream}, e.g. while the data is still being received. Accessing the whole
+     * data of a streamed parcel as byte array first reads the remaining data of the stream.
+     */
+    public static Parcel obtain(InputStream inputStream, int size) {
+        if (inputStream == null) {
+            throw new NullPointerException();
+        }
+        if (size < 0) {
+            throw new IllegalArgumentException("size < 0");
+        }
+        return new Parcel(inputStream, size);
+    }
+
     /**
      * Put a Parcel object back into the pool.  You must not touch
      * the object after this call.
@@ -91,7 +132,41 @@ public final class Parcel {
      * Returns the total amount of data contained in the parcel.
      */
     public final int size() {
-        return mOutputStream.size();
+        return (mStream != null) ? mStreamSize : mOutputStream.size();
+    }
+
+    /**
+     * Returns true if the parcel reads its data from a stream.
+     *
+     * @see #obtain(InputStream, int)
+     */
+    public final boolean isStreamed() {
+        return mStream != null;
+    }
+
+    /**
+     * Returns true if the data of the parcel may contain strings of {@link #MAX_SHORT_STRING_SIZE} or
+     * more bytes. Runtime system plugins must only send such parcels to peers that support long strings.
+     */
+    public final boolean hasLongStrings() {
+        return mLongStrings;
+    }
+
+    /**
+     * Enables decoding of long strings for a parcel that has been received from a peer which flagged
+     * the data as containing long strings.
+     */
+    public final Parcel setLongStrings(boolean longStrings) {
+        mLongStrings = longStrings;
+        return this;
+    }
+
+    /**
+     * Returns the remaining input data of the parcel as stream.
+     */
+    public final InputStream getInputStream() {
+        checkInput();
+        return (mStream != null) ? mStream : mInputStream;
     }
 
     /**
@@ -200,15 +275,53 @@ public final class Parcel {
 
     /**
      * Write a string value into the parcel at the current dataPosition(),
-     * growing dataCapacity() if needed.
+     * growing dataCapacity() if needed. Strings are encoded in modified UTF-8
+     * like {@link java.io.DataOutput#writeUTF(String)}, see {@link #MAX_SHORT_STRING_SIZE}
+     * for strings with longer encodings.
      */
     public final void putString(String value) throws RemoteException {
         checkOutput();
-        try {
-            mDataOutputStream.writeUTF(value);
-        } catch (IOException e) {
-            throw new RemoteException(e);
+        int length = value.length();
+        // Each char takes up to 3 bytes in modified UTF-8, see DataOutput.writeUTF.
+        byte[] buffer = getBuffer(6 + 3 * length);
+        int count = 6;
+        int i = 0;
+        while (i < length) {
+            char c = value.charAt(i);
+            if (c == 0 || c >= 0x80) {
+                break;
+            }
+            buffer[count++] = (byte) c;
+            i++;
+        }
+        for (; i < length; i++) {
+            char c = value.charAt(i);
+            if (c != 0 && c < 0x80) {
+                buffer[count++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[count++] = (byte) (0xC0 | (c >> 6));
+                buffer[count++] = (byte) (0x80 | (c & 0x3F));
+            } else {
+                buffer[count++] = (byte) (0xE0 | (c >> 12));
+                buffer[count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[count++] = (byte) (0x80 | (c & 0x3F));
+            }
         }
+        int size = count - 6;
+        int offset;
+        if (size < MAX_SHORT_STRING_SIZE) {
+            offset = 4;
+        } else {
+            offset = 0;
+            buffer[0] = (byte) 0xFF;
+            buffer[1] = (byte) 0xFF;
+            buffer[2] = (byte) (size >>> 24);
+            buffer[3] = (byte) (size >>> 16);
+            mLongStrings = true;
+        }
+        buffer[4] = (byte) (size >>> 8);
+        buffer[5] = (byte) size;
+        mOutputStream.write(buffer, offset, count - offset);
     }
 
     public final void putBytes(byte[] buffer) throws RemoteException {
@@ -221,26 +334,127 @@ public final class Parcel {
         mOutputStream.write(buffer, offset, size);
     }
 
-    public final void putBinder(IBinder binder) throws RemoteException {
-        try {
-            URI descriptor = new URI(binder.getInterfaceDescriptor());
-            URI uri = new URI(binder.getUri().getScheme(), binder.getUri().getAuthority(), "/if=" + descriptor.getPath().substring(1), descriptor.getQuery(), null);
-            putString(uri.toString());
-        } catch (URISyntaxException e) {
-            throw new RemoteException(e);
+    /**
+     * Write a boolean array into the parcel at the current dataPosition(),
+     * growing dataCapacity() if needed.
+     *
+     * @param value a boolean array, or null
+     */
+    public final void putBooleanArray(boolean[] value) throws RemoteException {
+        checkOutput();
+        if (putArrayLength(value != null ? value.length : -1)) {
+            byte[] buffer = getBuffer(Math.min(value.length, ARRAY_BUFFER_SIZE));
+            for (int i = 0; i < value.length; i += buffer.length) {
+                int count = Math.min(buffer.length, value.length - i);
+                for (int j = 0; j < count; j++) {
+                    buffer[j] = (byte) (value[i + j] ? 1 : 0);
+                }
+                mOutputStream.write(buffer, 0, count);
+            }
         }
     }
 
-    public final void putBinder(IBinder base, IBinder binder) throws RemoteException {
-        try {
-            URI descriptor = new URI(binder.getInterfaceDescriptor());
-            URI uri = new URI(base.getUri().getScheme(), binder.getUri().getAuthority(), "/if=" + descriptor.getPath().substring(1), descriptor.getQuery(), null);
-            putString(uri.toString());
-        } catch (URISyntaxException e) {
-            throw new RemoteException(e);
+    /**
+     * Write a char array into the parcel at the current dataPosition(),
+     * growing dataCapacity() if needed.
+     *
+     * @param value a char array, or null
+     */
+    public final void putCharArray(char[] value) throws RemoteException {
+        checkOutput();
+        if (putArrayLength(value != null ? value.length : -1)) {
+            putArray(value.length, 2, (buffer, offset, count) -> buffer.asCharBuffer().put(value, offset, count));
+        }
+    }
+
+    /**
+     * Write a short array into the parcel at the current dataPosition(),
+     * growing dataCapacity() if needed.
+     *
+     * @param value a short array, or null
+     */
+    public final void putShortArray(short[] value) throws RemoteException {
+        checkOutput();
+        if (putArrayLength(value != null ? value.length : -1)) {
+            putArray(value.length, 2, (buffer, offset, count) -> buffer.asShortBuffer().put(value, offset, count));
         }
     }
 
+    /**
+     * Write an int array into the parcel at the current dataPosition(),
+     * growing dataCapacity() if needed.
+     *
+     * @param value an int array, or null
+     */
+    public final void putIntArray(int[] value) throws RemoteException {
+        checkOutput();
+        if (putArrayLength(value != null ? value.length : -1)) {
+            putArray(value.length, 4, (buffer, offset, count) -> buffer.asIntBuffer().put(value, offset, count));
+        }
+    }
+
+    /**
+     * Write a long array into the parcel at the current dataPosition(),
+     * growing dataCapacity() if needed.
+     *
+     * @param value a long array, or null
+     */
+    public final void putLongArray(long[] value) throws RemoteException {
+        checkOutput();
+        if (putArrayLength(value != null ? value.length : -1)) {
+            putArray(value.length, 8, (buffer, offset, count) -> buffer.asLongBuffer().put(value, offset, count));
+        }
+    }
+
+    /**
+     * Write a float array into the parcel at the current dataPosition(),
+     * growing dataCapacity() if needed.
+     *
+     * @param value a float array, or null
+     */
+    public final void putFloatArray(float[] value) throws RemoteException {
+        checkOutput();
+        if (putArrayLength(value != null ? value.length : -1)) {
+            putArray(value.length, 4, (buffer, offset, count) -> buffer.asFloatBuffer().put(value, offset, count));
+        }
+    }
+
+    /**
+     * Write a double array into the parcel at the current dataPosition(),
+     * growing dataCapacity() if needed.
+     *
+     * @param value a double array, or null
+     */
+    public final void putDoubleArray(double[] value) throws RemoteException {
+        checkOutput();
+        if (putArrayLength(value != null ? value.length : -1)) {
+            putArray(value.length, 8, (buffer, offset, count) -> buffer.asDoubleBuffer().put(value, offset, count));
+        }
+    }
+
+    /**
+     * Write a String array into the parcel at the current dataPosition(),
+     * growing dataCapacity() if needed.
+     *
+     * @param value a String array, or null
+     */
+    public final void putStringArray(String[] value) throws RemoteException {
+        checkOutput();
+        if (putArrayLength(value != null ? value.length : -1)) {
+            for (String string : value) {
+                putString(string);
+            }
+        }
+    }
+
+    public final void putBinder(IBinder binder) throws RemoteException {
+        putString(getBinderUri(binder.getUri().getScheme(), binder).mString);
+    }
+
+    public final void putBinder(IBinder base, IBinder binder) throws RemoteException {
+        putString(getBinderUri(base.getUri().getScheme(), binder).mString);
+    }
+
     public final boolean getBoolean() throws RemoteException {
         checkInput();
         try {
@@ -336,7 +550,23 @@ public final class Parcel {
     public final String getString() throws RemoteException {
         checkInput();
         try {
-            return mDataInputStream.readUTF();
+            int size = mDataInputStream.readUnsignedShort();
+            if (size == MAX_SHORT_STRING_SIZE && mLongStrings) {
+                size = mDataInputStream.readInt();
+                if (size < MAX_SHORT_STRING_SIZE || size > size()) {
+                    throw new UTFDataFormatException("Invalid string size: " + size);
+                }
+            }
+            byte[] buffer = getBuffer(size);
+            mDataInputStream.readFully(buffer, 0, size);
+            int i = 0;
+            while (i < size && buffer[i] > 0) {
+                i++;
+            }
+            if (i == size) {
+                return new String(buffer, 0, size, StandardCharsets.ISO_8859_1);
+            }
+            return decodeString(buffer, i, size);
         } catch (IOException e) {
             throw new RemoteException(e);
         }
@@ -344,6 +574,9 @@ public final class Parcel {
 
     public final byte[] getBytes() throws RemoteException {
         checkInput();
+        if (mStream != null) {
+            return readStream(Integer.MAX_VALUE);
+        }
         if (mInputStream.available() >= 0) {
             byte[] buffer = new byte[mInputStream.available()];
             mInputStream.read(buffer);
@@ -355,6 +588,9 @@ public final class Parcel {
 
     public final byte[] getBytes(int size) throws RemoteException {
         checkInput();
+        if (mStream != null) {
+            return readStream(size);
+        }
         if (mInputStream.available() >= 0) {
             size = Math.min(mInputStream.available(), size);
             byte[] buffer = new byte[size];
@@ -365,21 +601,163 @@ public final class Parcel {
         }
     }
 
+    /**
+     * Read a boolean array from the parcel at the current dataPosition().
+     *
+     * @return a boolean array, or null
+     */
+    public final boolean[] getBooleanArray() throws RemoteException {
+        checkInput();
+        int length = getArrayLength(1);
+        if (length < 0) {
+            return null;
+        }
+        boolean[] value = new boolean[length];
+        byte[] buffer = getBuffer(Math.min(length, ARRAY_BUFFER_SIZE));
+        for (int i = 0; i < length; i += buffer.length) {
+            int count = Math.min(buffer.length, length - i);
+            readFully(buffer, 0, count);
+            for (int j = 0; j < count; j++) {
+                value[i + j] = buffer[j] != 0;
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Read a char array from the parcel at the current dataPosition().
+     *
+     * @return a char array, or null
+     */
+    public final char[] getCharArray() throws RemoteException {
+        checkInput();
+        int length = getArrayLength(2);
+        if (length < 0) {
+            return null;
+        }
+        char[] value = new char[length];
+        getArray(length, 2, (buffer, offset, count) -> buffer.asCharBuffer().get(value, offset, count));
+        return value;
+    }
+
+    /**
+     * Read a short array from the parcel at the current dataPosition().
+     *
+     * @return a short array, or null
+     */
+    public final short[] getShortArray() throws RemoteException {
+        checkInput();
+        int length = getArrayLength(2);
+        if (length < 0) {
+            return null;
+        }
+        short[] value = new short[length];
+        getArray(length, 2, (buffer, offset, count) -> buffer.asShortBuffer().get(value, offset, count));
+        return value;
+    }
+
+    /**
+     * Read an int array from the parcel at the current dataPosition().
+     *
+     * @return an int array, or null
+     */
+    public final int[] getIntArray() throws RemoteException {
+        checkInput();
+        int length = getArrayLength(4);
+        if (length < 0) {
+            return null;
+        }
+        int[] value = new int[length];
+        getArray(length, 4, (buffer, offset, count) -> buffer.asIntBuffer().get(value, offset, count));
+        return value;
+    }
+
+    /**
+     * Read a long array from the parcel at the current dataPosition().
+     *
+     * @return a long array, or null
+     */
+    public final long[] getLongArray() throws RemoteException {
+        checkInput();
+        int length = getArrayLength(8);
+        if (length < 0) {
+            return null;
+        }
+        long[] value = new long[length];
+        getArray(length, 8, (buffer, offset, count) -> buffer.asLongBuffer().get(value, offset, count));
+        return value;
+    }
+
+    /**
+     * Read a float array from the parcel at the current dataPosition().
+     *
+     * @return a float array, or null
+     */
+    public final float[] getFloatArray() throws RemoteException {
+        checkInput();
+        int length = getArrayLength(4);
+        if (length < 0) {
+            return null;
+        }
+        float[] value = new float[length];
+        getArray(length, 4, (buffer, offset, count) -> buffer.asFloatBuffer().get(value, offset, count));
+        return value;
+    }
+
+    /**
+     * Read a double array from the parcel at the current dataPosition().
+     *
+     * @return a double array, or null
+     */
+    public final double[] getDoubleArray() throws RemoteException {
+        checkInput();
+        int length = getArrayLength(8);
+        if (length < 0) {
+            return null;
+        }
+        double[] value = new double[length];
+        getArray(length, 8, (buffer, offset, count) -> buffer.asDoubleBuffer().get(value, offset, count));
+        return value;
+    }
+
+    /**
+     * Read a String array from the parcel at the current dataPosition().
+     *
+     * @return a String array, or null
+     */
+    public final String[] getStringArray() throws RemoteException {
+        checkInput();
+        // Each string takes at least two bytes.
+        int length = getArrayLength(2);
+        if (length < 0) {
+            return null;
+        }
+        String[] value = new String[length];
+        for (int i = 0; i < length; i++) {
+            value[i] = getString();
+        }
+        return value;
+    }
+
+    /**
+     * Read a binder from the parcel at the current dataPosition(). Proxies of remote binders are
+     * shared by all parcels, see {@link Runtime#getBinder(String)}.
+     */
     public final IBinder getBinder() throws RemoteException {
-        URI uri;
         try {
-            uri = new URI(getString());
+            return Runtime.getRuntime().getBinder(getString());
         } catch (URISyntaxException e) {
             return null;
         }
-        return Runtime.getRuntime().getBinder(uri);
     }
 
     public final byte[] getByteArray() {
+        materialize();
         return mOutputStream.getByteArray();
     }
 
     public final ByteArrayInputStream asInputStream() {
+        materialize();
         if (mInputStream == null) {
             mInputStream = new ByteArrayInputStream(mOutputStream.getByteArray(), 0, mOutputStream.size());
             mDataInputStream = new DataInputStream(mInputStream);
@@ -388,6 +766,7 @@ public final class Parcel {
     }
 
     public final ByteArrayOutputStream asOutputStream() {
+        materialize();
         if (mInputStream != null) {
             mInputStream = null;
             mDataInputStream = null;
@@ -396,7 +775,9 @@ public final class Parcel {
     }
 
     public final Parcel asInput() {
-        asInputStream();
+        if (mStream == null) {
+            asInputStream();
+        }
         return this;
     }
 
@@ -406,25 +787,197 @@ public final class Parcel {
     }
 
     private final void checkOutput() {
-        if (mInputStream != null) {
+        if (mInputStream != null || mStream != null) {
             throw new IllegalStateException("Parcel is in input mode");
         }
     }
 
     private final void checkInput() {
-        if (mInputStream == null) {
+        if (mInputStream == null && mStream == null) {
             throw new IllegalStateException("Parcel is in output mode");
         }
     }
 
+    private byte[] getBuffer(int size) {
+        if (mBuffer == null || mBuffer.length < size) {
+            mBuffer = new byte[Math.max(size, 64)];
+        }
+        return mBuffer;
+    }
+
+    /**
+     * Decodes {@code size} bytes of modified UTF-8 whose first {@code offset} bytes are ASCII characters.
+     */
+    private String decodeString(byte[] buffer, int offset, int size) throws UTFDataFormatException {
+        if (mCharBuffer == null || mCharBuffer.length < size) {
+            mCharBuffer = new char[Math.max(size, 64)];
+        }
+        char[] chars = mCharBuffer;
+        int count = 0;
+        for (; count < offset; count++) {
+            chars[count] = (char) buffer[count];
+        }
+        int i = offset;
+        while (i < size) {
+            int a = buffer[i++] & 0xFF;
+            if (a < 0x80) {
+                chars[count++] = (char) a;
+            } else if ((a & 0xE0) == 0xC0) {
+                if (i >= size || (buffer[i] & 0xC0) != 0x80) {
+                    throw new UTFDataFormatException("Malformed input around byte " + i);
+                }
+                chars[count++] = (char) (((a & 0x1F) << 6) | (buffer[i++] & 0x3F));
+            } else if ((a & 0xF0) == 0xE0) {
+                if (i + 1 >= size || (buffer[i] & 0xC0) != 0x80 || (buffer[i + 1] & 0xC0) != 0x80) {
+                    throw new UTFDataFormatException("Malformed input around byte " + i);
+                }
+                chars[count++] = (char) (((a & 0x0F) << 12) | ((buffer[i] & 0x3F) << 6) | (buffer[i + 1] & 0x3F));
+                i += 2;
+            } else {
+                throw new UTFDataFormatException("Malformed input around byte " + (i - 1));
+            }
+        }
+        return new String(chars, 0, count);
+    }
+
+    /**
+     * Writes the length of an array, which is -1 for null.
+     *
+     * @return true if the array is not null.
+     */
+    private boolean putArrayLength(int length) throws RemoteException {
+        try {
+            mDataOutputStream.writeInt(length);
+        } catch (IOException e) {
+            throw new RemoteException(e);
+        }
+        return length >= 0;
+    }
+
+    /**
+     * Reads the length of an array, which is -1 for null.
+     */
+    private int getArrayLength(int elementSize) throws RemoteException {
+        int length = getInt();
+        if (length < -1 || (long) length * elementSize > size()) {
+            throw new RemoteException("Invalid array length: " + length);
+        }
+        return length;
+    }
+
+    private interface ArrayCodec {
+        void apply(ByteBuffer buffer, int offset, int count);
+    }
+
+    /**
+     * Writes an array in slices of at most {@link #ARRAY_BUFFER_SIZE} bytes, which {@code codec} puts into the buffer.
+     */
+    private void putArray(int length, int elementSize, ArrayCodec codec) {
+        byte[] buffer = getBuffer((int) Math.min((long) length * elementSize, ARRAY_BUFFER_SIZE));
+        int sliceLength = buffer.length / elementSize;
+        for (int i = 0; i < length; i += sliceLength) {
+            int count = Math.min(sliceLength, length - i);
+            codec.apply(ByteBuffer.wrap(buffer), i, count);
+            mOutputStream.write(buffer, 0, count * elementSize);
+        }
+    }
+
+    /**
+     * Reads an array in slices of at most {@link #ARRAY_BUFFER_SIZE} bytes, which {@code codec} gets from the buffer.
+     */
+    private void getArray(int length, int elementSize, ArrayCodec codec) throws RemoteException {
+        byte[] buffer = getBuffer((int) Math.min((long) length * elementSize, ARRAY_BUFFER_SIZE));
+        int sliceLength = buffer.length / elementSize;
+        for (int i = 0; i < length; i += sliceLength) {
+            int count = Math.min(sliceLength, length - i);
+            readFully(buffer, 0, count * elementSize);
+            codec.apply(ByteBuffer.wrap(buffer), i, count);
+        }
+    }
+
+    private void readFully(byte[] buffer, int offset, int size) throws RemoteException {
+        try {
+            mDataInputStream.readFully(buffer, offset, size);
+        } catch (IOException e) {
+            throw new RemoteException(e);
+        }
+    }
+
+    private byte[] readStream(int size) throws RemoteException {
+        try {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream(Math.min(size, mStreamSize));
+            byte[] buffer = new byte[8192];
+            int count;
+            while (outputStream.size() < size
+                    && (count = mDataInputStream.read(buffer, 0, Math.min(buffer.length, size - outputStream.size()))) > 0) {
+                outputStream.write(buffer, 0, count);
+            }
+            return outputStream.toByteArray();
+        } catch (IOException e) {
+            throw new RemoteException(e);
+        }
+    }
+
+    /**
+     * Turns a streamed parcel into a regular parcel in input mode by reading the data of the stream.
+     */
+    private void materialize() {
+        if (mStream == null) {
+            return;
+        }
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(mStreamSize);
+        try {
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = mDataInputStream.read(buffer, 0, buffer.length)) > 0) {
+                outputStream.write(buffer, 0, count);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read parcel data", e);
+        }
+        if (outputStream.size() != mStreamSize) {
+            throw new IllegalStateException("Parcel data has already been read");
+        }
+        mStream = null;
+        mOutputStream = outputStream;
+        mDataOutputStream = new DataOutputStream(mOutputStream);
+        mInputStream = null;
+        asInputStream();
+    }
+
     public static final URI toUri(IBinder base, IBinder binder) throws RemoteException {
+        return getBinderUri(base.getUri().getScheme(), binder).mUri;
+    }
+
+    /**
+     * Returns the URI of {@code binder} in parcels sent with the plugin of {@code scheme}. The URI is
+     * cached by the binder for the scheme that was used last.
+     */
+    private static BinderUri getBinderUri(String scheme, IBinder binder) throws RemoteException {
+        BinderUri binderUri;
+        if (binder instanceof Binder) {
+            binderUri = ((Binder) binder).mBinderUri;
+        } else if (binder instanceof Binder.Proxy) {
+            binderUri = ((Binder.Proxy) binder).mBinderUri;
+        } else {
+            binderUri = null;
+        }
+        if (binderUri != null && binderUri.mScheme.equals(scheme)) {
+            return binderUri;
+        }
         try {
             URI descriptor = new URI(binder.getInterfaceDescriptor());
-            URI uri = new URI(base.getUri().getScheme(), binder.getUri().getAuthority(), "/if=" + descriptor.getPath().substring(1), descriptor.getQuery(), null);
-            return uri;
+            URI uri = new URI(scheme, binder.getUri().getAuthority(), "/if=" + descriptor.getPath().substring(1), descriptor.getQuery(), null);
+            binderUri = new BinderUri(scheme, uri);
         } catch (URISyntaxException e) {
             throw new RemoteException(e);
         }
+        if (binder instanceof Binder) {
+            ((Binder) binder).mBinderUri = binderUri;
+        } else if (binder instanceof Binder.Proxy) {
+            ((Binder.Proxy) binder).mBinderUri = binderUri;
+        }
+        return binderUri;
     }
 
     public static final IBinder fromUri(URI uri) throws RemoteException {
@@ -438,7 +991,10 @@ public final class Parcel {
      * @return true if the given extra is present.
      */
     public boolean hasExtra(String name) {
-        return mExtras != null && mExtras.containsKey(name);
+        if (mExtras == null) {
+            return mMarshalledExtras != null && ParcelExtras.contains(mMarshalledExtras, name);
+        }
+        return mExtras.containsKey(name);
     }
 
     /**
@@ -454,7 +1010,10 @@ public final class Parcel {
      * @see #putExtra(String, boolean)
      */
     public boolean getBooleanExtra(String name, boolean defaultValue) {
-        return mExtras == null ? defaultValue : mExtras.getBoolean(name, defaultValue);
+        if (mExtras == null) {
+            return (mMarshalledExtras != null) ? ParcelExtras.getBoolean(mMarshalledExtras, name, defaultValue) : defaultValue;
+        }
+        return mExtras.getBoolean(name, defaultValue);
     }
 
     /**
@@ -470,7 +1029,10 @@ public final class Parcel {
      * @see #putExtra(String, byte)
      */
     public byte getByteExtra(String name, byte defaultValue) {
-        return mExtras == null ? defaultValue : mExtras.getByte(name, defaultValue);
+        if (mExtras == null) {
+            return (mMarshalledExtras != null) ? ParcelExtras.getByte(mMarshalledExtras, name, defaultValue) : defaultValue;
+        }
+        return mExtras.getByte(name, defaultValue);
     }
 
     /**
@@ -486,7 +1048,10 @@ public final class Parcel {
      * @see #putExtra(String, short)
      */
     public short getShortExtra(String name, short defaultValue) {
-        return mExtras == null ? defaultValue : mExtras.getShort(name, defaultValue);
+        if (mExtras == null) {
+            return (mMarshalledExtras != null) ? ParcelExtras.getShort(mMarshalledExtras, name, defaultValue) : defaultValue;
+        }
+        return mExtras.getShort(name, defaultValue);
     }
 
     /**
@@ -502,7 +1067,10 @@ public final class Parcel {
      * @see #putExtra(String, char)
      */
     public char getCharExtra(String name, char defaultValue) {
-        return mExtras == null ? defaultValue : mExtras.getChar(name, defaultValue);
+        if (mExtras == null) {
+            return (mMarshalledExtras != null) ? ParcelExtras.getChar(mMarshalledExtras, name, defaultValue) : defaultValue;
+        }
+        return mExtras.getChar(name, defaultValue);
     }
 
     /**
@@ -518,7 +1086,10 @@ public final class Parcel {
      * @see #putExtra(String, int)
      */
     public int getIntExtra(String name, int defaultValue) {
-        return mExtras == null ? defaultValue : mExtras.getInt(name, defaultValue);
+        if (mExtras == null) {
+            return (mMarshalledExtras != null) ? ParcelExtras.getInt(mMarshalledExtras, name, defaultValue) : defaultValue;
+        }
+        return mExtras.getInt(name, defaultValue);
     }
 
     /**
@@ -534,7 +1105,10 @@ public final class Parcel {
      * @see #putExtra(String, long)
      */
     public long getLongExtra(String name, long defaultValue) {
-        return mExtras == null ? defaultValue : mExtras.getLong(name, defaultValue);
+        if (mExtras == null) {
+            return (mMarshalledExtras != null) ? ParcelExtras.getLong(mMarshalledExtras, name, defaultValue) : defaultValue;
+        }
+        return mExtras.getLong(name, defaultValue);
     }
 
     /**
@@ -550,7 +1124,10 @@ public final class Parcel {
      * @see #putExtra(String, float)
      */
     public float getFloatExtra(String name, float defaultValue) {
-        return mExtras == null ? defaultValue : mExtras.getFloat(name, defaultValue);
+        if (mExtras == null) {
+            return (mMarshalledExtras != null) ? ParcelExtras.getFloat(mMarshalledExtras, name, defaultValue) : defaultValue;
+        }
+        return mExtras.getFloat(name, defaultValue);
     }
 
     /**
@@ -566,7 +1143,10 @@ public final class Parcel {
      * @see #putExtra(String, double)
      */
     public double getDoubleExtra(String name, double defaultValue) {
-        return mExtras == null ? defaultValue : mExtras.getDouble(name, defaultValue);
+        if (mExtras == null) {
+            return (mMarshalledExtras != null) ? ParcelExtras.getDouble(mMarshalledExtras, name, defaultValue) : defaultValue;
+        }
+        return mExtras.getDouble(name, defaultValue);
     }
 
     /**
@@ -580,7 +1160,10 @@ public final class Parcel {
      * @see #putExtra(String, String)
      */
     public String getStringExtra(String name) {
-        return mExtras == null ? null : mExtras.getString(name);
+        if (mExtras == null) {
+            return (mMarshalledExtras != null) ? ParcelExtras.getString(mMarshalledExtras, name) : null;
+        }
+        return mExtras.getString(name);
     }
 
     /**
@@ -758,7 +1341,45 @@ public final class Parcel {
      * added.
      */
     public Bundle getExtras() {
-        return (mExtras != null) ? new Bundle(mExtras) : null;
+        if (mExtras == null) {
+            return (mMarshalledExtras != null) ? ParcelExtras.unmarshall(mMarshalledExtras) : null;
+        }
+        return new Bundle(mExtras);
+    }
+
+    /**
+     * Returns the binary encoding of the extras of primitive types and Strings. Runtime system plugins
+     * send it along with the data of the parcel. All other extras are not encoded.
+     *
+     * @return the encoded extras, or null if there are no such extras.
+     */
+    public byte[] marshallExtras() {
+        if (mExtras == null) {
+            return mMarshalledExtras;
+        }
+        return ParcelExtras.marshall(mExtras);
+    }
+
+    /**
+     * Replaces the extras of the parcel with the extras encoded by {@link #marshallExtras()}.
+     * Values are read from the encoding until the extras are modified.
+     *
+     * @param data the encoded extras, or null to erase all extras.
+     * @throws IllegalArgumentException if the encoding is invalid.
+     */
+    public Parcel unmarshallExtras(byte[] data) {
+        if (data != null) {
+            ParcelExtras.validate(data);
+        }
+        mExtras = null;
+        mMarshalledExtras = data;
+        return this;
+    }
+
+    private Bundle createExtras() {
+        Bundle extras = (mMarshalledExtras != null) ? ParcelExtras.unmarshall(mMarshalledExtras) : new Bundle();
+        mMarshalledExtras = null;
+        return extras;
     }
     
     /**
@@ -775,7 +1396,7 @@ public final class Parcel {
      */
     public Parcel putExtra(String name, boolean value) {
         if (mExtras == null) {
-            mExtras = new Bundle();
+            mExtras = createExtras();
         }
         mExtras.putBoolean(name, value);
         return this;
@@ -795,7 +1416,7 @@ public final class Parcel {
      */
     public Parcel putExtra(String name, byte value) {
         if (mExtras == null) {
-            mExtras = new Bundle();
+            mExtras = createExtras();
         }
         mExtras.putByte(name, value);
         return this;
@@ -815,7 +1436,7 @@ public final class Parcel {
      */
     public Parcel putExtra(String name, char value) {
         if (mExtras == null) {
-            mExtras = new Bundle();
+            mExtras = createExtras();
         }
         mExtras.putChar(name, value);
         return this;
@@ -835,7 +1456,7 @@ public final class Parcel {
      */
     public Parcel putExtra(String name, short value) {
         if (mExtras == null) {
-            mExtras = new Bundle();
+            mExtras = createExtras();
         }
         mExtras.putShort(name, value);
         return this;
@@ -855,7 +1476,7 @@ public final class Parcel {
      */
     public Parcel putExtra(String name, int value) {
         if (mExtras == null) {
-            mExtras = new Bundle();
+            mExtras = createExtras();
         }
         mExtras.putInt(name, value);
         return this;
@@ -875,7 +1496,7 @@ public final class Parcel {
      */
     public Parcel putExtra(String name, long value) {
         if (mExtras == null) {
-            mExtras = new Bundle();
+            mExtras = createExtras();
         }
         mExtras.putLong(name, value);
         return this;
@@ -895,7 +1516,7 @@ public final class Parcel {
      */
     public Parcel putExtra(String name, float value) {
         if (mExtras == null) {
-            mExtras = new Bundle();
+            mExtras = createExtras();
         }
         mExtras.putFloat(name, value);
         return this;
@@ -915,7 +1536,7 @@ public final class Parcel {
      */
     public Parcel putExtra(String name, double value) {
         if (mExtras == null) {
-            mExtras = new Bundle();
+            mExtras = createExtras();
         }
         mExtras.putDouble(name, value);
         return this;
@@ -935,7 +1556,7 @@ public final class Parcel {
      */
     public Parcel putExtra(String name, String value) {
         if (mExtras == null) {
-            mExtras = new Bundle();
+            mExtras = createExtras();
         }
         mExtras.putString(name, value);
         return this;
@@ -955,7 +1576,7 @@ public final class Parcel {
      */
     public Parcel putExtra(String name, boolean[] value) {
         if (mExtras == null) {
-            mExtras = new Bundle();
+            mExtras = createExtras();
         }
         mExtras.putBooleanArray(name, value);
         return this;
@@ -975,7 +1596,7 @@ public final class Parcel {
      */
     public Parcel putExtra(String name, byte[] value) {
         if (mExtras == null) {
-            mExtras = new Bundle();
+            mExtras = createExtras();
         }
         mExtras.putByteArray(name, value);
         return this;
@@ -995,7 +1616,7 @@ public final class Parcel {
      */
     public Parcel putExtra(String name, short[] value) {
         if (mExtras == null) {
-            mExtras = new Bundle();
+            mExtras = createExtras();
         }
         mExtras.putShortArray(name, value);
         return this;
@@ -1015,7 +1636,7 @@ public final class Parcel {
      */
     public Parcel putExtra(String name, char[] value) {
         if (mExtras == null) {
-            mExtras = new Bundle();
+            mExtras = createExtras();
         }
         mExtras.putCharArray(name, value);
         return this;
@@ -1035,7 +1656,7 @@ public final class Parcel {
      */
     public Parcel putExtra(String name, int[] value) {
         if (mExtras == null) {
-            mExtras = new Bundle();
+            mExtras = createExtras();
         }
         mExtras.putIntArray(name, value);
         return this;
@@ -1055,7 +1676,7 @@ public final class Parcel {
      */
     public Parcel putExtra(String name, long[] value) {
         if (mExtras == null) {
-            mExtras = new Bundle();
+            mExtras = createExtras();
         }
         mExtras.putLongArray(name, value);
         return this;
@@ -1075,7 +1696,7 @@ public final class Parcel {
      */
     public Parcel putExtra(String name, float[] value) {
         if (mExtras == null) {
-            mExtras = new Bundle();
+            mExtras = createExtras();
         }
         mExtras.putFloatArray(name, value);
         return this;
@@ -1095,7 +1716,7 @@ public final class Parcel {
      */
     public Parcel putExtra(String name, double[] value) {
         if (mExtras == null) {
-            mExtras = new Bundle();
+            mExtras = createExtras();
         }
         mExtras.putDoubleArray(name, value);
         return this;
@@ -1115,7 +1736,7 @@ public final class Parcel {
      */
     public Parcel putExtra(String name, String[] value) {
         if (mExtras == null) {
-            mExtras = new Bundle();
+            mExtras = createExtras();
         }
         mExtras.putStringArray(name, value);
         return this;
@@ -1135,7 +1756,7 @@ public final class Parcel {
      */
     public Parcel putIntegerArrayListExtra(String name, ArrayList<Integer> value) {
         if (mExtras == null) {
-            mExtras = new Bundle();
+            mExtras = createExtras();
         }
         mExtras.putIntegerArrayList(name, value);
         return this;
@@ -1155,7 +1776,7 @@ public final class Parcel {
      */
     public Parcel putStringArrayListExtra(String name, ArrayList<String> value) {
         if (mExtras == null) {
-            mExtras = new Bundle();
+            mExtras = createExtras();
         }
         mExtras.putStringArrayList(name, value);
         return this;
@@ -1176,7 +1797,7 @@ public final class Parcel {
      */
     public Parcel putExtra(String name, Bundle value) {
         if (mExtras == null) {
-            mExtras = new Bundle();
+            mExtras = createExtras();
         }
         mExtras.putBundle(name, value);
         return this;
@@ -1192,7 +1813,7 @@ public final class Parcel {
      */
     public Parcel putExtras(Bundle extras) {
         if (mExtras == null) {
-            mExtras = new Bundle();
+            mExtras = createExtras();
         }
         mExtras.putAll(extras);
         return this;
@@ -1205,6 +1826,7 @@ public final class Parcel {
      */
     public Parcel replaceExtras(Bundle extras) {
         mExtras = extras != null ? new Bundle(extras) : null;
+        mMarshalledExtras = null;
         return this;
     }
 
@@ -1214,6 +1836,9 @@ public final class Parcel {
      * @see #putExtra
      */
     public void removeExtra(String name) {
+        if (mExtras == null && mMarshalledExtras != null) {
+            mExtras = createExtras();
+        }
         if (mExtras != null) {
             mExtras.remove(name);
             if (mExtras.size() == 0) {
@@ -1224,6 +1849,9 @@ public final class Parcel {
 
     @Override
     public String toString() {
+        if (mStream != null) {
+            return "Parcel {size=" + mStreamSize + ", streamed}";
+        }
         StringBuilder builder = new StringBuilder("Parcel {data=[");
         byte[] data = mOutputStream.getByteArray();
         for (int i = 0; i < mOutputStream.size(); ++i) {
@@ -1231,11 +1859,24 @@ public final class Parcel {
         }
         builder.append("]");
 
-        if (mExtras != null) {
+        Bundle extras = (mExtras != null) ? mExtras : getExtras();
+        if (extras != null) {
             builder.append(", extras=");
-            builder.append(mExtras.toString());
+            builder.append(extras.toString());
         }
 
         return builder.append("}").toString();
     }
+
+    static final class BinderUri {
+        final String mScheme;
+        final URI mUri;
+        final String mString;
+
+        BinderUri(String scheme, URI uri) {
+            mScheme = scheme;
+            mUri = uri;
+            mString = uri.toString();
+        }
+    }
 }
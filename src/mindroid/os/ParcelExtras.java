@@ -0,0 +1,408 @@
+/*
+ * Copyright (C) 2018 E.S.R.Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package mindroid.os;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The binary encoding of Parcel extras that are sent along with the data of a parcel.
+ *
+ * <p>
+ * Each extra is encoded as a type tag, a varint key id and the value. Well-known keys are encoded by
+ * their id only, other keys use the key id 0 followed by the UTF-8 encoded key. Integral values are
+ * zigzag varints. Only extras of primitive types and Strings are encoded, all other extras are local
+ * to the parcel. Values are looked up directly in the encoded form without decoding all extras.
+ */
+final class ParcelExtras {
+    // Key ids are the index in this array plus one. New keys must only be appended.
+    private static final String[] KEYS = { "timeout", "deadline", "traceId", "spanId", "parentSpanId", "remainingTime" };
+
+    static final int TYPE_BOOLEAN = 1;
+    static final int TYPE_BYTE = 2;
+    static final int TYPE_CHAR = 3;
+    static final int TYPE_SHORT = 4;
+    static final int TYPE_INT = 5;
+    static final int TYPE_LONG = 6;
+    static final int TYPE_FLOAT = 7;
+    static final int TYPE_DOUBLE = 8;
+    static final int TYPE_STRING = 9;
+
+    private ParcelExtras() {
+    }
+
+    /**
+     * Encodes the extras of primitive types and Strings.
+     *
+     * @return The encoded extras or null if there are none.
+     */
+    static byte[] marshall(Bundle extras) {
+        Encoder encoder = new Encoder();
+        for (String key : extras.keySet()) {
+            Object value = extras.get(key);
+            int type = getType(value);
+            if (type == 0) {
+                continue;
+            }
+            encoder.writeByte(type);
+            int keyId = getKeyId(key);
+            encoder.writeVarLong(keyId);
+            if (keyId == 0) {
+                encoder.writeString(key);
+            }
+            switch (type) {
+            case TYPE_BOOLEAN:
+                encoder.writeByte(((Boolean) value) ? 1 : 0);
+                break;
+            case TYPE_BYTE:
+                encoder.writeByte((Byte) value);
+                break;
+            case TYPE_CHAR:
+                encoder.writeVarLong((Character) value);
+                break;
+            case TYPE_SHORT:
+                encoder.writeVarLong(zigzag((Short) value));
+                break;
+            case TYPE_INT:
+                encoder.writeVarLong(zigzag((Integer) value));
+                break;
+            case TYPE_LONG:
+                encoder.writeVarLong(zigzag((Long) value));
+                break;
+            case TYPE_FLOAT:
+                encoder.writeFixed(Float.floatToIntBits((Float) value), 4);
+                break;
+            case TYPE_DOUBLE:
+                encoder.writeFixed(Double.doubleToLongBits((Double) value), 8);
+                break;
+            case TYPE_STRING:
+                encoder.writeString((String) value);
+                break;
+            default:
+                break;
+            }
+        }
+        return encoder.toByteArray();
+    }
+
+    /**
+     * Decodes all extras into a Bundle.
+     */
+    static Bundle unmarshall(byte[] data) {
+        Bundle extras = new Bundle();
+        int[] position = new int[1];
+        while (position[0] < data.length) {
+            int type = data[position[0]++];
+            int keyId = (int) readVarLong(data, position);
+            String key = (keyId == 0) ? readString(data, position) : KEYS[keyId - 1];
+            switch (type) {
+            case TYPE_BOOLEAN:
+                extras.putBoolean(key, data[position[0]++] != 0);
+                break;
+            case TYPE_BYTE:
+                extras.putByte(key, data[position[0]++]);
+                break;
+            case TYPE_CHAR:
+                extras.putChar(key, (char) readVarLong(data, position));
+                break;
+            case TYPE_SHORT:
+                extras.putShort(key, (short) unzigzag(readVarLong(data, position)));
+                break;
+            case TYPE_INT:
+                extras.putInt(key, (int) unzigzag(readVarLong(data, position)));
+                break;
+            case TYPE_LONG:
+                extras.putLong(key, unzigzag(readVarLong(data, position)));
+                break;
+            case TYPE_FLOAT:
+                extras.putFloat(key, Float.intBitsToFloat((int) readFixed(data, position, 4)));
+                break;
+            case TYPE_DOUBLE:
+                extras.putDouble(key, Double.longBitsToDouble(readFixed(data, position, 8)));
+                break;
+            case TYPE_STRING:
+                extras.putString(key, readString(data, position));
+                break;
+            default:
+                throw new IllegalArgumentException("Invalid extra type: " + type);
+            }
+        }
+        return extras;
+    }
+
+    /**
+     * Checks that {@code data} is a valid encoding of extras.
+     *
+     * @throws IllegalArgumentException if the data is invalid.
+     */
+    static void validate(byte[] data) {
+        try {
+            int[] position = new int[1];
+            while (position[0] < data.length) {
+                int type = data[position[0]++];
+                if (type < TYPE_BOOLEAN || type > TYPE_STRING) {
+                    throw new IllegalArgumentException("Invalid extra type: " + type);
+                }
+                long keyId = readVarLong(data, position);
+                if (keyId < 0 || keyId > KEYS.length) {
+                    throw new IllegalArgumentException("Invalid extra key id: " + keyId);
+                }
+                if (keyId == 0) {
+                    skipString(data, position);
+                }
+                skipValue(data, position, type);
+            }
+            if (position[0] != data.length) {
+                throw new IllegalArgumentException("Truncated extras");
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Truncated extras");
+        }
+    }
+
+    /**
+     * Returns true if {@code data} contains an extra named {@code name}.
+     */
+    static boolean contains(byte[] data, String name) {
+        return find(data, name, 0) >= 0;
+    }
+
+    static boolean getBoolean(byte[] data, String name, boolean defaultValue) {
+        int position = find(data, name, TYPE_BOOLEAN);
+        return (position >= 0) ? data[position] != 0 : defaultValue;
+    }
+
+    static byte getByte(byte[] data, String name, byte defaultValue) {
+        int position = find(data, name, TYPE_BYTE);
+        return (position >= 0) ? data[position] : defaultValue;
+    }
+
+    static char getChar(byte[] data, String name, char defaultValue) {
+        int position = find(data, name, TYPE_CHAR);
+        return (position >= 0) ? (char) readVarLong(data, new int[] { position }) : defaultValue;
+    }
+
+    static short getShort(byte[] data, String name, short defaultValue) {
+        int position = find(data, name, TYPE_SHORT);
+        return (position >= 0) ? (short) unzigzag(readVarLong(data, new int[] { position })) : defaultValue;
+    }
+
+    static int getInt(byte[] data, String name, int defaultValue) {
+        int position = find(data, name, TYPE_INT);
+        return (position >= 0) ? (int) unzigzag(readVarLong(data, new int[] { position })) : defaultValue;
+    }
+
+    static long getLong(byte[] data, String name, long defaultValue) {
+        int position = find(data, name, TYPE_LONG);
+        return (position >= 0) ? unzigzag(readVarLong(data, new int[] { position })) : defaultValue;
+    }
+
+    static float getFloat(byte[] data, String name, float defaultValue) {
+        int position = find(data, name, TYPE_FLOAT);
+        return (position >= 0) ? Float.intBitsToFloat((int) readFixed(data, new int[] { position }, 4)) : defaultValue;
+    }
+
+    static double getDouble(byte[] data, String name, double defaultValue) {
+        int position = find(data, name, TYPE_DOUBLE);
+        return (position >= 0) ? Double.longBitsToDouble(readFixed(data, new int[] { position }, 8)) : defaultValue;
+    }
+
+    static String getString(byte[] data, String name) {
+        int position = find(data, name, TYPE_STRING);
+        return (position >= 0) ? readString(data, new int[] { position }) : null;
+    }
+
+    /**
+     * Returns the position of the value of the extra named {@code name}, or -1 if there is no such extra
+     * of the given type. The type 0 matches all types.
+     */
+    private static int find(byte[] data, String name, int type) {
+        int keyId = getKeyId(name);
+        byte[] key = (keyId == 0) ? name.getBytes(StandardCharsets.UTF_8) : null;
+        int[] position = new int[1];
+        while (position[0] < data.length) {
+            int t = data[position[0]++];
+            int id = (int) readVarLong(data, position);
+            boolean match;
+            if (id == 0) {
+                int length = (int) readVarLong(data, position);
+                match = key != null && Arrays.equals(data, position[0], position[0] + length, key, 0, key.length);
+                position[0] += length;
+            } else {
+                match = id == keyId;
+            }
+            if (match) {
+                return (type == 0 || t == type) ? position[0] : -1;
+            }
+            skipValue(data, position, t);
+        }
+        return -1;
+    }
+
+    private static int getKeyId(String key) {
+        for (int i = 0; i < KEYS.length; i++) {
+            if (KEYS[i].equals(key)) {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    private static int getType(Object value) {
+        if (value instanceof Boolean) {
+            return TYPE_BOOLEAN;
+        } else if (value instanceof Byte) {
+            return TYPE_BYTE;
+        } else if (value instanceof Character) {
+            return TYPE_CHAR;
+        } else if (value instanceof Short) {
+            return TYPE_SHORT;
+        } else if (value instanceof Integer) {
+            return TYPE_INT;
+        } else if (value instanceof Long) {
+            return TYPE_LONG;
+        } else if (value instanceof Float) {
+            return TYPE_FLOAT;
+        } else if (value instanceof Double) {
+            return TYPE_DOUBLE;
+        } else if (value instanceof String) {
+            return TYPE_STRING;
+        } else {
+            return 0;
+        }
+    }
+
+    private static void skipValue(byte[] data, int[] position, int type) {
+        switch (type) {
+        case TYPE_BOOLEAN:
+        case TYPE_BYTE:
+            position[0]++;
+            break;
+        case TYPE_CHAR:
+        case TYPE_SHORT:
+        case TYPE_INT:
+        case TYPE_LONG:
+            readVarLong(data, position);
+            break;
+        case TYPE_FLOAT:
+            position[0] += 4;
+            break;
+        case TYPE_DOUBLE:
+            position[0] += 8;
+            break;
+        case TYPE_STRING:
+            skipString(data, position);
+            break;
+        default:
+            throw new IllegalArgumentException("Invalid extra type: " + type);
+        }
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static long readVarLong(byte[] data, int[] position) {
+        long value = 0;
+        int shift = 0;
+        while (true) {
+            byte b = data[position[0]++];
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+            shift += 7;
+            if (shift > 63) {
+                throw new IllegalArgumentException("Invalid varint");
+            }
+        }
+    }
+
+    private static long readFixed(byte[] data, int[] position, int size) {
+        long value = 0;
+        for (int i = 0; i < size; i++) {
+            value = (value << 8) | (data[position[0]++] & 0xFF);
+        }
+        return value;
+    }
+
+    private static String readString(byte[] data, int[] position) {
+        int length = (int) readVarLong(data, position);
+        if (length < 0 || length > data.length - position[0]) {
+            throw new IllegalArgumentException("Invalid string length: " + length);
+        }
+        String string = new String(data, position[0], length, StandardCharsets.UTF_8);
+        position[0] += length;
+        return string;
+    }
+
+    private static void skipString(byte[] data, int[] position) {
+        int length = (int) readVarLong(data, position);
+        if (length < 0 || length > data.length - position[0]) {
+            throw new IllegalArgumentException("Invalid string length: " + length);
+        }
+        position[0] += length;
+    }
+
+    private static final class Encoder {
+        private byte[] mBuffer = new byte[32];
+        private int mCount = 0;
+
+        void writeByte(int value) {
+            ensureCapacity(1);
+            mBuffer[mCount++] = (byte) value;
+        }
+
+        void writeVarLong(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7FL) != 0) {
+                mBuffer[mCount++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            mBuffer[mCount++] = (byte) value;
+        }
+
+        void writeFixed(long value, int size) {
+            ensureCapacity(size);
+            for (int i = size - 1; i >= 0; i--) {
+                mBuffer[mCount++] = (byte) (value >>> (8 * i));
+            }
+        }
+
+        void writeString(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length);
+            ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, mBuffer, mCount, bytes.length);
+            mCount += bytes.length;
+        }
+
+        byte[] toByteArray() {
+            return (mCount > 0) ? Arrays.copyOf(mBuffer, mCount) : null;
+        }
+
+        private void ensureCapacity(int size) {
+            if (mCount + size > mBuffer.length) {
+                mBuffer = Arrays.copyOf(mBuffer, Math.max(mBuffer.length * 2, mCount + size));
+            }
+        }
+    }
+}
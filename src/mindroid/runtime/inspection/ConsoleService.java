@@ -25,6 +25,8 @@ import mindroid.os.RemoteException;
 import mindroid.os.ServiceManager;
 import mindroid.util.concurrent.ExecutionException;
 import mindroid.util.concurrent.Promise;
+import mindroid.util.metrics.Metrics;
+import mindroid.util.tracing.Tracing;
 import java.lang.management.BufferPoolMXBean;
 import java.lang.management.LockInfo;
 import java.lang.management.ManagementFactory;
@@ -143,6 +145,22 @@ public class ConsoleService extends Service {
 
         addCommand("dump uptime", "Print Java VM uptime", (args) -> getUptime());
 
+        addCommand("dump metrics", "Print runtime metrics, optionally only those starting with the given prefixes", (args) -> Metrics.dump(args));
+
+        addCommand("dump metrics json", "Print runtime metrics as JSON, optionally only those starting with the given prefixes", (args) -> Metrics.dumpJson(args));
+
+        addCommand("reset metrics", "Reset runtime counters and histograms", (args) -> {
+            Metrics.reset();
+            return null;
+        });
+
+        addCommand("dump traces", "Print recorded trace spans, optionally only those of the given trace ids", (args) -> Tracing.dump(args));
+
+        addCommand("clear traces", "Clear recorded trace spans", (args) -> {
+            Tracing.clear();
+            return null;
+        });
+
         addCommand("gc", "Run garbage collection", (args) -> {
             java.lang.Runtime.getRuntime().gc();
             return null;
@@ -0,0 +1,284 @@
+/*
+ * Copyright (C) 2018 E.S.R.Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package mindroid.runtime.system;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import mindroid.util.Log;
+import mindroid.util.Properties;
+
+/**
+ * Compresses the payload of the messages of a runtime system plugin connection.
+ *
+ * <p>
+ * Payloads are compressed with {@link Deflater} using a preset dictionary that is shared by all nodes.
+ * Only payloads of at least {@link #getThreshold()} bytes are compressed, and only if compression actually
+ * reduces their size. The dictionary can be replaced with a file using {@link Properties#COMPRESSION_DICTIONARY},
+ * which must be the same on all nodes. Each connection has its own instance.
+ */
+public class Compression {
+    private static final String LOG_TAG = "Compression";
+    // Frequent strings of runtime system messages. Deflate prefers matches at the end of the dictionary.
+    private static final String DEFAULT_DICTIONARY = "java.lang.IllegalArgumentException"
+            + "java.lang.IllegalStateExceptionmindroid.os.RemoteExceptionBinder transaction failure"
+            + "xmlrpc://mindroid://interfaces/mindroid://";
+    private static final byte[] sDictionary;
+    private static final int sDictionaryId;
+
+    private final int mThreshold;
+    private final Statistics mStatistics;
+    // Messages are compressed by the writers and decompressed by the reader of a connection concurrently.
+    private final Object mDeflaterLock = new Object();
+    private final Object mInflaterLock = new Object();
+    private Deflater mDeflater;
+    private Inflater mInflater;
+
+    static {
+        byte[] dictionary = DEFAULT_DICTIONARY.getBytes(StandardCharsets.UTF_8);
+        String path = System.getProperty(Properties.COMPRESSION_DICTIONARY);
+        if (path != null && !path.isEmpty()) {
+            try {
+                dictionary = Files.readAllBytes(new File(path).toPath());
+            } catch (IOException e) {
+                Log.println('E', LOG_TAG, "Cannot read compression dictionary " + path + ": " + e.getMessage());
+            }
+        }
+        Adler32 adler = new Adler32();
+        adler.update(dictionary, 0, dictionary.length);
+        sDictionary = dictionary;
+        sDictionaryId = (int) adler.getValue();
+    }
+
+    /**
+     * Creates the compression of a connection.
+     *
+     * @param threshold The minimum size in bytes of compressed payloads, or 0 to only decompress.
+     * @param statistics The statistics of the connection.
+     */
+    public Compression(int threshold, Statistics statistics) {
+        mThreshold = threshold;
+        mStatistics = statistics;
+    }
+
+    /**
+     * Returns the id of the shared dictionary, which is the Adler-32 checksum of the dictionary.
+     */
+    public static int getDictionaryId() {
+        return sDictionaryId;
+    }
+
+    public int getThreshold() {
+        return mThreshold;
+    }
+
+    public Statistics getStatistics() {
+        return mStatistics;
+    }
+
+    /**
+     * Compresses {@code size} bytes of {@code data} starting at {@code offset}.
+     *
+     * @return The compressed data or null if the data is too small or does not compress.
+     */
+    public byte[] compress(byte[] data, int offset, int size) {
+        if (mThreshold <= 0 || size < mThreshold) {
+            return null;
+        }
+        long startTime = System.nanoTime();
+        // Compressed data that does not fit into less than the original size is not worth it.
+        byte[] buffer = new byte[size - 1];
+        int compressedSize = 0;
+        boolean compressed;
+        synchronized (mDeflaterLock) {
+            if (mDeflater == null) {
+                mDeflater = new Deflater(Deflater.BEST_SPEED);
+            } else {
+                mDeflater.reset();
+            }
+            mDeflater.setDictionary(sDictionary);
+            mDeflater.setInput(data, offset, size);
+            mDeflater.finish();
+            while (!mDeflater.finished() && compressedSize < buffer.length) {
+                compressedSize += mDeflater.deflate(buffer, compressedSize, buffer.length - compressedSize);
+            }
+            compressed = mDeflater.finished();
+        }
+        mStatistics.onCompress(size, compressed ? compressedSize : size, System.nanoTime() - startTime);
+        if (!compressed) {
+            return null;
+        }
+        byte[] result = new byte[compressedSize];
+        System.arraycopy(buffer, 0, result, 0, compressedSize);
+        return result;
+    }
+
+    /**
+     * Decompresses {@code size} bytes of {@code data} into a new array of {@code originalSize} bytes.
+     *
+     * @throws IOException if the data is corrupt or has been compressed using another dictionary.
+     */
+    public byte[] decompress(byte[] data, int size, int originalSize) throws IOException {
+        long startTime = System.nanoTime();
+        byte[] result = new byte[originalSize];
+        int count = 0;
+        synchronized (mInflaterLock) {
+            if (mInflater == null) {
+                mInflater = new Inflater();
+            } else {
+                mInflater.reset();
+            }
+            mInflater.setInput(data, 0, size);
+            try {
+                while (!mInflater.finished() && count < originalSize) {
+                    int n = mInflater.inflate(result, count, originalSize - count);
+                    if (n == 0) {
+                        if (!mInflater.needsDictionary()) {
+                            break;
+                        }
+                        if (mInflater.getAdler() != sDictionaryId) {
+                            throw new IOException("Compression dictionary mismatch");
+                        }
+                        mInflater.setDictionary(sDictionary);
+                    }
+                    count += n;
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Invalid compressed data", e);
+            }
+            if (count != originalSize || !mInflater.finished()) {
+                throw new IOException("Invalid compressed data size");
+            }
+        }
+        mStatistics.onDecompress(size, originalSize, System.nanoTime() - startTime);
+        return result;
+    }
+
+    /**
+     * Releases the deflater and inflater.
+     */
+    public void close() {
+        synchronized (mDeflaterLock) {
+            if (mDeflater != null) {
+                mDeflater.end();
+                mDeflater = null;
+            }
+        }
+        synchronized (mInflaterLock) {
+            if (mInflater != null) {
+                mInflater.end();
+                mInflater = null;
+            }
+        }
+    }
+
+    /**
+     * The compression statistics of a link, i.e. of all connections to a remote node.
+     */
+    public static class Statistics {
+        private final LongAdder mCompressedMessages = new LongAdder();
+        private final LongAdder mUncompressibleMessages = new LongAdder();
+        private final LongAdder mInputBytes = new LongAdder();
+        private final LongAdder mOutputBytes = new LongAdder();
+        private final LongAdder mCompressionTime = new LongAdder();
+        private final LongAdder mDecompressedMessages = new LongAdder();
+        private final LongAdder mDecompressionInputBytes = new LongAdder();
+        private final LongAdder mDecompressionOutputBytes = new LongAdder();
+        private final LongAdder mDecompressionTime = new LongAdder();
+
+        void onCompress(int inputSize, int outputSize, long time) {
+            if (outputSize < inputSize) {
+                mCompressedMessages.increment();
+            } else {
+                mUncompressibleMessages.increment();
+            }
+            mInputBytes.add(inputSize);
+            mOutputBytes.add(outputSize);
+            mCompressionTime.add(time);
+        }
+
+        void onDecompress(int inputSize, int outputSize, long time) {
+            mDecompressedMessages.increment();
+            mDecompressionInputBytes.add(inputSize);
+            mDecompressionOutputBytes.add(outputSize);
+            mDecompressionTime.add(time);
+        }
+
+        public long getCompressedMessageCount() {
+            return mCompressedMessages.sum();
+        }
+
+        /**
+         * Returns the number of messages above the threshold that have been sent uncompressed because
+         * compression did not reduce their size.
+         */
+        public long getUncompressibleMessageCount() {
+            return mUncompressibleMessages.sum();
+        }
+
+        /**
+         * Returns the ratio of sent bytes after and before compression of all messages above the threshold.
+         */
+        public double getCompressionRatio() {
+            long inputBytes = mInputBytes.sum();
+            return (inputBytes > 0) ? ((double) mOutputBytes.sum() / inputBytes) : 1.0;
+        }
+
+        /**
+         * Returns the CPU time in nanoseconds spent compressing messages.
+         */
+        public long getCompressionTime() {
+            return mCompressionTime.sum();
+        }
+
+        public long getDecompressedMessageCount() {
+            return mDecompressedMessages.sum();
+        }
+
+        /**
+         * Returns the ratio of received bytes before and after decompression.
+         */
+        public double getDecompressionRatio() {
+            long outputBytes = mDecompressionOutputBytes.sum();
+            return (outputBytes > 0) ? ((double) mDecompressionInputBytes.sum() / outputBytes) : 1.0;
+        }
+
+        /**
+         * Returns the CPU time in nanoseconds spent decompressing messages.
+         */
+        public long getDecompressionTime() {
+            return mDecompressionTime.sum();
+        }
+
+        @Override
+        public String toString() {
+            return "compressed=" + getCompressedMessageCount()
+                    + " uncompressible=" + getUncompressibleMessageCount()
+                    + " ratio=" + String.format("%.3f", getCompressionRatio())
+                    + " time=" + getCompressionTime() / 1000 + "us"
+                    + " decompressed=" + getDecompressedMessageCount()
+                    + " decompressionRatio=" + String.format("%.3f", getDecompressionRatio())
+                    + " decompressionTime=" + getDecompressionTime() / 1000 + "us";
+        }
+    }
+}
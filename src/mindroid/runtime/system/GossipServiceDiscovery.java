@@ -0,0 +1,548 @@
+/*
+ * Copyright (C) 2018 E.S.R.Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package mindroid.runtime.system;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import mindroid.os.Bundle;
+import mindroid.os.IBinder;
+import mindroid.os.RemoteException;
+import mindroid.os.SystemClock;
+import mindroid.runtime.sd.IDiscoveryListener;
+import mindroid.runtime.sd.ServiceInfo;
+import mindroid.util.Log;
+
+/**
+ * Gossip-based service discovery.
+ *
+ * <p>
+ * Every node owns a versioned list of the services it announces. Each announcement or withdrawal
+ * increments the version of the node. Nodes periodically exchange their membership digests (node id,
+ * generation and version of every known node) with a random peer and send each other the entries the
+ * peer has not seen yet (push-pull anti-entropy):
+ * <ol>
+ *     <li>SYN: The initiator sends its digest.</li>
+ *     <li>ACK: The peer replies with the deltas the initiator is missing and its own digest.</li>
+ *     <li>ACK2: The initiator sends the deltas the peer is missing.</li>
+ * </ol>
+ * Withdrawn services are kept as tombstones so that withdrawals propagate like announcements. The
+ * generation of a node is its start time, so a restarted node replaces all state of its previous run.
+ *
+ * <p>
+ * Every node also increments its version once per gossip round as a heartbeat. A remote node whose version
+ * has not advanced within the node timeout has expired: its services are lost and its state is kept as a
+ * tombstone that is neither gossiped nor overwritten by stale gossip, until a newer version or generation
+ * of the node shows up again.
+ *
+ * <p>
+ * This class only implements the protocol state, the runtime system plugin transports the messages.
+ */
+final class GossipServiceDiscovery {
+    private static final String LOG_TAG = "GossipServiceDiscovery";
+    static final int SYN = 1;
+    static final int ACK = 2;
+    static final int ACK2 = 3;
+    /**
+     * The name of the discovered service in the extras of a {@link ServiceInfo}.
+     */
+    static final String EXTRA_NAME = "name";
+    // Tombstones of expired nodes are dropped after this many node timeouts, when all peers have expired the node as well.
+    private static final int TOMBSTONE_TIMEOUTS = 3;
+
+    private final int mNodeId;
+    private final NodeState mSelf;
+    private final Map<Integer, NodeState> mNodes = new HashMap<>();
+    // Active services by name for lock-free lookups.
+    private final Map<String, Entry> mServices = new ConcurrentHashMap<>();
+    private final Map<Integer, String> mServerUris = new ConcurrentHashMap<>();
+    private final Map<IBinder, Listener> mListeners = new ConcurrentHashMap<>();
+    private final Consumer<String> mOnServiceChanged;
+
+    /**
+     * @param nodeId The id of the local node.
+     * @param serverUri The server URI of the local node or null.
+     * @param onServiceChanged Called with the name of a remote service that has been announced, changed or withdrawn.
+     */
+    GossipServiceDiscovery(int nodeId, String serverUri, Consumer<String> onServiceChanged) {
+        mNodeId = nodeId;
+        mSelf = new NodeState(nodeId, System.currentTimeMillis());
+        mSelf.serverUri = serverUri;
+        mNodes.put(nodeId, mSelf);
+        mOnServiceChanged = onServiceChanged;
+    }
+
+    /**
+     * Announces a local service.
+     */
+    void announce(String name, int serviceId, String interfaceDescriptor) {
+        URI uri;
+        try {
+            uri = new URI(interfaceDescriptor);
+        } catch (Exception e) {
+            return;
+        }
+        if (uri.getScheme() == null) {
+            return;
+        }
+        synchronized (this) {
+            Entry entry = mSelf.entries.get(name);
+            Map<String, String> announcements = new HashMap<>();
+            if (entry != null && !entry.withdrawn && entry.serviceId == serviceId) {
+                if (interfaceDescriptor.equals(entry.announcements.get(uri.getScheme()))) {
+                    return;
+                }
+                announcements.putAll(entry.announcements);
+            }
+            announcements.put(uri.getScheme(), interfaceDescriptor);
+            mSelf.entries.put(name, new Entry(mNodeId, name, serviceId, announcements, ++mSelf.version, false));
+        }
+    }
+
+    /**
+     * Withdraws the local service with the id {@code serviceId}.
+     */
+    void withdraw(int serviceId) {
+        synchronized (this) {
+            for (Entry entry : new ArrayList<>(mSelf.entries.values())) {
+                if (entry.serviceId == serviceId && !entry.withdrawn) {
+                    mSelf.entries.put(entry.name, new Entry(mNodeId, entry.name, serviceId, Collections.emptyMap(), ++mSelf.version, true));
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the proxy URI of the remote service {@code name} for the given scheme or null.
+     */
+    String getProxyUri(String name, String scheme) {
+        Entry entry = mServices.get(name);
+        if (entry != null) {
+            return entry.getProxyUri(scheme);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the server URI of the node {@code nodeId} or null.
+     */
+    String getServerUri(int nodeId) {
+        return mServerUris.get(nodeId);
+    }
+
+    /**
+     * Returns the ids of all remote nodes with a known server URI.
+     */
+    Set<Integer> getNodeIds() {
+        return mServerUris.keySet();
+    }
+
+    void addListener(String interfaceDescriptor, IDiscoveryListener listener) {
+        Listener l = new Listener(interfaceDescriptor, listener);
+        List<Entry> entries;
+        synchronized (this) {
+            mListeners.put(listener.asBinder(), l);
+            entries = new ArrayList<>(mServices.values());
+        }
+        for (Entry entry : entries) {
+            l.onServiceFound(entry);
+        }
+    }
+
+    boolean removeListener(IDiscoveryListener listener) {
+        return mListeners.remove(listener.asBinder()) != null;
+    }
+
+    /**
+     * Expires the remote nodes whose version has not advanced for {@code timeout} milliseconds.
+     */
+    void expire(long timeout) {
+        if (timeout <= 0) {
+            return;
+        }
+        long now = SystemClock.uptimeMillis();
+        List<Runnable> events = new ArrayList<>();
+        synchronized (this) {
+            Iterator<NodeState> itr = mNodes.values().iterator();
+            while (itr.hasNext()) {
+                NodeState node = itr.next();
+                if (node == mSelf) {
+                    continue;
+                }
+                if (node.expired) {
+                    if (now - node.updateTime >= TOMBSTONE_TIMEOUTS * timeout) {
+                        itr.remove();
+                    }
+                } else if (now - node.updateTime >= timeout) {
+                    Log.d(LOG_TAG, "Node " + node.nodeId + " has expired");
+                    node.expired = true;
+                    mServerUris.remove(node.nodeId);
+                    for (Entry entry : node.entries.values()) {
+                        if (!entry.withdrawn) {
+                            onServiceLost(entry, events);
+                        }
+                    }
+                }
+            }
+        }
+        dispatch(events);
+    }
+
+    /**
+     * Creates the SYN message of a gossip round. Every round increments the version of the local node as heartbeat.
+     */
+    synchronized byte[] createSyn() throws IOException {
+        mSelf.version++;
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream outputStream = new DataOutputStream(buffer);
+        writeDigest(outputStream);
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Handles a SYN message and returns the ACK message.
+     */
+    byte[] onSyn(byte[] data) throws IOException {
+        DataInputStream inputStream = new DataInputStream(new ByteArrayInputStream(data));
+        Map<Integer, long[]> digest = readDigest(inputStream);
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream outputStream = new DataOutputStream(buffer);
+        synchronized (this) {
+            writeDeltas(outputStream, digest);
+            writeDigest(outputStream);
+        }
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Handles an ACK message and returns the ACK2 message or null if the peer is up-to-date.
+     */
+    byte[] onAck(byte[] data) throws IOException {
+        DataInputStream inputStream = new DataInputStream(new ByteArrayInputStream(data));
+        List<Runnable> events = new ArrayList<>();
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream outputStream = new DataOutputStream(buffer);
+        int count;
+        synchronized (this) {
+            readDeltas(inputStream, events);
+            Map<Integer, long[]> digest = readDigest(inputStream);
+            count = writeDeltas(outputStream, digest);
+        }
+        dispatch(events);
+        return (count > 0) ? buffer.toByteArray() : null;
+    }
+
+    /**
+     * Handles an ACK2 message.
+     */
+    void onAck2(byte[] data) throws IOException {
+        DataInputStream inputStream = new DataInputStream(new ByteArrayInputStream(data));
+        List<Runnable> events = new ArrayList<>();
+        synchronized (this) {
+            readDeltas(inputStream, events);
+        }
+        dispatch(events);
+    }
+
+    private void writeDigest(DataOutputStream outputStream) throws IOException {
+        outputStream.writeInt(mNodes.size());
+        for (NodeState node : mNodes.values()) {
+            outputStream.writeInt(node.nodeId);
+            outputStream.writeLong(node.generation);
+            outputStream.writeLong(node.version);
+        }
+    }
+
+    private static Map<Integer, long[]> readDigest(DataInputStream inputStream) throws IOException {
+        int count = inputStream.readInt();
+        Map<Integer, long[]> digest = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            int nodeId = inputStream.readInt();
+            long generation = inputStream.readLong();
+            long version = inputStream.readLong();
+            digest.put(nodeId, new long[] { generation, version });
+        }
+        return digest;
+    }
+
+    private int writeDeltas(DataOutputStream outputStream, Map<Integer, long[]> digest) throws IOException {
+        List<NodeState> nodes = new ArrayList<>();
+        List<Long> versions = new ArrayList<>();
+        for (NodeState node : mNodes.values()) {
+            if (node.expired) {
+                continue;
+            }
+            long[] d = digest.get(node.nodeId);
+            if (d == null || d[0] < node.generation) {
+                nodes.add(node);
+                versions.add(0L);
+            } else if (d[0] == node.generation && d[1] < node.version) {
+                nodes.add(node);
+                versions.add(d[1]);
+            }
+        }
+        outputStream.writeInt(nodes.size());
+        for (int i = 0; i < nodes.size(); i++) {
+            NodeState node = nodes.get(i);
+            long version = versions.get(i);
+            outputStream.writeInt(node.nodeId);
+            outputStream.writeLong(node.generation);
+            outputStream.writeLong(node.version);
+            outputStream.writeUTF((node.serverUri != null) ? node.serverUri : "");
+            List<Entry> entries = new ArrayList<>();
+            for (Entry entry : node.entries.values()) {
+                if (entry.version > version) {
+                    entries.add(entry);
+                }
+            }
+            outputStream.writeInt(entries.size());
+            for (Entry entry : entries) {
+                outputStream.writeUTF(entry.name);
+                outputStream.writeInt(entry.serviceId);
+                outputStream.writeLong(entry.version);
+                outputStream.writeBoolean(entry.withdrawn);
+                outputStream.writeInt(entry.announcements.size());
+                for (Map.Entry<String, String> announcement : entry.announcements.entrySet()) {
+                    outputStream.writeUTF(announcement.getKey());
+                    outputStream.writeUTF(announcement.getValue());
+                }
+            }
+        }
+        return nodes.size();
+    }
+
+    private void readDeltas(DataInputStream inputStream, List<Runnable> events) throws IOException {
+        int nodeCount = inputStream.readInt();
+        for (int i = 0; i < nodeCount; i++) {
+            int nodeId = inputStream.readInt();
+            long generation = inputStream.readLong();
+            long version = inputStream.readLong();
+            String serverUri = inputStream.readUTF();
+            int entryCount = inputStream.readInt();
+            List<Entry> entries = new ArrayList<>(entryCount);
+            for (int j = 0; j < entryCount; j++) {
+                String name = inputStream.readUTF();
+                int serviceId = inputStream.readInt();
+                long entryVersion = inputStream.readLong();
+                boolean withdrawn = inputStream.readBoolean();
+                int announcementCount = inputStream.readInt();
+                Map<String, String> announcements = new HashMap<>();
+                for (int k = 0; k < announcementCount; k++) {
+                    String scheme = inputStream.readUTF();
+                    announcements.put(scheme, inputStream.readUTF());
+                }
+                entries.add(new Entry(nodeId, name, serviceId, announcements, entryVersion, withdrawn));
+            }
+
+            if (nodeId == mNodeId) {
+                continue;
+            }
+            NodeState node = mNodes.get(nodeId);
+            if (node != null && generation < node.generation) {
+                continue;
+            }
+            if (node != null && node.expired && generation == node.generation && version <= node.version) {
+                // Stale gossip about an expired node.
+                continue;
+            }
+            if (node == null || generation > node.generation) {
+                if (node != null) {
+                    Log.d(LOG_TAG, "Node " + nodeId + " has been restarted");
+                    if (!node.expired) {
+                        for (Entry entry : node.entries.values()) {
+                            if (!entry.withdrawn) {
+                                onServiceLost(entry, events);
+                            }
+                        }
+                    }
+                }
+                node = new NodeState(nodeId, generation);
+                mNodes.put(nodeId, node);
+            } else if (node.expired) {
+                Log.d(LOG_TAG, "Node " + nodeId + " is alive again");
+                node.expired = false;
+                if (node.serverUri != null) {
+                    mServerUris.put(nodeId, node.serverUri);
+                }
+                for (Entry entry : node.entries.values()) {
+                    if (!entry.withdrawn) {
+                        onServiceFound(entry, events);
+                    }
+                }
+            }
+            if (version > node.version) {
+                node.updateTime = SystemClock.uptimeMillis();
+            }
+            if (!serverUri.isEmpty()) {
+                node.serverUri = serverUri;
+                mServerUris.put(nodeId, serverUri);
+            }
+            for (Entry entry : entries) {
+                Entry oldEntry = node.entries.get(entry.name);
+                if (oldEntry != null && oldEntry.version >= entry.version) {
+                    continue;
+                }
+                node.entries.put(entry.name, entry);
+                if (oldEntry != null && !oldEntry.withdrawn) {
+                    onServiceLost(oldEntry, events);
+                }
+                if (!entry.withdrawn) {
+                    onServiceFound(entry, events);
+                }
+            }
+            node.version = Math.max(node.version, version);
+        }
+    }
+
+    private void onServiceFound(Entry entry, List<Runnable> events) {
+        mServices.put(entry.name, entry);
+        events.add(() -> {
+            mOnServiceChanged.accept(entry.name);
+            for (Listener listener : mListeners.values()) {
+                listener.onServiceFound(entry);
+            }
+        });
+    }
+
+    private void onServiceLost(Entry entry, List<Runnable> events) {
+        mServices.remove(entry.name, entry);
+        events.add(() -> {
+            mOnServiceChanged.accept(entry.name);
+            for (Listener listener : mListeners.values()) {
+                listener.onServiceLost(entry);
+            }
+        });
+    }
+
+    private static void dispatch(List<Runnable> events) {
+        for (Runnable event : events) {
+            event.run();
+        }
+    }
+
+    private static final class NodeState {
+        final int nodeId;
+        final long generation;
+        long version = 0;
+        String serverUri;
+        final Map<String, Entry> entries = new HashMap<>();
+        // The time the version of the node last advanced.
+        long updateTime = SystemClock.uptimeMillis();
+        boolean expired = false;
+
+        NodeState(int nodeId, long generation) {
+            this.nodeId = nodeId;
+            this.generation = generation;
+        }
+    }
+
+    private static final class Entry {
+        final int nodeId;
+        final String name;
+        final int serviceId;
+        final Map<String, String> announcements;
+        final long version;
+        final boolean withdrawn;
+
+        Entry(int nodeId, String name, int serviceId, Map<String, String> announcements, long version, boolean withdrawn) {
+            this.nodeId = nodeId;
+            this.name = name;
+            this.serviceId = serviceId;
+            this.announcements = announcements;
+            this.version = version;
+            this.withdrawn = withdrawn;
+        }
+
+        String getProxyUri(String scheme) {
+            String interfaceDescriptor = announcements.get(scheme);
+            if (interfaceDescriptor == null) {
+                return null;
+            }
+            try {
+                URI uri = new URI(interfaceDescriptor);
+                return new URI(scheme, nodeId + "." + serviceId, "/if=" + uri.getPath().substring(1), uri.getQuery(), null).toString();
+            } catch (Exception e) {
+                return null;
+            }
+        }
+    }
+
+    private static final class Listener {
+        final String mInterfaceDescriptor;
+        final IDiscoveryListener mListener;
+
+        Listener(String interfaceDescriptor, IDiscoveryListener listener) {
+            mInterfaceDescriptor = interfaceDescriptor;
+            mListener = listener;
+        }
+
+        void onServiceFound(Entry entry) {
+            for (ServiceInfo serviceInfo : getServiceInfos(entry)) {
+                try {
+                    mListener.onServiceFound(serviceInfo);
+                } catch (RemoteException e) {
+                    Log.w(LOG_TAG, "Failed to notify discovery listener", e);
+                }
+            }
+        }
+
+        void onServiceLost(Entry entry) {
+            for (ServiceInfo serviceInfo : getServiceInfos(entry)) {
+                try {
+                    mListener.onServiceLost(serviceInfo);
+                } catch (RemoteException e) {
+                    Log.w(LOG_TAG, "Failed to notify discovery listener", e);
+                }
+            }
+        }
+
+        private List<ServiceInfo> getServiceInfos(Entry entry) {
+            List<ServiceInfo> serviceInfos = new ArrayList<>();
+            for (Map.Entry<String, String> announcement : entry.announcements.entrySet()) {
+                if (matches(announcement.getKey(), announcement.getValue())) {
+                    String proxyUri = entry.getProxyUri(announcement.getKey());
+                    if (proxyUri != null) {
+                        Bundle extras = new Bundle();
+                        extras.putString(EXTRA_NAME, entry.name);
+                        serviceInfos.add(new ServiceInfo(announcement.getValue(), extras, URI.create(proxyUri)));
+                    }
+                }
+            }
+            return serviceInfos;
+        }
+
+        private boolean matches(String scheme, String interfaceDescriptor) {
+            if (mInterfaceDescriptor.contains("://")) {
+                return mInterfaceDescriptor.equals(interfaceDescriptor);
+            } else {
+                return mInterfaceDescriptor.equals(scheme);
+            }
+        }
+    }
+}
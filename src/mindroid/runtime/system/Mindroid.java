@@ -16,55 +16,120 @@
 
 package mindroid.runtime.system;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.lang.ref.WeakReference;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
-import java.util.HashMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.concurrent.locks.ReentrantLock;
+import mindroid.io.ChunkedInputStream;
 import mindroid.os.Binder;
 import mindroid.os.Bundle;
 import mindroid.os.IBinder;
 import mindroid.os.IInterface;
 import mindroid.os.Parcel;
 import mindroid.os.RemoteException;
+import mindroid.os.SystemClock;
 import mindroid.runtime.sd.IDiscoveryListener;
+import mindroid.runtime.sd.ServiceInfo;
 import mindroid.runtime.system.io.AbstractClient;
 import mindroid.runtime.system.io.AbstractServer;
 import mindroid.util.Log;
+import mindroid.util.Properties;
 import mindroid.util.concurrent.CompletionException;
 import mindroid.util.concurrent.Executors;
 import mindroid.util.concurrent.Promise;
+import mindroid.util.concurrent.SegmentedLruCache;
+import mindroid.util.metrics.Counter;
+import mindroid.util.metrics.CountingInputStream;
+import mindroid.util.metrics.CountingOutputStream;
+import mindroid.util.metrics.Histogram;
+import mindroid.util.metrics.Metrics;
 
 public class Mindroid extends Plugin {
     private static String LOG_TAG = "Mindroid";
     private static final String TIMEOUT = "timeout";
     private static final long DEFAULT_TRANSACTION_TIMEOUT = 10000;
+    private static final int DEFAULT_LANES = 1;
+    private static final int DEFAULT_MAX_IN_FLIGHT_TRANSACTIONS = 1024;
+    private static final long DEFAULT_MAX_IN_FLIGHT_BYTES = 8 * 1024 * 1024;
+    private static final int MAX_PENDING_TRANSACTIONS = 4096;
+    private static final long INITIAL_RECONNECT_DELAY = 100; //ms
+    private static final long MAX_RECONNECT_DELAY = 10000; //ms
+    private static final long STABLE_CONNECTION_TIME = 10000; //ms
+    private static final int MAX_CONNECTION_ATTEMPTS = 3;
+    private static final int MAX_QUEUED_TRANSACTIONS = 64;
+    private static final long DEFAULT_IDLE_CONNECTION_TIMEOUT = 60000; //ms
+    private static final int DEFAULT_NAME_RESOLUTION_CACHE_SIZE = 1024;
+    private static final long DEFAULT_GOSSIP_INTERVAL = 1000; //ms
+    private static final long DEFAULT_GOSSIP_NODE_TIMEOUT = 30000; //ms
+    private static final long DEFAULT_HEARTBEAT_INTERVAL = 1000; //ms
+    private static final long DEFAULT_HEARTBEAT_TIMEOUT = 3000; //ms
+    private static final long DEFAULT_HELLO_TIMEOUT = 1000; //ms
+    private static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
     private static final boolean DEBUG = false;
     private static final ScheduledThreadPoolExecutor sExecutor;
+    private static final ThreadPoolExecutor sConnectionExecutor;
 
     private ServiceDiscoveryConfigurationReader.Configuration mConfiguration;
     private Server mServer;
-    private Map<Integer, Client> mClients = new ConcurrentHashMap<>();
-    private final Map<Integer, Map<Long, WeakReference<IBinder>>> mProxies = new HashMap<>();
-    private final Map<String, URI> mNameResolutionCache = new LinkedHashMap<String, URI>(16, 0.75f, true) {
-        @Override
-        protected boolean removeEldestEntry(Map.Entry<String, URI> eldest) {
-            return size() > 100;
-        }
-    };
+    private int mLaneCount = DEFAULT_LANES;
+    private int mMaxInFlightTransactions = DEFAULT_MAX_IN_FLIGHT_TRANSACTIONS;
+    private long mMaxInFlightBytes = DEFAULT_MAX_IN_FLIGHT_BYTES;
+    private final Counter mWindowStalls = new Counter();
+    private final Histogram mWindowStallTime = new Histogram();
+    private final Counter mWindowViolations = new Counter();
+    // Incoming transactions and the transactions among them that failed.
+    private final Counter mServerTransactions = new Counter();
+    private final Counter mServerFailures = new Counter();
+    private long mIdleConnectionTimeout = DEFAULT_IDLE_CONNECTION_TIMEOUT;
+    private long mHeartbeatTimeout = DEFAULT_HEARTBEAT_TIMEOUT;
+    private long mHelloTimeout = DEFAULT_HELLO_TIMEOUT;
+    private int mChunkSize = DEFAULT_CHUNK_SIZE;
+    private int mCompressionThreshold = 0;
+    // Compression statistics by node id.
+    private final Map<Integer, Compression.Statistics> mCompressionStatistics = new ConcurrentHashMap<>();
+    // Lanes by node id (upper 32 bits) and lane id (lower 32 bits).
+    private final Map<Long, Lane> mLanes = new ConcurrentHashMap<>();
+    // Proxy ids by node id. A node without proxies is idle and its connections are closed after mIdleConnectionTimeout.
+    private final Map<Integer, Set<Long>> mProxies = new ConcurrentHashMap<>();
+    private final SegmentedLruCache<String, NameResolution> mNameResolutionCache =
+            new SegmentedLruCache<>(Math.max(1, Integer.getInteger(Properties.NAME_RESOLUTION_CACHE_SIZE, DEFAULT_NAME_RESOLUTION_CACHE_SIZE)));
+    private GossipServiceDiscovery mServiceDiscovery;
+    private ScheduledFuture<?> mGossipTask;
+    private long mGossipNodeTimeout = DEFAULT_GOSSIP_NODE_TIMEOUT;
+    private ScheduledFuture<?> mHeartbeatTask;
+    // Supervisors of remote binders by node id.
+    private final Map<Integer, Set<Link>> mLinks = new ConcurrentHashMap<>();
 
     static {
         sExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
@@ -79,6 +144,39 @@ public class Mindroid extends Plugin {
         sExecutor.setKeepAliveTime(10, TimeUnit.SECONDS);
         sExecutor.allowCoreThreadTimeOut(true);
         sExecutor.setRemoveOnCancelPolicy(true);
+
+        // Connections are established asynchronously so that a slow or unreachable node does not block transactions to other nodes.
+        sConnectionExecutor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 10, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger(1);
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r);
+                t.setDaemon(true);
+                t.setName("MindroidConnector #" + mCount.getAndIncrement());
+                return t;
+            }
+        });
+    }
+
+    @Override
+    public void setUp(Runtime runtime) {
+        super.setUp(runtime);
+        // Services may be added while the plugin is being started.
+        String serverUri = null;
+        ServiceDiscoveryConfigurationReader.Configuration configuration = runtime.getConfiguration();
+        if (configuration != null) {
+            ServiceDiscoveryConfigurationReader.Configuration.Node node = configuration.nodes.get(runtime.getNodeId());
+            if (node != null) {
+                ServiceDiscoveryConfigurationReader.Configuration.Plugin plugin = node.plugins.get("mindroid");
+                if (plugin != null && plugin.server != null) {
+                    serverUri = plugin.server.uri;
+                }
+            }
+        }
+        mServiceDiscovery = new GossipServiceDiscovery(runtime.getNodeId(), serverUri, name -> {
+            invalidateNameResolutionCache(name, null);
+        });
     }
 
     @Override
@@ -86,6 +184,20 @@ public class Mindroid extends Plugin {
         int nodeId = mRuntime.getNodeId();
         LOG_TAG = "Mindroid [" + nodeId + "]";
         mConfiguration = mRuntime.getConfiguration();
+        mLaneCount = Math.max(1, Integer.getInteger(Properties.MINDROID_LANES, DEFAULT_LANES));
+        int maxInFlightTransactions = Integer.getInteger(Properties.MINDROID_MAX_IN_FLIGHT_TRANSACTIONS, DEFAULT_MAX_IN_FLIGHT_TRANSACTIONS);
+        mMaxInFlightTransactions = (maxInFlightTransactions > 0) ? maxInFlightTransactions : Integer.MAX_VALUE;
+        long maxInFlightBytes = Long.getLong(Properties.MINDROID_MAX_IN_FLIGHT_BYTES, DEFAULT_MAX_IN_FLIGHT_BYTES);
+        mMaxInFlightBytes = (maxInFlightBytes > 0) ? maxInFlightBytes : Long.MAX_VALUE;
+        mIdleConnectionTimeout = Long.getLong(Properties.MINDROID_IDLE_CONNECTION_TIMEOUT, DEFAULT_IDLE_CONNECTION_TIMEOUT);
+        mChunkSize = Integer.getInteger(Properties.MINDROID_CHUNK_SIZE, DEFAULT_CHUNK_SIZE);
+        mHelloTimeout = Long.getLong(Properties.MINDROID_HELLO_TIMEOUT, DEFAULT_HELLO_TIMEOUT);
+        mCompressionThreshold = Math.max(0, Integer.getInteger(Properties.COMPRESSION_THRESHOLD, 0));
+        Metrics.register("mindroid.server.transactions", null, mServerTransactions);
+        Metrics.register("mindroid.server.failures", null, mServerFailures);
+        Metrics.register("mindroid.windowStalls", null, mWindowStalls);
+        Metrics.register("mindroid.windowStallTime", null, mWindowStallTime);
+        Metrics.register("mindroid.windowViolations", null, mWindowViolations);
         if (mConfiguration != null) {
             ServiceDiscoveryConfigurationReader.Configuration.Node node = mConfiguration.nodes.get(nodeId);
             if (node != null) {
@@ -104,14 +216,44 @@ public class Mindroid extends Plugin {
                 }
             }
         }
+        long gossipInterval = Long.getLong(Properties.MINDROID_GOSSIP_INTERVAL, DEFAULT_GOSSIP_INTERVAL);
+        mGossipNodeTimeout = Long.getLong(Properties.MINDROID_GOSSIP_NODE_TIMEOUT, DEFAULT_GOSSIP_NODE_TIMEOUT);
+        if (gossipInterval > 0) {
+            mGossipTask = sExecutor.scheduleWithFixedDelay(this::gossip, gossipInterval, gossipInterval, TimeUnit.MILLISECONDS);
+        }
+        long heartbeatInterval = Long.getLong(Properties.MINDROID_HEARTBEAT_INTERVAL, DEFAULT_HEARTBEAT_INTERVAL);
+        mHeartbeatTimeout = Long.getLong(Properties.MINDROID_HEARTBEAT_TIMEOUT, DEFAULT_HEARTBEAT_TIMEOUT);
+        if (heartbeatInterval > 0) {
+            mHeartbeatTask = sExecutor.scheduleWithFixedDelay(this::heartbeat, heartbeatInterval, heartbeatInterval, TimeUnit.MILLISECONDS);
+        }
         return new Promise<>((Void) null);
     }
 
     @Override
     public Promise<Void> stop(URI uri, Bundle extras) {
+        if (mGossipTask != null) {
+            mGossipTask.cancel(false);
+            mGossipTask = null;
+        }
+        if (mHeartbeatTask != null) {
+            mHeartbeatTask.cancel(false);
+            mHeartbeatTask = null;
+        }
         if (mServer != null) {
             mServer.shutdown(null);
         }
+        Iterator<Lane> itr = mLanes.values().iterator();
+        while (itr.hasNext()) {
+            Lane lane = itr.next();
+            itr.remove();
+            lane.close();
+        }
+        mLinks.clear();
+        Metrics.remove("mindroid.server.transactions");
+        Metrics.remove("mindroid.server.failures");
+        Metrics.remove("mindroid.windowStalls");
+        Metrics.remove("mindroid.windowStallTime");
+        Metrics.remove("mindroid.windowViolations");
         return new Promise<>((Void) null);
     }
 
@@ -121,10 +263,16 @@ public class Mindroid extends Plugin {
 
     @Override
     public void addService(URI uri, Binder service) {
+        invalidateNameResolutionCache(uri.getAuthority(), service.getUri().getAuthority());
+        if (service.getInterfaceDescriptor() != null) {
+            mServiceDiscovery.announce(uri.getAuthority(), (int) service.getId(), service.getInterfaceDescriptor());
+        }
     }
 
     @Override
     public void removeService(Binder service) {
+        invalidateNameResolutionCache(null, service.getUri().getAuthority());
+        mServiceDiscovery.withdraw((int) service.getId());
     }
 
     @Override
@@ -132,36 +280,55 @@ public class Mindroid extends Plugin {
     }
 
     @Override
-    public synchronized void attachProxy(long proxyId, Binder.Proxy proxy) {
+    public void attachProxy(long proxyId, Binder.Proxy proxy) {
         int nodeId = (int) ((proxy.getId() >> 32) & 0xFFFFFFFFL);
-        if (!mProxies.containsKey(nodeId)) {
-            mProxies.put(nodeId, new HashMap<>());
-        }
-        mProxies.get(nodeId).put(proxyId, new WeakReference<>(proxy));
+        mProxies.compute(nodeId, (key, proxies) -> {
+            if (proxies == null) {
+                proxies = ConcurrentHashMap.newKeySet();
+            }
+            proxies.add(proxyId);
+            return proxies;
+        });
     }
 
     @Override
-    public synchronized void detachProxy(long proxyId, long binderId) {
-        // TODO: Lazy connection shutdown for clients without proxies.
-//        int nodeId = (int) ((binderId >> 32) & 0xFFFFFFFFL);
-//        if (mProxies.containsKey(nodeId)) {
-//            Map<Long, WeakReference<IBinder>> proxies = mProxies.get(nodeId);
-//            proxies.remove(proxyId);
-//            if (proxies.isEmpty()) {
-//                mProxies.remove(nodeId);
-//                Client client = mClients.get(nodeId);
-//                if (client != null) {
-//                    client.shutdown(null);
-//                    mClients.remove(nodeId);
-//                }
-//            }
-//        } else {
-//            Client client = mClients.get(nodeId);
-//            if (client != null) {
-//                client.shutdown(null);
-//                mClients.remove(nodeId);
-//            }
-//        }
+    public void detachProxy(long proxyId, long binderId) {
+        int nodeId = (int) ((binderId >> 32) & 0xFFFFFFFFL);
+        Set<Long> proxies = mProxies.computeIfPresent(nodeId, (key, value) -> {
+            value.remove(proxyId);
+            return value.isEmpty() ? null : value;
+        });
+        if (proxies == null) {
+            scheduleIdleConnectionShutdown(nodeId);
+        }
+    }
+
+    private void scheduleIdleConnectionShutdown(int nodeId) {
+        if (mIdleConnectionTimeout <= 0) {
+            return;
+        }
+        try {
+            sExecutor.schedule(() -> {
+                shutdownIdleConnections(nodeId);
+            }, mIdleConnectionTimeout, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException ignore) {
+        }
+    }
+
+    private void shutdownIdleConnections(int nodeId) {
+        if (mProxies.containsKey(nodeId)) {
+            return;
+        }
+        boolean idle = true;
+        for (Lane lane : mLanes.values()) {
+            if (lane.mNodeId == nodeId) {
+                idle &= lane.disconnectIfIdle();
+            }
+        }
+        if (!idle) {
+            // Transactions are still in flight, try again later.
+            scheduleIdleConnectionShutdown(nodeId);
+        }
     }
 
     @Override
@@ -175,94 +342,358 @@ public class Mindroid extends Plugin {
     }
 
     @Override
-    public synchronized Binder.Proxy resolveService(URI uri) {
+    public Binder.Proxy resolveService(URI uri) {
         final String key = uri.toString();
-        URI proxyUri = mNameResolutionCache.get(key);
-        if (proxyUri != null) {
-            return new Binder.Proxy(proxyUri);
+        NameResolution nameResolution = mNameResolutionCache.get(key);
+        if (nameResolution != null) {
+            return new Binder.Proxy(nameResolution.mProxyUri);
         }
 
+        String serviceProxyUri = null;
         if (mConfiguration != null) {
             ServiceDiscoveryConfigurationReader.Configuration.Service service = mConfiguration.services.get(uri.getAuthority());
-            if (service == null) {
-                return null;
+            if (service != null) {
+                serviceProxyUri = service.proxyUris.get(uri.getScheme());
             }
-
-            try {
-                URI interfaceDescriptor = new URI(service.announcements.get(uri.getScheme()));
-                proxyUri = new URI(uri.getScheme(), service.node.id + "." + service.id, "/if=" + interfaceDescriptor.getPath().substring(1), interfaceDescriptor.getQuery(), null);
-                Binder.Proxy proxy = new Binder.Proxy(proxyUri);
-                mNameResolutionCache.put(key, proxyUri);
-                return proxy;
-            } catch (Exception e) {
+        }
+        if (serviceProxyUri == null) {
+            serviceProxyUri = mServiceDiscovery.getProxyUri(uri.getAuthority(), uri.getScheme());
+            if (serviceProxyUri == null) {
                 return null;
             }
-        } else {
+        }
+
+        try {
+            URI proxyUri = URI.create(serviceProxyUri);
+            Binder.Proxy proxy = new Binder.Proxy(proxyUri);
+            mNameResolutionCache.put(key, new NameResolution(uri.getAuthority(), proxyUri));
+            return proxy;
+        } catch (Exception e) {
             return null;
         }
     }
 
+    public SegmentedLruCache<String, ?> getNameResolutionCache() {
+        return mNameResolutionCache;
+    }
+
+    /**
+     * Returns the number of transactions that had to wait for a free slot in the flow control window of their connection.
+     */
+    public long getWindowStallCount() {
+        return mWindowStalls.getCount();
+    }
+
+    /**
+     * Returns the time in nanoseconds transactions waited for a free slot in the flow control window of their connection.
+     */
+    public Histogram getWindowStallTime() {
+        return mWindowStallTime;
+    }
+
+    /**
+     * Returns the number of incoming transactions that have been rejected because they exceeded the flow control window.
+     */
+    public long getWindowViolationCount() {
+        return mWindowViolations.getCount();
+    }
+
+    /**
+     * Returns the compression statistics of the connections to and from other nodes by node id.
+     */
+    public Map<Integer, Compression.Statistics> getCompressionStatistics() {
+        return Collections.unmodifiableMap(mCompressionStatistics);
+    }
+
+    private Compression.Statistics getCompressionStatistics(int nodeId) {
+        return mCompressionStatistics.computeIfAbsent(nodeId, key -> new Compression.Statistics());
+    }
+
+    /**
+     * Negotiates the compression of a connection. Compression is used if it is enabled on both nodes and
+     * both use the same dictionary. Then the larger of the two thresholds applies.
+     */
+    private int negotiateCompressionThreshold(int threshold, int dictionaryId) {
+        if (threshold <= 0 || mCompressionThreshold <= 0 || dictionaryId != Compression.getDictionaryId()) {
+            return 0;
+        }
+        return Math.max(threshold, mCompressionThreshold);
+    }
+
+    /**
+     * Drops cached name resolutions for the service {@code serviceName} and for the binder with the URI authority {@code authority}.
+     */
+    private void invalidateNameResolutionCache(String serviceName, String authority) {
+        mNameResolutionCache.removeIf((key, nameResolution) -> (authority != null && authority.equals(nameResolution.mProxyUri.getAuthority()))
+                || (serviceName != null && serviceName.equals(nameResolution.mServiceName)));
+    }
+
+    /**
+     * A cached name resolution. The service name is kept so that invalidations do not parse the service URIs.
+     */
+    private static final class NameResolution {
+        final String mServiceName;
+        final URI mProxyUri;
+
+        NameResolution(String serviceName, URI proxyUri) {
+            mServiceName = serviceName;
+            mProxyUri = proxyUri;
+        }
+    }
+
+    /**
+     * Runs a gossip round with a random remote node. Nodes that are already connected are preferred so that gossip
+     * does not keep connections open on its own. Only if there are none, a connection to any known node is
+     * established, which is closed again once it has been idle for mIdleConnectionTimeout. Nodes before
+     * {@link Message#GOSSIP_VERSION} are skipped.
+     */
+    private void gossip() {
+        mServiceDiscovery.expire(mGossipNodeTimeout);
+        List<Integer> nodeIds = new ArrayList<>();
+        List<Integer> connectedNodeIds = new ArrayList<>();
+        for (Lane lane : mLanes.values()) {
+            if (lane.isConnected() && !connectedNodeIds.contains(lane.mNodeId)) {
+                connectedNodeIds.add(lane.mNodeId);
+            }
+            if (lane.supports(Message.GOSSIP_VERSION) && !nodeIds.contains(lane.mNodeId)) {
+                nodeIds.add(lane.mNodeId);
+            }
+        }
+        nodeIds.remove(Integer.valueOf(mRuntime.getNodeId()));
+        if (!nodeIds.isEmpty()) {
+            gossip(nodeIds.get(ThreadLocalRandom.current().nextInt(nodeIds.size())));
+            return;
+        }
+        nodeIds.addAll(mServiceDiscovery.getNodeIds());
+        if (mConfiguration != null) {
+            for (ServiceDiscoveryConfigurationReader.Configuration.Node node : mConfiguration.nodes.values()) {
+                ServiceDiscoveryConfigurationReader.Configuration.Plugin plugin = node.plugins.get("mindroid");
+                if (plugin != null && plugin.server != null && !nodeIds.contains(node.id)) {
+                    nodeIds.add(node.id);
+                }
+            }
+        }
+        nodeIds.remove(Integer.valueOf(mRuntime.getNodeId()));
+        // The connected nodes do not support gossip.
+        nodeIds.removeAll(connectedNodeIds);
+        if (nodeIds.isEmpty()) {
+            return;
+        }
+        gossip(nodeIds.get(ThreadLocalRandom.current().nextInt(nodeIds.size())));
+    }
+
+    private void gossip(int nodeId) {
+        try {
+            getLane(((long) nodeId << 32), "mindroid").send(Message.newGossipMessage(GossipServiceDiscovery.SYN, mServiceDiscovery.createSyn()),
+                    Message.GOSSIP_VERSION);
+        } catch (IOException | RemoteException e) {
+            if (DEBUG) {
+                Log.d(LOG_TAG, "Gossip with node " + nodeId + " failed: " + e);
+            }
+        }
+    }
+
+    /**
+     * Sends a heartbeat on every connection and shuts down the connections that have been silent for longer than the heartbeat timeout.
+     */
+    private void heartbeat() {
+        for (Lane lane : mLanes.values()) {
+            lane.heartbeat();
+        }
+    }
+
     @Override
     public Promise<Parcel> transact(IBinder binder, int what, Parcel data, int flags) throws RemoteException {
-        int nodeId = (int) ((binder.getId() >> 32) & 0xFFFFFFFFL);
-        Client client;
-        synchronized (this) {
-            client = mClients.get(nodeId);
-            if (client == null) {
-                if (mConfiguration != null) {
-                    ServiceDiscoveryConfigurationReader.Configuration.Node node = mConfiguration.nodes.get(nodeId);
-                    if (node != null) {
-                        ServiceDiscoveryConfigurationReader.Configuration.Plugin plugin = node.plugins.get(binder.getUri().getScheme());
-                        if (plugin != null) {
-                            ServiceDiscoveryConfigurationReader.Configuration.Server server = plugin.server;
-                            if (server != null) {
-                                try {
-                                    client = new Client(node.id);
-                                    client.start(server.uri);
-                                    if (!client.isClosed()) {
-                                        mClients.put(nodeId, client);
-                                    } else {
-                                        throw new RemoteException("Binder transaction failure");
-                                    }
-                                } catch (IOException e) {
-                                    throw new RemoteException("Binder transaction failure");
-                                }
-                            } else {
-                                throw new RemoteException("Binder transaction failure");
-                            }
-                        } else {
-                            throw new RemoteException("Binder transaction failure");
-                        }
-                    } else {
-                        throw new RemoteException("Binder transaction failure");
+        Call call = new Call(binder, what, data, flags, ((flags & Binder.FLAG_ONEWAY) != 0) ? null : new Promise<>(Executors.SYNCHRONOUS_EXECUTOR));
+        getLane(binder).transact(call);
+        return call.result;
+    }
+
+    @Override
+    public void transact(List<Transaction> transactions) throws RemoteException {
+        Map<Long, List<Call>> batches = new LinkedHashMap<>();
+        for (Transaction transaction : transactions) {
+            long key = getLaneKey(transaction.binder);
+            List<Call> batch = batches.get(key);
+            if (batch == null) {
+                batch = new ArrayList<>();
+                batches.put(key, batch);
+            }
+            batch.add(new Call(transaction.binder, transaction.what, transaction.data, transaction.flags, transaction.result));
+        }
+        for (List<Call> batch : batches.values()) {
+            try {
+                getLane(batch.get(0).binder).transact(batch);
+            } catch (RemoteException e) {
+                for (Call call : batch) {
+                    if (call.result != null) {
+                        call.result.completeWith(e);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Transactions are distributed across the lanes to a node by binder id. Thus all transactions to
+     * the same binder use the same connection and keep their order.
+     */
+    private long getLaneKey(IBinder binder) {
+        long id = binder.getId();
+        int nodeId = (int) ((id >> 32) & 0xFFFFFFFFL);
+        int lane = Math.floorMod(Long.hashCode(id), mLaneCount);
+        return ((long) nodeId << 32) | (lane & 0xFFFFFFFFL);
+    }
+
+    private Lane getLane(IBinder binder) throws RemoteException {
+        return getLane(getLaneKey(binder), binder.getUri().getScheme());
+    }
+
+    private Lane getLane(long key, String scheme) throws RemoteException {
+        Lane lane = mLanes.get(key);
+        if (lane == null) {
+            final int nodeId = (int) ((key >> 32) & 0xFFFFFFFFL);
+            final int id = (int) (key & 0xFFFFFFFFL);
+            final String uri = getServerUri(nodeId, scheme);
+            lane = mLanes.computeIfAbsent(key, k -> new Lane(nodeId, id, uri));
+        }
+        return lane;
+    }
+
+    private String getServerUri(int nodeId, String scheme) throws RemoteException {
+        if (mConfiguration != null) {
+            ServiceDiscoveryConfigurationReader.Configuration.Node node = mConfiguration.nodes.get(nodeId);
+            if (node != null) {
+                ServiceDiscoveryConfigurationReader.Configuration.Plugin plugin = node.plugins.get(scheme);
+                if (plugin != null) {
+                    ServiceDiscoveryConfigurationReader.Configuration.Server server = plugin.server;
+                    if (server != null) {
+                        return server.uri;
                     }
-                } else {
-                    throw new RemoteException("Binder transaction failure");
                 }
             }
         }
-        return client.transact(binder, what, data, flags);
+        if ("mindroid".equals(scheme)) {
+            String serverUri = mServiceDiscovery.getServerUri(nodeId);
+            if (serverUri != null) {
+                return serverUri;
+            }
+        }
+        throw new RemoteException("Binder transaction failure");
     }
 
+    /**
+     * Links the supervisor to the node hosting the remote binder. If the connection to that node is lost or fails
+     * its heartbeats, all supervisors linked to binders of the node are notified. The binder is referenced until
+     * it is unlinked or its node exits.
+     */
     @Override
     public void link(IBinder binder, IBinder.Supervisor supervisor, Bundle extras) throws RemoteException {
+        Lane lane = getLane(binder);
+        Link link = new Link(binder, supervisor);
+        mLinks.compute(lane.mNodeId, (key, links) -> {
+            if (links == null) {
+                links = ConcurrentHashMap.newKeySet();
+            }
+            links.add(link);
+            return links;
+        });
+        try {
+            lane.supervise();
+        } catch (RemoteException e) {
+            unlink(binder, supervisor, extras);
+            throw e;
+        }
     }
 
     @Override
     public boolean unlink(IBinder binder, IBinder.Supervisor supervisor, Bundle extras) {
+        int nodeId = (int) ((binder.getId() >> 32) & 0xFFFFFFFFL);
+        Set<Link> links = mLinks.get(nodeId);
+        if (links == null || !links.remove(new Link(binder, supervisor))) {
+            return false;
+        }
+        mLinks.computeIfPresent(nodeId, (key, value) -> value.isEmpty() ? null : value);
         return true;
     }
 
+    /**
+     * A node has only exited if none of its lanes is connected or connecting. A single failed lane, e.g. due to a
+     * heartbeat timeout caused by a large transaction on that lane, does not take the other lanes down with it.
+     */
+    private void onLaneFailure(Lane failedLane, Throwable cause) {
+        for (Lane lane : mLanes.values()) {
+            if (lane != failedLane && lane.mNodeId == failedLane.mNodeId && !lane.isDisconnected()) {
+                return;
+            }
+        }
+        onNodeExit(failedLane.mNodeId, cause);
+    }
+
+    private void onNodeExit(int nodeId, Throwable cause) {
+        Set<Link> links = mLinks.remove(nodeId);
+        if (links == null) {
+            return;
+        }
+        Log.d(LOG_TAG, "Node " + nodeId + " has exited: " + cause);
+        List<IBinder.Supervisor> supervisors = new ArrayList<>();
+        for (Link link : links) {
+            // Concurrently unlinked supervisors are not notified.
+            if (links.remove(link)) {
+                supervisors.add(link.supervisor);
+            }
+        }
+        if (supervisors.isEmpty()) {
+            return;
+        }
+        // Supervisors are notified off the connection and heartbeat threads since they may block.
+        Runnable notification = () -> {
+            for (IBinder.Supervisor supervisor : supervisors) {
+                try {
+                    supervisor.onExit(0);
+                } catch (RuntimeException e) {
+                    Log.println('E', LOG_TAG, "Supervisor failure", e);
+                }
+            }
+        };
+        try {
+            sConnectionExecutor.execute(notification);
+        } catch (RejectedExecutionException e) {
+            notification.run();
+        }
+    }
+
     @Override
     public void discoverServices(String interfaceDescriptor, Bundle extras, IDiscoveryListener listener) throws URISyntaxException {
         try {
-            listener.onStartDiscoveryFailed(new UnsupportedOperationException("No service discovery support"));
+            listener.onDiscoveryStarted();
+            // Statically configured services.
+            if (mConfiguration != null) {
+                for (ServiceDiscoveryConfigurationReader.Configuration.Service service : mConfiguration.services.values()) {
+                    for (Map.Entry<String, String> announcement : service.announcements.entrySet()) {
+                        String proxyUri = service.proxyUris.get(announcement.getKey());
+                        if (proxyUri != null && (interfaceDescriptor.equals(announcement.getValue()) || interfaceDescriptor.equals(announcement.getKey()))) {
+                            Bundle serviceExtras = new Bundle();
+                            serviceExtras.putString(GossipServiceDiscovery.EXTRA_NAME, service.name);
+                            listener.onServiceFound(new ServiceInfo(announcement.getValue(), serviceExtras, URI.create(proxyUri)));
+                        }
+                    }
+                }
+            }
         } catch (RemoteException ignore) {
         }
+        // Dynamically announced services.
+        mServiceDiscovery.addListener(interfaceDescriptor, listener);
     }
 
     @Override
     public void stopServiceDiscovery(IDiscoveryListener listener) {
+        if (mServiceDiscovery.removeListener(listener)) {
+            try {
+                listener.onDiscoveryStopped();
+            } catch (RemoteException ignore) {
+            }
+        }
     }
 
     @Override
@@ -276,15 +707,45 @@ public class Mindroid extends Plugin {
         return null;
     }
 
-    public void onShutdown(AbstractClient client) {
-        synchronized (this) {
-            mClients.remove(client.getNodeId(), client);
-        }
-    }
-
     private static class Message {
         public static final int MESSAGE_TYPE_TRANSACTION = 1;
         public static final int MESSAGE_TYPE_EXCEPTION_TRANSACTION = 2;
+        public static final int MESSAGE_TYPE_BATCH = 3;
+        public static final int MESSAGE_TYPE_GOSSIP = 4;
+        public static final int MESSAGE_TYPE_HEARTBEAT = 5;
+        public static final int MESSAGE_TYPE_CHUNK = 6;
+        public static final int MESSAGE_TYPE_HELLO = 7;
+        public static final int MESSAGE_TYPE_CREDIT = 8;
+        // The data of a compressed message is preceded by its uncompressed size.
+        public static final int MESSAGE_FLAG_COMPRESSED = 0x100;
+        // The data of a message with extras is followed by the binary encoding of the parcel extras.
+        public static final int MESSAGE_FLAG_EXTRAS = 0x200;
+        // The data of a message with long strings may contain strings of Parcel.MAX_SHORT_STRING_SIZE or more bytes.
+        public static final int MESSAGE_FLAG_LONG_STRINGS = 0x400;
+        private static final int MAX_EXTRAS_SIZE = 64 * 1024;
+        private static final int HELLO_VERSION = 4;
+        // The version assumed for servers that do not reply to hello messages. Such nodes only understand
+        // transaction and exception messages without flags.
+        public static final int LEGACY_VERSION = 1;
+        // The first version that supports messages with extras.
+        public static final int EXTRAS_VERSION = 2;
+        // The first version that answers heartbeat pings.
+        public static final int HEARTBEAT_VERSION = 2;
+        // The first version that takes part in the gossip-based service discovery.
+        public static final int GOSSIP_VERSION = 2;
+        // The first version that supports batch messages.
+        public static final int BATCH_VERSION = 2;
+        // The first version that supports chunked transactions.
+        public static final int CHUNK_VERSION = 2;
+        // The first version that supports messages with long strings.
+        public static final int LONG_STRINGS_VERSION = 3;
+        // The first version that flow controls chunked transactions with stream credits.
+        public static final int STREAM_CREDIT_VERSION = 4;
+        // The number of bytes of a chunked transaction that may be sent before the receiver grants more credit.
+        public static final int STREAM_WINDOW = 1024 * 1024;
+        public static final int HEARTBEAT_PING = 1;
+        public static final int HEARTBEAT_PONG = 2;
+        private static final byte[] EMPTY_DATA = new byte[0];
 
         private Message(int type, String uri, int transactionId, int what, byte[] data, int size) {
             this(type, uri, transactionId, what, data, size, null);
@@ -300,6 +761,12 @@ public class Mindroid extends Plugin {
             this.cause = cause;
         }
 
+        private Message(String uri, int transactionId, int what, byte[] data, int offset, int size, int totalSize) {
+            this(MESSAGE_TYPE_CHUNK, uri, transactionId, what, data, size, null);
+            this.offset = offset;
+            this.totalSize = totalSize;
+        }
+
         public static Message newMessage(String uri, int transactionId, int what, byte[] data) {
             return newMessage(uri, transactionId, what, data, data.length);
         }
@@ -308,6 +775,17 @@ public class Mindroid extends Plugin {
             return new Message(MESSAGE_TYPE_TRANSACTION, uri, transactionId, what, data, size);
         }
 
+        /**
+         * Creates a transaction message with the data of {@code parcel}. The extras of the parcel are only
+         * included if {@code extras} is true, i.e. if the receiver supports {@link #EXTRAS_VERSION}.
+         */
+        public static Message newMessage(String uri, int transactionId, int what, Parcel parcel, boolean extras) {
+            Message message = new Message(MESSAGE_TYPE_TRANSACTION, uri, transactionId, what, parcel.getByteArray(), parcel.size());
+            message.extras = extras ? parcel.marshallExtras() : null;
+            message.longStrings = parcel.hasLongStrings();
+            return message;
+        }
+
         public static Message newExceptionMessage(String uri, int transactionId, int what, byte[] data) {
             return newExceptionMessage(uri, transactionId, what, data, data.length, null);
         }
@@ -324,16 +802,138 @@ public class Mindroid extends Plugin {
             return new Message(MESSAGE_TYPE_EXCEPTION_TRANSACTION, uri, transactionId, what, data, size, cause);
         }
 
+        /**
+         * A batch message carries multiple transaction messages. The number of messages is stored in
+         * the what field and the encoded messages in the data field. Within a batch request each
+         * message is preceded by its transaction flags.
+         */
+        public static Message newBatchMessage(int transactionId, int count, byte[] data) {
+            return newBatchMessage(transactionId, count, data, data.length);
+        }
+
+        public static Message newBatchMessage(int transactionId, int count, byte[] data, int size) {
+            return new Message(MESSAGE_TYPE_BATCH, "", transactionId, count, data, size);
+        }
+
+        /**
+         * A gossip message carries a service discovery message. Its kind (SYN, ACK or ACK2) is stored in the what field.
+         */
+        public static Message newGossipMessage(int what, byte[] data) {
+            return new Message(MESSAGE_TYPE_GOSSIP, "", 0, what, data, data.length);
+        }
+
+        /**
+         * A heartbeat message is either a ping or a pong, which is stored in the what field.
+         */
+        public static Message newHeartbeatMessage(int what) {
+            return new Message(MESSAGE_TYPE_HEARTBEAT, "", 0, what, EMPTY_DATA, 0);
+        }
+
+        /**
+         * A chunk message carries a part of the data of a large transaction message. The chunks of a
+         * transaction are sent in order, but may be interleaved with other messages. Each chunk is
+         * followed by the total data size of the transaction.
+         */
+        public static Message newChunkMessage(String uri, int transactionId, int what, byte[] data, int offset, int size, int totalSize) {
+            return new Message(uri, transactionId, what, data, offset, size, totalSize);
+        }
+
+        private static Message newChunkMessage(String uri, int transactionId, int what, byte[] data, int offset, int size, int totalSize,
+                byte[] extras, boolean longStrings) {
+            Message message = new Message(uri, transactionId, what, data, offset, size, totalSize);
+            message.extras = extras;
+            message.longStrings = longStrings;
+            return message;
+        }
+
+        /**
+         * A hello message is exchanged when a connection is established. The client proposes its flow control
+         * window, i.e. the maximum number and size of outstanding transactions, and its compression threshold.
+         * The server replies with the window and the threshold granted for the connection. Since version 2 the
+         * message also carries the node id of the sender and the id of its compression dictionary, and the sender
+         * accepts messages with {@link #MESSAGE_FLAG_EXTRAS}. Since version 3
+         * the sender accepts messages with {@link #MESSAGE_FLAG_LONG_STRINGS}. Since version 4 the chunks of a
+         * transaction are flow controlled by credit messages.
+         *
+         * <p>
+         * Nodes that predate the hello message cannot parse it and lose the connection. Clients wait
+         * {@link Properties#MINDROID_HELLO_TIMEOUT} for the reply and then treat the server as {@link #LEGACY_VERSION};
+         * a timeout of 0 disables the hello message for networks with such nodes. Transactions are held back until
+         * the version of the server is known.
+         */
+        public static Message newHelloMessage(int nodeId, int maxTransactions, long maxBytes, int compressionThreshold) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            DataOutputStream outputStream = new DataOutputStream(buffer);
+            try {
+                outputStream.writeInt(HELLO_VERSION);
+                outputStream.writeInt(maxTransactions);
+                outputStream.writeLong(maxBytes);
+                outputStream.writeInt(nodeId);
+                outputStream.writeInt(compressionThreshold);
+                outputStream.writeInt(Compression.getDictionaryId());
+            } catch (IOException ignore) {
+            }
+            byte[] data = buffer.toByteArray();
+            return new Message(MESSAGE_TYPE_HELLO, "", 0, 0, data, data.length);
+        }
+
+        /**
+         * A credit message allows the sender of a chunked transaction to send {@code credit} more bytes of it.
+         * The credit is stored in the what field. Each chunked transaction starts with {@link #STREAM_WINDOW}
+         * bytes of credit, and the receiver grants more credit as the consumer reads the data.
+         */
+        public static Message newCreditMessage(int transactionId, int credit) {
+            return new Message(MESSAGE_TYPE_CREDIT, "", transactionId, credit, EMPTY_DATA, 0);
+        }
+
         public static Message newMessage(DataInputStream inputStream) throws IOException {
+            return newMessage(inputStream, null);
+        }
+
+        /**
+         * Reads a message, decompressing its data using {@code compression} if the message is compressed.
+         */
+        public static Message newMessage(DataInputStream inputStream, Compression compression) throws IOException {
             int type = inputStream.readInt();
+            final boolean compressed = (type & MESSAGE_FLAG_COMPRESSED) != 0;
+            final boolean hasExtras = (type & MESSAGE_FLAG_EXTRAS) != 0;
+            final boolean longStrings = (type & MESSAGE_FLAG_LONG_STRINGS) != 0;
+            type &= ~(MESSAGE_FLAG_COMPRESSED | MESSAGE_FLAG_EXTRAS | MESSAGE_FLAG_LONG_STRINGS);
             String uri = inputStream.readUTF();
             int transactionId = inputStream.readInt();
             int what = inputStream.readInt();
             int size = inputStream.readInt();
+            int uncompressedSize = compressed ? inputStream.readInt() : size;
             byte[] data = new byte[size];
             inputStream.readFully(data, 0, size);
-            if (type == MESSAGE_TYPE_TRANSACTION) {
-                return new Message(type, uri, transactionId, what, data, size);
+            if (compressed) {
+                if (compression == null) {
+                    throw new IOException("Unexpected compressed message");
+                }
+                data = compression.decompress(data, size, uncompressedSize);
+                size = uncompressedSize;
+            }
+            byte[] extras = null;
+            if (hasExtras) {
+                int extrasSize = inputStream.readInt();
+                if (extrasSize < 0 || extrasSize > MAX_EXTRAS_SIZE) {
+                    throw new IOException("Invalid extras size: " + extrasSize);
+                }
+                extras = new byte[extrasSize];
+                inputStream.readFully(extras);
+            }
+            if (type == MESSAGE_TYPE_TRANSACTION || type == MESSAGE_TYPE_BATCH || type == MESSAGE_TYPE_GOSSIP
+                    || type == MESSAGE_TYPE_HEARTBEAT || type == MESSAGE_TYPE_HELLO || type == MESSAGE_TYPE_CREDIT) {
+                Message message = new Message(type, uri, transactionId, what, data, size);
+                message.extras = extras;
+                message.longStrings = longStrings;
+                return message;
+            } else if (type == MESSAGE_TYPE_CHUNK) {
+                int totalSize = inputStream.readInt();
+                if (totalSize < size) {
+                    throw new IOException("Invalid chunk size");
+                }
+                return newChunkMessage(uri, transactionId, what, data, 0, size, totalSize, extras, longStrings);
             } else {
                 Throwable exception = null;
                 int exceptionCount = inputStream.readInt();
@@ -349,15 +949,39 @@ public class Mindroid extends Plugin {
             }
         }
 
-        public final void write(DataOutputStream outputStream) throws IOException {
-            synchronized (outputStream) {
-                outputStream.writeInt(this.type);
-                outputStream.writeUTF(this.uri);
-                outputStream.writeInt(this.transactionId);
-                outputStream.writeInt(this.what);
-                outputStream.writeInt(this.size);
-                outputStream.write(this.data, 0, this.size);
-                if (type != MESSAGE_TYPE_TRANSACTION) {
+        public final void write(MessageOutputStream outputStream) throws IOException {
+            // Messages are compressed before the stream is locked so that other writers are not held up.
+            Compression compression = outputStream.mCompression;
+            byte[] compressedData = (compression != null) ? compression.compress(this.data, this.offset, this.size) : null;
+            outputStream.mLock.lock();
+            try {
+                int flags = (this.extras != null) ? MESSAGE_FLAG_EXTRAS : 0;
+                if (this.longStrings) {
+                    flags |= MESSAGE_FLAG_LONG_STRINGS;
+                }
+                if (compressedData != null) {
+                    outputStream.writeInt(this.type | MESSAGE_FLAG_COMPRESSED | flags);
+                    outputStream.writeUTF(this.uri);
+                    outputStream.writeInt(this.transactionId);
+                    outputStream.writeInt(this.what);
+                    outputStream.writeInt(compressedData.length);
+                    outputStream.writeInt(this.size);
+                    outputStream.write(compressedData, 0, compressedData.length);
+                } else {
+                    outputStream.writeInt(this.type | flags);
+                    outputStream.writeUTF(this.uri);
+                    outputStream.writeInt(this.transactionId);
+                    outputStream.writeInt(this.what);
+                    outputStream.writeInt(this.size);
+                    outputStream.write(this.data, this.offset, this.size);
+                }
+                if (this.extras != null) {
+                    outputStream.writeInt(this.extras.length);
+                    outputStream.write(this.extras);
+                }
+                if (type == MESSAGE_TYPE_CHUNK) {
+                    outputStream.writeInt(this.totalSize);
+                } else if (type == MESSAGE_TYPE_EXCEPTION_TRANSACTION) {
                     if (this.cause != null && !RemoteException.class.isInstance(this.cause)) {
                         outputStream.writeInt(1);
                         outputStream.writeUTF(this.cause.getClass().getName());
@@ -366,16 +990,200 @@ public class Mindroid extends Plugin {
                     }
                 }
                 outputStream.flush();
+            } finally {
+                outputStream.mLock.unlock();
             }
         }
 
+        /**
+         * Returns true if the message is a transaction message with more than {@code chunkSize} bytes of
+         * data, which is sent as chunk messages, see {@link OutgoingStream}.
+         */
+        public final boolean isChunked(int chunkSize) {
+            return type == MESSAGE_TYPE_TRANSACTION && chunkSize > 0 && size > chunkSize;
+        }
+
+        /**
+         * Returns the chunk of the data of a transaction message at {@code offset}. The extras are sent with
+         * the first chunk.
+         */
+        public final Message newChunkMessage(int offset, int size) {
+            return newChunkMessage(uri, transactionId, what, data, this.offset + offset, size, this.size,
+                    (offset == 0) ? extras : null, longStrings);
+        }
+
+        /**
+         * Sets the extras of {@code parcel} to the extras of the message and enables the decoding of
+         * long strings if the message has been flagged accordingly.
+         */
+        public final Parcel apply(Parcel parcel) throws IOException {
+            parcel.setLongStrings(this.longStrings);
+            if (this.extras != null) {
+                try {
+                    parcel.unmarshallExtras(this.extras);
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("Invalid parcel extras", e);
+                }
+            }
+            return parcel;
+        }
+
         int type;
         String uri;
         int transactionId;
         int what;
         byte[] data;
+        int offset;
         int size;
+        int totalSize;
         Throwable cause;
+        byte[] extras;
+        boolean longStrings;
+    }
+
+    /**
+     * Messages are written to a connection in the order in which the writers arrive. Thus the chunks
+     * of a large transaction do not starve the messages of other threads.
+     */
+    private static class MessageOutputStream extends DataOutputStream {
+        final ReentrantLock mLock = new ReentrantLock(true);
+        // Set once compression has been negotiated for the connection.
+        volatile Compression mCompression;
+
+        MessageOutputStream(OutputStream outputStream) {
+            super(outputStream);
+        }
+    }
+
+    /**
+     * The sending side of a chunked transaction. Chunks are only sent as far as the receiver has granted
+     * credit. The remaining chunks are sent on a connection thread once more credit arrives, so the reader
+     * of a connection never blocks on writing chunks.
+     */
+    private static final class OutgoingStream {
+        private final Message mMessage;
+        private final MessageOutputStream mOutputStream;
+        private final int mChunkSize;
+        private final Map<Integer, OutgoingStream> mStreams;
+        private final Consumer<IOException> mErrorHandler;
+        private int mOffset = 0;
+        private long mCredit;
+        private boolean mWriting = true;
+
+        /**
+         * @param credit The initial credit or {@link Long#MAX_VALUE} if the receiver does not grant credit.
+         * @param streams The outgoing streams of the connection, from which the stream removes itself once
+         * all chunks have been sent.
+         * @param errorHandler Called if a chunk cannot be written by a connection thread.
+         */
+        OutgoingStream(Message message, MessageOutputStream outputStream, int chunkSize, long credit,
+                Map<Integer, OutgoingStream> streams, Consumer<IOException> errorHandler) {
+            mMessage = message;
+            mOutputStream = outputStream;
+            mChunkSize = chunkSize;
+            mCredit = credit;
+            mStreams = streams;
+            mErrorHandler = errorHandler;
+        }
+
+        /**
+         * Sends the chunks for which there is credit on the calling thread.
+         */
+        void start() throws IOException {
+            mStreams.put(mMessage.transactionId, this);
+            write();
+        }
+
+        /**
+         * Adds credit and sends the chunks for which there is now credit on a connection thread.
+         */
+        void grant(long credit) {
+            if (credit <= 0) {
+                return;
+            }
+            synchronized (this) {
+                mCredit = (credit == Long.MAX_VALUE || mCredit > Long.MAX_VALUE - credit) ? Long.MAX_VALUE : mCredit + credit;
+                if (mWriting || mOffset == mMessage.size) {
+                    return;
+                }
+                mWriting = true;
+            }
+            try {
+                sConnectionExecutor.execute(() -> {
+                    try {
+                        write();
+                    } catch (IOException e) {
+                        mErrorHandler.accept(e);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                mErrorHandler.accept(new IOException("Cannot send chunks", e));
+            }
+        }
+
+        private void write() throws IOException {
+            while (true) {
+                int offset;
+                int size;
+                synchronized (this) {
+                    if (mOffset == mMessage.size) {
+                        mWriting = false;
+                        mStreams.remove(mMessage.transactionId, this);
+                        return;
+                    }
+                    if (mCredit <= 0) {
+                        mWriting = false;
+                        return;
+                    }
+                    offset = mOffset;
+                    size = (int) Math.min(Math.min(mChunkSize, mMessage.size - mOffset), mCredit);
+                    mOffset += size;
+                    if (mCredit != Long.MAX_VALUE) {
+                        mCredit -= size;
+                    }
+                }
+                try {
+                    mMessage.newChunkMessage(offset, size).write(mOutputStream);
+                } catch (IOException e) {
+                    synchronized (this) {
+                        mWriting = false;
+                    }
+                    mStreams.remove(mMessage.transactionId, this);
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * The receiving side of a chunked transaction. Grants the sender more credit as the consumer drains the
+     * stream, so that no more than {@link Message#STREAM_WINDOW} bytes of the transaction are buffered.
+     */
+    private static final class IncomingStream extends ChunkedInputStream {
+        private static final int CREDIT_THRESHOLD = Message.STREAM_WINDOW / 4;
+        private final int mTransactionId;
+        private final Consumer<Message> mSender;
+        private final AtomicInteger mConsumedBytes = new AtomicInteger(0);
+
+        /**
+         * @param sender Sends the credit messages, or null if the sender of the chunks does not support credit.
+         */
+        IncomingStream(int transactionId, int size, Consumer<Message> sender) {
+            super(size);
+            mTransactionId = transactionId;
+            mSender = sender;
+        }
+
+        @Override
+        protected void onConsumed(int count) {
+            if (mSender == null || mConsumedBytes.addAndGet(count) < CREDIT_THRESHOLD) {
+                return;
+            }
+            int credit = mConsumedBytes.getAndSet(0);
+            if (credit > 0 && !isComplete()) {
+                mSender.accept(Message.newCreditMessage(mTransactionId, credit));
+            }
+        }
     }
 
     private class Server extends AbstractServer {
@@ -388,65 +1196,75 @@ public class Mindroid extends Plugin {
         @Override
         public void onConnected(Connection connection) {
             Log.d(LOG_TAG, "Client connected from " + connection.getRemoteSocketAddress());
+            try {
+                connection.setTcpNoDelay(true);
+            } catch (IOException ignore) {
+            }
+            String label = String.valueOf(connection.getRemoteSocketAddress());
+            connection.getContext().putString("metricsLabel", label);
+            connection.getContext().putObject("bytesIn", Metrics.counter("mindroid.server.bytesIn", label));
+            connection.getContext().putObject("bytesOut", Metrics.counter("mindroid.server.bytesOut", label));
+            connection.getContext().putObject("streams", new Streams());
         }
 
         @Override
         public void onDisconnected(Connection connection, Throwable cause) {
             Log.d(LOG_TAG, "Client disconnected from " + connection.getRemoteSocketAddress());
+            Streams streams = (Streams) connection.getContext().getObject("streams");
+            for (IncomingStream stream : streams.mIncomingStreams.values()) {
+                stream.fail(new IOException("Connection closed"));
+            }
+            streams.mIncomingStreams.clear();
+            streams.mOutgoingStreams.clear();
+            Compression compression = (Compression) connection.getContext().getObject("compression");
+            if (compression != null) {
+                compression.close();
+            }
+            String label = connection.getContext().getString("metricsLabel");
+            Metrics.remove("mindroid.server.bytesIn", label);
+            Metrics.remove("mindroid.server.bytesOut", label);
         }
 
         @Override
         public void onTransact(Bundle context, InputStream inputStream, OutputStream outputStream) throws IOException {
             if (!context.containsKey("dataInputStream")) {
-                DataInputStream dataInputStream = new DataInputStream(inputStream);
+                DataInputStream dataInputStream = new DataInputStream(new BufferedInputStream(
+                        new CountingInputStream(inputStream, (Counter) context.getObject("bytesIn"))));
                 context.putObject("dataInputStream", dataInputStream);
             }
-            if (!context.containsKey("datOutputStream")) {
-                DataOutputStream dataOutputStream = new DataOutputStream(outputStream);
+            if (!context.containsKey("dataOutputStream")) {
+                MessageOutputStream dataOutputStream = new MessageOutputStream(new BufferedOutputStream(
+                        new CountingOutputStream(outputStream, (Counter) context.getObject("bytesOut"))));
                 context.putObject("dataOutputStream", dataOutputStream);
             }
             DataInputStream dataInputStream = (DataInputStream) context.getObject("dataInputStream");
-            DataOutputStream dataOutputStream = (DataOutputStream) context.getObject("dataOutputStream");
+            MessageOutputStream dataOutputStream = (MessageOutputStream) context.getObject("dataOutputStream");
 
             try {
-                Message message = Message.newMessage(dataInputStream);
+                Message message = Message.newMessage(dataInputStream, (Compression) context.getObject("compression"));
 
                 if (message.type == Message.MESSAGE_TYPE_TRANSACTION) {
-                    try {
-                        IBinder binder = mRuntime.getBinder(URI.create(message.uri));
-                        if (binder != null) {
-                            Promise<Parcel> result = binder.transact(message.what, Parcel.obtain(message.data), 0);
-                            if (result != null) {
-                                result.then((value, exception) -> {
-                                    try {
-                                        if (exception == null) {
-                                            Message.newMessage(message.uri, message.transactionId, message.what, value.getByteArray(), value.size()).write(dataOutputStream);
-                                        } else {
-                                            final Throwable cause;
-                                            if (exception instanceof CompletionException && exception.getCause() != null) {
-                                                cause = exception.getCause();
-                                            } else {
-                                                cause = exception;
-                                            }
-                                            Message.newExceptionMessage(message.uri, message.transactionId, message.what, BINDER_TRANSACTION_FAILURE, cause).write(dataOutputStream);
-                                        }
-                                    } catch (IOException e) {
-                                        try {
-                                            ((Closeable) context.getObject("connection")).close();
-                                        } catch (IOException ignore) {
-                                        }
-                                    }
-                                });
-                            }
-                        } else {
-                            Message.newExceptionMessage(message.uri, message.transactionId, message.what, BINDER_TRANSACTION_FAILURE, new RemoteException("Invalid service URI")).write(dataOutputStream);
-                        }
-                    } catch (IllegalArgumentException e) {
-                        Log.e(LOG_TAG, e.getMessage(), e);
-                        Message.newExceptionMessage(message.uri, message.transactionId, message.what, BINDER_TRANSACTION_FAILURE, e).write(dataOutputStream);
-                    } catch (RemoteException e) {
-                        Log.e(LOG_TAG, e.getMessage(), e);
-                        Message.newExceptionMessage(message.uri, message.transactionId, message.what, BINDER_TRANSACTION_FAILURE, e).write(dataOutputStream);
+                    onTransact(context, message, message.apply(Parcel.obtain(message.data)), dataOutputStream);
+                } else if (message.type == Message.MESSAGE_TYPE_CHUNK) {
+                    onChunk(context, message, dataOutputStream);
+                } else if (message.type == Message.MESSAGE_TYPE_BATCH) {
+                    onBatchTransact(context, message, dataOutputStream);
+                } else if (message.type == Message.MESSAGE_TYPE_GOSSIP) {
+                    if (message.what == GossipServiceDiscovery.SYN) {
+                        Message.newGossipMessage(GossipServiceDiscovery.ACK, mServiceDiscovery.onSyn(message.data)).write(dataOutputStream);
+                    } else if (message.what == GossipServiceDiscovery.ACK2) {
+                        mServiceDiscovery.onAck2(message.data);
+                    }
+                } else if (message.type == Message.MESSAGE_TYPE_HEARTBEAT) {
+                    if (message.what == Message.HEARTBEAT_PING) {
+                        Message.newHeartbeatMessage(Message.HEARTBEAT_PONG).write(dataOutputStream);
+                    }
+                } else if (message.type == Message.MESSAGE_TYPE_HELLO) {
+                    onHello(context, message, dataOutputStream);
+                } else if (message.type == Message.MESSAGE_TYPE_CREDIT) {
+                    OutgoingStream stream = ((Streams) context.getObject("streams")).mOutgoingStreams.get(message.transactionId);
+                    if (stream != null) {
+                        stream.grant(message.what);
                     }
                 } else {
                     Log.e(LOG_TAG, "Invalid message type: " + message.type);
@@ -458,62 +1276,1379 @@ public class Mindroid extends Plugin {
                 throw e;
             }
         }
-    }
-
-    private class Client extends AbstractClient {
-        private final AtomicInteger mTransactionIdGenerator = new AtomicInteger(1);
-        private Map<Integer, Promise<Parcel>> mTransactions = new ConcurrentHashMap<>();
 
-        public Client(int nodeId) throws IOException {
-            super(nodeId);
+        /**
+         * Grants the client the smaller of the proposed and the local flow control window and negotiates
+         * the compression of the connection.
+         */
+        private void onHello(Bundle context, Message message, MessageOutputStream dataOutputStream) throws IOException {
+            DataInputStream inputStream = new DataInputStream(new ByteArrayInputStream(message.data, 0, message.size));
+            int version = inputStream.readInt();
+            int maxTransactions = inputStream.readInt();
+            long maxBytes = inputStream.readLong();
+            int compressionThreshold = 0;
+            context.putInt("version", version);
+            if (version >= 2) {
+                int nodeId = inputStream.readInt();
+                compressionThreshold = negotiateCompressionThreshold(inputStream.readInt(), inputStream.readInt());
+                Compression compression = new Compression(compressionThreshold, getCompressionStatistics(nodeId));
+                context.putObject("compression", compression);
+            }
+            Window window = new Window(Math.min(maxTransactions, mMaxInFlightTransactions), Math.min(maxBytes, mMaxInFlightBytes));
+            context.putObject("window", window);
+            Message.newHelloMessage(mRuntime.getNodeId(), window.mMaxTransactions, window.mMaxBytes, compressionThreshold).write(dataOutputStream);
+            if (compressionThreshold > 0) {
+                dataOutputStream.mCompression = (Compression) context.getObject("compression");
+            }
         }
 
-        public void shutdown(Throwable cause) {
-            Mindroid.this.onShutdown(this);
+        private void onTransact(Bundle context, Message message, Parcel data, MessageOutputStream dataOutputStream) throws IOException {
+            mServerTransactions.increment();
+            // Clients that have not negotiated a window are not flow controlled.
+            final Window window = (Window) context.getObject("window");
+            final int size = getCredit(context, data);
+            if (window != null && !window.acquire(size)) {
+                mWindowViolations.increment();
+                discard(data);
+                mServerFailures.increment();
+                Message.newExceptionMessage(message.uri, message.transactionId, message.what, BINDER_TRANSACTION_FAILURE,
+                        new RemoteException("Flow control window exceeded")).write(dataOutputStream);
+                return;
+            }
+            boolean dispatched = false;
+            try {
+                IBinder binder = mRuntime.getBinder(URI.create(message.uri));
+                if (binder != null) {
+                    Promise<Parcel> result = binder.transact(message.what, data, 0);
+                    if (result != null) {
+                        dispatched = true;
+                        result.then((value, exception) -> {
+                            // The window is released before the reply is sent since the client reuses it once the reply arrives.
+                            if (window != null) {
+                                window.release(size);
+                            }
+                            try {
+                                if (exception == null) {
+                                    write(context, newReplyMessage(context, message, value), dataOutputStream);
+                                } else {
+                                    final Throwable cause;
+                                    if (exception instanceof CompletionException && exception.getCause() != null) {
+                                        cause = exception.getCause();
+                                    } else {
+                                        cause = exception;
+                                    }
+                                    mServerFailures.increment();
+                                    Message.newExceptionMessage(message.uri, message.transactionId, message.what, BINDER_TRANSACTION_FAILURE, cause).write(dataOutputStream);
+                                }
+                            } catch (IOException e) {
+                                try {
+                                    ((Closeable) context.getObject("connection")).close();
+                                } catch (IOException ignore) {
+                                }
+                            }
+                        });
+                    }
+                } else {
+                    discard(data);
+                    mServerFailures.increment();
+                    Message.newExceptionMessage(message.uri, message.transactionId, message.what, BINDER_TRANSACTION_FAILURE, new RemoteException("Invalid service URI")).write(dataOutputStream);
+                }
+            } catch (IllegalArgumentException e) {
+                Log.e(LOG_TAG, e.getMessage(), e);
+                discard(data);
+                mServerFailures.increment();
+                Message.newExceptionMessage(message.uri, message.transactionId, message.what, BINDER_TRANSACTION_FAILURE, e).write(dataOutputStream);
+            } catch (RemoteException e) {
+                Log.e(LOG_TAG, e.getMessage(), e);
+                discard(data);
+                mServerFailures.increment();
+                Message.newExceptionMessage(message.uri, message.transactionId, message.what, BINDER_TRANSACTION_FAILURE, e).write(dataOutputStream);
+            } finally {
+                if (!dispatched && window != null) {
+                    window.release(size);
+                }
+            }
+        }
+
+        /**
+         * Streamed transactions count with at most {@link Message#STREAM_WINDOW} bytes against the window since
+         * the server buffers no more of them, see Client.getCredit. Clients without stream credits only count
+         * them against the number of transactions.
+         */
+        private int getCredit(Bundle context, Parcel data) {
+            if (!data.isStreamed()) {
+                return data.size();
+            }
+            return (context.getInt("version", 0) >= Message.STREAM_CREDIT_VERSION) ? Math.min(data.size(), Message.STREAM_WINDOW) : 0;
+        }
+
+        /**
+         * Writes a reply, sending large replies in flow controlled chunks to clients that support them.
+         */
+        private void write(Bundle context, Message message, MessageOutputStream dataOutputStream) throws IOException {
+            if (context.getInt("version", 0) < Message.CHUNK_VERSION || !message.isChunked(mChunkSize)) {
+                message.write(dataOutputStream);
+                return;
+            }
+            long credit = (context.getInt("version", 0) >= Message.STREAM_CREDIT_VERSION) ? Message.STREAM_WINDOW : Long.MAX_VALUE;
+            new OutgoingStream(message, dataOutputStream, mChunkSize, credit, ((Streams) context.getObject("streams")).mOutgoingStreams,
+                    (e) -> close(context)).start();
+        }
 
-            if (mTransactions != null) {
-                for (Promise<Parcel> promise : mTransactions.values()) {
-                    promise.completeWith(new RemoteException());
+        private void close(Bundle context) {
+            try {
+                ((Closeable) context.getObject("connection")).close();
+            } catch (IOException ignore) {
+            }
+        }
+
+        /**
+         * Creates the reply to a transaction. Replies with long strings fail if the client does not support them.
+         */
+        private Message newReplyMessage(Bundle context, Message message, Parcel reply) {
+            if (reply.hasLongStrings() && context.getInt("version", 0) < Message.LONG_STRINGS_VERSION) {
+                return Message.newExceptionMessage(message.uri, message.transactionId, message.what, BINDER_TRANSACTION_FAILURE,
+                        new RemoteException("Long strings are not supported by the remote node"));
+            }
+            return Message.newMessage(message.uri, message.transactionId, message.what, reply,
+                    context.getInt("version", 0) >= Message.EXTRAS_VERSION);
+        }
+
+        /**
+         * Drops the remaining chunks of a streamed transaction that has not been dispatched.
+         */
+        private void discard(Parcel data) {
+            if (data.isStreamed()) {
+                try {
+                    data.getInputStream().close();
+                } catch (IOException ignore) {
                 }
             }
+        }
 
-            sExecutor.execute(() -> { super.shutdown(cause); });
+        /**
+         * A chunked transaction is dispatched with its first chunk. The service reads the data
+         * from a streamed parcel while the remaining chunks are being received.
+         */
+        private void onChunk(Bundle context, Message message, MessageOutputStream dataOutputStream) throws IOException {
+            Map<Integer, IncomingStream> streams = ((Streams) context.getObject("streams")).mIncomingStreams;
+            IncomingStream stream = streams.get(message.transactionId);
+            boolean dispatch = false;
+            if (stream == null) {
+                Consumer<Message> sender = null;
+                if (context.getInt("version", 0) >= Message.STREAM_CREDIT_VERSION) {
+                    sender = (credit) -> {
+                        try {
+                            credit.write(dataOutputStream);
+                        } catch (IOException e) {
+                            close(context);
+                        }
+                    };
+                }
+                stream = new IncomingStream(message.transactionId, message.totalSize, sender);
+                streams.put(message.transactionId, stream);
+                dispatch = true;
+            }
+            stream.append(ByteBuffer.wrap(message.data, 0, message.size));
+            if (stream.isComplete()) {
+                streams.remove(message.transactionId);
+            }
+            if (dispatch) {
+                onTransact(context, message, message.apply(Parcel.obtain(stream, message.totalSize)), dataOutputStream);
+            }
+        }
+
+        private void onBatchTransact(Bundle context, Message batch, MessageOutputStream dataOutputStream) throws IOException {
+            DataInputStream inputStream = new DataInputStream(new ByteArrayInputStream(batch.data, 0, batch.size));
+            final Message[] replies = new Message[batch.what];
+            // One pending count per two-way transaction plus one until all transactions have been dispatched.
+            final AtomicInteger pendingReplies = new AtomicInteger(1);
+            for (int i = 0; i < batch.what; i++) {
+                final int index = i;
+                final int flags = inputStream.readInt();
+                final Message message = Message.newMessage(inputStream);
+                final boolean oneway = (flags & Binder.FLAG_ONEWAY) != 0;
+                mServerTransactions.increment();
+                Promise<Parcel> result;
+                try {
+                    IBinder binder = mRuntime.getBinder(URI.create(message.uri));
+                    if (binder != null) {
+                        result = binder.transact(message.what, message.apply(Parcel.obtain(message.data)), oneway ? flags : 0);
+                    } else {
+                        result = new Promise<>(new RemoteException("Invalid service URI"));
+                    }
+                } catch (IllegalArgumentException | RemoteException e) {
+                    Log.e(LOG_TAG, e.getMessage(), e);
+                    result = new Promise<>(e);
+                }
+                if (!oneway && result != null) {
+                    pendingReplies.incrementAndGet();
+                    result.then((value, exception) -> {
+                        if (exception == null) {
+                            replies[index] = newReplyMessage(context, message, value);
+                        } else {
+                            final Throwable cause;
+                            if (exception instanceof CompletionException && exception.getCause() != null) {
+                                cause = exception.getCause();
+                            } else {
+                                cause = exception;
+                            }
+                            mServerFailures.increment();
+                            replies[index] = Message.newExceptionMessage(message.uri, message.transactionId, message.what, BINDER_TRANSACTION_FAILURE, cause);
+                        }
+                        if (pendingReplies.decrementAndGet() == 0) {
+                            sendBatchReply(context, batch, replies, dataOutputStream);
+                        }
+                    });
+                }
+            }
+            if (pendingReplies.decrementAndGet() == 0) {
+                sendBatchReply(context, batch, replies, dataOutputStream);
+            }
         }
 
-        public Promise<Parcel> transact(IBinder binder, int what, Parcel data, int flags) throws RemoteException {
-            final int transactionId = mTransactionIdGenerator.getAndIncrement();
-            Promise<Parcel> result;
+        private void sendBatchReply(Bundle context, Message batch, Message[] replies, MessageOutputStream dataOutputStream) {
             try {
-                Bundle context = getContext();
-                if (!context.containsKey("datOutputStream")) {
-                    DataOutputStream dataOutputStream = new DataOutputStream(getOutputStream());
-                    context.putObject("dataOutputStream", dataOutputStream);
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                MessageOutputStream outputStream = new MessageOutputStream(buffer);
+                int count = 0;
+                for (Message reply : replies) {
+                    if (reply != null) {
+                        reply.write(outputStream);
+                        count++;
+                    }
+                }
+                if (count > 0) {
+                    Message.newBatchMessage(batch.transactionId, count, buffer.toByteArray()).write(dataOutputStream);
+                }
+            } catch (IOException e) {
+                try {
+                    ((Closeable) context.getObject("connection")).close();
+                } catch (IOException ignore) {
+                }
+            }
+        }
+    }
+
+    /**
+     * The chunked messages of a server connection.
+     */
+    private static final class Streams {
+        // Transactions that are being received in chunks.
+        final Map<Integer, IncomingStream> mIncomingStreams = new ConcurrentHashMap<>();
+        // Replies that are being sent in chunks.
+        final Map<Integer, OutgoingStream> mOutgoingStreams = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * The flow control window that a server granted a client connection.
+     */
+    private static final class Window {
+        final int mMaxTransactions;
+        final long mMaxBytes;
+        private int mTransactions = 0;
+        private long mBytes = 0;
+
+        Window(int maxTransactions, long maxBytes) {
+            mMaxTransactions = maxTransactions;
+            mMaxBytes = maxBytes;
+        }
+
+        synchronized boolean acquire(long size) {
+            if (mTransactions >= mMaxTransactions || (mTransactions > 0 && mBytes + size > mMaxBytes)) {
+                return false;
+            }
+            mTransactions++;
+            mBytes += size;
+            return true;
+        }
+
+        synchronized void release(long size) {
+            mTransactions--;
+            mBytes -= size;
+        }
+    }
+
+    private static final class Link {
+        final IBinder binder;
+        final IBinder.Supervisor supervisor;
+
+        Link(IBinder binder, IBinder.Supervisor supervisor) {
+            this.binder = binder;
+            this.supervisor = supervisor;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Link)) {
+                return false;
+            }
+            Link other = (Link) o;
+            return binder.getId() == other.binder.getId() && supervisor == other.supervisor;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Long.hashCode(binder.getId()) + System.identityHashCode(supervisor);
+        }
+    }
+
+    private static class Call {
+        final IBinder binder;
+        final int what;
+        final Parcel data;
+        final int flags;
+        final Promise<Parcel> result;
+        volatile Client client;
+        volatile int transactionId;
+        // Set when the reply arrives, which returns the flow control credit of the transaction.
+        volatile boolean replied = false;
+        long credit;
+        long stallTime;
+
+        Call(IBinder binder, int what, Parcel data, int flags, Promise<Parcel> result) {
+            this.binder = binder;
+            this.what = what;
+            this.data = data;
+            this.flags = flags;
+            this.result = result;
+        }
+
+        boolean isIdempotent() {
+            return (flags & Binder.FLAG_IDEMPOTENT) != 0;
+        }
+
+        /**
+         * @param extras Include the parcel extras, which servers before {@link Message#EXTRAS_VERSION} cannot parse.
+         * The timeout extra is only used locally anyway.
+         */
+        Message toMessage(boolean extras) {
+            return Message.newMessage(binder.getUri().toString(), transactionId, what, data, extras);
+        }
+    }
+
+    /**
+     * A lane manages the connection to a remote node. If the connection is lost or cannot be
+     * established, the lane reconnects with exponential backoff. Meanwhile outgoing transactions
+     * are held in a small bounded queue. Two-way transactions flagged with
+     * {@link IBinder#FLAG_IDEMPOTENT} that were in flight on a lost connection are replayed on the
+     * next connection, all others fail with a {@link RemoteException}.
+     * After {@link #MAX_CONNECTION_ATTEMPTS} failed attempts, transactions fail fast until the
+     * backoff delay has expired. A connection that does not answer heartbeats within the heartbeat
+     * timeout is considered lost, unless the remote node does not support heartbeats. Losing a connection or failing to establish it notifies the
+     * supervisors linked to binders of the remote node, unless another lane to the node is still
+     * connected or connecting.
+     */
+    private class Lane {
+        private static final int STATE_DISCONNECTED = 0;
+        private static final int STATE_CONNECTING = 1;
+        private static final int STATE_CONNECTED = 2;
+
+        private final int mNodeId;
+        private final int mId;
+        private final String mUri;
+        private final ArrayDeque<Call> mQueue = new ArrayDeque<>();
+        private int mState = STATE_DISCONNECTED;
+        private Client mClient;
+        private int mConnectionAttempts = 0;
+        private long mConnectionTime = 0;
+        private long mNextConnectionTime = 0;
+        private boolean mClosed = false;
+
+        Lane(int nodeId, int id, String uri) {
+            mNodeId = nodeId;
+            mId = id;
+            mUri = uri;
+        }
+
+        void transact(Call call) throws RemoteException {
+            setUp(call);
+            Client client;
+            synchronized (this) {
+                try {
+                    client = enqueue(call);
+                } catch (RemoteException e) {
+                    if (call.result != null) {
+                        call.result.completeWith(e);
+                    }
+                    throw e;
+                }
+            }
+            if (client != null) {
+                client.transact(call);
+            }
+        }
+
+        void transact(List<Call> calls) throws RemoteException {
+            for (Call call : calls) {
+                setUp(call);
+            }
+            Client client = null;
+            synchronized (this) {
+                if (mState == STATE_CONNECTED) {
+                    client = mClient;
+                } else {
+                    for (Call call : calls) {
+                        try {
+                            enqueue(call);
+                        } catch (RemoteException e) {
+                            if (call.result != null) {
+                                call.result.completeWith(e);
+                            }
+                        }
+                    }
+                }
+            }
+            if (client != null) {
+                client.transact(calls);
+            }
+        }
+
+        void close() {
+            Client client;
+            List<Call> calls;
+            synchronized (this) {
+                mClosed = true;
+                client = mClient;
+                calls = new ArrayList<>(mQueue);
+                mQueue.clear();
+            }
+            fail(calls, null);
+            if (client != null) {
+                client.shutdown(null);
+            }
+        }
+
+        /**
+         * Sends a control message if the lane is connected to a node that supports {@code version}. Otherwise the
+         * message is dropped and, if the lane is disconnected, the connection is established in the background.
+         */
+        void send(Message message, int version) {
+            Client client = null;
+            synchronized (this) {
+                if (mClosed) {
+                    return;
+                }
+                if (mState == STATE_CONNECTED) {
+                    if (!mClient.supports(version)) {
+                        return;
+                    }
+                    client = mClient;
+                } else if (mState == STATE_DISCONNECTED && (mConnectionAttempts < MAX_CONNECTION_ATTEMPTS
+                        || SystemClock.uptimeMillis() >= mNextConnectionTime)) {
+                    scheduleConnection();
+                }
+            }
+            if (client != null) {
+                client.send(message);
+            }
+        }
+
+        /**
+         * Establishes the connection for supervision.
+         */
+        synchronized void supervise() throws RemoteException {
+            if (mClosed) {
+                throw new RemoteException("Binder linking failure");
+            }
+            if (mState == STATE_DISCONNECTED) {
+                if (mConnectionAttempts >= MAX_CONNECTION_ATTEMPTS && SystemClock.uptimeMillis() < mNextConnectionTime) {
+                    throw new RemoteException("Binder linking failure: Node " + mNodeId + " is unreachable");
+                }
+                scheduleConnection();
+            }
+        }
+
+        synchronized boolean isConnected() {
+            return mState == STATE_CONNECTED;
+        }
+
+        /**
+         * Returns true if the lane is connected to a node that supports {@code version}.
+         */
+        synchronized boolean supports(int version) {
+            return mState == STATE_CONNECTED && mClient.supports(version);
+        }
+
+        synchronized boolean isDisconnected() {
+            return mState == STATE_DISCONNECTED;
+        }
+
+        void heartbeat() {
+            Client client;
+            synchronized (this) {
+                if (mState != STATE_CONNECTED) {
+                    return;
+                }
+                client = mClient;
+            }
+            client.heartbeat();
+        }
+
+        /**
+         * Closes the connection if there are no pending transactions. The next transaction reconnects.
+         *
+         * @return false if the connection is busy.
+         */
+        boolean disconnectIfIdle() {
+            Client client;
+            synchronized (this) {
+                if (mState == STATE_CONNECTING) {
+                    return false;
+                }
+                if (mState == STATE_DISCONNECTED) {
+                    return true;
+                }
+                if (!mClient.isIdle()) {
+                    return false;
+                }
+                client = mClient;
+                mClient = null;
+                mState = STATE_DISCONNECTED;
+                mConnectionAttempts = 0;
+                mNextConnectionTime = 0;
+            }
+            if (DEBUG) {
+                Log.d(LOG_TAG, "Closing idle connection to node " + mNodeId);
+            }
+            client.shutdown(null);
+            return true;
+        }
+
+        /**
+         * Sends a transaction that was rejected by a client before it was written, e.g. because the
+         * client has been shut down concurrently. Such transactions are safe to send again.
+         */
+        private void resubmit(Call call, Client rejectingClient) {
+            resubmit(Collections.singletonList(call), rejectingClient);
+        }
+
+        private void resubmit(List<Call> calls, Client rejectingClient) {
+            Client client = null;
+            synchronized (this) {
+                if (mClosed) {
+                    fail(calls, null);
+                    return;
+                }
+                if (mState == STATE_CONNECTED && mClient != rejectingClient) {
+                    client = mClient;
+                } else {
+                    for (int i = calls.size() - 1; i >= 0; i--) {
+                        mQueue.addFirst(calls.get(i));
+                    }
+                    if (mState == STATE_DISCONNECTED) {
+                        scheduleConnection();
+                    }
+                }
+            }
+            if (client != null) {
+                for (Call call : calls) {
+                    try {
+                        client.transact(call);
+                    } catch (RemoteException ignore) {
+                    }
+                }
+            }
+        }
+
+        private void setUp(Call call) {
+            if (call.result != null) {
+                call.result.orTimeout(call.data.getLongExtra(TIMEOUT, DEFAULT_TRANSACTION_TIMEOUT))
+                        .then((value, exception) -> {
+                            onTransactionComplete(call);
+                        });
+            }
+        }
+
+        private Client enqueue(Call call) throws RemoteException {
+            if (mClosed) {
+                throw new RemoteException("Binder transaction failure");
+            }
+            if (mState == STATE_CONNECTED) {
+                return mClient;
+            }
+            if (mState == STATE_DISCONNECTED && mConnectionAttempts >= MAX_CONNECTION_ATTEMPTS
+                    && SystemClock.uptimeMillis() < mNextConnectionTime) {
+                throw new RemoteException("Binder transaction failure: Node " + mNodeId + " is unreachable");
+            }
+            if (mQueue.size() >= MAX_QUEUED_TRANSACTIONS) {
+                throw new RemoteException("Binder transaction failure: Too many pending transactions");
+            }
+            mQueue.add(call);
+            if (mState == STATE_DISCONNECTED) {
+                scheduleConnection();
+            }
+            return null;
+        }
+
+        private void onTransactionComplete(Call call) {
+            synchronized (this) {
+                if (!mQueue.isEmpty()) {
+                    mQueue.remove(call);
+                }
+            }
+            Client client = call.client;
+            if (client != null) {
+                client.onTransactionComplete(call);
+            }
+        }
+
+        private void scheduleConnection() {
+            mState = STATE_CONNECTING;
+            long delay = mNextConnectionTime - SystemClock.uptimeMillis();
+            try {
+                if (delay > 0) {
+                    sExecutor.schedule(() -> {
+                        try {
+                            sConnectionExecutor.execute(this::connect);
+                        } catch (RejectedExecutionException e) {
+                            onConnectionFailure(e);
+                        }
+                    }, delay, TimeUnit.MILLISECONDS);
+                } else {
+                    sConnectionExecutor.execute(this::connect);
+                }
+            } catch (RejectedExecutionException e) {
+                sExecutor.execute(() -> onConnectionFailure(e));
+            }
+        }
+
+        private void connect() {
+            Client client = new Client(this);
+            try {
+                client.start(mUri);
+                client.hello();
+                if (client.isClosed()) {
+                    throw new IOException("Connection closed");
+                }
+            } catch (IOException | RuntimeException e) {
+                onConnectionFailure(e);
+                return;
+            }
+            if (onConnected(client)) {
+                client.flush();
+                if (!mProxies.containsKey(mNodeId)) {
+                    // Connections that are not used by any proxy, e.g. those opened for gossip, are closed when idle.
+                    scheduleIdleConnectionShutdown(mNodeId);
+                }
+            }
+        }
+
+        private synchronized boolean onConnected(Client client) {
+            if (mClosed) {
+                client.shutdown(null);
+                return false;
+            }
+            mState = STATE_CONNECTED;
+            mClient = client;
+            mConnectionTime = SystemClock.uptimeMillis();
+            // The queued transactions are handed over to the client ahead of all further transactions. They are
+            // sent by Client.flush once the lock has been released.
+            if (!mQueue.isEmpty() && client.enqueue(new ArrayList<>(mQueue))) {
+                mQueue.clear();
+            }
+            return true;
+        }
+
+        private void onConnectionFailure(Throwable cause) {
+            List<Call> calls = null;
+            boolean closed;
+            synchronized (this) {
+                closed = mClosed;
+                mConnectionAttempts++;
+                mNextConnectionTime = SystemClock.uptimeMillis() + getReconnectDelay(mConnectionAttempts);
+                mState = STATE_DISCONNECTED;
+                if (mClosed || mConnectionAttempts >= MAX_CONNECTION_ATTEMPTS) {
+                    calls = new ArrayList<>(mQueue);
+                    mQueue.clear();
+                } else if (!mQueue.isEmpty()) {
+                    scheduleConnection();
+                }
+            }
+            if (DEBUG) {
+                Log.d(LOG_TAG, "Failed to connect to node " + mNodeId + " (attempt " + mConnectionAttempts + "): " + cause);
+            }
+            if (calls != null) {
+                fail(calls, cause);
+            }
+            if (!closed) {
+                onLaneFailure(this, cause);
+            }
+        }
+
+        private void onDisconnected(Client client, List<Call> calls, Throwable cause) {
+            List<Call> replays = new ArrayList<>();
+            List<Call> failures = new ArrayList<>();
+            Client currentClient = null;
+            boolean exit = false;
+            synchronized (this) {
+                if (mClient == client) {
+                    // A connection is shut down without cause when it is closed on purpose.
+                    exit = (cause != null) && !mClosed;
+                    mClient = null;
+                    mState = STATE_DISCONNECTED;
+                    long now = SystemClock.uptimeMillis();
+                    if (now - mConnectionTime >= STABLE_CONNECTION_TIME) {
+                        mConnectionAttempts = 0;
+                    } else {
+                        mConnectionAttempts++;
+                    }
+                    mNextConnectionTime = now + getReconnectDelay(mConnectionAttempts);
+                }
+                for (Call call : calls) {
+                    if (call.result == null || call.result.isDone()) {
+                        continue;
+                    }
+                    if (!mClosed && call.isIdempotent()) {
+                        replays.add(call);
+                    } else {
+                        failures.add(call);
+                    }
+                }
+                if (!replays.isEmpty()) {
+                    if (mState == STATE_CONNECTED) {
+                        currentClient = mClient;
+                    } else {
+                        for (int i = replays.size() - 1; i >= 0; i--) {
+                            mQueue.addFirst(replays.get(i));
+                        }
+                    }
+                }
+                if (!mClosed && mState == STATE_DISCONNECTED && !mQueue.isEmpty()) {
+                    scheduleConnection();
+                }
+            }
+            if (currentClient != null) {
+                for (Call call : replays) {
+                    try {
+                        currentClient.transact(call);
+                    } catch (RemoteException ignore) {
+                    }
                 }
-                DataOutputStream dataOutputStream = (DataOutputStream) context.getObject("dataOutputStream");
+            }
+            fail(failures, cause);
+            if (exit) {
+                onLaneFailure(this, cause);
+            }
+        }
+
+        private long getReconnectDelay(int attempts) {
+            if (attempts <= 0) {
+                return 0;
+            }
+            long delay = Math.min(MAX_RECONNECT_DELAY, INITIAL_RECONNECT_DELAY << Math.min(attempts - 1, 16));
+            // Jitter spreads the reconnects of multiple lanes and nodes.
+            return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+        }
 
-                if ((flags & Binder.FLAG_ONEWAY) != 0) {
-                    result = null;
+        private void fail(Collection<Call> calls, Throwable cause) {
+            for (Call call : calls) {
+                if (call.result != null) {
+                    call.result.completeWith((cause != null) ? new RemoteException("Binder transaction failure", cause) : new RemoteException("Binder transaction failure"));
+                }
+            }
+        }
+    }
+
+    private class Client extends AbstractClient {
+        private final Lane mLane;
+        private final AtomicInteger mTransactionIdGenerator = new AtomicInteger(1);
+        private final Map<Integer, Call> mTransactions = new ConcurrentHashMap<>();
+        // Replies that are being received in chunks.
+        private final Map<Integer, IncomingStream> mStreams = new ConcurrentHashMap<>();
+        // Transactions that are being sent in chunks.
+        private final Map<Integer, OutgoingStream> mOutgoingStreams = new ConcurrentHashMap<>();
+        // Transactions that wait for a free slot in the flow control window, guarded by itself.
+        private final LinkedHashMap<Integer, Call> mPendingTransactions = new LinkedHashMap<>();
+        private int mInFlightTransactions = 0;
+        private long mInFlightBytes = 0;
+        // The flow control window, until the server has granted its window.
+        private int mMaxTransactions = mMaxInFlightTransactions;
+        private long mMaxBytes = mMaxInFlightBytes;
+        private boolean mShutdown = false;
+        // Whether a thread is sending admitted pending transactions, guarded by mPendingTransactions. Meanwhile,
+        // further transactions queue up behind them so that they are written in order.
+        private boolean mSending = false;
+        // The hello version of the server, which is 0 until the server has replied to the hello message.
+        private volatile int mVersion = 0;
+        // Transactions that wait for the hello reply, guarded by mPendingTransactions.
+        private final List<Call> mHelloPendingTransactions = new ArrayList<>();
+        private MessageOutputStream mDataOutputStream;
+        // Decompresses messages of the server and, once negotiated, compresses messages to the server.
+        private volatile Compression mCompression;
+        private volatile long mLastMessageTime = SystemClock.uptimeMillis();
+        // Shared by the successive connections of the lane.
+        private final Counter mBytesIn;
+        private final Counter mBytesOut;
+
+        public Client(Lane lane) {
+            super(lane.mNodeId);
+            mLane = lane;
+            String label = "node " + lane.mNodeId + " lane " + lane.mId;
+            mBytesIn = Metrics.counter("mindroid.client.bytesIn", label);
+            mBytesOut = Metrics.counter("mindroid.client.bytesOut", label);
+        }
+
+        public void shutdown(Throwable cause) {
+            List<Call> calls;
+            // One-way transactions that have not been sent yet.
+            List<Call> onewayCalls = new ArrayList<>();
+            synchronized (mPendingTransactions) {
+                if (mShutdown) {
+                    return;
+                }
+                mShutdown = true;
+                for (Call call : mPendingTransactions.values()) {
+                    if (call.result == null) {
+                        onewayCalls.add(call);
+                    }
+                }
+                mPendingTransactions.clear();
+                calls = new ArrayList<>(mTransactions.values());
+                mTransactions.clear();
+                for (Call call : mHelloPendingTransactions) {
+                    if (call.result == null) {
+                        onewayCalls.add(call);
+                    } else {
+                        calls.add(call);
+                    }
+                }
+                mHelloPendingTransactions.clear();
+            }
+            Collections.sort(calls, (c1, c2) -> Integer.compare(c1.transactionId, c2.transactionId));
+            mLane.onDisconnected(this, calls, cause);
+            if (!onewayCalls.isEmpty()) {
+                Collections.sort(onewayCalls, (c1, c2) -> Integer.compare(c1.transactionId, c2.transactionId));
+                mLane.resubmit(onewayCalls, this);
+            }
+            for (IncomingStream stream : mStreams.values()) {
+                stream.fail((cause instanceof IOException) ? (IOException) cause : new IOException("Connection closed", cause));
+            }
+            mStreams.clear();
+            mOutgoingStreams.clear();
+            Compression compression = mCompression;
+            if (compression != null) {
+                compression.close();
+            }
+
+            sExecutor.execute(() -> { super.shutdown(cause); });
+        }
+
+        public void transact(Call call) throws RemoteException {
+            call.client = this;
+            call.transactionId = mTransactionIdGenerator.getAndIncrement();
+            synchronized (mPendingTransactions) {
+                if (mVersion == 0 && !mShutdown) {
+                    // The messages of the transaction depend on the version of the server.
+                    mHelloPendingTransactions.add(call);
+                    return;
+                }
+            }
+            if (call.data.hasLongStrings() && !checkLongStrings(call)) {
+                return;
+            }
+
+            // One-way transactions take their turn in the flow control window as well, so that they do not
+            // overtake stalled transactions. They hold their credit until they have been written.
+            final boolean oneway = call.result == null;
+            boolean send;
+            synchronized (mPendingTransactions) {
+                if (mShutdown) {
+                    send = false;
+                } else if (mPendingTransactions.isEmpty() && !mSending && hasCredit(call)) {
+                    if (!oneway) {
+                        mTransactions.put(call.transactionId, call);
+                    }
+                    acquireCredit(call);
+                    send = true;
                 } else {
-                    final Promise<Parcel> promise = new Promise<>(Executors.SYNCHRONOUS_EXECUTOR);
-                    result = promise.orTimeout(data.getLongExtra(TIMEOUT, DEFAULT_TRANSACTION_TIMEOUT))
-                            .then((value, exception) -> {
-                                mTransactions.remove(transactionId);
-                            });
-                    mTransactions.put(transactionId, promise);
+                    stall(call);
+                    return;
                 }
+            }
+            if (!send) {
+                mLane.resubmit(call, this);
+            } else if (oneway) {
+                try {
+                    write(call.toMessage(supports(Message.EXTRAS_VERSION)));
+                } catch (IOException e) {
+                    shutdown(e);
+                    throw new RemoteException("Binder transaction failure", e);
+                }
+                send(releaseCredit(call));
+            } else {
+                send(call);
+            }
+        }
 
-                Message.newMessage(binder.getUri().toString(), transactionId, what, data.getByteArray(), data.size()).write(dataOutputStream);
+        /**
+         * Proposes the local flow control window and compression threshold to the server. If the server does not
+         * reply within the hello timeout, it is treated as a server without hello support.
+         */
+        void hello() {
+            mCompression = new Compression(0, getCompressionStatistics(getNodeId()));
+            if (mHelloTimeout <= 0) {
+                onVersion(Message.LEGACY_VERSION, mMaxTransactions, mMaxBytes, true);
+                return;
+            }
+            send(Message.newHelloMessage(mRuntime.getNodeId(), mMaxInFlightTransactions, mMaxInFlightBytes, mCompressionThreshold));
+            try {
+                sExecutor.schedule(this::onHelloTimeout, mHelloTimeout, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException ignore) {
+            }
+        }
+
+        private void onHelloTimeout() {
+            if (mVersion == 0 && !isClosed()) {
+                Log.w(LOG_TAG, "Node " + getNodeId() + " has not replied to the hello message within " + mHelloTimeout + " ms");
+                onVersion(Message.LEGACY_VERSION, mMaxTransactions, mMaxBytes, true);
+            }
+        }
+
+        /**
+         * Checks that the server supports the long strings of a transaction.
+         *
+         * @return true if the transaction can be sent.
+         * @throws RemoteException if the server does not support long strings and the transaction is one-way.
+         */
+        private boolean checkLongStrings(Call call) throws RemoteException {
+            if (supports(Message.LONG_STRINGS_VERSION) || isShutdown()) {
+                return true;
+            }
+            RemoteException exception = new RemoteException("Binder transaction failure: Long strings are not supported by the remote node");
+            if (call.result == null) {
+                throw exception;
+            }
+            call.result.completeWith(exception);
+            return false;
+        }
+
+        /**
+         * Returns true if the server supports the messages of {@code version}. Transactions are held back until
+         * the version is known, see {@link #onVersion}.
+         */
+        private boolean supports(int version) {
+            return mVersion >= version;
+        }
+
+        private boolean isShutdown() {
+            synchronized (mPendingTransactions) {
+                return mShutdown;
+            }
+        }
+
+        /**
+         * Delays a transaction until the remote node has returned enough credit. Must be called while holding
+         * mPendingTransactions.
+         *
+         * @throws RemoteException if there are too many pending transactions and the transaction is one-way.
+         */
+        private void stall(Call call) throws RemoteException {
+            if (mPendingTransactions.size() < MAX_PENDING_TRANSACTIONS) {
+                call.stallTime = System.nanoTime();
+                mWindowStalls.increment();
+                if (call.result != null) {
+                    mTransactions.put(call.transactionId, call);
+                }
+                mPendingTransactions.put(call.transactionId, call);
+            } else {
+                RemoteException exception = new RemoteException("Binder transaction failure: Too many pending transactions");
+                if (call.result == null) {
+                    throw exception;
+                }
+                call.result.completeWith(exception);
+            }
+        }
+
+        /**
+         * Delays the transactions of a batch that exceed the flow control window. Transactions that have been
+         * admitted meanwhile are sent right away.
+         */
+        private void stall(List<Call> calls) {
+            List<Call> admittedCalls = null;
+            boolean shutdown;
+            synchronized (mPendingTransactions) {
+                shutdown = mShutdown;
+                if (!mShutdown) {
+                    for (Call call : calls) {
+                        try {
+                            stall(call);
+                        } catch (RemoteException e) {
+                            Log.e(LOG_TAG, e.getMessage());
+                        }
+                    }
+                    admittedCalls = admitPendingTransactions();
+                }
+            }
+            if (shutdown) {
+                mLane.resubmit(calls, this);
+            } else {
+                send(admittedCalls);
+            }
+        }
+
+        private boolean hasCredit(Call call) {
+            return mInFlightTransactions < mMaxTransactions
+                    && (mInFlightTransactions == 0 || mInFlightBytes + getCredit(call) <= mMaxBytes);
+        }
+
+        private void acquireCredit(Call call) {
+            call.credit = getCredit(call);
+            mInFlightTransactions++;
+            mInFlightBytes += call.credit;
+        }
+
+        /**
+         * Chunked transactions count with at most {@link Message#STREAM_WINDOW} bytes since the server consumes
+         * them as a stream and buffers no more of them. Otherwise, a single large transaction would block all others.
+         */
+        private long getCredit(Call call) {
+            int size = call.data.size();
+            return (mChunkSize > 0 && size > mChunkSize && supports(Message.CHUNK_VERSION)) ? Math.min(size, Message.STREAM_WINDOW) : size;
+        }
+
+        /**
+         * Admits the pending transactions that fit into the flow control window. The caller must send them by
+         * {@link #send(List)}. While another thread is sending, it admits further transactions itself.
+         *
+         * @return The admitted transactions or null.
+         */
+        private List<Call> admitPendingTransactions() {
+            if (mSending) {
+                return null;
+            }
+            List<Call> calls = null;
+            Iterator<Call> itr = mPendingTransactions.values().iterator();
+            while (itr.hasNext()) {
+                Call call = itr.next();
+                if (!hasCredit(call)) {
+                    break;
+                }
+                if (calls == null) {
+                    calls = new ArrayList<>();
+                }
+                itr.remove();
+                acquireCredit(call);
+                mWindowStallTime.record(System.nanoTime() - call.stallTime);
+                calls.add(call);
+            }
+            mSending = calls != null;
+            return calls;
+        }
+
+        public boolean isIdle() {
+            return mTransactions.isEmpty();
+        }
+
+        /**
+         * Takes over transactions that the lane has queued while connecting, ahead of all further transactions.
+         * The transactions are only sent by {@link #flush()}.
+         *
+         * @return false if the client has already been shut down.
+         */
+        boolean enqueue(List<Call> calls) {
+            synchronized (mPendingTransactions) {
+                if (mShutdown) {
+                    return false;
+                }
+                for (Call call : calls) {
+                    if (call.result != null && call.result.isDone()) {
+                        continue;
+                    }
+                    call.client = this;
+                    call.transactionId = mTransactionIdGenerator.getAndIncrement();
+                    if (mVersion == 0) {
+                        mHelloPendingTransactions.add(call);
+                    } else {
+                        enqueuePending(call);
+                    }
+                }
+                return true;
+            }
+        }
+
+        /**
+         * Sends the pending transactions that fit into the flow control window.
+         */
+        void flush() {
+            List<Call> calls;
+            synchronized (mPendingTransactions) {
+                calls = admitPendingTransactions();
+            }
+            send(calls);
+        }
+
+        /**
+         * Appends a transaction to the pending transactions, unless the server does not support its long
+         * strings. Must be called while holding mPendingTransactions.
+         */
+        private void enqueuePending(Call call) {
+            try {
+                if (call.data.hasLongStrings() && !checkLongStrings(call)) {
+                    return;
+                }
+            } catch (RemoteException e) {
+                Log.e(LOG_TAG, e.getMessage());
+                return;
+            }
+            call.stallTime = System.nanoTime();
+            if (call.result != null) {
+                mTransactions.put(call.transactionId, call);
+            }
+            mPendingTransactions.put(call.transactionId, call);
+        }
+
+        public void transact(List<Call> batch) throws RemoteException {
+            if (!supports(Message.BATCH_VERSION)) {
+                // Servers without batch support receive the transactions one by one. Until the version of the server
+                // is known, the transactions are held back one by one as well.
+                for (Call call : batch) {
+                    try {
+                        transact(call);
+                    } catch (RemoteException e) {
+                        Log.e(LOG_TAG, e.getMessage());
+                    }
+                }
+                return;
+            }
+            List<Call> calls = batch;
+            if (mVersion < Message.LONG_STRINGS_VERSION) {
+                calls = new ArrayList<>(batch.size());
+                for (Call call : batch) {
+                    try {
+                        if (!call.data.hasLongStrings() || checkLongStrings(call)) {
+                            calls.add(call);
+                        }
+                    } catch (RemoteException e) {
+                        Log.e(LOG_TAG, e.getMessage());
+                    }
+                }
+                if (calls.isEmpty()) {
+                    return;
+                }
+            }
+            final int batchId = mTransactionIdGenerator.getAndIncrement();
+            byte[] data;
+            // The end of each transaction within the batch data.
+            int[] offsets = new int[calls.size()];
+            try {
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                MessageOutputStream outputStream = new MessageOutputStream(buffer);
+                for (int i = 0; i < calls.size(); i++) {
+                    Call call = calls.get(i);
+                    call.client = this;
+                    call.transactionId = mTransactionIdGenerator.getAndIncrement();
+                    outputStream.writeInt(call.flags);
+                    call.toMessage(supports(Message.EXTRAS_VERSION)).write(outputStream);
+                    offsets[i] = outputStream.size();
+                }
+                data = buffer.toByteArray();
             } catch (IOException e) {
-                mTransactions.remove(transactionId);
-                shutdown(e);
                 throw new RemoteException("Binder transaction failure", e);
             }
-            return result;
+
+            // The batch is sent as far as the flow control window admits its transactions. The remaining
+            // transactions wait in the pending transactions until the remote node has returned enough credit.
+            int count = 0;
+            boolean shutdown;
+            synchronized (mPendingTransactions) {
+                shutdown = mShutdown;
+                if (!mShutdown && mPendingTransactions.isEmpty() && !mSending) {
+                    while (count < calls.size() && hasCredit(calls.get(count))) {
+                        Call call = calls.get(count++);
+                        if (call.result != null) {
+                            mTransactions.put(call.transactionId, call);
+                        }
+                        acquireCredit(call);
+                    }
+                }
+            }
+            if (shutdown) {
+                mLane.resubmit(calls, this);
+                return;
+            }
+            if (count > 0) {
+                try {
+                    Message.newBatchMessage(batchId, count, data, offsets[count - 1]).write(getDataOutputStream());
+                } catch (IOException e) {
+                    shutdown(e);
+                }
+                for (int i = 0; i < count; i++) {
+                    Call call = calls.get(i);
+                    if (call.result == null) {
+                        send(releaseCredit(call));
+                    }
+                }
+            }
+            if (count < calls.size()) {
+                stall(calls.subList(count, calls.size()));
+            }
+        }
+
+        private void send(Call call) {
+            send(call.toMessage(supports(Message.EXTRAS_VERSION)));
+        }
+
+        /**
+         * Sends transactions that have been admitted to the flow control window. One-way transactions return their
+         * credit once they have been written. Afterwards, the pending transactions that have been admitted meanwhile
+         * are sent as well.
+         */
+        private void send(List<Call> calls) {
+            while (calls != null) {
+                for (Call call : calls) {
+                    send(call);
+                    if (call.result == null) {
+                        synchronized (mPendingTransactions) {
+                            mInFlightTransactions--;
+                            mInFlightBytes -= call.credit;
+                        }
+                    }
+                }
+                synchronized (mPendingTransactions) {
+                    mSending = false;
+                    calls = admitPendingTransactions();
+                }
+            }
+        }
+
+        /**
+         * Returns the flow control credit of a transaction.
+         *
+         * @return The pending transactions that have been admitted thereby or null if there are none or another
+         * thread is sending pending transactions.
+         */
+        private List<Call> releaseCredit(Call call) {
+            synchronized (mPendingTransactions) {
+                mInFlightTransactions--;
+                mInFlightBytes -= call.credit;
+                return admitPendingTransactions();
+            }
+        }
+
+        private void send(Message message) {
+            try {
+                write(message);
+            } catch (IOException e) {
+                shutdown(e);
+            }
+        }
+
+        /**
+         * Writes a message, sending large transactions in chunks that are flow controlled by the credit the
+         * server grants. Servers without chunk support receive large transactions in one piece.
+         */
+        private void write(Message message) throws IOException {
+            if (!supports(Message.CHUNK_VERSION) || !message.isChunked(mChunkSize)) {
+                message.write(getDataOutputStream());
+                return;
+            }
+            long credit = supports(Message.STREAM_CREDIT_VERSION) ? Message.STREAM_WINDOW : Long.MAX_VALUE;
+            new OutgoingStream(message, getDataOutputStream(), mChunkSize, credit, mOutgoingStreams, this::shutdown).start();
+        }
+
+        /**
+         * Pings the server and shuts the connection down if the server has been silent for longer than the heartbeat
+         * timeout. Servers without heartbeat support never answer, so their connections are only supervised by TCP.
+         */
+        private void heartbeat() {
+            if (!supports(Message.HEARTBEAT_VERSION)) {
+                return;
+            }
+            if (SystemClock.uptimeMillis() - mLastMessageTime > mHeartbeatTimeout) {
+                shutdown(new IOException("Heartbeat timeout"));
+            } else {
+                send(Message.newHeartbeatMessage(Message.HEARTBEAT_PING));
+            }
+        }
+
+        /**
+         * Returns the flow control credit of a transaction once its reply has arrived. A transaction that
+         * completes otherwise, e.g. by a timeout, keeps its credit until the reply arrives since the remote
+         * node is still processing it.
+         */
+        private void onTransactionComplete(Call call) {
+            if (!call.replied) {
+                synchronized (mPendingTransactions) {
+                    if (mPendingTransactions.remove(call.transactionId) != null) {
+                        mTransactions.remove(call.transactionId, call);
+                    }
+                }
+                return;
+            }
+            if (!mTransactions.remove(call.transactionId, call)) {
+                return;
+            }
+            send(releaseCredit(call));
+        }
+
+        /**
+         * Applies the flow control window and the compression granted by the server and sends the
+         * transactions with long strings that have been held back.
+         */
+        private void onHello(Message message) throws IOException {
+            DataInputStream inputStream = new DataInputStream(new ByteArrayInputStream(message.data, 0, message.size));
+            int version = inputStream.readInt();
+            int maxTransactions = inputStream.readInt();
+            long maxBytes = inputStream.readLong();
+            if (version >= 2) {
+                inputStream.readInt();
+                int compressionThreshold = negotiateCompressionThreshold(inputStream.readInt(), inputStream.readInt());
+                if (compressionThreshold > 0) {
+                    // The reader of the connection is the only user of the decompressing instance.
+                    Compression compression = new Compression(compressionThreshold, mCompression.getStatistics());
+                    mCompression.close();
+                    mCompression = compression;
+                    getDataOutputStream().mCompression = compression;
+                }
+            }
+            onVersion(version, maxTransactions, maxBytes, false);
+        }
+
+        /**
+         * Applies the version and flow control window of the server. Held back transactions are sent, those
+         * with long strings fail if the server does not support them.
+         *
+         * @param initial Only apply the version if no hello reply has arrived yet.
+         */
+        private void onVersion(int version, int maxTransactions, long maxBytes, boolean initial) {
+            List<Call> calls;
+            synchronized (mPendingTransactions) {
+                if (initial && mVersion != 0) {
+                    return;
+                }
+                mVersion = version;
+                mMaxTransactions = Math.max(1, maxTransactions);
+                mMaxBytes = Math.max(1, maxBytes);
+                // The held back transactions keep their order ahead of all further transactions.
+                for (Call call : mHelloPendingTransactions) {
+                    if (call.result == null || !call.result.isDone()) {
+                        enqueuePending(call);
+                    }
+                }
+                mHelloPendingTransactions.clear();
+                calls = admitPendingTransactions();
+            }
+            send(calls);
+        }
+
+        private MessageOutputStream getDataOutputStream() throws IOException {
+            synchronized (mPendingTransactions) {
+                if (mDataOutputStream == null) {
+                    mDataOutputStream = new MessageOutputStream(new BufferedOutputStream(new CountingOutputStream(getOutputStream(), mBytesOut)));
+                }
+                return mDataOutputStream;
+            }
         }
 
         @Override
         public void onConnected() {
             Log.d(LOG_TAG, "Connected to " + getRemoteSocketAddress());
+            mLastMessageTime = SystemClock.uptimeMillis();
+            try {
+                setTcpNoDelay(true);
+            } catch (IOException ignore) {
+            }
         }
 
         @Override
@@ -524,24 +2659,40 @@ public class Mindroid extends Plugin {
         @Override
         public void onTransact(Bundle context, InputStream inputStream, OutputStream outputStream) throws IOException {
             if (!context.containsKey("dataInputStream")) {
-                DataInputStream dataInputStream = new DataInputStream(inputStream);
+                DataInputStream dataInputStream = new DataInputStream(new BufferedInputStream(new CountingInputStream(inputStream, mBytesIn)));
                 context.putObject("dataInputStream", dataInputStream);
             }
             DataInputStream dataInputStream = (DataInputStream) context.getObject("dataInputStream");
 
             try {
-                Message message = Message.newMessage(dataInputStream);
+                Message message = Message.newMessage(dataInputStream, mCompression);
+                mLastMessageTime = SystemClock.uptimeMillis();
 
-                final Promise<Parcel> promise = mTransactions.get(message.transactionId);
-                if (promise != null) {
-                    mTransactions.remove(message.transactionId);
-                    if (message.type == Message.MESSAGE_TYPE_TRANSACTION) {
-                        promise.complete(Parcel.obtain(message.data).asInput());
-                    } else {
-                        promise.completeWith(message.cause);
+                if (message.type == Message.MESSAGE_TYPE_BATCH) {
+                    DataInputStream batchInputStream = new DataInputStream(new ByteArrayInputStream(message.data, 0, message.size));
+                    for (int i = 0; i < message.what; i++) {
+                        onReply(Message.newMessage(batchInputStream));
+                    }
+                } else if (message.type == Message.MESSAGE_TYPE_GOSSIP) {
+                    if (message.what == GossipServiceDiscovery.ACK) {
+                        byte[] data = mServiceDiscovery.onAck(message.data);
+                        if (data != null) {
+                            send(Message.newGossipMessage(GossipServiceDiscovery.ACK2, data));
+                        }
+                    }
+                } else if (message.type == Message.MESSAGE_TYPE_CHUNK) {
+                    onChunk(message);
+                } else if (message.type == Message.MESSAGE_TYPE_HEARTBEAT) {
+                    // Pongs only refresh the time of the last message.
+                } else if (message.type == Message.MESSAGE_TYPE_HELLO) {
+                    onHello(message);
+                } else if (message.type == Message.MESSAGE_TYPE_CREDIT) {
+                    OutgoingStream stream = mOutgoingStreams.get(message.transactionId);
+                    if (stream != null) {
+                        stream.grant(message.what);
                     }
                 } else {
-                    Log.e(LOG_TAG, "Invalid transaction id: " + message.transactionId);
+                    onReply(message);
                 }
             } catch (IOException e) {
                 if (DEBUG) {
@@ -550,5 +2701,60 @@ public class Mindroid extends Plugin {
                 throw e;
             }
         }
+
+        /**
+         * A chunked reply completes its transaction with the first chunk. The result is completed on
+         * another thread since its continuations read the remaining chunks as they arrive.
+         */
+        private void onChunk(Message message) throws IOException {
+            IncomingStream stream = mStreams.get(message.transactionId);
+            if (stream == null) {
+                stream = new IncomingStream(message.transactionId, message.totalSize,
+                        (mVersion >= Message.STREAM_CREDIT_VERSION) ? this::send : null);
+                final Call call = mTransactions.get(message.transactionId);
+                if (call != null) {
+                    call.replied = true;
+                    if (call.result.isDone()) {
+                        onTransactionComplete(call);
+                        stream.close();
+                    } else {
+                        final Parcel parcel = message.apply(Parcel.obtain(stream, message.totalSize));
+                        try {
+                            sConnectionExecutor.execute(() -> call.result.complete(parcel));
+                        } catch (RejectedExecutionException e) {
+                            call.result.completeWith(new RemoteException("Binder transaction failure", e));
+                            stream.close();
+                        }
+                    }
+                } else {
+                    Log.e(LOG_TAG, "Invalid transaction id: " + message.transactionId);
+                    // The remaining chunks are discarded.
+                    stream.close();
+                }
+                mStreams.put(message.transactionId, stream);
+            }
+            stream.append(ByteBuffer.wrap(message.data, 0, message.size));
+            if (stream.isComplete()) {
+                mStreams.remove(message.transactionId);
+            }
+        }
+
+        private void onReply(Message message) throws IOException {
+            // The transaction is removed by onTransactionComplete.
+            final Call call = mTransactions.get(message.transactionId);
+            if (call != null) {
+                call.replied = true;
+                if (call.result.isDone()) {
+                    // The transaction has timed out, but its credit is returned now.
+                    onTransactionComplete(call);
+                } else if (message.type == Message.MESSAGE_TYPE_TRANSACTION) {
+                    call.result.complete(message.apply(Parcel.obtain(message.data)).asInput());
+                } else {
+                    call.result.completeWith(message.cause);
+                }
+            } else {
+                Log.e(LOG_TAG, "Invalid transaction id: " + message.transactionId);
+            }
+        }
     }
 }
@@ -18,6 +18,7 @@ package mindroid.runtime.system;
 
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.List;
 import mindroid.os.Binder;
 import mindroid.os.Bundle;
 import mindroid.os.IBinder;
@@ -57,12 +58,48 @@ public abstract class Plugin {
 
     public abstract Promise<Parcel> transact(IBinder binder, int what, Parcel data, int flags) throws RemoteException;
 
+    /**
+     * Sends a batch of transactions. Plugins that are able to send multiple transactions within one
+     * message override this method. The default implementation sends the transactions one by one.
+     *
+     * @param transactions The transactions. The results of two-way transactions are delivered through
+     * {@link Transaction#result}.
+     */
+    public void transact(List<Transaction> transactions) throws RemoteException {
+        for (Transaction transaction : transactions) {
+            Promise<Parcel> result = transact(transaction.binder, transaction.what, transaction.data, transaction.flags);
+            if (transaction.result != null) {
+                if (result != null) {
+                    transaction.result.completeWith(result);
+                } else {
+                    transaction.result.completeWith(new RemoteException("Binder transaction failure"));
+                }
+            }
+        }
+    }
+
     public abstract void link(IBinder binder, IBinder.Supervisor supervisor, Bundle extras) throws RemoteException;
     public abstract boolean unlink(IBinder binder, IBinder.Supervisor supervisor, Bundle extras);
 
     public abstract void discoverServices(String interfaceDescriptor, Bundle extras, IDiscoveryListener listener) throws URISyntaxException;
     public abstract void stopServiceDiscovery(IDiscoveryListener listener);
 
+    public static final class Transaction {
+        public final IBinder binder;
+        public final int what;
+        public final Parcel data;
+        public final int flags;
+        public final Promise<Parcel> result;
+
+        public Transaction(IBinder binder, int what, Parcel data, int flags, Promise<Parcel> result) {
+            this.binder = binder;
+            this.what = what;
+            this.data = data;
+            this.flags = flags;
+            this.result = result;
+        }
+    }
+
     public static abstract class Observer {
         public abstract void onEntry(int nodeId);
         public abstract void onExit(int nodeId);
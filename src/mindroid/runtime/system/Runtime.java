@@ -17,12 +17,14 @@
 package mindroid.runtime.system;
 
 import java.io.File;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
 import java.lang.ref.WeakReference;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -33,26 +35,40 @@ import mindroid.os.IBinder;
 import mindroid.os.IInterface;
 import mindroid.os.Parcel;
 import mindroid.os.RemoteException;
+import mindroid.os.SystemClock;
 import mindroid.runtime.sd.DiscoveryListener;
 import mindroid.runtime.sd.IDiscoveryListener;
 import mindroid.util.Log;
 import mindroid.util.concurrent.CancellationException;
 import mindroid.util.concurrent.ExecutionException;
+import mindroid.util.concurrent.Executors;
 import mindroid.util.concurrent.Promise;
+import mindroid.util.concurrent.SegmentedLruCache;
 
 public class Runtime {
     private static final String LOG_TAG = "Runtime";
     private static final String MINDROID_SCHEME = "mindroid";
     private static final String MINDROID_SCHEME_WITH_SEPARATOR = "mindroid://";
+    private static final int MAX_SERVICE_KEY_CACHE_SIZE = 1024;
+    private static final int MAX_BINDER_URI_CACHE_SIZE = 1024;
     private static Runtime sRuntime;
     private final int mNodeId;
     private final Map<String, Plugin> mPlugins = new ConcurrentHashMap<>();
-    private final Map<Long, WeakReference<Binder>> mBinderIds = new ConcurrentHashMap<>();
+    private final Map<Long, BinderReference> mBinderIds = new ConcurrentHashMap<>();
     private final Map<String, WeakReference<Binder>> mBinderUris = new ConcurrentHashMap<>();
-    private final Map<String, Binder> mServices = new HashMap<>();
+    private final Map<Long, ProxyReference> mProxies = new ConcurrentHashMap<>();
+    // Parsed binder URIs received in parcels, by their URI strings.
+    private final SegmentedLruCache<String, URI> mBinderUriCache = new SegmentedLruCache<>(MAX_BINDER_URI_CACHE_SIZE);
+    private final ReferenceQueue<Object> mReferenceQueue = new ReferenceQueue<>();
+    private final Thread mReferenceReaper;
+    private final Map<String, Binder> mServices = new ConcurrentHashMap<>();
+    private final Map<Long, Set<String>> mServiceKeys = new ConcurrentHashMap<>();
+    private final Map<URI, ServiceKey> mServiceKeyCache = new ConcurrentHashMap<>();
     private final Set<DiscoveryListener> mDiscoveryListeners = ConcurrentHashMap.newKeySet();
     private final AtomicInteger mBinderIdGenerator = new AtomicInteger(1);
     private final AtomicInteger mProxyIdGenerator = new AtomicInteger(1);
+    private final Promise<Void> mStartup = new Promise<>(Executors.SYNCHRONOUS_EXECUTOR);
+    private final Map<String, Long> mPluginStartupTimes = new ConcurrentHashMap<>();
     private final Set<Long> mIds = ConcurrentHashMap.newKeySet();
     private ServiceDiscoveryConfigurationReader.Configuration mConfiguration;
 
@@ -62,9 +78,12 @@ public class Runtime {
         }
         mNodeId = nodeId;
         Log.println('I', LOG_TAG, "Mindroid runtime system node id: " + mNodeId);
+        mReferenceReaper = new Thread(this::reapReferences, "RuntimeReferenceReaper");
+        mReferenceReaper.setDaemon(true);
+        mReferenceReaper.start();
         if (configurationFile != null) {
             try {
-                mConfiguration = ServiceDiscoveryConfigurationReader.read(configurationFile);
+                mConfiguration = ServiceDiscoveryConfigurationCache.read(configurationFile);
             } catch (Exception e) {
                 Log.println('E', LOG_TAG, "Failed to read Mindroid runtime system configuration", e);
             }
@@ -98,24 +117,31 @@ public class Runtime {
         return sRuntime;
     }
 
-    public static void start(int nodeId, File configuration) {
+    /**
+     * Starts the Mindroid runtime system. The plugins are started concurrently, a plugin that
+     * declares dependencies on other plugins in the runtime system configuration is started after
+     * these.
+     *
+     * @return A promise that completes once all plugins have been started. It completes
+     * exceptionally if a plugin failed to start.
+     */
+    public static Promise<Void> start(int nodeId, File configuration) {
         boolean start = false;
+        Runtime runtime;
         synchronized (Runtime.class) {
             if (sRuntime == null) {
                 sRuntime = new Runtime(nodeId, configuration);
                 start = true;
             }
+            runtime = sRuntime;
         }
         if (start) {
-            for (Plugin plugin : sRuntime.mPlugins.values()) {
-                plugin.setUp(sRuntime);
-                try {
-                    plugin.start(null, null).get();
-                } catch (CancellationException | ExecutionException | InterruptedException e) {
-                    Log.println('E', LOG_TAG, "Failed to start plugin", e);
-                }
+            for (Plugin plugin : runtime.mPlugins.values()) {
+                plugin.setUp(runtime);
             }
+            runtime.mStartup.completeWith(runtime.runPlugins(true));
         }
+        return runtime.mStartup;
     }
 
     public static void shutdown() {
@@ -128,15 +154,135 @@ public class Runtime {
             }
         }
         if (shutdown) {
-            for (Plugin plugin : runtime.mPlugins.values()) {
+            runtime.mReferenceReaper.interrupt();
+            try {
+                runtime.runPlugins(false).get();
+            } catch (CancellationException | ExecutionException | InterruptedException e) {
+                Log.println('E', LOG_TAG, "Failed to stop plugins", e);
+            }
+        }
+    }
+
+    /**
+     * Returns the startup time of each plugin in milliseconds.
+     */
+    public Map<String, Long> getPluginStartupTimes() {
+        return Collections.unmodifiableMap(mPluginStartupTimes);
+    }
+
+    /**
+     * Starts or stops all plugins concurrently. Plugins are started after the plugins they depend on
+     * and stopped before them.
+     */
+    private Promise<Void> runPlugins(boolean start) {
+        Map<String, Set<String>> dependencies = getPluginDependencies();
+        Map<String, Set<String>> predecessors;
+        if (start) {
+            predecessors = dependencies;
+        } else {
+            predecessors = new HashMap<>();
+            for (String scheme : dependencies.keySet()) {
+                predecessors.put(scheme, new HashSet<>());
+            }
+            for (Map.Entry<String, Set<String>> entry : dependencies.entrySet()) {
+                for (String dependency : entry.getValue()) {
+                    predecessors.get(dependency).add(entry.getKey());
+                }
+            }
+        }
+
+        Map<String, Promise<Void>> promises = new HashMap<>();
+        Set<String> failures = ConcurrentHashMap.newKeySet();
+        for (String scheme : predecessors.keySet()) {
+            runPlugin(scheme, start, predecessors, promises, failures);
+        }
+        Promise<Void> promise = new Promise<>(Executors.SYNCHRONOUS_EXECUTOR);
+        Promise.allOf(Executors.SYNCHRONOUS_EXECUTOR, promises.values().toArray(new Promise<?>[promises.size()])).then(() -> {
+            if (failures.isEmpty()) {
+                promise.complete(null);
+            } else {
+                promise.completeWith(new Exception("Failed to " + (start ? "start" : "stop") + " plugins: " + failures));
+            }
+        });
+        return promise;
+    }
+
+    private Promise<Void> runPlugin(String scheme, boolean start, Map<String, Set<String>> predecessors,
+            Map<String, Promise<Void>> promises, Set<String> failures) {
+        Promise<Void> promise = promises.get(scheme);
+        if (promise != null) {
+            return promise;
+        }
+        Set<String> schemes = predecessors.get(scheme);
+        Promise<?>[] predecessorPromises = new Promise<?>[schemes.size()];
+        int i = 0;
+        for (String s : schemes) {
+            predecessorPromises[i++] = runPlugin(s, start, predecessors, promises, failures);
+        }
+
+        final Promise<Void> result = new Promise<>(Executors.SYNCHRONOUS_EXECUTOR);
+        promises.put(scheme, result);
+        Promise.allOf(Executors.SYNCHRONOUS_EXECUTOR, predecessorPromises).then(() -> {
+            Thread thread = new Thread(() -> {
+                Plugin plugin = mPlugins.get(scheme);
+                long startTime = SystemClock.uptimeMillis();
                 try {
-                    plugin.stop(null, null).get();
-                } catch (Throwable e) {
-                    Log.println('E', LOG_TAG, "Failed to stop plugin", e);
+                    if (start) {
+                        plugin.start(null, null).get();
+                    } else {
+                        plugin.stop(null, null).get();
+                    }
+                    long duration = SystemClock.uptimeMillis() - startTime;
+                    if (start) {
+                        mPluginStartupTimes.put(scheme, duration);
+                    }
+                    Log.println('I', LOG_TAG, (start ? "Started" : "Stopped") + " plugin \'" + scheme + "\' in " + duration + " ms");
+                } catch (Exception e) {
+                    failures.add(scheme);
+                    Log.println('E', LOG_TAG, "Failed to " + (start ? "start" : "stop") + " plugin \'" + scheme + "\'", e);
+                }
+                if (!start) {
+                    plugin.tearDown();
+                }
+                result.complete(null);
+            }, "Runtime: " + (start ? "start " : "stop ") + scheme);
+            thread.start();
+        });
+        return result;
+    }
+
+    private Map<String, Set<String>> getPluginDependencies() {
+        Map<String, Set<String>> dependencies = new HashMap<>();
+        for (String scheme : mPlugins.keySet()) {
+            dependencies.put(scheme, new HashSet<>());
+        }
+        ServiceDiscoveryConfigurationReader.Configuration.Node node = (mConfiguration != null) ? mConfiguration.nodes.get(mNodeId) : null;
+        if (node != null) {
+            for (ServiceDiscoveryConfigurationReader.Configuration.Plugin plugin : node.plugins.values()) {
+                if (!mPlugins.containsKey(plugin.scheme)) {
+                    continue;
+                }
+                for (String dependency : plugin.dependencies) {
+                    if (!mPlugins.containsKey(dependency)) {
+                        Log.println('W', LOG_TAG, "Plugin \'" + plugin.scheme + "\' depends on unknown plugin \'" + dependency + "\'");
+                    } else if (dependency.equals(plugin.scheme) || dependsOn(dependencies, dependency, plugin.scheme)) {
+                        Log.println('E', LOG_TAG, "Ignoring cyclic plugin dependency: " + plugin.scheme + " -> " + dependency);
+                    } else {
+                        dependencies.get(plugin.scheme).add(dependency);
+                    }
                 }
-                plugin.tearDown();
             }
         }
+        return dependencies;
+    }
+
+    private static boolean dependsOn(Map<String, Set<String>> dependencies, String scheme, String dependency) {
+        for (String s : dependencies.get(scheme)) {
+            if (s.equals(dependency) || dependsOn(dependencies, s, dependency)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     public int getNodeId() {
@@ -156,7 +302,7 @@ public class Runtime {
             id = ((long) mNodeId << 32) | (mBinderIdGenerator.getAndIncrement() & 0xFFFFFFFFL);
         } while (mIds.contains(id));
         if (!mBinderIds.containsKey(id)) {
-            mBinderIds.put(id, new WeakReference<Binder>(binder));
+            mBinderIds.put(id, new BinderReference(binder, id, null));
             mIds.add(id);
         } else {
             Log.wtf(LOG_TAG, "Invalid binder id: " + id);
@@ -172,7 +318,11 @@ public class Runtime {
             throw new IllegalArgumentException("Binder URI must not be null");
         }
         if (!mBinderUris.containsKey(uri.toString())) {
-            mBinderUris.put(uri.toString(), new WeakReference<Binder>(binder));
+            mBinderUris.put(uri.toString(), new UriReference(binder, uri.toString()));
+            BinderReference reference = mBinderIds.get(((long) mNodeId << 32) | binder.getId());
+            if (reference != null && reference.get() == binder) {
+                reference.mUri = binder.getUri();
+            }
 
             Plugin plugin = mPlugins.get(binder.getUri().getScheme());
             if (plugin != null) {
@@ -185,7 +335,10 @@ public class Runtime {
 
     public final void detachBinder(long id, URI uri) {
         mIds.remove(id);
-        mBinderIds.remove(id);
+        BinderReference reference = mBinderIds.remove(id);
+        if (reference != null) {
+            reference.clear();
+        }
         if (uri != null) {
             mBinderUris.remove(uri.toString());
             Plugin plugin = mPlugins.get(uri.getScheme());
@@ -245,7 +398,7 @@ public class Runtime {
                             if (plugin != null) {
                                 Binder stub = plugin.getStub((Binder) binder);
                                 if (stub != null) {
-                                    mBinderUris.put(key, new WeakReference<Binder>(stub));
+                                    mBinderUris.put(key, new UriReference(stub, key));
                                 }
                                 return stub;
                             } else {
@@ -264,6 +417,22 @@ public class Runtime {
         }
     }
 
+    /**
+     * Returns the binder for a binder URI string read from a parcel. The parsed URIs are cached, so
+     * that receiving the same binder repeatedly, e.g. a callback, does not parse its URI again. Each
+     * call returns a new proxy for a remote binder, as {@link #getBinder(URI)} does.
+     *
+     * @throws URISyntaxException if {@code uri} is not a valid URI.
+     */
+    public final IBinder getBinder(String uri) throws URISyntaxException {
+        URI binderUri = mBinderUriCache.get(uri);
+        if (binderUri == null) {
+            binderUri = new URI(uri);
+            mBinderUriCache.put(uri, binderUri);
+        }
+        return getBinder(binderUri);
+    }
+
     public final synchronized void addService(URI uri, IBinder service) {
         if (uri == null || service == null) {
             throw new NullPointerException();
@@ -283,17 +452,23 @@ public class Runtime {
                         if (s != null) {
                             long oldId = ((long) mNodeId << 32) | (service.getId() & 0xFFFFFFFFL);
                             mIds.remove(oldId);
-                            mBinderIds.remove(oldId);
-                            mBinderUris.remove(service.getUri().toString());
+                            BinderReference oldReference = mBinderIds.remove(oldId);
+                            if (oldReference != null) {
+                                oldReference.clear();
+                            }
+                            WeakReference<Binder> oldUriReference = mBinderUris.remove(service.getUri().toString());
+                            if (oldUriReference != null) {
+                                oldUriReference.clear();
+                            }
                             long newId = ((long) mNodeId << 32) | (s.id & 0xFFFFFFFFL);
                             ((Binder) service).setId(newId);
                             mIds.add(newId);
-                            mBinderIds.put(newId, new WeakReference<Binder>((Binder) service));
-                            mBinderUris.put(service.getUri().toString(), new WeakReference<Binder>((Binder) service));
+                            mBinderIds.put(newId, new BinderReference((Binder) service, newId, service.getUri()));
+                            mBinderUris.put(service.getUri().toString(), new UriReference((Binder) service, service.getUri().toString()));
                         }
                     }
                 }
-                mServices.put(uri.toString(), (Binder) service);
+                putService(uri.toString(), (Binder) service);
                 Plugin plugin = mPlugins.get(uri.getScheme());
                 if (plugin != null) {
                     plugin.addService(uri, (Binder) service);
@@ -306,70 +481,100 @@ public class Runtime {
 
     public final synchronized void removeService(IBinder service) {
         if (service != null) {
-            Iterator<Map.Entry<String, Binder>> itr = mServices.entrySet().iterator();
-            while (itr.hasNext()) {
-                Map.Entry<String, Binder> entry = itr.next();
-                if (entry.getValue().getId() == service.getId()) {
-                    Binder binder = entry.getValue();
-                    Plugin plugin = mPlugins.get(binder.getUri().getScheme());
-                    if (plugin != null) {
-                        plugin.removeService(binder);
+            Set<String> keys = mServiceKeys.remove(service.getId());
+            if (keys != null) {
+                for (String key : keys) {
+                    Binder binder = mServices.remove(key);
+                    if (binder != null) {
+                        Plugin plugin = mPlugins.get(binder.getUri().getScheme());
+                        if (plugin != null) {
+                            plugin.removeService(binder);
+                        }
                     }
-                    itr.remove();
                 }
             }
         }
     }
 
-    public final synchronized IBinder getService(URI uri) {
-        final URI serviceUri;
-        if (uri.getScheme() != null) {
-            serviceUri = uri;
-        } else {
-            try {
-                serviceUri = new URI(MINDROID_SCHEME,
-                        uri.getUserInfo(),
-                        uri.getHost(),
-                        uri.getPort(),
-                        uri.getPath(),
-                        uri.getQuery(),
-                        uri.getFragment());
-            } catch (URISyntaxException e) {
-                throw new RuntimeException("Invalid service URI");
-            }
-        }
+    /**
+     * Looks up a service without locking. Only the first lookup of a plugin stub for a service
+     * (e.g. mindroid+xyz://service) synchronizes with {@link #addService} and {@link #removeService}.
+     */
+    public final IBinder getService(URI uri) {
+        ServiceKey serviceKey = getServiceKey(uri);
 
         // Services
-        IBinder binder = mServices.get(serviceUri.toString());
+        IBinder binder = mServices.get(serviceKey.key);
         if (binder != null) {
             return binder;
-        } else {
-            binder = mServices.get(MINDROID_SCHEME_WITH_SEPARATOR + serviceUri.getAuthority());
-            if (binder != null) {
-                Plugin plugin = mPlugins.get(serviceUri.getScheme());
-                if (plugin != null) {
-                    Binder stub = plugin.getStub((Binder) binder);
+        } else if (mServices.containsKey(serviceKey.authorityKey)) {
+            Plugin plugin = mPlugins.get(serviceKey.uri.getScheme());
+            if (plugin != null) {
+                synchronized (this) {
+                    binder = mServices.get(serviceKey.key);
+                    if (binder != null) {
+                        return binder;
+                    }
+                    Binder service = mServices.get(serviceKey.authorityKey);
+                    if (service == null) {
+                        return null;
+                    }
+                    Binder stub = plugin.getStub(service);
                     if (stub != null) {
-                        mServices.put(serviceUri.toString(), stub);
+                        putService(serviceKey.key, stub);
                     }
                     return stub;
-                } else {
-                    return null;
                 }
+            } else {
+                return null;
             }
         }
 
         // Proxies
-        Plugin plugin = mPlugins.get(serviceUri.getScheme());
+        Plugin plugin = mPlugins.get(serviceKey.uri.getScheme());
         if (plugin != null) {
-            return plugin.resolveService(serviceUri);
+            return plugin.resolveService(serviceKey.uri);
         } else {
             return null;
         }
     }
 
+    private void putService(String key, Binder binder) {
+        mServices.put(key, binder);
+        mServiceKeys.computeIfAbsent(binder.getId(), id -> ConcurrentHashMap.newKeySet()).add(key);
+    }
+
+    private ServiceKey getServiceKey(URI uri) {
+        ServiceKey serviceKey = mServiceKeyCache.get(uri);
+        if (serviceKey == null) {
+            final URI serviceUri;
+            if (uri.getScheme() != null) {
+                serviceUri = uri;
+            } else {
+                try {
+                    serviceUri = new URI(MINDROID_SCHEME,
+                            uri.getUserInfo(),
+                            uri.getHost(),
+                            uri.getPort(),
+                            uri.getPath(),
+                            uri.getQuery(),
+                            uri.getFragment());
+                } catch (URISyntaxException e) {
+                    throw new RuntimeException("Invalid service URI");
+                }
+            }
+            serviceKey = new ServiceKey(serviceUri);
+            if (mServiceKeyCache.size() >= MAX_SERVICE_KEY_CACHE_SIZE) {
+                mServiceKeyCache.clear();
+            }
+            mServiceKeyCache.put(uri, serviceKey);
+        }
+        return serviceKey;
+    }
+
     public final long attachProxy(Binder.Proxy proxy) {
         long proxyId = mProxyIdGenerator.getAndIncrement();
+        mProxies.put(proxyId, new ProxyReference(proxy, proxyId));
         Plugin plugin = mPlugins.get(proxy.getUri().getScheme());
         if (plugin != null) {
             plugin.attachProxy(proxyId, proxy);
@@ -378,6 +583,10 @@ public class Runtime {
     }
 
     public final void detachProxy(long id, URI uri, long proxyId) {
+        ProxyReference reference = mProxies.remove(proxyId);
+        if (reference != null) {
+            reference.clear();
+        }
         Plugin plugin = mPlugins.get(uri.getScheme());
         if (plugin != null) {
             plugin.detachProxy(proxyId, id);
@@ -396,6 +605,10 @@ public class Runtime {
     public final Promise<Parcel> transact(IBinder binder, int what, Parcel data, int flags) throws RemoteException {
         Plugin plugin = mPlugins.get(binder.getUri().getScheme());
         if (plugin != null) {
+            Binder.Batch batch = Binder.Batch.currentBatch();
+            if (batch != null) {
+                return batch.add(plugin, binder, what, data, flags);
+            }
             Promise<Parcel> promise = plugin.transact(binder, what, data, flags);
             if (((flags & Binder.FLAG_ONEWAY) == 0) && promise == null) {
                 throw new RemoteException("Binder transaction failure");
@@ -505,4 +718,102 @@ public class Runtime {
             }
         }
     }
+
+    /**
+     * Binders and proxies are tracked by weak references that are registered with the runtime
+     * reference queue. Once a binder or proxy has been garbage collected, the reference reaper
+     * removes its registry entries and detaches it from the plugins. This replaces the finalizers
+     * of binders and proxies.
+     */
+    private void reapReferences() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Reference<?> reference = mReferenceQueue.remove();
+                ((Reapable) reference).reap();
+            } catch (InterruptedException e) {
+                break;
+            } catch (RuntimeException e) {
+                Log.println('E', LOG_TAG, "Failed to release reference", e);
+            }
+        }
+    }
+
+    private interface Reapable {
+        void reap();
+    }
+
+    private final class BinderReference extends WeakReference<Binder> implements Reapable {
+        private final long mId;
+        private volatile URI mUri;
+
+        BinderReference(Binder binder, long id, URI uri) {
+            super(binder, mReferenceQueue);
+            mId = id;
+            mUri = uri;
+        }
+
+        @Override
+        public void reap() {
+            if (mBinderIds.remove(mId, this)) {
+                mIds.remove(mId);
+                URI uri = mUri;
+                if (uri != null) {
+                    mBinderUris.computeIfPresent(uri.toString(), (key, reference) -> (reference.get() == null) ? null : reference);
+                    Plugin plugin = mPlugins.get(uri.getScheme());
+                    if (plugin != null) {
+                        plugin.detachBinder(mId);
+                    }
+                }
+            }
+        }
+    }
+
+    private final class UriReference extends WeakReference<Binder> implements Reapable {
+        private final String mKey;
+
+        UriReference(Binder binder, String key) {
+            super(binder, mReferenceQueue);
+            mKey = key;
+        }
+
+        @Override
+        public void reap() {
+            mBinderUris.remove(mKey, this);
+        }
+    }
+
+    private final class ProxyReference extends WeakReference<Binder.Proxy> implements Reapable {
+        private final long mProxyId;
+        private final long mId;
+        private final URI mUri;
+
+        ProxyReference(Binder.Proxy proxy, long proxyId) {
+            super(proxy, mReferenceQueue);
+            mProxyId = proxyId;
+            mId = proxy.getId();
+            mUri = proxy.getUri();
+        }
+
+        @Override
+        public void reap() {
+            if (mProxies.remove(mProxyId, this)) {
+                Plugin plugin = mPlugins.get(mUri.getScheme());
+                if (plugin != null) {
+                    plugin.detachProxy(mProxyId, mId);
+                }
+            }
+        }
+    }
+
+    private static final class ServiceKey {
+        final URI uri;
+        final String key;
+        final String authorityKey;
+
+        ServiceKey(URI uri) {
+            this.uri = uri;
+            key = uri.toString();
+            authorityKey = MINDROID_SCHEME_WITH_SEPARATOR + uri.getAuthority();
+        }
+    }
 }
@@ -0,0 +1,320 @@
+/*
+ * Copyright (C) 2018 E.S.R.Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package mindroid.runtime.system;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.Map;
+import java.util.Set;
+import mindroid.runtime.system.ServiceDiscoveryConfigurationReader.Configuration;
+import mindroid.util.Log;
+import mindroid.util.Properties;
+
+/**
+ * Caches the runtime system configuration in a compiled binary form.
+ *
+ * <p>
+ * The cache is disabled by default and enabled by setting {@link Properties#MINDROID_CONFIGURATION_CACHE}
+ * to the location of the cache file. It is generated when the XML configuration is loaded for the first
+ * time and is validated against the path, the size and the modification time of the XML configuration on
+ * every subsequent load, so an up-to-date cache is used without reading the XML configuration at all. It
+ * contains the nodes and their plugins, the services and their precomputed proxy URIs as well as the service
+ * aliases. Since the cache decides which plugin classes are loaded, the cache file is created with owner-only
+ * permissions and is ignored if it is owned by another user or writable by others.
+ */
+final class ServiceDiscoveryConfigurationCache {
+    private static final String LOG_TAG = "ServiceDiscoveryConfigurationCache";
+    private static final int MAGIC = 0x4D525343; // MRSC
+    private static final int VERSION = 3;
+
+    private ServiceDiscoveryConfigurationCache() {
+    }
+
+    /**
+     * Reads the runtime system configuration from the cache if it is up-to-date, otherwise
+     * parses the XML configuration and updates the cache.
+     */
+    public static Configuration read(File file) throws Exception {
+        File cacheFile = getCacheFile();
+        if (cacheFile == null) {
+            return ServiceDiscoveryConfigurationReader.read(file);
+        }
+
+        String path = file.getCanonicalPath();
+        BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        long size = attributes.size();
+        long lastModifiedTime = attributes.lastModifiedTime().toMillis();
+
+        if (cacheFile.exists()) {
+            try {
+                Configuration configuration = load(cacheFile, path, size, lastModifiedTime);
+                if (configuration != null) {
+                    return configuration;
+                }
+            } catch (IOException | RuntimeException e) {
+                Log.println('W', LOG_TAG, "Invalid runtime system configuration cache " + cacheFile + ": " + e.getMessage());
+            }
+        }
+
+        Configuration configuration = ServiceDiscoveryConfigurationReader.read(file);
+        try {
+            store(cacheFile, configuration, path, size, lastModifiedTime);
+        } catch (IOException e) {
+            Log.println('D', LOG_TAG, "Cannot write runtime system configuration cache " + cacheFile + ": " + e.getMessage());
+        }
+        return configuration;
+    }
+
+    private static File getCacheFile() {
+        String path = System.getProperty(Properties.MINDROID_CONFIGURATION_CACHE);
+        return (path != null && !path.isEmpty()) ? new File(path) : null;
+    }
+
+    private static Configuration load(File cacheFile, String path, long size, long lastModifiedTime) throws IOException {
+        checkPermissions(cacheFile.toPath());
+        final MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(cacheFile.toPath(), StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        try {
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || !path.equals(readString(buffer))
+                    || buffer.getLong() != size || buffer.getLong() != lastModifiedTime) {
+                return null;
+            }
+            Configuration configuration = new Configuration();
+            readNodes(buffer, configuration);
+            readServices(buffer, configuration);
+            return configuration;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated file");
+        }
+    }
+
+    private static void store(File cacheFile, Configuration configuration, String path, long size, long lastModifiedTime) throws IOException {
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        DataOutputStream outputStream = new DataOutputStream(byteArrayOutputStream);
+        outputStream.writeInt(MAGIC);
+        outputStream.writeInt(VERSION);
+        writeString(outputStream, path);
+        outputStream.writeLong(size);
+        outputStream.writeLong(lastModifiedTime);
+        writeNodes(outputStream, configuration);
+        writeServices(outputStream, configuration);
+        outputStream.flush();
+
+        // On POSIX file systems, temporary files are only accessible by their owner.
+        Path directory = cacheFile.getAbsoluteFile().getParentFile().toPath();
+        Path tmpFile = Files.createTempFile(directory, cacheFile.getName(), ".tmp");
+        try {
+            Files.write(tmpFile, byteArrayOutputStream.toByteArray());
+            try {
+                Files.move(tmpFile, cacheFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmpFile, cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmpFile);
+        }
+    }
+
+    private static void checkPermissions(Path path) throws IOException {
+        if (!Files.getFileStore(path).supportsFileAttributeView(PosixFileAttributeView.class)) {
+            return;
+        }
+        PosixFileAttributes attributes = Files.readAttributes(path, PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        if (!attributes.isRegularFile()) {
+            throw new IOException("Not a regular file");
+        }
+        if (!attributes.owner().getName().equals(System.getProperty("user.name"))) {
+            throw new IOException("Owned by " + attributes.owner().getName());
+        }
+        Set<PosixFilePermission> permissions = attributes.permissions();
+        if (permissions.contains(PosixFilePermission.GROUP_WRITE) || permissions.contains(PosixFilePermission.OTHERS_WRITE)) {
+            throw new IOException("Writable by other users");
+        }
+    }
+
+    private static void writeNodes(DataOutputStream outputStream, Configuration configuration) throws IOException {
+        outputStream.writeInt(configuration.nodes.size());
+        for (Configuration.Node node : configuration.nodes.values()) {
+            outputStream.writeInt(node.id);
+            outputStream.writeInt(node.plugins.size());
+            for (Configuration.Plugin plugin : node.plugins.values()) {
+                writeString(outputStream, plugin.scheme);
+                writeString(outputStream, plugin.clazz);
+                outputStream.writeInt(plugin.dependencies.size());
+                for (String dependency : plugin.dependencies) {
+                    writeString(outputStream, dependency);
+                }
+                writeString(outputStream, (plugin.server != null) ? plugin.server.uri : null);
+            }
+            outputStream.writeInt(node.aliases.size());
+            for (Integer alias : node.aliases.keySet()) {
+                outputStream.writeInt(alias);
+            }
+        }
+    }
+
+    private static void readNodes(ByteBuffer buffer, Configuration configuration) throws IOException {
+        int nodeCount = buffer.getInt();
+        for (int i = 0; i < nodeCount; i++) {
+            Configuration.Node node = new Configuration.Node();
+            node.id = buffer.getInt();
+            int pluginCount = buffer.getInt();
+            for (int j = 0; j < pluginCount; j++) {
+                Configuration.Plugin plugin = new Configuration.Plugin();
+                plugin.node = node;
+                plugin.scheme = readString(buffer);
+                plugin.clazz = readString(buffer);
+                int dependencyCount = buffer.getInt();
+                for (int k = 0; k < dependencyCount; k++) {
+                    plugin.dependencies.add(readString(buffer));
+                }
+                String serverUri = readString(buffer);
+                if (serverUri != null) {
+                    plugin.server = new Configuration.Server();
+                    plugin.server.uri = serverUri;
+                }
+                node.plugins.put(plugin.scheme, plugin);
+            }
+            int aliasCount = buffer.getInt();
+            for (int j = 0; j < aliasCount; j++) {
+                node.aliases.put(buffer.getInt(), null);
+            }
+            configuration.nodes.put(node.id, node);
+        }
+
+        for (Configuration.Node node : configuration.nodes.values()) {
+            for (Map.Entry<Integer, Configuration.Node> alias : node.aliases.entrySet()) {
+                Configuration.Node aliasNode = configuration.nodes.get(alias.getKey());
+                if (aliasNode == null) {
+                    throw new IOException("Invalid node alias");
+                }
+                alias.setValue(aliasNode);
+            }
+        }
+    }
+
+    private static void writeServices(DataOutputStream outputStream, Configuration configuration) throws IOException {
+        outputStream.writeInt(configuration.services.size());
+        for (Configuration.Service service : configuration.services.values()) {
+            outputStream.writeInt(service.node.id);
+            outputStream.writeInt(service.id);
+            writeString(outputStream, service.name);
+            outputStream.writeInt(service.announcements.size());
+            for (Map.Entry<String, String> announcement : service.announcements.entrySet()) {
+                writeString(outputStream, announcement.getKey());
+                writeString(outputStream, announcement.getValue());
+                writeString(outputStream, service.proxyUris.get(announcement.getKey()));
+            }
+        }
+
+        outputStream.writeInt(configuration.aliases.size());
+        for (Configuration.ServiceAlias serviceAlias : configuration.aliases.values()) {
+            writeString(outputStream, serviceAlias.name);
+            outputStream.writeInt(serviceAlias.aliases.size());
+            for (Map.Entry<String, Configuration.Alias> alias : serviceAlias.aliases.entrySet()) {
+                writeString(outputStream, alias.getKey());
+                writeString(outputStream, alias.getValue().interfaceDescriptor);
+                writeString(outputStream, alias.getValue().extra);
+            }
+        }
+    }
+
+    private static void readServices(ByteBuffer buffer, Configuration configuration) throws IOException {
+        int serviceCount = buffer.getInt();
+        for (int i = 0; i < serviceCount; i++) {
+            Configuration.Service service = new Configuration.Service();
+            service.node = configuration.nodes.get(buffer.getInt());
+            if (service.node == null) {
+                throw new IOException("Invalid service node");
+            }
+            service.id = buffer.getInt();
+            service.name = readString(buffer);
+            int announcementCount = buffer.getInt();
+            for (int j = 0; j < announcementCount; j++) {
+                String scheme = readString(buffer);
+                service.announcements.put(scheme, readString(buffer));
+                String proxyUri = readString(buffer);
+                if (proxyUri != null) {
+                    service.proxyUris.put(scheme, proxyUri);
+                }
+            }
+            service.node.services.put(service.name, service);
+            configuration.services.put(service.name, service);
+        }
+
+        int serviceAliasCount = buffer.getInt();
+        for (int i = 0; i < serviceAliasCount; i++) {
+            Configuration.ServiceAlias serviceAlias = new Configuration.ServiceAlias();
+            serviceAlias.name = readString(buffer);
+            int aliasCount = buffer.getInt();
+            for (int j = 0; j < aliasCount; j++) {
+                String scheme = readString(buffer);
+                Configuration.Alias alias = new Configuration.Alias();
+                alias.interfaceDescriptor = readString(buffer);
+                alias.extra = readString(buffer);
+                serviceAlias.aliases.put(scheme, alias);
+            }
+            configuration.aliases.put(serviceAlias.name, serviceAlias);
+        }
+
+        if (buffer.hasRemaining()) {
+            throw new IOException("Trailing data");
+        }
+    }
+
+    private static void writeString(DataOutputStream outputStream, String string) throws IOException {
+        if (string == null) {
+            outputStream.writeInt(-1);
+        } else {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            outputStream.writeInt(bytes.length);
+            outputStream.write(bytes);
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) throws IOException {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > buffer.remaining()) {
+            throw new IOException("Invalid string length: " + length);
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
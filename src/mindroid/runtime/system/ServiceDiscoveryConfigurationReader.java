@@ -22,7 +22,10 @@ import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
+import mindroid.util.Log;
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 import org.xmlpull.v1.XmlPullParserFactory;
@@ -36,6 +39,7 @@ public class ServiceDiscoveryConfigurationReader {
     private static final String PLUGIN_TAG = "plugin";
     private static final String PLUGIN_SCHEME_ATTR = "scheme";
     private static final String PLUGIN_CLASS_ATTR = "class";
+    private static final String PLUGIN_DEPENDENCIES_ATTR = "dependencies";
     private static final String SERVER_TAG = "server";
     private static final String SERVER_URI_ATTR = "uri";
     private static final String SERVICE_DISCOVERY_TAG = "serviceDiscovery";
@@ -61,6 +65,7 @@ public class ServiceDiscoveryConfigurationReader {
             public Node node;
             public String scheme;
             public String clazz;
+            public Set<String> dependencies = new HashSet<>();
             public Server server;
         }
 
@@ -73,6 +78,7 @@ public class ServiceDiscoveryConfigurationReader {
             public int id = -1;
             public String name;
             public Map<String, String> announcements = new HashMap<>();
+            public Map<String, String> proxyUris = new HashMap<>();
         }
 
         public static class ServiceAlias {
@@ -129,6 +135,22 @@ public class ServiceDiscoveryConfigurationReader {
                 }
             }
 
+            for (Configuration.Service service : configuration.services.values()) {
+                for (Map.Entry<String, String> announcement : service.announcements.entrySet()) {
+                    try {
+                        URI interfaceDescriptor = new URI(announcement.getValue());
+                        String path = interfaceDescriptor.getPath();
+                        if (path == null || path.length() <= 1) {
+                            throw new URISyntaxException(announcement.getValue(), "Missing interface path");
+                        }
+                        URI proxyUri = new URI(announcement.getKey(), service.node.id + "." + service.id, "/if=" + path.substring(1), interfaceDescriptor.getQuery(), null);
+                        service.proxyUris.put(announcement.getKey(), proxyUri.toString());
+                    } catch (URISyntaxException e) {
+                        Log.w(LOG_TAG, "Invalid announcement of service " + service.name + ": " + e.getMessage());
+                    }
+                }
+            }
+
             return configuration;
         }
     }
@@ -233,6 +255,13 @@ public class ServiceDiscoveryConfigurationReader {
                 plugin.scheme = attributeValue;
             } else if (attributeName.equals(PLUGIN_CLASS_ATTR)) {
                 plugin.clazz = attributeValue;
+            } else if (attributeName.equals(PLUGIN_DEPENDENCIES_ATTR)) {
+                for (String dependency : attributeValue.split(",")) {
+                    dependency = dependency.trim();
+                    if (!dependency.isEmpty()) {
+                        plugin.dependencies.add(dependency);
+                    }
+                }
             }
         }
         if (plugin.scheme == null || plugin.scheme.isEmpty()
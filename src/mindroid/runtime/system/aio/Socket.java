@@ -39,6 +39,7 @@ public class Socket implements SelectableSocket {
     private static final int CONNECTION_ESTABLISHMENT_TIMEOUT = 10_000;
     private final SocketChannel mSocketChannel;
     private Selector mSelector;
+    private volatile Thread mExecutorThread;
     private CompletableFuture<Void> mConnector;
     private Listener mListener;
     private AtomicInteger mOps = new AtomicInteger(0);
@@ -89,6 +90,7 @@ public class Socket implements SelectableSocket {
         if (mSelector != null) {
             mSelector.wakeup();
         }
+        mOutputStream.wakeUp();
     }
 
     public void bind(SocketAddress socketAddress) throws IOException {
@@ -215,9 +217,14 @@ public class Socket implements SelectableSocket {
     @Override
     public SelectionKey register(Selector selector) throws ClosedChannelException {
         mSelector = selector;
+        mExecutorThread = Thread.currentThread();
         return mSocketChannel.register(selector, mOps.get());
     }
 
+    boolean isExecutorThread() {
+        return Thread.currentThread() == mExecutorThread;
+    }
+
     @Override
     public void onOperation(int ops) {
         if ((ops & SelectionKey.OP_CONNECT) != 0) {
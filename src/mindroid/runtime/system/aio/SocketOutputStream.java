@@ -17,6 +17,7 @@
 package mindroid.runtime.system.aio;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.util.Deque;
@@ -25,6 +26,10 @@ import java.util.LinkedList;
 
 public class SocketOutputStream extends OutputStream {
     protected static final int MAX_BUFFER_SIZE = 8192;
+    /**
+     * Writers block while more than this number of bytes is queued because the peer reads too slowly.
+     */
+    protected static final int MAX_QUEUED_BYTES = 1024 * 1024;
 
     protected final Socket mSocket;
 
@@ -104,7 +109,9 @@ public class SocketOutputStream extends OutputStream {
             return;
         }
 
-        ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, offset, count);
+        // The bytes stay queued until the socket is writable, so they are copied since callers reuse their
+        // buffers, e.g. DataOutputStream for each writeInt.
+        ByteBuffer byteBuffer = ByteBuffer.allocate(count).put(buffer, offset, count).flip();
         write(byteBuffer);
     }
 
@@ -127,6 +134,19 @@ public class SocketOutputStream extends OutputStream {
         if (mCount >= MAX_BUFFER_SIZE) {
             sync();
         }
+        // The socket executor must never block since it is the thread that drains the queue.
+        while (mCount >= MAX_QUEUED_BYTES && !mSocket.isClosed() && !mSocket.isExecutorThread()) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+    }
+
+    synchronized void wakeUp() {
+        notifyAll();
     }
 
     void sync() {
@@ -149,6 +169,7 @@ public class SocketOutputStream extends OutputStream {
                             }
                         }
                         operation = Socket.OP_WRITE;
+                        notifyAll();
                     }
                 } catch (IOException e) {
                     operation = Socket.OP_CLOSE;
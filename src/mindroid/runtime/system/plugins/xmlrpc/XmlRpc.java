@@ -27,14 +27,16 @@ import java.lang.reflect.Constructor;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.charset.StandardCharsets;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DataFormatException;
 import mindroid.os.Binder;
 import mindroid.os.Bundle;
 import mindroid.os.IBinder;
@@ -42,32 +44,48 @@ import mindroid.os.IInterface;
 import mindroid.os.Parcel;
 import mindroid.os.RemoteException;
 import mindroid.runtime.sd.IDiscoveryListener;
+import mindroid.runtime.system.Compression;
 import mindroid.runtime.system.ServiceDiscoveryConfigurationReader;
 import mindroid.runtime.system.Plugin;
 import mindroid.runtime.system.aio.AbstractClient;
 import mindroid.runtime.system.aio.AbstractServer;
 import mindroid.util.Log;
+import mindroid.util.Properties;
 import mindroid.util.concurrent.CompletionException;
 import mindroid.util.concurrent.Executors;
 import mindroid.util.concurrent.Promise;
+import mindroid.util.metrics.Counter;
+import mindroid.util.metrics.CountingInputStream;
+import mindroid.util.metrics.CountingOutputStream;
+import mindroid.util.metrics.Metrics;
+import mindroid.util.concurrent.SegmentedLruCache;
 
 public class XmlRpc extends Plugin {
     private static String LOG_TAG = "XmlRpc";
     private static final String TIMEOUT = "timeout";
     private static final long DEFAULT_TRANSACTION_TIMEOUT = 10000;
     private static final boolean DEBUG = false;
+    private static final int DEFAULT_NAME_RESOLUTION_CACHE_SIZE = 1024;
+    // The plugin does not negotiate the long string encoding of parcels, see Parcel#MAX_SHORT_STRING_SIZE.
+    private static final String LONG_STRINGS_NOT_SUPPORTED = "Long strings are not supported by the xmlrpc plugin";
     private static final ScheduledThreadPoolExecutor sExecutor;
 
     private ServiceDiscoveryConfigurationReader.Configuration mConfiguration;
     private Server mServer;
     private Map<Integer, Client> mClients = new ConcurrentHashMap<>();
     private final Map<Integer, Map<Long, WeakReference<IBinder>>> mProxies = new HashMap<>();
-    private final Map<String, URI> mNameResolutionCache = new LinkedHashMap<String, URI>(16, 0.75f, true) {
-        @Override
-        protected boolean removeEldestEntry(Map.Entry<String, URI> eldest) {
-            return size() > 100;
-        }
-    };
+    private final SegmentedLruCache<String, NameResolution> mNameResolutionCache =
+            new SegmentedLruCache<>(Math.max(1, Integer.getInteger(Properties.NAME_RESOLUTION_CACHE_SIZE, DEFAULT_NAME_RESOLUTION_CACHE_SIZE)));
+    private int mCompressionThreshold = 0;
+    // Compression statistics of the connections to other nodes by node id.
+    private final Map<Integer, Compression.Statistics> mCompressionStatistics = new ConcurrentHashMap<>();
+    // Compression statistics of the connections from other nodes.
+    private final Compression.Statistics mServerCompressionStatistics = new Compression.Statistics();
+    // Nodes that do not accept compressed messages, e.g. because they use another compression dictionary.
+    private final Set<Integer> mUncompressedNodes = ConcurrentHashMap.newKeySet();
+    // Incoming transactions and the transactions among them that failed.
+    private final Counter mServerTransactions = new Counter();
+    private final Counter mServerFailures = new Counter();
 
     static {
         sExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
@@ -89,6 +107,9 @@ public class XmlRpc extends Plugin {
         int nodeId = mRuntime.getNodeId();
         LOG_TAG = "XmlRpc [" + nodeId + "]";
         mConfiguration = mRuntime.getConfiguration();
+        mCompressionThreshold = Math.max(0, Integer.getInteger(Properties.COMPRESSION_THRESHOLD, 0));
+        Metrics.register("xmlrpc.server.transactions", null, mServerTransactions);
+        Metrics.register("xmlrpc.server.failures", null, mServerFailures);
         if (mConfiguration != null) {
             ServiceDiscoveryConfigurationReader.Configuration.Node node = mConfiguration.nodes.get(nodeId);
             if (node != null) {
@@ -115,6 +136,8 @@ public class XmlRpc extends Plugin {
         if (mServer != null) {
             mServer.shutdown(null);
         }
+        Metrics.remove("xmlrpc.server.transactions");
+        Metrics.remove("xmlrpc.server.failures");
         return new Promise<>((Void) null);
     }
 
@@ -124,10 +147,12 @@ public class XmlRpc extends Plugin {
 
     @Override
     public void addService(URI uri, Binder service) {
+        invalidateNameResolutionCache(uri.getAuthority(), service.getUri().getAuthority());
     }
 
     @Override
     public void removeService(Binder service) {
+        invalidateNameResolutionCache(null, service.getUri().getAuthority());
     }
 
     @Override
@@ -212,11 +237,11 @@ public class XmlRpc extends Plugin {
     }
 
     @Override
-    public synchronized Binder.Proxy resolveService(URI uri) {
+    public Binder.Proxy resolveService(URI uri) {
         final String key = uri.toString();
-        URI proxyUri = mNameResolutionCache.get(key);
-        if (proxyUri != null) {
-            return new Binder.Proxy(proxyUri);
+        NameResolution nameResolution = mNameResolutionCache.get(key);
+        if (nameResolution != null) {
+            return new Binder.Proxy(nameResolution.mProxyUri);
         }
 
         if (mConfiguration != null) {
@@ -225,11 +250,15 @@ public class XmlRpc extends Plugin {
                 return null;
             }
 
+            String serviceProxyUri = service.proxyUris.get(uri.getScheme());
+            if (serviceProxyUri == null) {
+                return null;
+            }
+
             try {
-                URI interfaceDescriptor = new URI(service.announcements.get(uri.getScheme()));
-                proxyUri = new URI(uri.getScheme(), service.node.id + "." + service.id, "/if=" + interfaceDescriptor.getPath().substring(1), interfaceDescriptor.getQuery(), null);
+                URI proxyUri = URI.create(serviceProxyUri);
                 Binder.Proxy proxy = new Binder.Proxy(proxyUri);
-                mNameResolutionCache.put(key, proxyUri);
+                mNameResolutionCache.put(key, new NameResolution(uri.getAuthority(), proxyUri));
                 return proxy;
             } catch (Exception e) {
                 return null;
@@ -239,6 +268,31 @@ public class XmlRpc extends Plugin {
         }
     }
 
+    public SegmentedLruCache<String, ?> getNameResolutionCache() {
+        return mNameResolutionCache;
+    }
+
+    /**
+     * Drops cached name resolutions for the service {@code serviceName} and for the binder with the URI authority {@code authority}.
+     */
+    private void invalidateNameResolutionCache(String serviceName, String authority) {
+        mNameResolutionCache.removeIf((key, nameResolution) -> (authority != null && authority.equals(nameResolution.mProxyUri.getAuthority()))
+                || (serviceName != null && serviceName.equals(nameResolution.mServiceName)));
+    }
+
+    /**
+     * A cached name resolution. The service name is kept so that invalidations do not parse the service URIs.
+     */
+    private static final class NameResolution {
+        final String mServiceName;
+        final URI mProxyUri;
+
+        NameResolution(String serviceName, URI proxyUri) {
+            mServiceName = serviceName;
+            mProxyUri = proxyUri;
+        }
+    }
+
     @Override
     public Promise<Parcel> transact(IBinder binder, int what, Parcel data, int flags) throws RemoteException {
         int nodeId = (int) ((binder.getId() >> 32) & 0xFFFFFFFFL);
@@ -313,6 +367,21 @@ public class XmlRpc extends Plugin {
         return null;
     }
 
+    /**
+     * Returns the compression statistics of the connections to other nodes by node id.
+     */
+    public Map<Integer, Compression.Statistics> getCompressionStatistics() {
+        return Collections.unmodifiableMap(mCompressionStatistics);
+    }
+
+    /**
+     * Returns the compression statistics of the connections from other nodes. The XmlRpc protocol does not
+     * identify the node of a client.
+     */
+    public Compression.Statistics getServerCompressionStatistics() {
+        return mServerCompressionStatistics;
+    }
+
     public void onShutdown(AbstractClient client) {
         synchronized (this) {
             mClients.remove(client.getNodeId(), client);
@@ -322,6 +391,8 @@ public class XmlRpc extends Plugin {
     private static class Message {
         public static final int MESSAGE_TYPE_TRANSACTION = 1;
         public static final int MESSAGE_TYPE_EXCEPTION_TRANSACTION = 2;
+        // The data of a compressed message is preceded by its uncompressed size.
+        public static final int MESSAGE_FLAG_COMPRESSED = 0x100;
 
         private Message(int type, String uri, int transactionId, int what, byte[] data, int size) {
             this(type, uri, transactionId, what, data, size, null);
@@ -361,8 +432,13 @@ public class XmlRpc extends Plugin {
             return new Message(MESSAGE_TYPE_EXCEPTION_TRANSACTION, uri, transactionId, what, data, size, cause);
         }
 
-        public static Message newMessage(DataInputStream inputStream) throws IOException {
+        /**
+         * Reads a message, decompressing its data using {@code compression} if the message is compressed.
+         */
+        public static Message newMessage(DataInputStream inputStream, Compression compression) throws IOException {
             int type = inputStream.readInt();
+            final boolean compressed = (type & MESSAGE_FLAG_COMPRESSED) != 0;
+            type &= ~MESSAGE_FLAG_COMPRESSED;
             int length = inputStream.readUnsignedShort();
             byte[] byteArray = new byte[length];
             inputStream.readFully(byteArray);
@@ -370,10 +446,29 @@ public class XmlRpc extends Plugin {
             int transactionId = inputStream.readInt();
             int what = inputStream.readInt();
             int size = inputStream.readInt();
+            int uncompressedSize = compressed ? inputStream.readInt() : size;
             byte[] data = new byte[size];
             inputStream.readFully(data, 0, size);
+            IOException decompressionFailure = null;
+            if (compressed) {
+                try {
+                    if (compression == null) {
+                        throw new IOException("Unexpected compressed message");
+                    }
+                    data = compression.decompress(data, size, uncompressedSize);
+                    size = uncompressedSize;
+                } catch (IOException e) {
+                    if (type != MESSAGE_TYPE_TRANSACTION) {
+                        throw e;
+                    }
+                    // The message has been read completely, so the connection stays usable.
+                    decompressionFailure = e;
+                }
+            }
             if (type == MESSAGE_TYPE_TRANSACTION) {
-                return new Message(type, uri, transactionId, what, data, size);
+                Message message = new Message(type, uri, transactionId, what, data, size, decompressionFailure);
+                message.compressed = compressed;
+                return message;
             } else {
                 Throwable exception = null;
                 int exceptionCount = inputStream.readInt();
@@ -393,23 +488,39 @@ public class XmlRpc extends Plugin {
         }
 
         public final void write(DataOutputStream outputStream) throws IOException {
+            write(outputStream, null);
+        }
+
+        /**
+         * Writes the message, compressing its data using {@code compression} unless it is null.
+         *
+         * @return true if the data has been compressed.
+         */
+        public final boolean write(DataOutputStream outputStream, Compression compression) throws IOException {
+            byte[] compressedData = (compression != null) ? compression.compress(this.data, 0, this.size) : null;
             synchronized (outputStream) {
                 byte[] uri = this.uri.getBytes(StandardCharsets.US_ASCII);
-                int size = 4 + 2 + uri.length + 4 + 4 + 4 + this.size;
+                int size = 4 + 2 + uri.length + 4 + 4 + 4 + ((compressedData != null) ? (4 + compressedData.length) : this.size);
                 if (type != MESSAGE_TYPE_TRANSACTION) {
                     size += 4;
                     if ((this.cause != null) && !RemoteException.class.isInstance(this.cause)) {
-                        size += this.cause.getClass().getName().getBytes(StandardCharsets.US_ASCII).length;
+                        size += 2 + this.cause.getClass().getName().getBytes(StandardCharsets.US_ASCII).length;
                     }
                 }
                 outputStream.writeInt(size);
-                outputStream.writeInt(this.type);
+                outputStream.writeInt((compressedData != null) ? (this.type | MESSAGE_FLAG_COMPRESSED) : this.type);
                 outputStream.writeShort(uri.length);
                 outputStream.write(uri);
                 outputStream.writeInt(this.transactionId);
                 outputStream.writeInt(this.what);
-                outputStream.writeInt(this.size);
-                outputStream.write(this.data, 0, this.size);
+                if (compressedData != null) {
+                    outputStream.writeInt(compressedData.length);
+                    outputStream.writeInt(this.size);
+                    outputStream.write(compressedData, 0, compressedData.length);
+                } else {
+                    outputStream.writeInt(this.size);
+                    outputStream.write(this.data, 0, this.size);
+                }
                 if (type != MESSAGE_TYPE_TRANSACTION) {
                     if (this.cause != null && !RemoteException.class.isInstance(this.cause)) {
                         outputStream.writeInt(1);
@@ -422,6 +533,7 @@ public class XmlRpc extends Plugin {
                 }
                 outputStream.flush();
             }
+            return compressedData != null;
         }
 
         int type;
@@ -431,6 +543,7 @@ public class XmlRpc extends Plugin {
         byte[] data;
         int size;
         Throwable cause;
+        boolean compressed;
     }
 
     private class Server extends AbstractServer {
@@ -442,11 +555,17 @@ public class XmlRpc extends Plugin {
 
         @Override
         public void onConnected(Connection connection) {
+            String label;
             try {
-                Log.d(LOG_TAG, "Client connected from " + connection.getRemoteSocketAddress());
+                label = String.valueOf(connection.getRemoteSocketAddress());
+                Log.d(LOG_TAG, "Client connected from " + label);
             } catch (IOException ignore) {
+                label = "connection@" + Integer.toHexString(System.identityHashCode(connection));
                 Log.e(LOG_TAG, "Failed to get remote socket address");
             }
+            connection.getContext().putString("metricsLabel", label);
+            connection.getContext().putObject("bytesIn", Metrics.counter("xmlrpc.server.bytesIn", label));
+            connection.getContext().putObject("bytesOut", Metrics.counter("xmlrpc.server.bytesOut", label));
         }
 
         @Override
@@ -456,20 +575,31 @@ public class XmlRpc extends Plugin {
             } catch (IOException ignore) {
                 Log.e(LOG_TAG, "Failed to get remote socket address");
             }
+            Compression compression = (Compression) connection.getContext().getObject("compression");
+            if (compression != null) {
+                compression.close();
+            }
+            String label = connection.getContext().getString("metricsLabel");
+            Metrics.remove("xmlrpc.server.bytesIn", label);
+            Metrics.remove("xmlrpc.server.bytesOut", label);
         }
 
         @Override
         public boolean onTransact(Bundle context, InputStream inputStream, OutputStream outputStream) throws IOException {
             if (!context.containsKey("dataInputStream")) {
-                DataInputStream dataInputStream = new DataInputStream(inputStream);
+                DataInputStream dataInputStream = new DataInputStream(new CountingInputStream(inputStream, (Counter) context.getObject("bytesIn")));
                 context.putObject("dataInputStream", dataInputStream);
             }
-            if (!context.containsKey("datOutputStream")) {
-                DataOutputStream dataOutputStream = new DataOutputStream(outputStream);
+            if (!context.containsKey("dataOutputStream")) {
+                DataOutputStream dataOutputStream = new DataOutputStream(new CountingOutputStream(outputStream, (Counter) context.getObject("bytesOut")));
                 context.putObject("dataOutputStream", dataOutputStream);
             }
+            if (!context.containsKey("compression")) {
+                context.putObject("compression", new Compression(mCompressionThreshold, mServerCompressionStatistics));
+            }
             DataInputStream dataInputStream = (DataInputStream) context.getObject("dataInputStream");
             DataOutputStream dataOutputStream = (DataOutputStream) context.getObject("dataOutputStream");
+            Compression compression = (Compression) context.getObject("compression");
 
             try {
                 if (!context.containsKey("messageSize")) {
@@ -482,13 +612,27 @@ public class XmlRpc extends Plugin {
                 int messageSize = context.getInt("messageSize");
                 Message message;
                 if (dataInputStream.available() >= messageSize) {
-                    message = Message.newMessage(dataInputStream);
+                    message = Message.newMessage(dataInputStream, compression);
                     context.remove("messageSize");
                 } else {
                     return false;
                 }
+                // Without a handshake, replies are only compressed for clients that have sent compressed messages.
+                if (message.compressed && message.cause == null) {
+                    context.putBoolean("compressReplies", true);
+                }
+                final Compression replyCompression = context.getBoolean("compressReplies") ? compression : null;
 
-                if (message.type == Message.MESSAGE_TYPE_TRANSACTION) {
+                if (message.type == Message.MESSAGE_TYPE_TRANSACTION && message.cause != null) {
+                    // The client falls back to uncompressed messages when it receives a DataFormatException.
+                    if (DEBUG) {
+                        Log.d(LOG_TAG, "Cannot decompress transaction " + message.transactionId + ": " + message.cause.getMessage());
+                    }
+                    mServerFailures.increment();
+                    Message.newExceptionMessage(message.uri, message.transactionId, message.what, BINDER_TRANSACTION_FAILURE,
+                            new DataFormatException(message.cause.getMessage())).write(dataOutputStream);
+                } else if (message.type == Message.MESSAGE_TYPE_TRANSACTION) {
+                    mServerTransactions.increment();
                     try {
                         IBinder binder = mRuntime.getBinder(URI.create(message.uri));
                         if (binder != null) {
@@ -496,8 +640,12 @@ public class XmlRpc extends Plugin {
                             if (result != null) {
                                 result.then((value, exception) -> {
                                     try {
-                                        if (exception == null) {
-                                            Message.newMessage(message.uri, message.transactionId, message.what, value.getByteArray(), value.size()).write(dataOutputStream);
+                                        if (exception == null && value.hasLongStrings()) {
+                                            mServerFailures.increment();
+                                            Message.newExceptionMessage(message.uri, message.transactionId, message.what, BINDER_TRANSACTION_FAILURE,
+                                                    new RemoteException(LONG_STRINGS_NOT_SUPPORTED)).write(dataOutputStream);
+                                        } else if (exception == null) {
+                                            Message.newMessage(message.uri, message.transactionId, message.what, value.getByteArray(), value.size()).write(dataOutputStream, replyCompression);
                                         } else {
                                             final Throwable cause;
                                             if (exception instanceof CompletionException && exception.getCause() != null) {
@@ -505,6 +653,7 @@ public class XmlRpc extends Plugin {
                                             } else {
                                                 cause = exception;
                                             }
+                                            mServerFailures.increment();
                                             Message.newExceptionMessage(message.uri, message.transactionId, message.what, BINDER_TRANSACTION_FAILURE, cause).write(dataOutputStream);
                                         }
                                     } catch (IOException e) {
@@ -516,13 +665,16 @@ public class XmlRpc extends Plugin {
                                 });
                             }
                         } else {
+                            mServerFailures.increment();
                             Message.newExceptionMessage(message.uri, message.transactionId, message.what, BINDER_TRANSACTION_FAILURE, new RemoteException("Invalid service URI")).write(dataOutputStream);
                         }
                     } catch (IllegalArgumentException e) {
                         Log.e(LOG_TAG, e.getMessage(), e);
+                        mServerFailures.increment();
                         Message.newExceptionMessage(message.uri, message.transactionId, message.what, BINDER_TRANSACTION_FAILURE, e).write(dataOutputStream);
                     } catch (RemoteException e) {
                         Log.e(LOG_TAG, e.getMessage(), e);
+                        mServerFailures.increment();
                         Message.newExceptionMessage(message.uri, message.transactionId, message.what, BINDER_TRANSACTION_FAILURE, e).write(dataOutputStream);
                     }
                 } else {
@@ -541,30 +693,51 @@ public class XmlRpc extends Plugin {
     private class Client extends AbstractClient {
         private final AtomicInteger mTransactionIdGenerator = new AtomicInteger(1);
         private Map<Integer, Promise<Parcel>> mTransactions = new ConcurrentHashMap<>();
+        private final Compression mCompression;
+        // Compression is used until the node rejects a compressed message or drops the connection before accepting one.
+        private volatile boolean mCompress;
+        private volatile boolean mCompressionAccepted = false;
+        private final Set<Integer> mCompressedTransactions = ConcurrentHashMap.newKeySet();
+        // Shared by the successive connections to the node.
+        private final Counter mBytesIn;
+        private final Counter mBytesOut;
 
         public Client(int nodeId) throws IOException {
             super(nodeId);
+            mCompression = new Compression(mCompressionThreshold,
+                    mCompressionStatistics.computeIfAbsent(nodeId, key -> new Compression.Statistics()));
+            mCompress = mCompressionThreshold > 0 && !mUncompressedNodes.contains(nodeId);
+            mBytesIn = Metrics.counter("xmlrpc.client.bytesIn", "node " + nodeId);
+            mBytesOut = Metrics.counter("xmlrpc.client.bytesOut", "node " + nodeId);
         }
 
         public void shutdown(Throwable cause) {
             XmlRpc.this.onShutdown(this);
+            if (cause != null && !mCompressionAccepted && !mCompressedTransactions.isEmpty()) {
+                // Peers without compression support cannot parse compressed messages and close the connection.
+                disableCompression();
+            }
 
             if (mTransactions != null) {
                 for (Promise<Parcel> promise : mTransactions.values()) {
                     promise.completeWith(new RemoteException());
                 }
             }
+            mCompression.close();
 
             sExecutor.execute(() -> { super.shutdown(cause); });
         }
 
         public Promise<Parcel> transact(IBinder binder, int what, Parcel data, int flags) throws RemoteException {
+            if (data.hasLongStrings()) {
+                throw new RemoteException("Binder transaction failure: " + LONG_STRINGS_NOT_SUPPORTED);
+            }
             final int transactionId = mTransactionIdGenerator.getAndIncrement();
             Promise<Parcel> result;
             try {
                 Bundle context = getContext();
-                if (!context.containsKey("datOutputStream")) {
-                    DataOutputStream dataOutputStream = new DataOutputStream(getOutputStream());
+                if (!context.containsKey("dataOutputStream")) {
+                    DataOutputStream dataOutputStream = new DataOutputStream(new CountingOutputStream(getOutputStream(), mBytesOut));
                     context.putObject("dataOutputStream", dataOutputStream);
                 }
                 DataOutputStream dataOutputStream = (DataOutputStream) context.getObject("dataOutputStream");
@@ -580,7 +753,11 @@ public class XmlRpc extends Plugin {
                     mTransactions.put(transactionId, promise);
                 }
 
-                Message.newMessage(binder.getUri().toString(), transactionId, what, data.getByteArray(), data.size()).write(dataOutputStream);
+                boolean compressed = Message.newMessage(binder.getUri().toString(), transactionId, what, data.getByteArray(), data.size())
+                        .write(dataOutputStream, mCompress ? mCompression : null);
+                if (compressed && !mCompressionAccepted) {
+                    mCompressedTransactions.add(transactionId);
+                }
             } catch (IOException e) {
                 mTransactions.remove(transactionId);
                 shutdown(e);
@@ -610,7 +787,7 @@ public class XmlRpc extends Plugin {
         @Override
         public boolean onTransact(Bundle context, InputStream inputStream, OutputStream outputStream) throws IOException {
             if (!context.containsKey("dataInputStream")) {
-                DataInputStream dataInputStream = new DataInputStream(inputStream);
+                DataInputStream dataInputStream = new DataInputStream(new CountingInputStream(inputStream, mBytesIn));
                 context.putObject("dataInputStream", dataInputStream);
             }
             DataInputStream dataInputStream = (DataInputStream) context.getObject("dataInputStream");
@@ -626,12 +803,21 @@ public class XmlRpc extends Plugin {
                 int messageSize = context.getInt("messageSize");
                 Message message;
                 if (dataInputStream.available() >= messageSize) {
-                    message = Message.newMessage(dataInputStream);
+                    message = Message.newMessage(dataInputStream, mCompression);
                     context.remove("messageSize");
                 } else {
                     return false;
                 }
 
+                if (mCompressedTransactions.remove(message.transactionId)) {
+                    if (message.type == Message.MESSAGE_TYPE_TRANSACTION) {
+                        mCompressionAccepted = true;
+                        mCompressedTransactions.clear();
+                    } else if (message.cause != null && message.cause.getCause() instanceof DataFormatException) {
+                        disableCompression();
+                    }
+                }
+
                 final Promise<Parcel> promise = mTransactions.get(message.transactionId);
                 if (promise != null) {
                     mTransactions.remove(message.transactionId);
@@ -651,5 +837,13 @@ public class XmlRpc extends Plugin {
                 throw e;
             }
         }
+
+        private void disableCompression() {
+            mCompress = false;
+            mCompressedTransactions.clear();
+            if (mUncompressedNodes.add(getNodeId())) {
+                Log.w(LOG_TAG, "Node " + getNodeId() + " does not accept compressed messages, falling back to uncompressed messages");
+            }
+        }
     }
 }
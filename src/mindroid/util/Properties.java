@@ -22,6 +22,96 @@ package mindroid.util;
 public final class Properties {
     public static final String DEVELOPER_MODE = "DEVELOPER_MODE";
     public static final String INTEGRATION_TESTING = "INTEGRATION_TESTING";
+
+    /**
+     * Thread pool properties. Each property may be set globally (e.g. {@code THREAD_POOL_QUEUE_CAPACITY})
+     * or for a single pool by appending the pool name (e.g. {@code THREAD_POOL_QUEUE_CAPACITY.AsyncTask}).
+     *
+     * @see mindroid.util.concurrent.ThreadPool
+     */
+    public static final String THREAD_POOL_CORE_POOL_SIZE = "THREAD_POOL_CORE_POOL_SIZE";
+    public static final String THREAD_POOL_MAXIMUM_POOL_SIZE = "THREAD_POOL_MAXIMUM_POOL_SIZE";
+    public static final String THREAD_POOL_KEEP_ALIVE_TIME = "THREAD_POOL_KEEP_ALIVE_TIME";
+    public static final String THREAD_POOL_QUEUE_CAPACITY = "THREAD_POOL_QUEUE_CAPACITY";
+    public static final String THREAD_POOL_REJECTION_POLICY = "THREAD_POOL_REJECTION_POLICY";
+
+    /**
+     * Mindroid plugin properties: The number of connections (lanes) to each remote node, the maximum
+     * number of outstanding two-way transactions per lane (0 for no limit) and the time in milliseconds
+     * after which the connections to a node without proxies are closed (0 to keep them open).
+     *
+     * @see mindroid.runtime.system.Mindroid
+     */
+    public static final String MINDROID_LANES = "MINDROID_LANES";
+    public static final String MINDROID_MAX_IN_FLIGHT_TRANSACTIONS = "MINDROID_MAX_IN_FLIGHT_TRANSACTIONS";
+    public static final String MINDROID_IDLE_CONNECTION_TIMEOUT = "MINDROID_IDLE_CONNECTION_TIMEOUT";
+
+    /**
+     * The maximum number of bytes of outstanding two-way transactions per Mindroid plugin connection (0 for no limit).
+     * The transaction and byte limits of both nodes are negotiated when a connection is established. A single
+     * transaction that exceeds the byte limit is only sent if no other transaction is outstanding.
+     */
+    public static final String MINDROID_MAX_IN_FLIGHT_BYTES = "MINDROID_MAX_IN_FLIGHT_BYTES";
+
+    /**
+     * The interval in milliseconds of the Mindroid plugin gossip-based service discovery rounds (0 to disable)
+     * and the time in milliseconds without gossip heartbeats after which a remote node and its services are
+     * removed (0 to keep them forever).
+     */
+    public static final String MINDROID_GOSSIP_INTERVAL = "MINDROID_GOSSIP_INTERVAL";
+    public static final String MINDROID_GOSSIP_NODE_TIMEOUT = "MINDROID_GOSSIP_NODE_TIMEOUT";
+
+    /**
+     * The interval in milliseconds of the Mindroid plugin connection heartbeats (0 to disable) and the time in
+     * milliseconds without any message from a remote node after which a connection is considered dead. Connections
+     * to nodes without hello support are not checked since such nodes do not answer heartbeats.
+     */
+    public static final String MINDROID_HEARTBEAT_INTERVAL = "MINDROID_HEARTBEAT_INTERVAL";
+    public static final String MINDROID_HEARTBEAT_TIMEOUT = "MINDROID_HEARTBEAT_TIMEOUT";
+
+    /**
+     * The time in milliseconds that a Mindroid plugin client waits for the reply to its hello message before it
+     * treats the server as a node without hello support. Such nodes predate the hello message and cannot parse it,
+     * so networks that still contain them must set this property to 0 to not send hello messages at all. Without
+     * the hello message, transactions with long strings are rejected, parcel extras are not sent and flow control,
+     * compression and stream credits are not negotiated.
+     */
+    public static final String MINDROID_HELLO_TIMEOUT = "MINDROID_HELLO_TIMEOUT";
+
+    /**
+     * The maximum size in bytes of a Mindroid plugin transaction message. Larger transactions are streamed
+     * in chunks of this size (0 to disable). Nodes without hello support receive them in one piece.
+     */
+    public static final String MINDROID_CHUNK_SIZE = "MINDROID_CHUNK_SIZE";
+
+    /**
+     * The file of the compiled runtime system configuration cache. The cache is disabled unless this property
+     * is set. The file should be placed next to the configuration or in the root directory of the application,
+     * not in a directory that is writable by other users.
+     */
+    public static final String MINDROID_CONFIGURATION_CACHE = "MINDROID_CONFIGURATION_CACHE";
+
+    /**
+     * The maximum number of cached service name resolutions of a runtime system plugin.
+     */
+    public static final String NAME_RESOLUTION_CACHE_SIZE = "NAME_RESOLUTION_CACHE_SIZE";
+
+    /**
+     * The minimum size in bytes of message payloads that runtime system plugins compress (0 to disable) and the
+     * file of the preset compression dictionary, which must be the same on all nodes. The xmlrpc plugin does not
+     * negotiate compression; it stops compressing messages to a node that rejects them.
+     *
+     * @see mindroid.runtime.system.Compression
+     */
+    public static final String COMPRESSION_THRESHOLD = "COMPRESSION_THRESHOLD";
+    public static final String COMPRESSION_DICTIONARY = "COMPRESSION_DICTIONARY";
+
+    /**
+     * The number of completed trace spans that are kept in memory.
+     *
+     * @see mindroid.util.tracing.Tracing
+     */
+    public static final String TRACING_BUFFER_SIZE = "TRACING_BUFFER_SIZE";
     
     private Properties() {
     }
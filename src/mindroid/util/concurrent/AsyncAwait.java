@@ -16,40 +16,17 @@
 
 package mindroid.util.concurrent;
 
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Executor;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
 import mindroid.os.Handler;
 import mindroid.os.HandlerThread;
 
 public class AsyncAwait {
-    private static final int CPU_COUNT = Runtime.getRuntime().availableProcessors();
-    private static final int CORE_POOL_SIZE = CPU_COUNT + 1;
-    private static final int MAXIMUM_POOL_SIZE = CPU_COUNT * 2 + 1;
-    private static final int KEEP_ALIVE = 1;
-
-    private static final ThreadFactory sThreadFactory = new ThreadFactory() {
-        private final AtomicInteger mCount = new AtomicInteger(1);
-
-        public Thread newThread(Runnable r) {
-            Thread t = new Thread(r, "AsyncAwait #" + mCount.getAndIncrement());
-            t.setPriority(Thread.MIN_PRIORITY);
-            return t;
-        }
-    };
-
-    private static final BlockingQueue<Runnable> sPoolWorkQueue = new LinkedBlockingQueue<Runnable>(128);
-
     /**
      * An {@link Executor} that can be used to execute tasks in parallel.
+     * The pool is configured by the {@code THREAD_POOL_*} {@link mindroid.util.Properties} using the pool name "AsyncAwait".
      */
-    public static final ExecutorService THREAD_POOL_EXECUTOR = new ThreadPoolExecutor(CORE_POOL_SIZE, MAXIMUM_POOL_SIZE, KEEP_ALIVE,
-            TimeUnit.SECONDS, sPoolWorkQueue, sThreadFactory);
+    public static final ThreadPool THREAD_POOL_EXECUTOR = ThreadPool.create("AsyncAwait", Thread.MIN_PRIORITY);
 
     private static final HandlerThread sThread;
 
@@ -26,6 +26,7 @@
 
 package mindroid.util.concurrent;
 
+import mindroid.util.tracing.TraceContext;
 import java.lang.reflect.Field;
 import java.util.Queue;
 import java.util.concurrent.CompletionStage;
@@ -41,10 +42,13 @@ import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import mindroid.os.Binder;
 import mindroid.os.Handler;
 import mindroid.os.Looper;
 import mindroid.os.SystemClock;
 import mindroid.util.Log;
+import mindroid.util.metrics.Counter;
+import mindroid.util.metrics.Metrics;
 import sun.misc.Unsafe;
 
 /**
@@ -241,6 +245,10 @@ public class Promise<T> implements Future<T> {
 
     @Override
     public T get() throws CancellationException, ExecutionException, InterruptedException {
+        if (!isDone()) {
+            // The result may depend on a transaction of the current batch.
+            Binder.Batch.flushCurrentBatch();
+        }
         synchronized (this) {
             while (!isDone()) {
                 try {
@@ -271,6 +279,10 @@ public class Promise<T> implements Future<T> {
 
     @Override
     public T get(long timeout) throws CancellationException, ExecutionException, TimeoutException, InterruptedException {
+        if (!isDone()) {
+            // The result may depend on a transaction of the current batch.
+            Binder.Batch.flushCurrentBatch();
+        }
         long duration = timeout;
         long start = SystemClock.uptimeMillis();
         synchronized (this) {
@@ -1046,6 +1058,8 @@ public class Promise<T> implements Future<T> {
         protected Promise<T> mSupplier;
         protected Promise<U> mConsumer;
         private final AtomicBoolean mClaim = new AtomicBoolean(false);
+        // The trace context of the thread that created the continuation.
+        private final TraceContext mTraceContext = TraceContext.current();
 
         Action(Executor executor, Promise<T> supplier, Promise<U> consumer) {
             mExecutor = executor;
@@ -1055,7 +1069,7 @@ public class Promise<T> implements Future<T> {
 
         void tryRun() {
             if (claim()) {
-                mExecutor.execute(this);
+                execute();
             }
         }
 
@@ -1065,6 +1079,22 @@ public class Promise<T> implements Future<T> {
         protected final boolean claim() {
             return mClaim.compareAndSet(false, true);
         }
+
+        protected final void execute() {
+            final TraceContext context = mTraceContext;
+            if (context == null) {
+                mExecutor.execute(this);
+            } else {
+                mExecutor.execute(() -> {
+                    TraceContext origContext = TraceContext.setCurrent(context);
+                    try {
+                        run();
+                    } finally {
+                        TraceContext.setCurrent(origContext);
+                    }
+                });
+            }
+        }
     }
 
     private static abstract class BiAction<T, U, V> extends Action<T, V> {
@@ -1079,7 +1109,7 @@ public class Promise<T> implements Future<T> {
         void tryRun() {
             if (mSupplier.mResult != null && mSupplier2.mResult != null) {
                 if (claim()) {
-                    mExecutor.execute(this);
+                    execute();
                 }
             }
         }
@@ -1490,6 +1520,7 @@ public class Promise<T> implements Future<T> {
 
     private static final class Timeout {
         static final ScheduledThreadPoolExecutor sExecutor;
+        static final Counter sTimeouts = Metrics.counter("promise.timeouts");
 
         static {
             sExecutor = new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory());
@@ -1551,7 +1582,9 @@ public class Promise<T> implements Future<T> {
             @Override
             public void run() {
                 if (mConsumer != null && !mConsumer.isDone()) {
-                    mConsumer.completeWith(new TimeoutException(mMessage, mCause));
+                    if (mConsumer.completeWith(new TimeoutException(mMessage, mCause))) {
+                        sTimeouts.increment();
+                    }
                 }
             }
         }
@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2018 E.S.R.Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package mindroid.util.concurrent;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiPredicate;
+
+/**
+ * A concurrent, size-bounded cache with segmented LRU eviction.
+ *
+ * <p>
+ * New entries are inserted into a probationary segment. Entries that are accessed again while
+ * being on probation are promoted into a protected segment which holds up to 80% of the cache
+ * capacity, so a scan of one-time keys cannot flush frequently used entries. Lookups never lock
+ * and only mark the entry as accessed. The segments are reordered lazily under a lock when an
+ * insertion exceeds the capacity.
+ */
+public class SegmentedLruCache<K, V> {
+    private static final int PROBATION = 0;
+    private static final int PROTECTED = 1;
+
+    private final int mCapacity;
+    private final int mProtectedCapacity;
+    private final ConcurrentHashMap<K, Node<K, V>> mMap = new ConcurrentHashMap<>();
+    private final ArrayDeque<Node<K, V>> mProbation = new ArrayDeque<>();
+    private final ArrayDeque<Node<K, V>> mProtected = new ArrayDeque<>();
+    private int mProtectedSize = 0;
+    private final LongAdder mHits = new LongAdder();
+    private final LongAdder mMisses = new LongAdder();
+    private final LongAdder mEvictions = new LongAdder();
+
+    /**
+     * Creates a cache.
+     *
+     * @param capacity The maximum number of entries.
+     */
+    public SegmentedLruCache(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        mCapacity = capacity;
+        mProtectedCapacity = (int) (capacity * 0.8f);
+    }
+
+    /**
+     * Returns the value for {@code key} or null if the cache does not contain the key.
+     */
+    public V get(K key) {
+        Node<K, V> node = mMap.get(key);
+        if (node != null) {
+            if (!node.mAccessed) {
+                node.mAccessed = true;
+            }
+            mHits.increment();
+            return node.mValue;
+        } else {
+            mMisses.increment();
+            return null;
+        }
+    }
+
+    /**
+     * Caches {@code value} for {@code key}, evicting other entries if the cache is full.
+     *
+     * @return The previous value for {@code key} or null.
+     */
+    public V put(K key, V value) {
+        if (key == null || value == null) {
+            throw new NullPointerException();
+        }
+        Node<K, V> node = new Node<>(key, value);
+        synchronized (this) {
+            Node<K, V> oldNode = mMap.put(key, node);
+            if (oldNode != null) {
+                unlink(oldNode);
+            }
+            node.mSegment = PROBATION;
+            mProbation.addLast(node);
+            evict();
+            return (oldNode != null) ? oldNode.mValue : null;
+        }
+    }
+
+    /**
+     * Removes the entry for {@code key}.
+     *
+     * @return The removed value or null.
+     */
+    public V remove(K key) {
+        synchronized (this) {
+            Node<K, V> node = mMap.remove(key);
+            if (node != null) {
+                unlink(node);
+                compact();
+                return node.mValue;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Removes all entries that match {@code predicate}.
+     *
+     * @return The number of removed entries.
+     */
+    public int removeIf(BiPredicate<? super K, ? super V> predicate) {
+        int count = 0;
+        synchronized (this) {
+            Iterator<Map.Entry<K, Node<K, V>>> itr = mMap.entrySet().iterator();
+            while (itr.hasNext()) {
+                Map.Entry<K, Node<K, V>> entry = itr.next();
+                Node<K, V> node = entry.getValue();
+                if (predicate.test(entry.getKey(), node.mValue)) {
+                    itr.remove();
+                    unlink(node);
+                    count++;
+                }
+            }
+            compact();
+        }
+        return count;
+    }
+
+    /**
+     * Removes all entries.
+     */
+    public void clear() {
+        synchronized (this) {
+            mMap.clear();
+            mProbation.clear();
+            mProtected.clear();
+            mProtectedSize = 0;
+        }
+    }
+
+    public int size() {
+        return mMap.size();
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    public long getHitCount() {
+        return mHits.sum();
+    }
+
+    public long getMissCount() {
+        return mMisses.sum();
+    }
+
+    public long getEvictionCount() {
+        return mEvictions.sum();
+    }
+
+    public double getHitRate() {
+        long hits = mHits.sum();
+        long requests = hits + mMisses.sum();
+        return (requests > 0) ? ((double) hits / requests) : 0.0;
+    }
+
+    @Override
+    public String toString() {
+        return "size=" + size()
+                + " capacity=" + mCapacity
+                + " hits=" + getHitCount()
+                + " misses=" + getMissCount()
+                + " evictions=" + getEvictionCount()
+                + " hitRate=" + String.format("%.3f", getHitRate());
+    }
+
+    private void unlink(Node<K, V> node) {
+        // Nodes are removed from their segment queues lazily.
+        if (node.mSegment == PROTECTED) {
+            mProtectedSize--;
+        }
+        node.mRemoved = true;
+    }
+
+    private void evict() {
+        while (mMap.size() > mCapacity) {
+            Node<K, V> node = mProbation.pollFirst();
+            if (node == null) {
+                demote();
+                continue;
+            }
+            if (node.mRemoved) {
+                continue;
+            }
+            if (node.mAccessed) {
+                node.mAccessed = false;
+                node.mSegment = PROTECTED;
+                mProtected.addLast(node);
+                mProtectedSize++;
+                if (mProtectedSize > mProtectedCapacity) {
+                    demote();
+                }
+            } else {
+                mMap.remove(node.mKey, node);
+                node.mRemoved = true;
+                mEvictions.increment();
+            }
+        }
+        compact();
+    }
+
+    /**
+     * Moves the least recently used entry of the protected segment back to the probationary
+     * segment. Protected entries that have been accessed since their last visit get another round.
+     */
+    private void demote() {
+        int visits = mProtected.size();
+        Node<K, V> node;
+        while ((node = mProtected.pollFirst()) != null) {
+            if (node.mRemoved) {
+                continue;
+            }
+            if (node.mAccessed && visits-- > 0) {
+                node.mAccessed = false;
+                mProtected.addLast(node);
+                continue;
+            }
+            node.mSegment = PROBATION;
+            mProtectedSize--;
+            mProbation.addLast(node);
+            return;
+        }
+    }
+
+    private void compact() {
+        if (mProbation.size() + mProtected.size() > 2 * mCapacity) {
+            mProbation.removeIf(node -> node.mRemoved);
+            mProtected.removeIf(node -> node.mRemoved);
+        }
+    }
+
+    private static final class Node<K, V> {
+        final K mKey;
+        final V mValue;
+        volatile boolean mAccessed = false;
+        int mSegment;
+        boolean mRemoved = false;
+
+        Node(K key, V value) {
+            mKey = key;
+            mValue = value;
+        }
+    }
+}
@@ -0,0 +1,307 @@
+/*
+ * Copyright (C) 2018 E.S.R.Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package mindroid.util.concurrent;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import mindroid.util.Log;
+import mindroid.util.Properties;
+import mindroid.util.metrics.Histogram;
+import mindroid.util.metrics.Metrics;
+
+/**
+ * A bounded, instrumented thread pool.
+ *
+ * <p>
+ * The pool tracks the number of queued, active, completed and rejected tasks and records the
+ * queueing and execution latency of every task. Its sizing, queue bound and rejection policy
+ * can be configured using the {@code THREAD_POOL_*} keys of {@link Properties}, either globally
+ * or per pool by appending the pool name to the key.
+ *
+ * <p>
+ * Rejection policies:
+ * <ul>
+ *     <li>{@link #POLICY_ABORT}: Throw a {@link RejectedExecutionException} if the queue is full (default).</li>
+ *     <li>{@link #POLICY_CALLER_RUNS}: Run the task on the submitting thread if the queue is full.</li>
+ *     <li>{@link #POLICY_BLOCK}: Block the submitting thread until the queue has room again.</li>
+ * </ul>
+ */
+public class ThreadPool extends ThreadPoolExecutor {
+    private static final String LOG_TAG = "ThreadPool";
+    public static final String POLICY_ABORT = "abort";
+    public static final String POLICY_CALLER_RUNS = "callerRuns";
+    public static final String POLICY_BLOCK = "block";
+
+    private static final int CPU_COUNT = Runtime.getRuntime().availableProcessors();
+    private static final int DEFAULT_CORE_POOL_SIZE = CPU_COUNT + 1;
+    private static final int DEFAULT_MAXIMUM_POOL_SIZE = CPU_COUNT * 2 + 1;
+    private static final long DEFAULT_KEEP_ALIVE_TIME = 1000; //ms
+    private static final int DEFAULT_QUEUE_CAPACITY = 128;
+
+    private final String mName;
+    private final String mRejectionPolicy;
+    private final LongAdder mSubmittedTasks = new LongAdder();
+    private final LongAdder mRejectedTasks = new LongAdder();
+    private final LongAdder mCallerRunsTasks = new LongAdder();
+    private final LongAdder mBlockedSubmissions = new LongAdder();
+    private final Histogram mQueueTime = new Histogram();
+    private final Histogram mExecutionTime = new Histogram();
+
+    /**
+     * Creates a thread pool named {@code name} which is configured from the {@code THREAD_POOL_*}
+     * {@link Properties}.
+     *
+     * @param name The pool name. Used as thread name prefix and as property key suffix.
+     * @param threadPriority The priority of the pool threads.
+     */
+    public static ThreadPool create(String name, int threadPriority) {
+        int corePoolSize = getIntProperty(Properties.THREAD_POOL_CORE_POOL_SIZE, name, DEFAULT_CORE_POOL_SIZE);
+        int maximumPoolSize = getIntProperty(Properties.THREAD_POOL_MAXIMUM_POOL_SIZE, name, Math.max(corePoolSize, DEFAULT_MAXIMUM_POOL_SIZE));
+        long keepAliveTime = getIntProperty(Properties.THREAD_POOL_KEEP_ALIVE_TIME, name, (int) DEFAULT_KEEP_ALIVE_TIME);
+        int queueCapacity = getIntProperty(Properties.THREAD_POOL_QUEUE_CAPACITY, name, DEFAULT_QUEUE_CAPACITY);
+        String rejectionPolicy = getProperty(Properties.THREAD_POOL_REJECTION_POLICY, name, POLICY_ABORT);
+        return new ThreadPool(name, corePoolSize, maximumPoolSize, keepAliveTime, queueCapacity, rejectionPolicy, threadPriority);
+    }
+
+    /**
+     * Creates a thread pool.
+     *
+     * @param name The pool name.
+     * @param corePoolSize The number of threads to keep in the pool.
+     * @param maximumPoolSize The maximum number of threads in the pool.
+     * @param keepAliveTime The time in milliseconds that excess idle threads wait for new tasks before terminating.
+     * @param queueCapacity The maximum number of queued tasks. 0 hands tasks directly to the pool threads,
+     * a negative value creates an unbounded queue.
+     * @param rejectionPolicy One of {@link #POLICY_ABORT}, {@link #POLICY_CALLER_RUNS} or {@link #POLICY_BLOCK}.
+     * @param threadPriority The priority of the pool threads.
+     */
+    public ThreadPool(String name, int corePoolSize, int maximumPoolSize, long keepAliveTime, int queueCapacity,
+            String rejectionPolicy, int threadPriority) {
+        super(corePoolSize, maximumPoolSize, keepAliveTime, TimeUnit.MILLISECONDS, newQueue(queueCapacity),
+                new PoolThreadFactory(name, threadPriority));
+        if (!POLICY_ABORT.equals(rejectionPolicy) && !POLICY_CALLER_RUNS.equals(rejectionPolicy) && !POLICY_BLOCK.equals(rejectionPolicy)) {
+            throw new IllegalArgumentException("Invalid rejection policy: " + rejectionPolicy);
+        }
+        mName = name;
+        mRejectionPolicy = rejectionPolicy;
+        setRejectedExecutionHandler(new RejectionHandler());
+        Metrics.gauge("threadPool.queueSize", name, this::getQueueSize);
+        Metrics.gauge("threadPool.rejectedTasks", name, this::getRejectedTaskCount);
+        Metrics.register("threadPool.queueTime", name, mQueueTime);
+        Metrics.register("threadPool.executionTime", name, mExecutionTime);
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public String getRejectionPolicy() {
+        return mRejectionPolicy;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if (command == null) {
+            throw new NullPointerException();
+        }
+        mSubmittedTasks.increment();
+        super.execute(new Task(command));
+    }
+
+    @Override
+    protected void beforeExecute(Thread thread, Runnable runnable) {
+        if (runnable instanceof Task) {
+            Task task = (Task) runnable;
+            task.mStartTime = System.nanoTime();
+            mQueueTime.record(task.mStartTime - task.mSubmissionTime);
+        }
+        super.beforeExecute(thread, runnable);
+    }
+
+    @Override
+    protected void afterExecute(Runnable runnable, Throwable throwable) {
+        super.afterExecute(runnable, throwable);
+        if (runnable instanceof Task) {
+            mExecutionTime.record(System.nanoTime() - ((Task) runnable).mStartTime);
+        }
+    }
+
+    @Override
+    protected void terminated() {
+        super.terminated();
+        Metrics.remove("threadPool.queueSize", mName);
+        Metrics.remove("threadPool.rejectedTasks", mName);
+        Metrics.remove("threadPool.queueTime", mName);
+        Metrics.remove("threadPool.executionTime", mName);
+    }
+
+    public int getQueueSize() {
+        return getQueue().size();
+    }
+
+    public long getSubmittedTaskCount() {
+        return mSubmittedTasks.sum();
+    }
+
+    public long getRejectedTaskCount() {
+        return mRejectedTasks.sum();
+    }
+
+    public long getCallerRunsTaskCount() {
+        return mCallerRunsTasks.sum();
+    }
+
+    public long getBlockedSubmissionCount() {
+        return mBlockedSubmissions.sum();
+    }
+
+    /**
+     * Returns the time in nanoseconds tasks spent in the queue before being executed.
+     */
+    public Histogram getQueueTime() {
+        return mQueueTime;
+    }
+
+    /**
+     * Returns the execution time of tasks in nanoseconds.
+     */
+    public Histogram getExecutionTime() {
+        return mExecutionTime;
+    }
+
+    @Override
+    public String toString() {
+        return mName
+                + ": poolSize=" + getPoolSize()
+                + " active=" + getActiveCount()
+                + " queued=" + getQueueSize()
+                + " completed=" + getCompletedTaskCount()
+                + " rejected=" + getRejectedTaskCount()
+                + " callerRuns=" + getCallerRunsTaskCount()
+                + " blocked=" + getBlockedSubmissionCount()
+                + " policy=" + mRejectionPolicy
+                + System.lineSeparator() + "  queue time (ns): " + mQueueTime
+                + System.lineSeparator() + "  execution time (ns): " + mExecutionTime;
+    }
+
+    private static BlockingQueue<Runnable> newQueue(int capacity) {
+        if (capacity < 0) {
+            return new LinkedBlockingQueue<>();
+        } else if (capacity == 0) {
+            return new SynchronousQueue<>();
+        } else {
+            return new ArrayBlockingQueue<>(capacity);
+        }
+    }
+
+    private static String getProperty(String key, String name, String defaultValue) {
+        String value = System.getProperty(key + "." + name);
+        if (value == null) {
+            value = System.getProperty(key);
+        }
+        return (value != null) ? value.trim() : defaultValue;
+    }
+
+    private static int getIntProperty(String key, String name, int defaultValue) {
+        String value = getProperty(key, name, null);
+        if (value != null) {
+            try {
+                return Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                Log.w(LOG_TAG, "Invalid value for property " + key + ": " + value);
+            }
+        }
+        return defaultValue;
+    }
+
+    private static final class Task implements Runnable {
+        final Runnable mCommand;
+        final long mSubmissionTime;
+        long mStartTime;
+
+        Task(Runnable command) {
+            mCommand = command;
+            mSubmissionTime = System.nanoTime();
+        }
+
+        @Override
+        public void run() {
+            mCommand.run();
+        }
+    }
+
+    private class RejectionHandler implements RejectedExecutionHandler {
+        @Override
+        public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+            if (!executor.isShutdown()) {
+                if (POLICY_CALLER_RUNS.equals(mRejectionPolicy)) {
+                    mCallerRunsTasks.increment();
+                    Thread thread = Thread.currentThread();
+                    beforeExecute(thread, runnable);
+                    Throwable throwable = null;
+                    try {
+                        runnable.run();
+                    } catch (RuntimeException | Error e) {
+                        throwable = e;
+                        throw e;
+                    } finally {
+                        afterExecute(runnable, throwable);
+                    }
+                    return;
+                } else if (POLICY_BLOCK.equals(mRejectionPolicy)) {
+                    mBlockedSubmissions.increment();
+                    try {
+                        executor.getQueue().put(runnable);
+                        if (!executor.isShutdown() || !executor.getQueue().remove(runnable)) {
+                            return;
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+            mRejectedTasks.increment();
+            throw new RejectedExecutionException("Task rejected by thread pool " + mName);
+        }
+    }
+
+    private static final class PoolThreadFactory implements ThreadFactory {
+        private final AtomicInteger mCount = new AtomicInteger(1);
+        private final String mName;
+        private final int mPriority;
+
+        PoolThreadFactory(String name, int priority) {
+            mName = name;
+            mPriority = priority;
+        }
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, mName + " #" + mCount.getAndIncrement());
+            t.setPriority(mPriority);
+            return t;
+        }
+    }
+}
@@ -21,6 +21,8 @@ import java.nio.ByteBuffer;
 import java.text.SimpleDateFormat;
 import java.util.GregorianCalendar;
 import mindroid.util.concurrent.Promise;
+import mindroid.util.metrics.Counter;
+import mindroid.util.metrics.Metrics;
 
 public class LogBuffer {
     private static final int TIMESTAMP_SIZE = 8;
@@ -37,6 +39,9 @@ public class LogBuffer {
     private final GregorianCalendar mCalendar = new GregorianCalendar();
     private final SimpleDateFormat mFormatter = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
     private Promise<LogRecord> mPromise = null;
+    private final Counter mRecords;
+    private final Counter mRejectedRecords;
+    private final Counter mOverwrittenRecords;
 
     public class LogRecord {
         private long mTimestamp;
@@ -89,6 +94,11 @@ public class LogBuffer {
         mBuffer = new byte[mSize];
         mReadIndex = 0;
         mWriteIndex = 0;
+        String label = String.valueOf(id);
+        mRecords = Metrics.counter("logBuffer.records", label);
+        mRejectedRecords = Metrics.counter("logBuffer.rejectedRecords", label);
+        mOverwrittenRecords = Metrics.counter("logBuffer.overwrittenRecords", label);
+        Metrics.gauge("logBuffer.usedBytes", label, this::getUsedBytes);
     }
 
     public int getId() {
@@ -125,6 +135,7 @@ public class LogBuffer {
         }
         final int size = TIMESTAMP_SIZE + THREAD_ID_SIZE + PRIORITY_SIZE + TAG_SIZE + tagBuffer.length + MESSAGE_SIZE + messageBuffer.length;
         if ((size + 4) > mSize) {
+            mRejectedRecords.increment();
             return false;
         }
 
@@ -146,6 +157,7 @@ public class LogBuffer {
                 writeByteArray(byteBuffer.array());
             }
         }
+        mRecords.increment();
 
         return true;
     }
@@ -181,6 +193,10 @@ public class LogBuffer {
         return new Promise<>(new LogRecord(timestamp, threadId, priority, tag, message));
     }
 
+    private synchronized long getUsedBytes() {
+        return mSize - remainingCapacity();
+    }
+
     private boolean isEmpty() {
         return mReadIndex == mWriteIndex;
     }
@@ -204,6 +220,7 @@ public class LogBuffer {
             int size = intFromByteArray(readByteArray(4));
             mReadIndex = (mReadIndex + size) % mSize;
             remainingCapacity += (size + 4);
+            mOverwrittenRecords.increment();
         }
 
         if (mWriteIndex + data.length < mSize) {
@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2018 E.S.R.Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package mindroid.util.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A counter that is cheap to increment concurrently. The count is striped over several cells by a
+ * {@link LongAdder}, so that threads incrementing the same counter do not contend on a single variable.
+ */
+public final class Counter {
+    private final LongAdder mCount = new LongAdder();
+
+    public void increment() {
+        mCount.increment();
+    }
+
+    public void add(long value) {
+        mCount.add(value);
+    }
+
+    public long getCount() {
+        return mCount.sum();
+    }
+
+    public void reset() {
+        mCount.reset();
+    }
+
+    @Override
+    public String toString() {
+        return Long.toString(getCount());
+    }
+}
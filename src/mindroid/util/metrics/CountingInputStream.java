@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2018 E.S.R.Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package mindroid.util.metrics;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An input stream that adds the number of bytes read from the underlying stream to a {@link Counter}.
+ * Place it below any buffering so that the counter is updated per chunk rather than per byte.
+ */
+public class CountingInputStream extends InputStream {
+    private final InputStream mInputStream;
+    private final Counter mCounter;
+
+    public CountingInputStream(InputStream inputStream, Counter counter) {
+        mInputStream = inputStream;
+        mCounter = counter;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int value = mInputStream.read();
+        if (value >= 0) {
+            mCounter.increment();
+        }
+        return value;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) throws IOException {
+        int size = mInputStream.read(buffer, offset, count);
+        if (size > 0) {
+            mCounter.add(size);
+        }
+        return size;
+    }
+
+    @Override
+    public long skip(long count) throws IOException {
+        long size = mInputStream.skip(count);
+        if (size > 0) {
+            mCounter.add(size);
+        }
+        return size;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return mInputStream.available();
+    }
+
+    @Override
+    public void close() throws IOException {
+        mInputStream.close();
+    }
+}
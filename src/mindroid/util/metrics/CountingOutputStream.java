@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2018 E.S.R.Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package mindroid.util.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An output stream that adds the number of bytes written to the underlying stream to a {@link Counter}.
+ * Place it below any buffering so that the counter is updated per chunk rather than per byte.
+ */
+public class CountingOutputStream extends OutputStream {
+    private final OutputStream mOutputStream;
+    private final Counter mCounter;
+
+    public CountingOutputStream(OutputStream outputStream, Counter counter) {
+        mOutputStream = outputStream;
+        mCounter = counter;
+    }
+
+    @Override
+    public void write(int value) throws IOException {
+        mOutputStream.write(value);
+        mCounter.increment();
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int count) throws IOException {
+        mOutputStream.write(buffer, offset, count);
+        mCounter.add(count);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        mOutputStream.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        mOutputStream.close();
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2018 E.S.R.Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package mindroid.util.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of non-negative long values (e.g. latencies in nanoseconds).
+ *
+ * Values are recorded into log-linear buckets: every power of two range is split into
+ * {@link #SUB_BUCKET_COUNT} linear sub-buckets, which bounds the relative error of
+ * percentile estimates to 12.5% while keeping the memory footprint constant.
+ */
+public final class Histogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    public static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder mCount = new LongAdder();
+    private final LongAdder mSum = new LongAdder();
+    private final AtomicLong mMax = new AtomicLong(0);
+
+    /**
+     * Records a value. Negative values are recorded as 0.
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        mBuckets.incrementAndGet(indexOf(value));
+        mCount.increment();
+        mSum.add(value);
+        long max;
+        while (value > (max = mMax.get())) {
+            if (mMax.compareAndSet(max, value)) {
+                break;
+            }
+        }
+    }
+
+    public long getCount() {
+        return mCount.sum();
+    }
+
+    /**
+     * Resets all recorded values. Concurrently recorded values may or may not be retained.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            mBuckets.set(i, 0);
+        }
+        mCount.reset();
+        mSum.reset();
+        mMax.set(0);
+    }
+
+    /**
+     * Takes a point-in-time copy of the histogram for percentile calculations.
+     */
+    public Snapshot getSnapshot() {
+        long[] buckets = new long[BUCKET_COUNT];
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets[i] = mBuckets.get(i);
+            count += buckets[i];
+        }
+        return new Snapshot(buckets, count, mSum.sum(), mMax.get());
+    }
+
+    @Override
+    public String toString() {
+        return getSnapshot().toString();
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) & (SUB_BUCKET_COUNT - 1);
+        return (shift + 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    static long lowerBoundOf(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        int subBucket = index % SUB_BUCKET_COUNT;
+        return ((long) (SUB_BUCKET_COUNT | subBucket)) << shift;
+    }
+
+    static long upperBoundOf(int index) {
+        if (index + 1 >= BUCKET_COUNT) {
+            return Long.MAX_VALUE;
+        }
+        return lowerBoundOf(index + 1) - 1;
+    }
+
+    public static final class Snapshot {
+        private final long[] mBuckets;
+        private final long mCount;
+        private final long mSum;
+        private final long mMax;
+
+        Snapshot(long[] buckets, long count, long sum, long max) {
+            mBuckets = buckets;
+            mCount = count;
+            mSum = sum;
+            mMax = max;
+        }
+
+        public long getCount() {
+            return mCount;
+        }
+
+        public long getSum() {
+            return mSum;
+        }
+
+        public long getMax() {
+            return mMax;
+        }
+
+        public double getMean() {
+            return (mCount > 0) ? ((double) mSum / mCount) : 0.0;
+        }
+
+        /**
+         * Returns an estimate of the value at the given quantile.
+         *
+         * @param quantile A quantile in the range [0.0, 1.0], e.g. 0.99 for the 99th percentile.
+         */
+        public long getValueAtQuantile(double quantile) {
+            if (quantile < 0.0 || quantile > 1.0) {
+                throw new IllegalArgumentException("Invalid quantile: " + quantile);
+            }
+            if (mCount == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(quantile * mCount));
+            long seen = 0;
+            for (int i = 0; i < mBuckets.length; i++) {
+                seen += mBuckets[i];
+                if (seen >= rank) {
+                    return Math.min(upperBoundOf(i), mMax);
+                }
+            }
+            return mMax;
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + mCount
+                    + " mean=" + String.format("%.1f", getMean())
+                    + " p50=" + getValueAtQuantile(0.5)
+                    + " p90=" + getValueAtQuantile(0.9)
+                    + " p99=" + getValueAtQuantile(0.99)
+                    + " p999=" + getValueAtQuantile(0.999)
+                    + " max=" + mMax;
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2018 E.S.R.Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package mindroid.util.metrics;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The registry of the runtime metrics. Metrics are identified by a name and an optional label, e.g.
+ * {@code binder.transactions} and the interface descriptor of a binder. Looking up a metric is a map
+ * access, so callers on hot paths keep a reference to their metrics instead.
+ *
+ * <p>
+ * Metrics of objects with a limited lifetime (connections, loopers, ...) must be removed again using
+ * {@link #remove(String, String)}.
+ */
+public final class Metrics {
+    private static final ConcurrentHashMap<String, Metric> sMetrics = new ConcurrentHashMap<>();
+
+    private static final class Metric {
+        final String name;
+        final String label;
+        final Object value;
+
+        Metric(String name, String label, Object value) {
+            this.name = name;
+            this.label = label;
+            this.value = value;
+        }
+    }
+
+    private Metrics() {
+    }
+
+    /**
+     * Returns the counter {@code name}, creating it if it does not exist.
+     */
+    public static Counter counter(String name) {
+        return counter(name, null);
+    }
+
+    /**
+     * Returns the counter {@code name} with the given label, creating it if it does not exist.
+     */
+    public static Counter counter(String name, String label) {
+        return (Counter) get(name, label, Counter.class);
+    }
+
+    /**
+     * Returns the histogram {@code name}, creating it if it does not exist.
+     */
+    public static Histogram histogram(String name) {
+        return histogram(name, null);
+    }
+
+    /**
+     * Returns the histogram {@code name} with the given label, creating it if it does not exist.
+     */
+    public static Histogram histogram(String name, String label) {
+        return (Histogram) get(name, label, Histogram.class);
+    }
+
+    /**
+     * Registers a gauge, replacing a gauge with the same name and label.
+     */
+    public static void gauge(String name, String label, Gauge gauge) {
+        register(name, label, gauge);
+    }
+
+    /**
+     * Registers an existing counter, histogram or gauge, replacing a metric with the same name and label.
+     */
+    public static void register(String name, String label, Object metric) {
+        if (!(metric instanceof Counter) && !(metric instanceof Histogram) && !(metric instanceof Gauge)) {
+            throw new IllegalArgumentException("Invalid metric: " + metric);
+        }
+        sMetrics.put(keyOf(name, label), new Metric(name, label, metric));
+    }
+
+    public static void remove(String name) {
+        remove(name, null);
+    }
+
+    public static void remove(String name, String label) {
+        sMetrics.remove(keyOf(name, label));
+    }
+
+    /**
+     * Resets all counters and histograms.
+     */
+    public static void reset() {
+        for (Metric metric : sMetrics.values()) {
+            if (metric.value instanceof Counter) {
+                ((Counter) metric.value).reset();
+            } else if (metric.value instanceof Histogram) {
+                ((Histogram) metric.value).reset();
+            }
+        }
+    }
+
+    /**
+     * Returns a human-readable snapshot of all metrics whose names start with one of the given prefixes,
+     * or of all metrics if there are no prefixes. Histograms of durations are in nanoseconds.
+     */
+    public static String dump(String... prefixes) {
+        StringBuilder builder = new StringBuilder();
+        for (Metric metric : snapshot(prefixes)) {
+            builder.append(keyOf(metric.name, metric.label)).append(' ');
+            if (metric.value instanceof Gauge) {
+                builder.append(((Gauge) metric.value).getValue());
+            } else {
+                builder.append(metric.value);
+            }
+            builder.append(System.lineSeparator());
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Returns a JSON snapshot of all metrics whose names start with one of the given prefixes, or of all
+     * metrics if there are no prefixes.
+     *
+     * <pre>
+     * {"timestamp":1540000000000,"metrics":[
+     *   {"name":"binder.transactions","label":"mindroid://interfaces/...","type":"counter","value":42},
+     *   {"name":"looper.queueDepth","label":"main","type":"gauge","value":0},
+     *   {"name":"mindroid.windowStallTime","type":"histogram","count":1,"sum":10,"mean":10.0,"p50":10,"p90":10,"p99":10,"p999":10,"max":10}]}
+     * </pre>
+     */
+    public static String dumpJson(String... prefixes) {
+        StringBuilder builder = new StringBuilder();
+        builder.append("{\"timestamp\":").append(System.currentTimeMillis()).append(",\"metrics\":[");
+        boolean first = true;
+        for (Metric metric : snapshot(prefixes)) {
+            if (!first) {
+                builder.append(',');
+            }
+            first = false;
+            builder.append("{\"name\":");
+            appendJsonString(builder, metric.name);
+            if (metric.label != null) {
+                builder.append(",\"label\":");
+                appendJsonString(builder, metric.label);
+            }
+            if (metric.value instanceof Counter) {
+                builder.append(",\"type\":\"counter\",\"value\":").append(((Counter) metric.value).getCount());
+            } else if (metric.value instanceof Gauge) {
+                builder.append(",\"type\":\"gauge\",\"value\":").append(((Gauge) metric.value).getValue());
+            } else {
+                Histogram.Snapshot snapshot = ((Histogram) metric.value).getSnapshot();
+                builder.append(",\"type\":\"histogram\"")
+                        .append(",\"count\":").append(snapshot.getCount())
+                        .append(",\"sum\":").append(snapshot.getSum())
+                        .append(",\"mean\":").append(String.format(Locale.ROOT, "%.1f", snapshot.getMean()))
+                        .append(",\"p50\":").append(snapshot.getValueAtQuantile(0.5))
+                        .append(",\"p90\":").append(snapshot.getValueAtQuantile(0.9))
+                        .append(",\"p99\":").append(snapshot.getValueAtQuantile(0.99))
+                        .append(",\"p999\":").append(snapshot.getValueAtQuantile(0.999))
+                        .append(",\"max\":").append(snapshot.getMax());
+            }
+            builder.append('}');
+        }
+        builder.append("]}");
+        return builder.toString();
+    }
+
+    private static Object get(String name, String label, Class<?> clazz) {
+        Metric metric = sMetrics.get(keyOf(name, label));
+        if (metric == null) {
+            metric = sMetrics.computeIfAbsent(keyOf(name, label),
+                    key -> new Metric(name, label, (clazz == Counter.class) ? new Counter() : new Histogram()));
+        }
+        if (!clazz.isInstance(metric.value)) {
+            throw new IllegalArgumentException("Metric " + keyOf(name, label) + " is not a " + clazz.getSimpleName());
+        }
+        return metric.value;
+    }
+
+    private static List<Metric> snapshot(String[] prefixes) {
+        List<Metric> metrics = new ArrayList<>();
+        for (Metric metric : sMetrics.values()) {
+            if (prefixes == null || prefixes.length == 0) {
+                metrics.add(metric);
+            } else {
+                for (String prefix : prefixes) {
+                    if (metric.name.startsWith(prefix)) {
+                        metrics.add(metric);
+                        break;
+                    }
+                }
+            }
+        }
+        metrics.sort(Comparator.comparing((Metric metric) -> metric.name)
+                .thenComparing(metric -> metric.label, Comparator.nullsFirst(Comparator.naturalOrder())));
+        return metrics;
+    }
+
+    private static String keyOf(String name, String label) {
+        return (label != null) ? name + "{" + label + "}" : name;
+    }
+
+    private static void appendJsonString(StringBuilder builder, String value) {
+        builder.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                builder.append('\\').append(c);
+            } else if (c < 0x20) {
+                builder.append(String.format("\\u%04x", (int) c));
+            } else {
+                builder.append(c);
+            }
+        }
+        builder.append('"');
+    }
+}
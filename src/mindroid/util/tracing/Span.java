@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2018 E.S.R.Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package mindroid.util.tracing;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * A span records a single hop of a trace. Server spans cover the handling of a binder transaction, from
+ * the time the transaction is queued for the binder (queueing) over its dispatch (processing) until its
+ * result is completed. Client spans cover a remote binder transaction as seen by the caller. Completed
+ * spans are recorded by {@link Tracing}.
+ */
+public final class Span {
+    public static final int CLIENT = 1;
+    public static final int SERVER = 2;
+
+    private final TraceContext mContext;
+    private final int mKind;
+    private final String mName;
+    private final long mTimestamp;
+    private final long mStartTime;
+    private long mDispatchTime;
+    private long mEndTime;
+    private String mError;
+
+    public Span(TraceContext context, int kind, String name) {
+        mContext = context;
+        mKind = kind;
+        mName = name;
+        mTimestamp = System.currentTimeMillis();
+        mStartTime = System.nanoTime();
+    }
+
+    public TraceContext getContext() {
+        return mContext;
+    }
+
+    public int getKind() {
+        return mKind;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Returns the start time of the span in milliseconds since the epoch.
+     */
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    /**
+     * Marks the end of queueing and the start of processing.
+     */
+    public void onDispatch() {
+        mDispatchTime = System.nanoTime();
+    }
+
+    /**
+     * Ends the span and records it.
+     *
+     * @param exception The exception the span failed with, or null.
+     */
+    public void end(Throwable exception) {
+        mEndTime = System.nanoTime();
+        if (exception != null) {
+            mError = exception.getClass().getSimpleName();
+        }
+        Tracing.record(this);
+    }
+
+    /**
+     * Returns the queueing time in microseconds, or 0 for client spans.
+     */
+    public long getQueueTime() {
+        return (mDispatchTime != 0) ? (mDispatchTime - mStartTime) / 1000 : 0;
+    }
+
+    /**
+     * Returns the processing time in microseconds, or the duration for client spans.
+     */
+    public long getProcessingTime() {
+        return (mEndTime - ((mDispatchTime != 0) ? mDispatchTime : mStartTime)) / 1000;
+    }
+
+    /**
+     * Returns the duration in microseconds.
+     */
+    public long getDuration() {
+        return (mEndTime - mStartTime) / 1000;
+    }
+
+    /**
+     * Returns the name of the exception the span failed with, or null.
+     */
+    public String getError() {
+        return mError;
+    }
+
+    @Override
+    public String toString() {
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+        StringBuilder builder = new StringBuilder();
+        builder.append(dateFormat.format(new Date(mTimestamp))).append(' ').append(mContext)
+                .append(' ').append((mKind == CLIENT) ? "client" : "server").append(' ').append(mName);
+        if (mKind == CLIENT) {
+            builder.append(" duration=").append(getDuration()).append("us");
+        } else {
+            builder.append(" queue=").append(getQueueTime()).append("us")
+                    .append(" processing=").append(getProcessingTime()).append("us");
+        }
+        if (mError != null) {
+            builder.append(" error=").append(mError);
+        }
+        return builder.toString();
+    }
+}
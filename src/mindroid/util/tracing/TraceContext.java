@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2018 E.S.R.Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package mindroid.util.tracing;
+
+import java.util.concurrent.ThreadLocalRandom;
+import mindroid.os.SystemClock;
+
+/**
+ * The context of a distributed trace: the id of the trace, the id of the current span and its parent, and
+ * the deadline of the trace. Binder transactions propagate the context of the calling thread to the thread
+ * that handles the transaction, also across nodes, and promises propagate it to their continuations.
+ * The deadline is based on the monotonic {@link SystemClock#uptimeMillis()} clock of the local node, so
+ * it is sent to remote nodes as the remaining time and rebased on receipt.
+ *
+ * <p>
+ * A trace is started by making a new context the current context of a thread:
+ *
+ * <pre>
+ * TraceContext origContext = TraceContext.setCurrent(TraceContext.newTrace(1000));
+ * try {
+ *     service.doSomething();
+ * } finally {
+ *     TraceContext.setCurrent(origContext);
+ * }
+ * </pre>
+ *
+ * @see Tracing
+ */
+public final class TraceContext {
+    /**
+     * The deadline of a trace without a deadline.
+     */
+    public static final long NO_DEADLINE = Long.MAX_VALUE;
+    private static final ThreadLocal<TraceContext> sCurrentContext = new ThreadLocal<>();
+    private final long mTraceId;
+    private final long mSpanId;
+    private final long mParentSpanId;
+    private final long mDeadline;
+
+    /**
+     * @param deadline The deadline in milliseconds of {@link SystemClock#uptimeMillis()}, or {@link #NO_DEADLINE}.
+     */
+    public TraceContext(long traceId, long spanId, long parentSpanId, long deadline) {
+        mTraceId = traceId;
+        mSpanId = spanId;
+        mParentSpanId = parentSpanId;
+        mDeadline = deadline;
+    }
+
+    /**
+     * Returns the context of a new trace without a deadline.
+     */
+    public static TraceContext newTrace() {
+        return new TraceContext(newId(), newId(), 0, NO_DEADLINE);
+    }
+
+    /**
+     * Returns the context of a new trace that must complete within {@code timeout} milliseconds.
+     */
+    public static TraceContext newTrace(long timeout) {
+        return new TraceContext(newId(), newId(), 0, SystemClock.uptimeMillis() + timeout);
+    }
+
+    /**
+     * Returns the context of a new span of the trace whose parent is the span of this context.
+     */
+    public TraceContext newChild() {
+        return new TraceContext(mTraceId, newId(), mSpanId, mDeadline);
+    }
+
+    public long getTraceId() {
+        return mTraceId;
+    }
+
+    public long getSpanId() {
+        return mSpanId;
+    }
+
+    /**
+     * Returns the id of the parent span, or 0 for the root span of a trace.
+     */
+    public long getParentSpanId() {
+        return mParentSpanId;
+    }
+
+    /**
+     * Returns the deadline in milliseconds of {@link SystemClock#uptimeMillis()}, or {@link #NO_DEADLINE}.
+     */
+    public long getDeadline() {
+        return mDeadline;
+    }
+
+    public boolean hasDeadline() {
+        return mDeadline != NO_DEADLINE;
+    }
+
+    /**
+     * Returns the time in milliseconds until the deadline, or {@link Long#MAX_VALUE} if there is no deadline.
+     */
+    public long getRemainingTime() {
+        return (mDeadline != NO_DEADLINE) ? mDeadline - SystemClock.uptimeMillis() : Long.MAX_VALUE;
+    }
+
+    public boolean isExpired() {
+        return mDeadline != NO_DEADLINE && SystemClock.uptimeMillis() >= mDeadline;
+    }
+
+    /**
+     * Returns the trace context of the current thread, or null if the thread is not part of a trace.
+     */
+    public static TraceContext current() {
+        return sCurrentContext.get();
+    }
+
+    /**
+     * Sets the trace context of the current thread.
+     *
+     * @param context The new context, or null to leave the trace.
+     * @return The previous context of the thread, which must be restored afterwards.
+     */
+    public static TraceContext setCurrent(TraceContext context) {
+        TraceContext origContext = sCurrentContext.get();
+        sCurrentContext.set(context);
+        return origContext;
+    }
+
+    @Override
+    public String toString() {
+        return "trace=" + Long.toHexString(mTraceId) + " span=" + Long.toHexString(mSpanId)
+                + " parent=" + Long.toHexString(mParentSpanId);
+    }
+
+    private static long newId() {
+        long id;
+        do {
+            id = ThreadLocalRandom.current().nextLong();
+        } while (id == 0);
+        return id;
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2018 E.S.R.Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package mindroid.util.tracing;
+
+import mindroid.util.Properties;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The in-memory ring buffer of the completed spans of the runtime. The buffer keeps the latest
+ * {@link Properties#TRACING_BUFFER_SIZE} spans (1024 by default), older spans are overwritten.
+ * Spans are recorded without locking, so a snapshot may miss spans that are being recorded
+ * concurrently.
+ */
+public final class Tracing {
+    private static final int DEFAULT_BUFFER_SIZE = 1024;
+    private static final AtomicReferenceArray<Span> sSpans =
+            new AtomicReferenceArray<>(Math.max(1, Integer.getInteger(Properties.TRACING_BUFFER_SIZE, DEFAULT_BUFFER_SIZE)));
+    // The number of recorded spans, the next span is stored at sIndex modulo the buffer size.
+    private static final AtomicLong sIndex = new AtomicLong();
+
+    private Tracing() {
+    }
+
+    static void record(Span span) {
+        sSpans.set((int) (sIndex.getAndIncrement() % sSpans.length()), span);
+    }
+
+    /**
+     * Returns the recorded spans, oldest first.
+     */
+    public static List<Span> getSpans() {
+        long index = sIndex.get();
+        int size = (int) Math.min(index, sSpans.length());
+        List<Span> spans = new ArrayList<>(size);
+        for (long i = index - size; i < index; i++) {
+            Span span = sSpans.get((int) (i % sSpans.length()));
+            if (span != null) {
+                spans.add(span);
+            }
+        }
+        return spans;
+    }
+
+    /**
+     * Returns the recorded spans of the given traces, or all recorded spans if there are no trace ids.
+     *
+     * @param traceIds The hexadecimal trace ids.
+     */
+    public static String dump(String... traceIds) {
+        StringBuilder builder = new StringBuilder();
+        for (Span span : getSpans()) {
+            if (matches(span, traceIds)) {
+                builder.append(span).append(System.lineSeparator());
+            }
+        }
+        return builder.toString();
+    }
+
+    public static void clear() {
+        sIndex.set(0);
+        for (int i = 0; i < sSpans.length(); i++) {
+            sSpans.set(i, null);
+        }
+    }
+
+    private static boolean matches(Span span, String[] traceIds) {
+        if (traceIds == null || traceIds.length == 0) {
+            return true;
+        }
+        String traceId = Long.toHexString(span.getContext().getTraceId());
+        for (String id : traceIds) {
+            if (traceId.equals(id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
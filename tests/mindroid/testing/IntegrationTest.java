@@ -41,6 +41,7 @@ import mindroid.util.Log;
 import mindroid.util.Properties;
 import mindroid.util.concurrent.CancellationException;
 import mindroid.util.concurrent.ExecutionException;
+import mindroid.util.concurrent.Promise;
 import mindroid.util.concurrent.TimeoutException;
 import mindroid.util.logging.Logger;
 import mindroid.runtime.system.Runtime;
@@ -84,7 +85,7 @@ public class IntegrationTest {
         Environment.setRootDirectory(rootDir);
 
         File file = new File(Environment.getRootDirectory(), "res/MindroidRuntimeSystem.xml");
-        Runtime.start(nodeId, file.exists() ? file : null);
+        Promise<Void> runtimeStartup = Runtime.start(nodeId, file.exists() ? file : null);
 
         sServiceManager = new ServiceManager();
         sServiceManager.start();
@@ -95,6 +96,12 @@ public class IntegrationTest {
             throw new RuntimeException("System failure", e);
         }
 
+        try {
+            runtimeStartup.get();
+        } catch (Exception e) {
+            Log.println('E', LOG_TAG, "Failed to start Mindroid runtime system", e);
+        }
+
         try {
             startServices();
         } catch (Exception e) {
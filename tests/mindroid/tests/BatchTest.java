@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2018 E.S.R.Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package mindroid.tests;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import mindroid.os.Binder;
+import mindroid.os.Bundle;
+import mindroid.os.IBinder;
+import mindroid.os.IInterface;
+import mindroid.os.Parcel;
+import mindroid.os.RemoteException;
+import mindroid.runtime.sd.IDiscoveryListener;
+import mindroid.runtime.system.Plugin;
+import mindroid.util.concurrent.Promise;
+
+public class BatchTest {
+    private final RecordingPlugin mPlugin = new RecordingPlugin();
+
+    @AfterEach
+    void tearDown() {
+        Binder.Batch batch;
+        while ((batch = Binder.Batch.currentBatch()) != null) {
+            batch.close();
+        }
+    }
+
+    @Test
+    void testNestedFlushKeepsOrder() throws Exception {
+        try (Binder.Batch outer = Binder.Batch.begin()) {
+            outer.add(mPlugin, null, 1, Parcel.obtain(), 0);
+            try (Binder.Batch inner = Binder.Batch.begin()) {
+                inner.add(mPlugin, null, 2, Parcel.obtain(), 0);
+                inner.flush();
+                assertEquals("[[1], [2]]", mPlugin.mBatches.toString());
+            }
+        }
+    }
+
+    @Test
+    void testGetFlushesBatches() throws Exception {
+        try (Binder.Batch outer = Binder.Batch.begin()) {
+            outer.add(mPlugin, null, 1, Parcel.obtain(), 0);
+            try (Binder.Batch inner = Binder.Batch.begin()) {
+                Promise<Parcel> result = inner.add(mPlugin, null, 2, Parcel.obtain(), 0);
+                Promise<Integer> what = result.thenApply(parcel -> parcel.size());
+                assertEquals(0, what.get(1000).intValue());
+                assertEquals("[[1], [2]]", mPlugin.mBatches.toString());
+            }
+        }
+        assertEquals(2, mPlugin.mBatches.size());
+    }
+
+    @Test
+    void testOutOfOrderClose() throws Exception {
+        Binder.Batch outer = Binder.Batch.begin();
+        Binder.Batch inner = Binder.Batch.begin();
+        outer.add(mPlugin, null, 1, Parcel.obtain(), 0);
+        assertThrows(IllegalStateException.class, outer::close);
+        inner.add(mPlugin, null, 2, Parcel.obtain(), 0);
+        inner.close();
+        assertSame(outer, Binder.Batch.currentBatch());
+        outer.add(mPlugin, null, 3, Parcel.obtain(), 0);
+        outer.close();
+        assertNull(Binder.Batch.currentBatch());
+        assertEquals("[[1], [2], [3]]", mPlugin.mBatches.toString());
+    }
+
+    private static class RecordingPlugin extends Plugin {
+        final List<List<Integer>> mBatches = new ArrayList<>();
+
+        @Override
+        public void transact(List<Transaction> transactions) throws RemoteException {
+            List<Integer> batch = new ArrayList<>();
+            for (Transaction transaction : transactions) {
+                batch.add(transaction.what);
+                if (transaction.result != null) {
+                    transaction.result.complete(Parcel.obtain());
+                }
+            }
+            mBatches.add(batch);
+        }
+
+        @Override
+        public Promise<Parcel> transact(IBinder binder, int what, Parcel data, int flags) throws RemoteException {
+            throw new RemoteException();
+        }
+
+        @Override
+        public Promise<Void> start(URI uri, Bundle extras) { return null; }
+        @Override
+        public Promise<Void> stop(URI uri, Bundle extras) { return null; }
+        @Override
+        public Promise<Void> connect(URI node, Bundle extras) { return null; }
+        @Override
+        public Promise<Void> disconnect(URI node, Bundle extras) { return null; }
+        @Override
+        public void attachBinder(Binder binder) { }
+        @Override
+        public void addService(URI uri, Binder service) { }
+        @Override
+        public void removeService(Binder service) { }
+        @Override
+        public void detachBinder(long id) { }
+        @Override
+        public void attachProxy(long proxyId, Binder.Proxy proxy) { }
+        @Override
+        public void detachProxy(long proxyId, long binderId) { }
+        @Override
+        public Binder getStub(Binder binder) { return null; }
+        @Override
+        public IInterface getProxy(IBinder binder) { return null; }
+        @Override
+        public Binder.Proxy resolveService(URI serviceUri) { return null; }
+        @Override
+        public void link(IBinder binder, IBinder.Supervisor supervisor, Bundle extras) { }
+        @Override
+        public boolean unlink(IBinder binder, IBinder.Supervisor supervisor, Bundle extras) { return false; }
+        @Override
+        public void discoverServices(String interfaceDescriptor, Bundle extras, IDiscoveryListener listener) { }
+        @Override
+        public void stopServiceDiscovery(IDiscoveryListener listener) { }
+    }
+}
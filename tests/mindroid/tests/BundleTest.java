@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2018 E.S.R.Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package mindroid.tests;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import mindroid.os.Bundle;
+
+public class BundleTest {
+    @Test
+    void testGrowthPastSmallMode() {
+        Bundle bundle = new Bundle();
+        for (int i = 0; i < 100; i++) {
+            bundle.putInt("int" + i, i);
+            bundle.putString("string" + i, "value" + i);
+            assertEquals(2 * (i + 1), bundle.size());
+            for (int j = 0; j <= i; j++) {
+                assertEquals(j, bundle.getInt("int" + j, -1));
+                assertEquals("value" + j, bundle.getString("string" + j));
+            }
+        }
+        assertFalse(bundle.containsKey("int100"));
+        assertEquals(200, bundle.keySet().size());
+    }
+
+    @Test
+    void testPrimitiveTypesSurviveGrowth() {
+        Bundle bundle = new Bundle();
+        bundle.putBoolean("boolean", true);
+        bundle.putByte("byte", (byte) -1);
+        bundle.putChar("char", Character.MAX_VALUE);
+        bundle.putShort("short", Short.MIN_VALUE);
+        bundle.putLong("long", Long.MIN_VALUE);
+        bundle.putFloat("float", Float.NaN);
+        bundle.putDouble("double", -0.0);
+        bundle.putInt("int", Integer.MAX_VALUE);
+        for (int i = 0; i < 32; i++) {
+            bundle.putObject("object" + i, new Object());
+        }
+        assertTrue(bundle.getBoolean("boolean"));
+        assertEquals((byte) -1, bundle.getByte("byte"));
+        assertEquals(Character.MAX_VALUE, bundle.getChar("char"));
+        assertEquals(Short.MIN_VALUE, bundle.getShort("short"));
+        assertEquals(Long.MIN_VALUE, bundle.getLong("long"));
+        assertTrue(Float.isNaN(bundle.getFloat("float")));
+        assertEquals(Double.doubleToRawLongBits(-0.0), Double.doubleToRawLongBits(bundle.getDouble("double")));
+        assertEquals(Integer.MAX_VALUE, bundle.getInt("int"));
+        // A value of another type is not converted.
+        assertEquals(0, bundle.getInt("long"));
+    }
+
+    @Test
+    void testRemoval() {
+        for (int size : new int[] { 8, 9, 100 }) {
+            Bundle bundle = new Bundle();
+            for (int i = 0; i < size; i++) {
+                bundle.putInt("key" + i, i);
+            }
+            for (int i = 0; i < size; i += 2) {
+                bundle.remove("key" + i);
+            }
+            assertEquals(size / 2, bundle.size());
+            for (int i = 0; i < size; i++) {
+                assertEquals((i % 2 == 0) ? -1 : i, bundle.getInt("key" + i, -1), "size " + size + ", key" + i);
+            }
+            for (int i = 0; i < size; i += 2) {
+                bundle.putInt("key" + i, -i);
+            }
+            assertEquals(size, bundle.size());
+            for (int i = 0; i < size; i++) {
+                assertEquals((i % 2 == 0) ? -i : i, bundle.getInt("key" + i, -1), "size " + size + ", key" + i);
+            }
+        }
+    }
+
+    @Test
+    void testRetainBasicTypes() {
+        for (int size : new int[] { 1, 7, 8, 9, 64 }) {
+            for (int pattern = 0; pattern < 4; pattern++) {
+                Bundle bundle = new Bundle();
+                int basicTypes = 0;
+                for (int i = 0; i < size; i++) {
+                    if (isBasicType(pattern, i, size)) {
+                        bundle.putInt("key" + i, i);
+                        basicTypes++;
+                    } else {
+                        bundle.putObject("key" + i, new Object());
+                    }
+                }
+                bundle.retainBasicTypes();
+                String message = "size " + size + ", pattern " + pattern;
+                assertEquals(basicTypes, bundle.size(), message);
+                for (int i = 0; i < size; i++) {
+                    if (isBasicType(pattern, i, size)) {
+                        assertEquals(i, bundle.getInt("key" + i, -1), message);
+                    } else {
+                        assertFalse(bundle.containsKey("key" + i), message);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void testRetainBasicTypesOfNestedBundles() {
+        Bundle inner = new Bundle();
+        inner.putString("string", "value");
+        inner.putObject("object", new Object());
+        Bundle bundle = new Bundle();
+        bundle.putBundle("inner", inner);
+        bundle.putObject("object", new Object());
+        bundle.retainBasicTypes();
+        assertEquals(1, bundle.size());
+        assertEquals(1, bundle.getBundle("inner").size());
+        assertEquals("value", bundle.getBundle("inner").getString("string"));
+    }
+
+    @Test
+    void testCopyOnWrite() {
+        Bundle original = new Bundle();
+        for (int i = 0; i < 4; i++) {
+            original.putInt("key" + i, i);
+        }
+        original.putObject("object", new Object());
+
+        Bundle copy = new Bundle(original);
+        copy.putInt("key0", 100);
+        copy.remove("key1");
+        for (int i = 4; i < 50; i++) {
+            copy.putInt("key" + i, i);
+        }
+        copy.retainBasicTypes();
+        assertEquals(5, original.size());
+        assertEquals(0, original.getInt("key0", -1));
+        assertEquals(1, original.getInt("key1", -1));
+        assertFalse(original.containsKey("key4"));
+        assertTrue(original.containsKey("object"));
+        assertEquals(49, copy.size());
+        assertEquals(100, copy.getInt("key0", -1));
+        assertFalse(copy.containsKey("key1"));
+
+        Bundle copy2 = (Bundle) original.clone();
+        original.putInt("key0", -100);
+        original.clear();
+        assertEquals(5, copy2.size());
+        assertEquals(0, copy2.getInt("key0", -1));
+        assertTrue(original.isEmpty());
+
+        // Copies of copies are isolated as well.
+        Bundle copy3 = new Bundle(copy2);
+        copy2.keySet().remove("key2");
+        assertTrue(copy3.containsKey("key2"));
+        assertFalse(copy2.containsKey("key2"));
+    }
+
+    private static boolean isBasicType(int pattern, int i, int size) {
+        switch (pattern) {
+        case 0:
+            return false;
+        case 1:
+            return i % 2 == 0;
+        case 2:
+            // Non-basic values at the end are moved into the slots of removed entries.
+            return i < size / 2;
+        default:
+            return i % 3 == 1;
+        }
+    }
+}
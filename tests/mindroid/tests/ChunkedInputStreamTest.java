@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2018 E.S.R.Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package mindroid.tests;
+
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import mindroid.io.ChunkedInputStream;
+
+public class ChunkedInputStreamTest {
+    @Test
+    void testRead() throws IOException {
+        ChunkedInputStream stream = new ChunkedInputStream(6);
+        assertEquals(6, stream.size());
+        stream.append(chunk(0, 1, 2));
+        stream.append(chunk());
+        assertFalse(stream.isComplete());
+        stream.append(chunk(3, 4, 5));
+        assertTrue(stream.isComplete());
+        assertEquals(6, stream.available());
+        assertEquals(0, stream.read());
+        byte[] buffer = new byte[8];
+        // Reads do not span chunks.
+        assertEquals(2, stream.read(buffer, 0, buffer.length));
+        assertEquals(1, buffer[0]);
+        assertEquals(2, buffer[1]);
+        assertEquals(3, stream.available());
+        assertEquals(3, stream.read(buffer, 2, 6));
+        assertArrayEquals(new byte[] { 1, 2, 3, 4, 5, 0, 0, 0 }, buffer);
+        assertEquals(-1, stream.read());
+        assertEquals(-1, stream.read(buffer, 0, 1));
+        assertEquals(0, stream.read(buffer, 0, 0));
+        assertThrows(IndexOutOfBoundsException.class, () -> stream.read(buffer, 4, 5));
+    }
+
+    @Test
+    void testEmptyStream() throws IOException {
+        ChunkedInputStream stream = new ChunkedInputStream(0);
+        assertTrue(stream.isComplete());
+        assertEquals(-1, stream.read());
+        assertNull(stream.nextChunk());
+        assertThrows(IllegalArgumentException.class, () -> new ChunkedInputStream(-1));
+    }
+
+    @Test
+    void testNextChunk() throws IOException {
+        ChunkedInputStream stream = new ChunkedInputStream(5);
+        stream.append(chunk(0, 1, 2));
+        stream.append(chunk(3, 4));
+        assertEquals(0, stream.read());
+        ByteBuffer chunk = stream.nextChunk();
+        assertEquals(2, chunk.remaining());
+        assertEquals(1, chunk.get());
+        assertEquals(2, chunk.get());
+        chunk = stream.nextChunk();
+        assertEquals(2, chunk.remaining());
+        assertNull(stream.nextChunk());
+    }
+
+    @Test
+    void testSkip() throws IOException {
+        ChunkedInputStream stream = new ChunkedInputStream(6);
+        stream.append(chunk(0, 1, 2));
+        stream.append(chunk(3, 4, 5));
+        assertEquals(4, stream.skip(4));
+        assertEquals(4, stream.read());
+        assertEquals(1, stream.skip(10));
+        assertEquals(0, stream.skip(1));
+    }
+
+    @Test
+    void testOversizedChunk() throws IOException {
+        ChunkedInputStream stream = new ChunkedInputStream(4);
+        stream.append(chunk(0, 1, 2));
+        IOException e = assertThrows(IOException.class, () -> stream.append(chunk(3, 4)));
+        assertEquals("Chunk exceeds stream size", e.getMessage());
+        assertFalse(stream.isComplete());
+        stream.append(chunk(3));
+        assertTrue(stream.isComplete());
+    }
+
+    @Test
+    void testBlockingRead() throws Exception {
+        final ChunkedInputStream stream = new ChunkedInputStream(1000);
+        Thread producer = new Thread(() -> {
+            try {
+                for (int i = 0; i < 100; i++) {
+                    byte[] data = new byte[10];
+                    for (int j = 0; j < data.length; j++) {
+                        data[j] = (byte) (i * 10 + j);
+                    }
+                    stream.append(ByteBuffer.wrap(data));
+                    Thread.sleep(1);
+                }
+            } catch (IOException | InterruptedException e) {
+                stream.fail(new IOException(e));
+            }
+        });
+        producer.start();
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i & 0xFF, stream.read());
+        }
+        assertEquals(-1, stream.read());
+        producer.join();
+    }
+
+    @Test
+    void testFail() throws Exception {
+        final ChunkedInputStream stream = new ChunkedInputStream(4);
+        stream.append(chunk(0, 1));
+        IOException cause = new IOException("Connection reset");
+        Thread producer = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException ignore) {
+            }
+            stream.fail(cause);
+        });
+        producer.start();
+        // Data that has been appended before the failure is still readable.
+        assertEquals(0, stream.read());
+        assertEquals(1, stream.read());
+        assertSame(cause, assertThrows(IOException.class, () -> stream.read()));
+        assertSame(cause, assertThrows(IOException.class, () -> stream.nextChunk()));
+        producer.join();
+    }
+
+    @Test
+    void testFailAfterCompletion() throws IOException {
+        ChunkedInputStream stream = new ChunkedInputStream(2);
+        stream.append(chunk(0, 1));
+        stream.fail(new IOException());
+        assertEquals(2, stream.skip(2));
+        assertEquals(-1, stream.read());
+    }
+
+    @Test
+    void testClose() throws Exception {
+        final ChunkedInputStream stream = new ChunkedInputStream(4);
+        Thread closer = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException ignore) {
+            }
+            stream.close();
+        });
+        closer.start();
+        // Closing the stream wakes up blocked readers.
+        IOException e = assertThrows(IOException.class, () -> stream.read());
+        assertEquals("Stream closed", e.getMessage());
+        closer.join();
+        stream.close();
+        stream.append(chunk(0, 1));
+        assertEquals(0, stream.available());
+        assertThrows(IOException.class, () -> stream.nextChunk());
+    }
+
+    @Test
+    void testConsumedBytes() throws IOException {
+        final AtomicInteger consumed = new AtomicInteger();
+        ChunkedInputStream stream = new ChunkedInputStream(10) {
+            @Override
+            protected void onConsumed(int count) {
+                consumed.addAndGet(count);
+            }
+        };
+        stream.append(chunk(0, 1, 2, 3));
+        stream.append(chunk(4, 5));
+        assertEquals(0, consumed.get());
+        stream.read();
+        assertEquals(1, consumed.get());
+        stream.read(new byte[2], 0, 2);
+        assertEquals(3, consumed.get());
+        stream.nextChunk();
+        assertEquals(4, consumed.get());
+        stream.skip(1);
+        assertEquals(5, consumed.get());
+        // Unread data is reported when the stream is closed, later chunks when they are appended.
+        stream.close();
+        assertEquals(6, consumed.get());
+        stream.append(chunk(6, 7, 8));
+        assertEquals(9, consumed.get());
+        stream.close();
+        assertEquals(9, consumed.get());
+    }
+
+    private static ByteBuffer chunk(int... values) {
+        ByteBuffer chunk = ByteBuffer.allocate(values.length);
+        for (int value : values) {
+            chunk.put((byte) value);
+        }
+        chunk.flip();
+        return chunk;
+    }
+}
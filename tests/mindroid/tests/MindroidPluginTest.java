@@ -0,0 +1,719 @@
+/*
+ * Copyright (C) 2018 E.S.R.Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package mindroid.tests;
+
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import mindroid.os.Binder;
+import mindroid.os.IBinder;
+import mindroid.os.Parcel;
+import mindroid.os.RemoteException;
+import mindroid.runtime.system.Runtime;
+import mindroid.util.Properties;
+import mindroid.util.concurrent.Promise;
+
+/**
+ * Tests the wire protocol of the Mindroid plugin against nodes of other versions. The runtime of the test is
+ * node 1, node 2 is played by the test itself, either as a node that predates the hello message or as a node
+ * of the current version.
+ */
+public class MindroidPluginTest {
+    private static final String ECHO_DESCRIPTOR = "mindroid://interfaces/mindroid/tests/IEcho";
+    private static final int MESSAGE_TYPE_TRANSACTION = 1;
+    private static final int MESSAGE_TYPE_EXCEPTION_TRANSACTION = 2;
+    private static final int MESSAGE_TYPE_BATCH = 3;
+    private static final int MESSAGE_TYPE_GOSSIP = 4;
+    private static final int MESSAGE_TYPE_HEARTBEAT = 5;
+    private static final int MESSAGE_TYPE_HELLO = 7;
+    private static final int HEARTBEAT_PONG = 2;
+    private static final int MESSAGE_FLAG_EXTRAS = 0x200;
+    private static final int MESSAGE_FLAGS = 0xFF00;
+    private static final int HELLO_VERSION = 4;
+    private static final String[] PROPERTIES = {
+            Properties.MINDROID_HELLO_TIMEOUT,
+            Properties.MINDROID_HEARTBEAT_INTERVAL,
+            Properties.MINDROID_HEARTBEAT_TIMEOUT,
+            Properties.MINDROID_GOSSIP_INTERVAL,
+            Properties.MINDROID_CHUNK_SIZE,
+            Properties.MINDROID_MAX_IN_FLIGHT_TRANSACTIONS
+    };
+    private final List<Closeable> mResources = new ArrayList<>();
+    private int mPort;
+
+    @AfterEach
+    void tearDown() throws IOException {
+        Runtime.shutdown();
+        for (Closeable resource : mResources) {
+            resource.close();
+        }
+        for (String property : PROPERTIES) {
+            System.clearProperty(property);
+        }
+    }
+
+    @Test
+    void testExtrasToCurrentNode() throws Exception {
+        Node node = new Node(false);
+        startRuntime(node);
+        Parcel reply = echo(getEchoService(), "Hello");
+        assertEquals("Hello", reply.getString());
+        assertEquals("extra", reply.getStringExtra("echo"));
+        assertEquals(Collections.emptyList(), node.mErrors);
+        assertTrue(node.mExtras.contains("extra"));
+    }
+
+    @Test
+    void testNoExtrasToLegacyNode() throws Exception {
+        System.setProperty(Properties.MINDROID_HELLO_TIMEOUT, "0");
+        Node node = new Node(true);
+        startRuntime(node);
+        IBinder service = getEchoService();
+        for (int i = 0; i < 3; i++) {
+            assertEquals("Hello " + i, echo(service, "Hello " + i).getString());
+        }
+        assertEquals(Collections.emptyList(), node.mErrors);
+        assertEquals(1, node.mConnections.get());
+    }
+
+    @Test
+    void testHelloTimeout() throws Exception {
+        System.setProperty(Properties.MINDROID_HELLO_TIMEOUT, "200");
+        // The node reads, but does not answer hello messages.
+        Node node = new Node(true);
+        node.mIgnoreHello = true;
+        startRuntime(node);
+        long startTime = System.currentTimeMillis();
+        assertEquals("Hello", echo(getEchoService(), "Hello").getString());
+        // The transaction is held back until the server is treated as a node without hello support.
+        assertTrue(System.currentTimeMillis() - startTime >= 200);
+        assertEquals(Collections.emptyList(), node.mErrors);
+    }
+
+    @Test
+    void testBatchToLegacyNode() throws Exception {
+        System.setProperty(Properties.MINDROID_HELLO_TIMEOUT, "0");
+        Node node = new Node(true);
+        startRuntime(node);
+        IBinder service = getEchoService();
+        assertEquals("Hello", echo(service, "Hello").getString());
+        List<Promise<Parcel>> replies = new ArrayList<>();
+        try (Binder.Batch batch = Binder.Batch.begin()) {
+            for (int i = 0; i < 3; i++) {
+                Parcel data = Parcel.obtain();
+                data.putString("Hello " + i);
+                replies.add(service.transact(1, data, 0));
+            }
+        }
+        for (int i = 0; i < 3; i++) {
+            assertEquals("Hello " + i, replies.get(i).get(5000).getString());
+        }
+        assertEquals(Collections.emptyList(), node.mErrors);
+    }
+
+    @Test
+    void testBatchWaitsForWindow() throws Exception {
+        Node node = new Node(false);
+        node.mMaxTransactions = 2;
+        startRuntime(node);
+        IBinder service = getEchoService();
+        assertEquals("Hello", echo(service, "Hello").getString());
+        // The credit of a transaction is returned right after its result has completed.
+        Thread.sleep(100);
+        node.mValues.clear();
+        node.holdReplies();
+        List<Promise<Parcel>> replies = new ArrayList<>();
+        try (Binder.Batch batch = Binder.Batch.begin()) {
+            for (int i = 0; i < 4; i++) {
+                Parcel data = Parcel.obtain();
+                data.putString("Hello " + i);
+                replies.add(service.transact(1, data, 0));
+            }
+        }
+
+        // Only the transactions that fit into the window are sent within the batch.
+        waitFor(() -> node.mValues.size() == 2, 5000);
+        Thread.sleep(200);
+        assertEquals(Arrays.asList("Hello 0", "Hello 1"), node.mValues);
+        assertEquals(Arrays.asList(2), node.mBatchSizes);
+
+        node.releaseReplies();
+        for (int i = 0; i < 4; i++) {
+            assertEquals("Hello " + i, replies.get(i).get(5000).getString());
+        }
+        assertEquals(Arrays.asList("Hello 0", "Hello 1", "Hello 2", "Hello 3"), node.mValues);
+        assertEquals(Collections.emptyList(), node.mErrors);
+    }
+
+    @Test
+    void testOrderWhileConnecting() throws Exception {
+        Node node = new Node(false);
+        node.mHelloDelay = 100;
+        startRuntime(node);
+        IBinder service = getEchoService();
+
+        // The transactions are queued by the lane while connecting, then held back until the hello reply.
+        List<String> values = new ArrayList<>();
+        long endTime = System.currentTimeMillis() + 300;
+        for (int i = 0; System.currentTimeMillis() < endTime; i++) {
+            Parcel data = Parcel.obtain();
+            data.putString(String.valueOf(i));
+            service.transact(1, data, Binder.FLAG_ONEWAY);
+            values.add(String.valueOf(i));
+            Thread.sleep(1);
+        }
+        waitFor(() -> node.mValues.size() == values.size(), 5000);
+        assertEquals(values, node.mValues);
+        assertEquals(1, node.mConnections.get());
+    }
+
+    @Test
+    void testNoHeartbeatsToLegacyNode() throws Exception {
+        System.setProperty(Properties.MINDROID_HELLO_TIMEOUT, "0");
+        System.setProperty(Properties.MINDROID_HEARTBEAT_INTERVAL, "50");
+        System.setProperty(Properties.MINDROID_HEARTBEAT_TIMEOUT, "200");
+        Node node = new Node(true);
+        startRuntime(node);
+        IBinder service = getEchoService();
+        assertEquals("Hello", echo(service, "Hello").getString());
+        Thread.sleep(600);
+        assertEquals("Hello", echo(service, "Hello").getString());
+        assertEquals(Collections.emptyList(), node.mErrors);
+        assertEquals(1, node.mConnections.get());
+    }
+
+    @Test
+    void testHeartbeatTimeout() throws Exception {
+        System.setProperty(Properties.MINDROID_HEARTBEAT_INTERVAL, "50");
+        System.setProperty(Properties.MINDROID_HEARTBEAT_TIMEOUT, "200");
+        Node node = new Node(false);
+        startRuntime(node);
+        IBinder service = getEchoService();
+        assertEquals("Hello", echo(service, "Hello").getString());
+        Thread.sleep(600);
+        assertEquals(1, node.mConnections.get());
+        // The connection is closed once the node stops answering heartbeats.
+        node.mIgnoreHeartbeats = true;
+        Thread.sleep(600);
+        assertEquals("Hello", echo(service, "Hello").getString());
+        assertEquals(2, node.mConnections.get());
+    }
+
+    @Test
+    void testGossip() throws Exception {
+        System.setProperty(Properties.MINDROID_GOSSIP_INTERVAL, "50");
+        Node node = new Node(false);
+        startRuntime(node);
+        assertEquals("Hello", echo(getEchoService(), "Hello").getString());
+        waitFor(() -> node.mTypes.contains(MESSAGE_TYPE_GOSSIP), 5000);
+    }
+
+    @Test
+    void testNoGossipToLegacyNode() throws Exception {
+        System.setProperty(Properties.MINDROID_HELLO_TIMEOUT, "0");
+        System.setProperty(Properties.MINDROID_GOSSIP_INTERVAL, "50");
+        Node node = new Node(true);
+        startRuntime(node);
+        assertEquals("Hello", echo(getEchoService(), "Hello").getString());
+        Thread.sleep(300);
+        assertEquals(Collections.emptyList(), node.mErrors);
+        assertEquals(1, node.mConnections.get());
+    }
+
+    @Test
+    void testExtrasFromServer() throws Exception {
+        startRuntime(new Node(true));
+        EchoService service = new EchoService();
+
+        try (Client client = new Client(mPort)) {
+            client.hello();
+            Frame reply = client.transact(service.getUri().toString(), "Hello", "extra");
+            assertEquals(MESSAGE_TYPE_TRANSACTION | MESSAGE_FLAG_EXTRAS, reply.mType);
+            assertEquals("Hello", reply.toParcel().getString());
+            assertEquals("extra", reply.toParcel().getStringExtra("echo"));
+        }
+
+        // The server does not send extras to clients without hello support.
+        try (Client client = new Client(mPort)) {
+            Frame reply = client.transact(service.getUri().toString(), "Hello", null);
+            assertEquals(MESSAGE_TYPE_TRANSACTION, reply.mType);
+            assertEquals("Hello", reply.toParcel().getString());
+        }
+    }
+
+    @Test
+    void testNoChunksToLegacyNode() throws Exception {
+        System.setProperty(Properties.MINDROID_HELLO_TIMEOUT, "0");
+        System.setProperty(Properties.MINDROID_CHUNK_SIZE, "64");
+        Node node = new Node(true);
+        startRuntime(node);
+        char[] chars = new char[1024];
+        Arrays.fill(chars, 'x');
+        String value = new String(chars);
+        assertEquals(value, echo(getEchoService(), value).getString());
+        assertEquals(Collections.emptyList(), node.mErrors);
+
+        // The server does not send chunked replies to clients without hello support.
+        EchoService service = new EchoService();
+        try (Client client = new Client(mPort)) {
+            Frame reply = client.transact(service.getUri().toString(), value, null);
+            assertEquals(MESSAGE_TYPE_TRANSACTION, reply.mType);
+            assertEquals(value, reply.toParcel().getString());
+        }
+    }
+
+    @Test
+    void testReceivedProxiesAreDistinct() throws Exception {
+        startRuntime(new Node(false));
+        IBinder service = getEchoService();
+        Parcel parcel = Parcel.obtain();
+        parcel.putBinder(service);
+        parcel.putBinder(service);
+        parcel.asInput();
+        IBinder proxy1 = parcel.getBinder();
+        IBinder proxy2 = parcel.getBinder();
+        assertNotSame(proxy1, proxy2);
+        assertEquals(proxy1, proxy2);
+
+        // Disposing one proxy does not affect the other holders of the same binder.
+        proxy1.dispose();
+        assertEquals("Hello", echo(proxy2, "Hello").getString());
+        assertEquals("Hello", echo(service, "Hello").getString());
+    }
+
+    @Test
+    void testOneWayTransactionsWaitForWindow() throws Exception {
+        System.setProperty(Properties.MINDROID_HELLO_TIMEOUT, "0");
+        System.setProperty(Properties.MINDROID_MAX_IN_FLIGHT_TRANSACTIONS, "1");
+        Node node = new Node(true);
+        node.holdReplies();
+        startRuntime(node);
+        IBinder service = getEchoService();
+        Parcel data = Parcel.obtain();
+        data.putString("A");
+        Promise<Parcel> result = service.transact(1, data, 0);
+        waitFor(() -> node.mValues.size() == 1, 5000);
+
+        // The one-way transaction stalls behind the transaction that occupies the window.
+        data = Parcel.obtain();
+        data.putString("B");
+        service.transact(1, data, Binder.FLAG_ONEWAY);
+        Thread.sleep(200);
+        assertEquals(Arrays.asList("A"), node.mValues);
+
+        node.releaseReplies();
+        assertEquals("A", result.get(5000).getString());
+        waitFor(() -> node.mValues.size() == 2, 5000);
+        assertEquals(Arrays.asList("A", "B"), node.mValues);
+
+        // The one-way transaction has returned its credit.
+        assertEquals("C", echo(service, "C").getString());
+        assertEquals(Collections.emptyList(), node.mErrors);
+    }
+
+    private void startRuntime(Node node) throws Exception {
+        mResources.add(node);
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            mPort = serverSocket.getLocalPort();
+        }
+        File configuration = File.createTempFile("MindroidPluginTest", ".xml");
+        configuration.deleteOnExit();
+        try (Writer writer = new FileWriter(configuration)) {
+            writer.write("<?xml version='1.0' encoding='UTF-8' ?>\n"
+                    + "<runtime>\n"
+                    + "    <nodes>\n"
+                    + "        <node id=\"1\">\n"
+                    + "            <plugin scheme=\"mindroid\" class=\"mindroid.runtime.system.Mindroid\">\n"
+                    + "                <server uri=\"tcp://localhost:" + mPort + "\" />\n"
+                    + "            </plugin>\n"
+                    + "        </node>\n"
+                    + "        <node id=\"2\">\n"
+                    + "            <plugin scheme=\"mindroid\" class=\"mindroid.runtime.system.Mindroid\">\n"
+                    + "                <server uri=\"tcp://localhost:" + node.getPort() + "\" />\n"
+                    + "            </plugin>\n"
+                    + "        </node>\n"
+                    + "    </nodes>\n"
+                    + "    <serviceDiscovery>\n"
+                    + "        <node id=\"2\">\n"
+                    + "            <service id=\"1\" name=\"echo\">\n"
+                    + "                <announcement interfaceDescriptor=\"" + ECHO_DESCRIPTOR + "\" />\n"
+                    + "            </service>\n"
+                    + "        </node>\n"
+                    + "    </serviceDiscovery>\n"
+                    + "</runtime>\n");
+        }
+        Runtime.start(1, configuration).get(10000);
+    }
+
+    private static IBinder getEchoService() {
+        IBinder service = Runtime.getRuntime().getService(URI.create("mindroid://echo"));
+        assertNotNull(service);
+        return service;
+    }
+
+    private static Parcel echo(IBinder service, String value) throws Exception {
+        Parcel data = Parcel.obtain();
+        data.putString(value);
+        data.putExtra("custom", "extra");
+        return service.transact(1, data, 0).get(5000);
+    }
+
+    private static void waitFor(BooleanSupplier condition, long timeout) throws InterruptedException {
+        long endTime = System.currentTimeMillis() + timeout;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > endTime) {
+                fail("Condition not met within " + timeout + " ms");
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private static byte[] toByteArray(Parcel parcel) {
+        return Arrays.copyOf(parcel.getByteArray(), parcel.size());
+    }
+
+    /**
+     * A message as it is sent over the wire.
+     */
+    private static final class Frame {
+        int mType;
+        String mUri = "";
+        int mTransactionId;
+        int mWhat;
+        byte[] mData = new byte[0];
+        byte[] mExtras;
+
+        static Frame newTransaction(String uri, int transactionId, int what, Parcel parcel, byte[] extras) {
+            Frame frame = new Frame();
+            frame.mType = MESSAGE_TYPE_TRANSACTION | ((extras != null) ? MESSAGE_FLAG_EXTRAS : 0);
+            frame.mUri = uri;
+            frame.mTransactionId = transactionId;
+            frame.mWhat = what;
+            frame.mData = toByteArray(parcel);
+            frame.mExtras = extras;
+            return frame;
+        }
+
+        /**
+         * Creates a hello message of node 2 that grants a window of 1024 transactions and does not compress.
+         */
+        static Frame newHello(int maxTransactions) throws IOException {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            DataOutputStream data = new DataOutputStream(buffer);
+            data.writeInt(HELLO_VERSION);
+            data.writeInt(maxTransactions);
+            data.writeLong(Long.MAX_VALUE);
+            data.writeInt(2);
+            data.writeInt(0);
+            data.writeInt(0);
+            Frame frame = new Frame();
+            frame.mType = MESSAGE_TYPE_HELLO;
+            frame.mData = buffer.toByteArray();
+            return frame;
+        }
+
+        /**
+         * Reads a message in the format of the current version. Chunked and compressed messages are not expected.
+         */
+        static Frame read(DataInputStream inputStream) throws IOException {
+            Frame frame = readHeader(inputStream);
+            if ((frame.mType & MESSAGE_FLAG_EXTRAS) != 0) {
+                frame.mExtras = new byte[inputStream.readInt()];
+                inputStream.readFully(frame.mExtras);
+            }
+            if ((frame.mType & ~MESSAGE_FLAGS) == MESSAGE_TYPE_EXCEPTION_TRANSACTION && inputStream.readInt() > 0) {
+                inputStream.readUTF();
+            }
+            return frame;
+        }
+
+        static Frame readHeader(DataInputStream inputStream) throws IOException {
+            Frame frame = new Frame();
+            frame.mType = inputStream.readInt();
+            frame.mUri = inputStream.readUTF();
+            frame.mTransactionId = inputStream.readInt();
+            frame.mWhat = inputStream.readInt();
+            frame.mData = new byte[inputStream.readInt()];
+            inputStream.readFully(frame.mData);
+            return frame;
+        }
+
+        void write(DataOutputStream outputStream) throws IOException {
+            outputStream.writeInt(mType);
+            outputStream.writeUTF(mUri);
+            outputStream.writeInt(mTransactionId);
+            outputStream.writeInt(mWhat);
+            outputStream.writeInt(mData.length);
+            outputStream.write(mData);
+            if (mExtras != null) {
+                outputStream.writeInt(mExtras.length);
+                outputStream.write(mExtras);
+            }
+            outputStream.flush();
+        }
+
+        Parcel toParcel() {
+            Parcel parcel = Parcel.obtain(mData);
+            if (mExtras != null) {
+                parcel.unmarshallExtras(mExtras);
+            }
+            return parcel;
+        }
+    }
+
+    /**
+     * Plays node 2. A legacy node only understands transaction messages without flags like nodes that predate the
+     * hello message. Any other message is recorded as error and the connection is closed since such a node would
+     * lose track of the message boundaries. A current node answers hello messages and heartbeats. Both echo the
+     * string of a transaction and its "custom" extra.
+     */
+    private static final class Node implements Closeable {
+        final ServerSocket mServerSocket;
+        final boolean mLegacy;
+        volatile boolean mIgnoreHello = false;
+        volatile boolean mIgnoreHeartbeats = false;
+        // The flow control window granted to the runtime.
+        volatile int mMaxTransactions = 1024;
+        volatile long mHelloDelay = 0;
+        // Replies are held back until releaseReplies() is called, guarded by mHeldReplies.
+        boolean mHoldReplies = false;
+        final List<Runnable> mHeldReplies = new ArrayList<>();
+        final List<String> mValues = Collections.synchronizedList(new ArrayList<>());
+        final List<Integer> mBatchSizes = Collections.synchronizedList(new ArrayList<>());
+        final AtomicInteger mConnections = new AtomicInteger();
+        final List<String> mErrors = Collections.synchronizedList(new ArrayList<>());
+        final List<String> mExtras = Collections.synchronizedList(new ArrayList<>());
+        final List<Integer> mTypes = Collections.synchronizedList(new ArrayList<>());
+        final List<Socket> mSockets = Collections.synchronizedList(new ArrayList<>());
+
+        Node(boolean legacy) throws IOException {
+            mLegacy = legacy;
+            mServerSocket = new ServerSocket(0);
+            Thread thread = new Thread(() -> {
+                try {
+                    while (true) {
+                        Socket socket = mServerSocket.accept();
+                        mConnections.incrementAndGet();
+                        mSockets.add(socket);
+                        new Thread(() -> serve(socket)).start();
+                    }
+                } catch (IOException ignore) {
+                }
+            });
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        int getPort() {
+            return mServerSocket.getLocalPort();
+        }
+
+        void holdReplies() {
+            synchronized (mHeldReplies) {
+                mHoldReplies = true;
+            }
+        }
+
+        void releaseReplies() {
+            List<Runnable> replies;
+            synchronized (mHeldReplies) {
+                mHoldReplies = false;
+                replies = new ArrayList<>(mHeldReplies);
+                mHeldReplies.clear();
+            }
+            for (Runnable reply : replies) {
+                reply.run();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            mServerSocket.close();
+            synchronized (mSockets) {
+                for (Socket socket : mSockets) {
+                    socket.close();
+                }
+            }
+        }
+
+        private void serve(Socket socket) {
+            try (Socket s = socket) {
+                DataInputStream inputStream = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                while (true) {
+                    Frame frame = mLegacy ? Frame.readHeader(inputStream) : Frame.read(inputStream);
+                    mTypes.add(frame.mType & ~MESSAGE_FLAGS);
+                    if (mLegacy && mIgnoreHello && frame.mType == MESSAGE_TYPE_HELLO) {
+                        continue;
+                    }
+                    if (mLegacy && frame.mType != MESSAGE_TYPE_TRANSACTION) {
+                        mErrors.add("Unexpected message type 0x" + Integer.toHexString(frame.mType));
+                        return;
+                    }
+                    switch (frame.mType & ~MESSAGE_FLAGS) {
+                    case MESSAGE_TYPE_TRANSACTION:
+                        onTransaction(frame, outputStream);
+                        break;
+                    case MESSAGE_TYPE_BATCH:
+                        mBatchSizes.add(frame.mWhat);
+                        DataInputStream batchInputStream = new DataInputStream(new ByteArrayInputStream(frame.mData));
+                        for (int i = 0; i < frame.mWhat; i++) {
+                            batchInputStream.readInt();
+                            onTransaction(Frame.read(batchInputStream), outputStream);
+                        }
+                        break;
+                    case MESSAGE_TYPE_HELLO:
+                        if (mHelloDelay > 0) {
+                            try {
+                                Thread.sleep(mHelloDelay);
+                            } catch (InterruptedException e) {
+                                return;
+                            }
+                        }
+                        write(Frame.newHello(mMaxTransactions), outputStream);
+                        break;
+                    case MESSAGE_TYPE_HEARTBEAT:
+                        if (mIgnoreHeartbeats) {
+                            break;
+                        }
+                        Frame pong = new Frame();
+                        pong.mType = MESSAGE_TYPE_HEARTBEAT;
+                        pong.mWhat = HEARTBEAT_PONG;
+                        write(pong, outputStream);
+                        break;
+                    default:
+                        break;
+                    }
+                }
+            } catch (IOException ignore) {
+            }
+        }
+
+        private void onTransaction(Frame frame, DataOutputStream outputStream) throws IOException {
+            Parcel data = frame.toParcel();
+            String extra = data.getStringExtra("custom");
+            if (extra != null) {
+                mExtras.add(extra);
+            }
+            Parcel reply = Parcel.obtain();
+            try {
+                String value = data.getString();
+                mValues.add(value);
+                reply.putString(value);
+            } catch (RemoteException e) {
+                throw new IOException(e);
+            }
+            byte[] extras = null;
+            if (!mLegacy && extra != null) {
+                extras = Parcel.obtain().putExtra("echo", extra).marshallExtras();
+            }
+            Frame replyFrame = Frame.newTransaction(frame.mUri, frame.mTransactionId, frame.mWhat, reply, extras);
+            synchronized (mHeldReplies) {
+                if (mHoldReplies) {
+                    mHeldReplies.add(() -> {
+                        try {
+                            write(replyFrame, outputStream);
+                        } catch (IOException ignore) {
+                        }
+                    });
+                    return;
+                }
+            }
+            write(replyFrame, outputStream);
+        }
+
+        private static void write(Frame frame, DataOutputStream outputStream) throws IOException {
+            synchronized (outputStream) {
+                frame.write(outputStream);
+            }
+        }
+    }
+
+    /**
+     * A client of the runtime's server, either of the current version after {@link #hello()} or without hello support.
+     */
+    private static final class Client implements Closeable {
+        final Socket mSocket;
+        final DataInputStream mInputStream;
+        final DataOutputStream mOutputStream;
+        int mTransactionId = 1;
+
+        Client(int port) throws IOException {
+            mSocket = new Socket("localhost", port);
+            mSocket.setSoTimeout(5000);
+            mInputStream = new DataInputStream(new BufferedInputStream(mSocket.getInputStream()));
+            mOutputStream = new DataOutputStream(new BufferedOutputStream(mSocket.getOutputStream()));
+        }
+
+        void hello() throws IOException {
+            Frame.newHello(1024).write(mOutputStream);
+            assertEquals(MESSAGE_TYPE_HELLO, Frame.read(mInputStream).mType);
+        }
+
+        Frame transact(String uri, String value, String extra) throws IOException, RemoteException {
+            Parcel data = Parcel.obtain();
+            data.putString(value);
+            byte[] extras = (extra != null) ? Parcel.obtain().putExtra("custom", extra).marshallExtras() : null;
+            Frame.newTransaction(uri, mTransactionId++, 1, data, extras).write(mOutputStream);
+            return Frame.read(mInputStream);
+        }
+
+        @Override
+        public void close() throws IOException {
+            mSocket.close();
+        }
+    }
+
+    /**
+     * Echoes the string of a transaction and its "custom" extra.
+     */
+    private static final class EchoService extends Binder {
+        EchoService() {
+            super(Runnable::run);
+            attachInterface(null, ECHO_DESCRIPTOR);
+        }
+
+        @Override
+        protected void onTransact(int what, Parcel data, Promise<Parcel> result) throws RemoteException {
+            Parcel reply = Parcel.obtain();
+            reply.putString(data.getString());
+            reply.putExtra("echo", String.valueOf(data.getStringExtra("custom")));
+            result.complete(reply);
+        }
+    }
+}
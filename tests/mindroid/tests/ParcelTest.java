@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2018 E.S.R.Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package mindroid.tests;
+
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+import mindroid.os.Parcel;
+
+public class ParcelTest {
+    @Test
+    void testStrings() throws Exception {
+        String[] values = {
+                "",
+                "Mindroid",
+                "\0",
+                "a\0b\0",
+                "\u00e4\u00f6\u00fc\u00df",
+                "\u20ac \u4e2d\u6587",
+                "\ud83d\ude00",
+                "a\ud83d\ude00b",
+                "\ud800",
+                "\udc00\ud800",
+                "\uffff"
+        };
+        for (String value : values) {
+            Parcel parcel = Parcel.obtain();
+            parcel.putString(value);
+            assertArrayEquals(writeUTF(value), toByteArray(parcel), value);
+            assertFalse(parcel.hasLongStrings());
+            parcel.asInput();
+            assertEquals(value, parcel.getString());
+            parcel.recycle();
+        }
+    }
+
+    @Test
+    void testShortStringBoundary() throws Exception {
+        // The longest string with the short encoding.
+        String value = repeat('a', 65534);
+        Parcel parcel = Parcel.obtain();
+        parcel.putString(value);
+        assertFalse(parcel.hasLongStrings());
+        assertEquals(2 + 65534, parcel.size());
+        assertArrayEquals(writeUTF(value), toByteArray(parcel));
+        parcel.asInput();
+        assertEquals(value, parcel.getString());
+        parcel.recycle();
+
+        // 21844 * 3 + 2 = 65534 bytes.
+        value = repeat('\u20ac', 21844) + "\0";
+        parcel = Parcel.obtain();
+        parcel.putString(value);
+        assertFalse(parcel.hasLongStrings());
+        assertArrayEquals(writeUTF(value), toByteArray(parcel));
+        parcel.asInput();
+        assertEquals(value, parcel.getString());
+        parcel.recycle();
+    }
+
+    @Test
+    void testLongStrings() throws Exception {
+        String[] values = {
+                repeat('a', 65535),
+                repeat('a', 65536),
+                // 21845 * 3 = 65535 bytes.
+                repeat('\u20ac', 21845),
+                repeat('\0', 32768),
+                repeat('a', 100000) + "\ud83d\ude00"
+        };
+        for (String value : values) {
+            Parcel parcel = Parcel.obtain();
+            parcel.putInt(42);
+            parcel.putString(value);
+            parcel.putString("end");
+            assertTrue(parcel.hasLongStrings());
+            byte[] data = toByteArray(parcel);
+            assertEquals(0xFF, data[4] & 0xFF);
+            assertEquals(0xFF, data[5] & 0xFF);
+            parcel.asInput();
+            assertEquals(42, parcel.getInt());
+            assertEquals(value, parcel.getString());
+            assertEquals("end", parcel.getString());
+            parcel.recycle();
+
+            // A received parcel must be flagged to contain long strings.
+            parcel = Parcel.obtain(data).setLongStrings(true);
+            assertEquals(42, parcel.getInt());
+            assertEquals(value, parcel.getString());
+            assertEquals("end", parcel.getString());
+            parcel.recycle();
+        }
+    }
+
+    @Test
+    void testStringArrays() throws Exception {
+        Parcel parcel = Parcel.obtain();
+        parcel.putStringArray(null);
+        parcel.putStringArray(new String[0]);
+        parcel.putStringArray(new String[] { "", "\0", "\u00e4", "\ud83d\ude00", repeat('x', 70000) });
+        parcel.asInput();
+        assertNull(parcel.getStringArray());
+        assertEquals(0, parcel.getStringArray().length);
+        assertArrayEquals(new String[] { "", "\0", "\u00e4", "\ud83d\ude00", repeat('x', 70000) }, parcel.getStringArray());
+        parcel.recycle();
+    }
+
+    @Test
+    void testNullAndEmptyArrays() throws Exception {
+        Parcel parcel = Parcel.obtain();
+        parcel.putBooleanArray(null);
+        parcel.putBooleanArray(new boolean[0]);
+        parcel.putCharArray(null);
+        parcel.putCharArray(new char[0]);
+        parcel.putShortArray(null);
+        parcel.putShortArray(new short[0]);
+        parcel.putIntArray(null);
+        parcel.putIntArray(new int[0]);
+        parcel.putLongArray(null);
+        parcel.putLongArray(new long[0]);
+        parcel.putFloatArray(null);
+        parcel.putFloatArray(new float[0]);
+        parcel.putDoubleArray(null);
+        parcel.putDoubleArray(new double[0]);
+        parcel.putInt(42);
+        parcel.asInput();
+        assertNull(parcel.getBooleanArray());
+        assertEquals(0, parcel.getBooleanArray().length);
+        assertNull(parcel.getCharArray());
+        assertEquals(0, parcel.getCharArray().length);
+        assertNull(parcel.getShortArray());
+        assertEquals(0, parcel.getShortArray().length);
+        assertNull(parcel.getIntArray());
+        assertEquals(0, parcel.getIntArray().length);
+        assertNull(parcel.getLongArray());
+        assertEquals(0, parcel.getLongArray().length);
+        assertNull(parcel.getFloatArray());
+        assertEquals(0, parcel.getFloatArray().length);
+        assertNull(parcel.getDoubleArray());
+        assertEquals(0, parcel.getDoubleArray().length);
+        assertEquals(42, parcel.getInt());
+        parcel.recycle();
+    }
+
+    @Test
+    void testArrays() throws Exception {
+        boolean[] booleans = { true, false, true };
+        char[] chars = { 'a', '\0', '\uffff' };
+        short[] shorts = { Short.MIN_VALUE, 0, Short.MAX_VALUE };
+        int[] ints = new int[10000];
+        for (int i = 0; i < ints.length; i++) {
+            ints[i] = i * 31;
+        }
+        long[] longs = { Long.MIN_VALUE, 0, Long.MAX_VALUE };
+        float[] floats = { Float.MIN_VALUE, -0.0f, Float.MAX_VALUE };
+        double[] doubles = { Double.MIN_VALUE, -0.0, Double.MAX_VALUE };
+        Parcel parcel = Parcel.obtain();
+        parcel.putBooleanArray(booleans);
+        parcel.putCharArray(chars);
+        parcel.putShortArray(shorts);
+        parcel.putIntArray(ints);
+        parcel.putLongArray(longs);
+        parcel.putFloatArray(floats);
+        parcel.putDoubleArray(doubles);
+        parcel.asInput();
+        assertTrue(Arrays.equals(booleans, parcel.getBooleanArray()));
+        assertTrue(Arrays.equals(chars, parcel.getCharArray()));
+        assertTrue(Arrays.equals(shorts, parcel.getShortArray()));
+        assertTrue(Arrays.equals(ints, parcel.getIntArray()));
+        assertTrue(Arrays.equals(longs, parcel.getLongArray()));
+        assertTrue(Arrays.equals(floats, parcel.getFloatArray()));
+        assertTrue(Arrays.equals(doubles, parcel.getDoubleArray()));
+        parcel.recycle();
+    }
+
+    private static byte[] toByteArray(Parcel parcel) {
+        return Arrays.copyOf(parcel.getByteArray(), parcel.size());
+    }
+
+    private static byte[] writeUTF(String value) throws Exception {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        new DataOutputStream(buffer).writeUTF(value);
+        return buffer.toByteArray();
+    }
+
+    private static String repeat(char c, int count) {
+        char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2018 E.S.R.Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package mindroid.tests;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import mindroid.util.concurrent.SegmentedLruCache;
+
+public class SegmentedLruCacheTest {
+    @Test
+    void testPutAndGet() {
+        SegmentedLruCache<String, Integer> cache = new SegmentedLruCache<>(4);
+        assertNull(cache.put("a", 1));
+        assertEquals(1, (int) cache.put("a", 2));
+        assertEquals(2, (int) cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals(1, cache.size());
+        assertEquals(4, cache.getCapacity());
+    }
+
+    @Test
+    void testEvictionOrder() {
+        SegmentedLruCache<Integer, Integer> cache = new SegmentedLruCache<>(3);
+        for (int i = 0; i < 6; i++) {
+            cache.put(i, i);
+            assertTrue(cache.size() <= 3);
+        }
+        assertEquals(3, cache.size());
+        assertEquals(3, cache.getEvictionCount());
+        for (int i = 0; i < 3; i++) {
+            assertNull(cache.get(i));
+        }
+        for (int i = 3; i < 6; i++) {
+            assertEquals(i, (int) cache.get(i));
+        }
+    }
+
+    @Test
+    void testAccessedEntriesSurviveScan() {
+        SegmentedLruCache<Integer, Integer> cache = new SegmentedLruCache<>(10);
+        for (int i = 0; i < 10; i++) {
+            cache.put(i, i);
+        }
+        for (int i = 0; i < 5; i++) {
+            cache.get(i);
+        }
+        for (int i = 100; i < 200; i++) {
+            cache.put(i, i);
+            assertTrue(cache.size() <= 10);
+        }
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i, (int) cache.get(i));
+        }
+        for (int i = 5; i < 10; i++) {
+            assertNull(cache.get(i));
+        }
+        assertEquals(10, cache.size());
+    }
+
+    @Test
+    void testReplacedEntryIsNotEvictedTwice() {
+        SegmentedLruCache<Integer, Integer> cache = new SegmentedLruCache<>(2);
+        cache.put(1, 1);
+        cache.put(1, 2);
+        cache.put(2, 2);
+        assertEquals(2, cache.size());
+        assertEquals(0, cache.getEvictionCount());
+        cache.put(3, 3);
+        assertNull(cache.get(1));
+        assertEquals(2, (int) cache.get(2));
+        assertEquals(3, (int) cache.get(3));
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+    @Test
+    void testRemove() {
+        SegmentedLruCache<Integer, Integer> cache = new SegmentedLruCache<>(4);
+        for (int i = 0; i < 4; i++) {
+            cache.put(i, i);
+        }
+        cache.get(0);
+        assertEquals(0, (int) cache.remove(0));
+        assertNull(cache.remove(0));
+        assertEquals(3, cache.size());
+        cache.put(4, 4);
+        assertEquals(4, cache.size());
+        assertEquals(0, cache.getEvictionCount());
+
+        assertEquals(2, cache.removeIf((key, value) -> key % 2 == 0));
+        assertNull(cache.get(2));
+        assertNull(cache.get(4));
+        assertEquals(1, (int) cache.get(1));
+        assertEquals(3, (int) cache.get(3));
+        assertEquals(0, cache.removeIf((key, value) -> false));
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        for (int i = 0; i < 8; i++) {
+            cache.put(i, i);
+        }
+        assertEquals(4, cache.size());
+    }
+
+    @Test
+    void testManyRemovals() {
+        SegmentedLruCache<Integer, Integer> cache = new SegmentedLruCache<>(8);
+        for (int i = 0; i < 10000; i++) {
+            cache.put(i, i);
+            cache.get(i);
+            if (i % 3 == 0) {
+                cache.remove(i);
+            }
+            assertTrue(cache.size() <= 8);
+        }
+        assertEquals(8, cache.size());
+    }
+
+    @Test
+    void testStatistics() {
+        SegmentedLruCache<String, String> cache = new SegmentedLruCache<>(1);
+        assertEquals(0.0, cache.getHitRate());
+        cache.put("a", "a");
+        cache.get("a");
+        cache.get("a");
+        cache.get("a");
+        cache.get("b");
+        assertEquals(3, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(0.75, cache.getHitRate());
+        cache.put("b", "b");
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+    @Test
+    void testInvalidArguments() {
+        assertThrows(IllegalArgumentException.class, () -> new SegmentedLruCache<String, String>(0));
+        assertThrows(IllegalArgumentException.class, () -> new SegmentedLruCache<String, String>(-1));
+        SegmentedLruCache<String, String> cache = new SegmentedLruCache<>(1);
+        assertThrows(NullPointerException.class, () -> cache.put(null, "a"));
+        assertThrows(NullPointerException.class, () -> cache.put("a", null));
+    }
+
+    @Test
+    void testConcurrentAccess() throws InterruptedException {
+        final SegmentedLruCache<Integer, Integer> cache = new SegmentedLruCache<>(64);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int offset = t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 20000; i++) {
+                    int key = (i * 7 + offset) % 256;
+                    Integer value = cache.get(key);
+                    if (value == null) {
+                        cache.put(key, key);
+                    } else {
+                        assertEquals(key, (int) value);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(cache.size() <= 64);
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2018 E.S.R.Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package mindroid.tools.midl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Generates a JMH benchmark for a MIDL interface.
+ *
+ * <p>
+ * The benchmark implements the stub with methods that return constant values and runs it on its own
+ * thread, so each benchmark method measures the round trip of a call from another thread through the
+ * generated proxy. The runtime is started as node 1 without configuration for each trial. Oneway methods and methods with interface parameters or return values are left out
+ * since they cannot be called in a tight loop without a real implementation.
+ */
+final class BenchmarkGenerator {
+    private final Document mDocument;
+    private final Interface mInterface;
+
+    BenchmarkGenerator(Document document, Interface iface) {
+        mDocument = document;
+        mInterface = iface;
+    }
+
+    /**
+     * Returns whether the interface has methods that can be benchmarked.
+     */
+    boolean hasBenchmarks() {
+        for (Method method : mInterface.methods) {
+            if (isBenchmarkable(method)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    String getClassName() {
+        return mInterface.name + "Benchmark";
+    }
+
+    String generate() {
+        String name = mInterface.name;
+        StringBuilder builder = new StringBuilder();
+        JavaGenerator.writeHeader(builder, mDocument);
+        builder.append("import java.util.concurrent.ExecutorService;\n");
+        builder.append("import java.util.concurrent.Executors;\n");
+        builder.append("import java.util.concurrent.TimeUnit;\n");
+        builder.append("import mindroid.os.RemoteException;\n");
+        builder.append("import mindroid.util.concurrent.Future;\n");
+        builder.append("import mindroid.util.concurrent.Promise;\n");
+        for (String i : mDocument.imports) {
+            builder.append("import ").append(i).append(";\n");
+        }
+        builder.append("import org.openjdk.jmh.annotations.Benchmark;\n");
+        builder.append("import org.openjdk.jmh.annotations.BenchmarkMode;\n");
+        builder.append("import org.openjdk.jmh.annotations.Mode;\n");
+        builder.append("import org.openjdk.jmh.annotations.OutputTimeUnit;\n");
+        builder.append("import org.openjdk.jmh.annotations.Scope;\n");
+        builder.append("import org.openjdk.jmh.annotations.Setup;\n");
+        builder.append("import org.openjdk.jmh.annotations.State;\n");
+        builder.append("import org.openjdk.jmh.annotations.TearDown;\n\n");
+        builder.append("@State(Scope.Benchmark)\n");
+        builder.append("@BenchmarkMode(Mode.AverageTime)\n");
+        builder.append("@OutputTimeUnit(TimeUnit.NANOSECONDS)\n");
+        builder.append("public class ").append(getClassName()).append(" {\n");
+        builder.append("    private ExecutorService mExecutor;\n");
+        builder.append("    private ").append(name).append(".Stub mStub;\n");
+        builder.append("    private ").append(name).append(" mProxy;\n\n");
+        builder.append("    @Setup\n");
+        builder.append("    public void setUp() throws Exception {\n");
+        builder.append("        mindroid.runtime.system.Runtime.start(1, null).get();\n");
+        builder.append("        mExecutor = Executors.newSingleThreadExecutor();\n");
+        builder.append("        mStub = new ").append(name).append(".Stub(mExecutor) {\n");
+        for (Method method : mInterface.methods) {
+            builder.append("            @Override\n");
+            builder.append("            ").append(JavaGenerator.signature(method)).append(" {\n");
+            Type type = method.returnType;
+            if (type.isFuture()) {
+                builder.append("                return new Promise<>(mExecutor, ").append(value(type.component)).append(");\n");
+            } else if (!type.isVoid()) {
+                builder.append("                return ").append(value(type)).append(";\n");
+            }
+            builder.append("            }\n\n");
+        }
+        builder.setLength(builder.length() - 1);
+        builder.append("        };\n");
+        builder.append("        mProxy = ").append(name).append(".Stub.asInterface(mStub);\n");
+        builder.append("    }\n\n");
+        builder.append("    @TearDown\n");
+        builder.append("    public void tearDown() {\n");
+        builder.append("        mStub.dispose();\n");
+        builder.append("        mExecutor.shutdown();\n");
+        builder.append("        mindroid.runtime.system.Runtime.shutdown();\n");
+        builder.append("    }\n");
+        for (Method method : mInterface.methods) {
+            if (!isBenchmarkable(method)) {
+                continue;
+            }
+            Type type = method.returnType;
+            List<String> arguments = new ArrayList<>();
+            for (Parameter parameter : method.parameters) {
+                arguments.add(value(parameter.type));
+            }
+            String call = "mProxy." + method.name + "(" + String.join(", ", arguments) + ")";
+            builder.append("\n    @Benchmark\n");
+            if (type.isVoid()) {
+                builder.append("    public void ").append(method.name).append("() throws RemoteException {\n");
+                builder.append("        ").append(call).append(";\n");
+            } else if (type.isFuture()) {
+                builder.append("    public ").append(type.component.javaName()).append(" ").append(method.name)
+                        .append("() throws Exception {\n");
+                builder.append("        return ").append(call).append(".get();\n");
+            } else {
+                builder.append("    public ").append(type.javaName()).append(" ").append(method.name)
+                        .append("() throws RemoteException {\n");
+                builder.append("        return ").append(call).append(";\n");
+            }
+            builder.append("    }\n");
+        }
+        builder.append("}\n");
+        return builder.toString();
+    }
+
+    private static boolean isBenchmarkable(Method method) {
+        if (method.oneway || isInterface(method.returnType)) {
+            return false;
+        }
+        for (Parameter parameter : method.parameters) {
+            if (isInterface(parameter.type)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isInterface(Type type) {
+        return type.kind == Type.Kind.INTERFACE
+                || (type.kind == Type.Kind.FUTURE && type.component.kind == Type.Kind.INTERFACE);
+    }
+
+    /**
+     * Returns a constant value of a type, which must not be null since strings cannot be null in parcels.
+     */
+    private static String value(Type type) {
+        switch (type.kind) {
+        case PRIMITIVE:
+            switch (type.name) {
+            case "boolean":
+                return "true";
+            case "char":
+                return "'m'";
+            case "long":
+                return "42L";
+            case "float":
+                return "42.0f";
+            case "double":
+                return "42.0";
+            case "int":
+                return "42";
+            default:
+                return "(" + type.name + ") 42";
+            }
+        case STRING:
+            return "\"Mindroid\"";
+        case ARRAY:
+            return "new " + type.component.name + "[] { " + value(type.component) + " }";
+        default:
+            return "null";
+        }
+    }
+}
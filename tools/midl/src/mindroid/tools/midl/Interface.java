@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2018 E.S.R.Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package mindroid.tools.midl;
+
+import java.util.List;
+
+/**
+ * A MIDL interface.
+ */
+final class Interface {
+    final String packageName;
+    final String name;
+    final List<Method> methods;
+
+    Interface(String packageName, String name, List<Method> methods) {
+        this.packageName = packageName;
+        this.name = name;
+        this.methods = methods;
+    }
+
+    String getDescriptor() {
+        return "mindroid://interfaces/" + packageName.replace('.', '/') + "/" + name;
+    }
+}
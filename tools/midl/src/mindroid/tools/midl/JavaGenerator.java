@@ -0,0 +1,526 @@
+/*
+ * Copyright (C) 2018 E.S.R.Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package mindroid.tools.midl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Generates the Java interface of a MIDL interface, including its {@code Stub} and {@code Proxy}.
+ *
+ * <p>
+ * The generated code avoids allocations on the hot paths: synchronous proxy methods block on the
+ * transaction result directly instead of completing a separate promise from a continuation, parcels are
+ * presized from the arguments, and the outer proxy only creates the remote proxy for its first call that
+ * cannot be dispatched to the stub directly.
+ *
+ * <p>
+ * Calls to a stub of the same node on another thread use the lightweight transaction of {@link mindroid.os.Binder}
+ * instead of parcels. The arguments and results are handed over by reference. Arrays are copied, all other
+ * supported types are immutable or binders.
+ */
+final class JavaGenerator {
+    private final Document mDocument;
+    private final Interface mInterface;
+    private final StringBuilder mBuilder = new StringBuilder();
+    private int mIndent = 0;
+
+    JavaGenerator(Document document, Interface iface) {
+        mDocument = document;
+        mInterface = iface;
+    }
+
+    String generate() {
+        String name = mInterface.name;
+        writeHeader(mBuilder, mDocument);
+        line("import java.util.concurrent.Executor;");
+        line("import mindroid.os.Binder;");
+        line("import mindroid.os.Bundle;");
+        line("import mindroid.os.IBinder;");
+        line("import mindroid.os.IInterface;");
+        line("import mindroid.os.Looper;");
+        line("import mindroid.os.Parcel;");
+        line("import mindroid.os.RemoteException;");
+        line("import mindroid.util.concurrent.Executors;");
+        line("import mindroid.util.concurrent.Future;");
+        line("import mindroid.util.concurrent.Promise;");
+        for (String i : mDocument.imports) {
+            line("import " + i + ";");
+        }
+        line();
+        open("public interface " + name + " extends IInterface {");
+        open("public static abstract class Stub extends Binder implements " + name + " {");
+        line("public static final String DESCRIPTOR = \"" + mInterface.getDescriptor() + "\";");
+        line();
+        writeStubConstructor("");
+        line();
+        writeStubConstructor("Looper looper");
+        line();
+        writeStubConstructor("Executor executor");
+        line();
+        open("public static " + name + " asInterface(IBinder binder) {");
+        open("if (binder == null) {");
+        line("return null;");
+        close("}");
+        line("return new " + name + ".Proxy(binder);");
+        close("}");
+        line();
+        line("@Override");
+        open("public IBinder asBinder() {");
+        line("return this;");
+        close("}");
+        line();
+        writeStubTransact();
+        line();
+        writeStubLightweightTransact();
+        line();
+        writeStubProxy();
+        line();
+        for (Method method : mInterface.methods) {
+            line("static final int " + method.constantName() + " = " + method.code + ";");
+        }
+        close("}");
+        line();
+        writeProxy();
+        line();
+        for (Method method : mInterface.methods) {
+            line(signature(method) + ";");
+        }
+        close("}");
+        return mBuilder.toString();
+    }
+
+    static void writeHeader(StringBuilder builder, Document document) {
+        if (!document.header.isEmpty()) {
+            builder.append("/*\n");
+            for (String line : document.header.split("\n", -1)) {
+                builder.append(line.isEmpty() ? " *" : " * " + line).append('\n');
+            }
+            builder.append(" */\n\n");
+        }
+        builder.append("package ").append(document.packageName).append(";\n\n");
+    }
+
+    private void writeStubConstructor(String parameter) {
+        open("public Stub(" + parameter + ") {");
+        if (!parameter.isEmpty()) {
+            line("super(" + parameter.substring(parameter.indexOf(' ') + 1) + ");");
+        }
+        line("this.attachInterface(this, DESCRIPTOR);");
+        close("}");
+    }
+
+    private void writeStubTransact() {
+        line("@Override");
+        open("protected void onTransact(int what, Parcel data, Promise<Parcel> result) throws RemoteException {");
+        line("switch (what) {");
+        for (Method method : mInterface.methods) {
+            open("case " + method.constantName() + ": {");
+            List<String> arguments = new ArrayList<>();
+            for (Parameter parameter : method.parameters) {
+                line(parameter.type.javaName() + " _" + parameter.name + " = " + get("data", parameter.type) + ";");
+                arguments.add("_" + parameter.name);
+            }
+            String call = method.name + "(" + String.join(", ", arguments) + ");";
+            Type type = method.returnType;
+            if (type.isVoid()) {
+                line(call);
+                if (!method.oneway) {
+                    line("result.complete(Parcel.obtain(0));");
+                }
+            } else if (type.isFuture()) {
+                line(type.javaName() + " _reply = " + call);
+                open("_reply.then((value, exception) -> {");
+                open("if (exception == null) {");
+                line("Parcel _parcel = Parcel.obtain(" + size(type.component, "value") + ");");
+                open("try {");
+                line(put("_parcel", type.component, "value", null) + ";");
+                line("result.complete(_parcel);");
+                close("} catch (Exception e) {");
+                mIndent++;
+                line("result.completeWith(e);");
+                close("}");
+                close("} else {");
+                mIndent++;
+                line("result.completeWith(exception);");
+                close("}");
+                close("});");
+            } else {
+                line(type.javaName() + " _reply = " + call);
+                line("Parcel _parcel = Parcel.obtain(" + size(type, "_reply") + ");");
+                line(put("_parcel", type, "_reply", null) + ";");
+                line("result.complete(_parcel);");
+            }
+            line("break;");
+            close("}");
+        }
+        line("default:");
+        mIndent++;
+        line("super.onTransact(what, data, result);");
+        line("break;");
+        mIndent--;
+        line("}");
+        close("}");
+    }
+
+    private void writeStubLightweightTransact() {
+        line("@Override");
+        line("@SuppressWarnings(\"unchecked\")");
+        open("protected void onTransact(int what, int num, Object obj, Bundle data, Promise<?> result) throws RemoteException {");
+        line("switch (what) {");
+        for (Method method : mInterface.methods) {
+            open("case " + method.constantName() + ": {");
+            List<Parameter> parameters = method.parameters;
+            if (parameters.size() > 1) {
+                line("Object[] _arguments = (Object[]) obj;");
+            }
+            List<String> arguments = new ArrayList<>();
+            for (int i = 0; i < parameters.size(); i++) {
+                Parameter parameter = parameters.get(i);
+                String value;
+                if (parameters.size() > 1) {
+                    value = "(" + parameter.type.javaObjectName() + ") _arguments[" + i + "]";
+                } else if (isNumArgument(method)) {
+                    value = "num";
+                } else {
+                    value = "(" + parameter.type.javaObjectName() + ") obj";
+                }
+                line(parameter.type.javaName() + " _" + parameter.name + " = " + value + ";");
+                arguments.add("_" + parameter.name);
+            }
+            String call = method.name + "(" + String.join(", ", arguments) + ");";
+            Type type = method.returnType;
+            if (type.isVoid()) {
+                line(call);
+                if (!method.oneway) {
+                    line("result.complete(null);");
+                }
+            } else if (type.isFuture()) {
+                String promiseType = "Promise<" + type.component.javaObjectName() + ">";
+                line(type.javaName() + " _reply = " + call);
+                line(promiseType + " _result = (" + promiseType + ") result;");
+                open("_reply.then((value, exception) -> {");
+                open("if (exception == null) {");
+                line("_result.complete(" + handOff(type.component, "value") + ");");
+                close("} else {");
+                mIndent++;
+                line("_result.completeWith(exception);");
+                close("}");
+                close("});");
+            } else {
+                line(type.javaName() + " _reply = " + call);
+                line("((Promise<" + type.javaObjectName() + ">) result).complete(" + handOff(type, "_reply") + ");");
+            }
+            line("break;");
+            close("}");
+        }
+        line("default:");
+        mIndent++;
+        line("super.onTransact(what, num, obj, data, result);");
+        line("break;");
+        mIndent--;
+        line("}");
+        close("}");
+    }
+
+    private void writeStubProxy() {
+        String name = mInterface.name;
+        open("private static class Proxy implements " + name + " {");
+        line("private final IBinder mRemote;");
+        line();
+        open("Proxy(IBinder remote) {");
+        line("mRemote = remote;");
+        close("}");
+        line();
+        line("@Override");
+        open("public IBinder asBinder() {");
+        line("return mRemote;");
+        close("}");
+        line();
+        writeEquals("Stub.Proxy", "mRemote");
+        for (Method method : mInterface.methods) {
+            line();
+            line("@Override");
+            open(signature(method) + " {");
+            List<Parameter> parameters = method.parameters;
+            List<String> sizes = new ArrayList<>();
+            for (Parameter parameter : parameters) {
+                sizes.add(size(parameter.type, parameter.name));
+            }
+            line("Parcel _data = Parcel.obtain(" + sum(sizes) + ");");
+            for (Parameter parameter : parameters) {
+                line(put("_data", parameter.type, parameter.name, "mRemote") + ";");
+            }
+            Type type = method.returnType;
+            if (method.oneway) {
+                line("mRemote.transact(" + method.constantName() + ", _data, FLAG_ONEWAY);");
+            } else if (type.isVoid()) {
+                line("Binder.get(mRemote.transact(" + method.constantName() + ", _data, 0));");
+            } else if (type.isFuture()) {
+                line("Promise<" + type.component.javaObjectName() + "> _promise = new Promise<>();");
+                line("mRemote.transact(" + method.constantName() + ", _data, 0)");
+                mIndent += 2;
+                open(".then((parcel, exception) -> {");
+                open("if (exception == null) {");
+                open("try {");
+                line("_promise.complete(" + get("parcel", type.component) + ");");
+                close("} catch (RemoteException e) {");
+                mIndent++;
+                line("_promise.completeWith(e);");
+                close("}");
+                close("} else {");
+                mIndent++;
+                line("_promise.completeWith(exception);");
+                close("}");
+                close("});");
+                mIndent -= 2;
+                line("return _promise;");
+            } else {
+                line("Parcel _reply = Binder.get(mRemote.transact(" + method.constantName() + ", _data, 0));");
+                line("return " + get("_reply", type) + ";");
+            }
+            close("}");
+        }
+        close("}");
+    }
+
+    private void writeProxy() {
+        String name = mInterface.name;
+        open("static class Proxy implements " + name + " {");
+        line("private final IBinder mBinder;");
+        line("private final Stub mStub;");
+        line("private volatile " + name + " mProxy;");
+        line();
+        open("Proxy(IBinder binder) {");
+        line("mBinder = binder;");
+        open("if (binder.getUri().getScheme().equals(\"mindroid\")) {");
+        line("mStub = (Stub) binder.queryLocalInterface(Stub.DESCRIPTOR);");
+        close("} else {");
+        mIndent++;
+        line("mStub = (Stub) mindroid.runtime.system.Runtime.getRuntime().getBinder(binder.getId());");
+        close("}");
+        close("}");
+        line();
+        line("@Override");
+        open("public IBinder asBinder() {");
+        line("return mBinder;");
+        close("}");
+        line();
+        writeEquals("Proxy", "mBinder");
+        for (Method method : mInterface.methods) {
+            List<String> stubArguments = new ArrayList<>();
+            List<String> proxyArguments = new ArrayList<>();
+            for (Parameter parameter : method.parameters) {
+                if (parameter.type.kind == Type.Kind.INTERFACE) {
+                    stubArguments.add(handOff(parameter.type, parameter.name));
+                } else {
+                    stubArguments.add(parameter.name);
+                }
+                proxyArguments.add(parameter.name);
+            }
+            String prefix = method.returnType.isVoid() ? "" : "return ";
+            line();
+            line("@Override");
+            open(signature(method) + " {");
+            open("if (mStub != null && mStub.isCurrentThread()) {");
+            line(prefix + "mStub." + method.name + "(" + String.join(", ", stubArguments) + ");");
+            close("} else if (mStub != null) {");
+            mIndent++;
+            writeLightweightTransact(method);
+            close("} else {");
+            mIndent++;
+            line(prefix + "getProxy()." + method.name + "(" + String.join(", ", proxyArguments) + ");");
+            close("}");
+            close("}");
+        }
+        line();
+        open("private " + name + " getProxy() {");
+        line(name + " proxy = mProxy;");
+        open("if (proxy == null) {");
+        open("if (mBinder.getUri().getScheme().equals(\"mindroid\")) {");
+        line("proxy = new Stub.Proxy(mBinder);");
+        close("} else {");
+        mIndent++;
+        line("proxy = (" + name + ") mindroid.runtime.system.Runtime.getRuntime().getProxy(mBinder);");
+        close("}");
+        line("mProxy = proxy;");
+        close("}");
+        line("return proxy;");
+        close("}");
+        close("}");
+    }
+
+    private void writeLightweightTransact(Method method) {
+        List<Parameter> parameters = method.parameters;
+        String num = "0";
+        String obj = "null";
+        if (isNumArgument(method)) {
+            num = parameters.get(0).name;
+        } else if (parameters.size() == 1) {
+            obj = handOff(parameters.get(0).type, parameters.get(0).name);
+        } else if (parameters.size() > 1) {
+            List<String> arguments = new ArrayList<>();
+            for (Parameter parameter : parameters) {
+                arguments.add(handOff(parameter.type, parameter.name));
+            }
+            obj = "new Object[] { " + String.join(", ", arguments) + " }";
+        }
+        String code = "Stub." + method.constantName();
+        Type type = method.returnType;
+        if (method.oneway) {
+            line("mStub.transact(" + code + ", " + num + ", " + obj + ", null, null, IBinder.FLAG_ONEWAY);");
+        } else if (type.isFuture()) {
+            line("Promise<" + type.component.javaObjectName() + "> _promise = new Promise<>();");
+            line("mStub.transact(" + code + ", " + num + ", " + obj + ", null, _promise, 0);");
+            line("return _promise;");
+        } else {
+            line("Promise<" + type.javaObjectName() + "> _promise = new Promise<>(Executors.SYNCHRONOUS_EXECUTOR);");
+            line("mStub.transact(" + code + ", " + num + ", " + obj + ", null, _promise, 0);");
+            line((type.isVoid() ? "" : "return ") + "Binder.get(_promise);");
+        }
+    }
+
+    /**
+     * Returns whether the only argument of a method is passed as number of a lightweight transaction.
+     */
+    private static boolean isNumArgument(Method method) {
+        return method.parameters.size() == 1 && method.parameters.get(0).type.name.equals("int");
+    }
+
+    /**
+     * Returns the expression of a value that is handed over to another thread. Arrays are copied, and
+     * interfaces are wrapped like in direct calls.
+     */
+    private static String handOff(Type type, String value) {
+        switch (type.kind) {
+        case ARRAY:
+            return "(" + value + " != null ? " + value + ".clone() : null)";
+        case INTERFACE:
+            return type.name + ".Stub.asInterface(" + value + ".asBinder())";
+        default:
+            return value;
+        }
+    }
+
+    private void writeEquals(String className, String field) {
+        line("@Override");
+        open("public boolean equals(final Object obj) {");
+        line("if (obj == null) return false;");
+        line("if (obj == this) return true;");
+        open("if (obj instanceof " + className + ") {");
+        line("final " + className + " that = (" + className + ") obj;");
+        line("return this." + field + ".equals(that." + field + ");");
+        close("}");
+        line("return false;");
+        close("}");
+        line();
+        line("@Override");
+        open("public int hashCode() {");
+        line("return " + field + ".hashCode();");
+        close("}");
+    }
+
+    static String signature(Method method) {
+        List<String> parameters = new ArrayList<>();
+        for (Parameter parameter : method.parameters) {
+            parameters.add(parameter.type.javaName() + " " + parameter.name);
+        }
+        return "public " + method.returnType.javaName() + " " + method.name + "(" + String.join(", ", parameters)
+                + ") throws RemoteException";
+    }
+
+    private static String put(String parcel, Type type, String value, String base) {
+        if (type.kind == Type.Kind.INTERFACE) {
+            return parcel + ".putBinder(" + (base != null ? base + ", " : "") + value + ".asBinder())";
+        }
+        return parcel + ".put" + type.parcelName() + "(" + value + ")";
+    }
+
+    private static String get(String parcel, Type type) {
+        if (type.kind == Type.Kind.INTERFACE) {
+            return type.name + ".Stub.asInterface(" + parcel + ".getBinder())";
+        }
+        return parcel + ".get" + type.parcelName() + "()";
+    }
+
+    /**
+     * Returns an expression for the expected encoded size of a value, which is used to presize parcels.
+     */
+    private static String size(Type type, String value) {
+        switch (type.kind) {
+        case PRIMITIVE:
+            return String.valueOf(type.fixedSize());
+        case STRING:
+            // Modified UTF-8 length prefix and one byte per ASCII char.
+            return "2 + " + value + ".length()";
+        case ARRAY: {
+            int elementSize = (type.component.kind == Type.Kind.STRING) ? 8 : type.component.fixedSize();
+            return "4 + (" + value + " != null ? " + elementSize + " * " + value + ".length : 0)";
+        }
+        case INTERFACE:
+            // The binder URI, e.g. mindroid://1.42
+            return "32";
+        default:
+            return "0";
+        }
+    }
+
+    /**
+     * Sums up the size expressions, folding their constant parts.
+     */
+    private static String sum(List<String> sizes) {
+        int constant = 0;
+        List<String> terms = new ArrayList<>();
+        for (String size : sizes) {
+            String[] parts = size.split(" \\+ ", 2);
+            try {
+                constant += Integer.parseInt(parts[0]);
+                if (parts.length > 1) {
+                    terms.add(parts[1]);
+                }
+            } catch (NumberFormatException e) {
+                terms.add(size);
+            }
+        }
+        if (terms.isEmpty() || constant != 0) {
+            terms.add(0, String.valueOf(constant));
+        }
+        return String.join(" + ", terms);
+    }
+
+    private void open(String text) {
+        line(text);
+        mIndent++;
+    }
+
+    private void close(String text) {
+        mIndent--;
+        line(text);
+    }
+
+    private void line(String text) {
+        for (int i = 0; i < mIndent; i++) {
+            mBuilder.append("    ");
+        }
+        mBuilder.append(text).append('\n');
+    }
+
+    private void line() {
+        mBuilder.append('\n');
+    }
+}
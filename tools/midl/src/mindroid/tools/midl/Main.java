@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2018 E.S.R.Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package mindroid.tools.midl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The MIDL compiler, which generates the Java interfaces, stubs and proxies of MIDL files.
+ *
+ * <pre>
+ * java mindroid.tools.midl.Main -o &lt;output directory&gt; [-b &lt;benchmark directory&gt;] &lt;file.midl&gt;...
+ * </pre>
+ *
+ * The generated files are written into the package directories below the output directories.
+ * If a benchmark directory is given, a JMH benchmark is generated for each interface with methods that
+ * can be benchmarked, see {@link BenchmarkGenerator}.
+ */
+public class Main {
+    public static void main(String[] args) {
+        File outputDirectory = null;
+        File benchmarkDirectory = null;
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if ((args[i].equals("-o") || args[i].equals("-b")) && i + 1 < args.length) {
+                if (args[i].equals("-o")) {
+                    outputDirectory = new File(args[++i]);
+                } else {
+                    benchmarkDirectory = new File(args[++i]);
+                }
+            } else if (args[i].startsWith("-")) {
+                usage();
+            } else {
+                files.add(new File(args[i]));
+            }
+        }
+        if (outputDirectory == null || files.isEmpty()) {
+            usage();
+        }
+
+        try {
+            for (File file : files) {
+                String source = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+                Document document = new Parser(file.getPath(), source).parse();
+                for (Interface iface : document.interfaces) {
+                    write(outputDirectory, document.packageName, iface.name, new JavaGenerator(document, iface).generate());
+                    BenchmarkGenerator generator = new BenchmarkGenerator(document, iface);
+                    if (benchmarkDirectory != null && generator.hasBenchmarks()) {
+                        write(benchmarkDirectory, document.packageName, generator.getClassName(), generator.generate());
+                    }
+                }
+            }
+        } catch (ParseException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        } catch (IOException e) {
+            System.err.println("Cannot generate files: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private static void write(File directory, String packageName, String className, String content) throws IOException {
+        File file = new File(new File(directory, packageName.replace('.', File.separatorChar)), className + ".java");
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void usage() {
+        System.err.println("Usage: midl -o <output directory> [-b <benchmark directory>] <file.midl>...");
+        System.exit(1);
+    }
+}
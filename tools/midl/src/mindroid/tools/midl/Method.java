@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2018 E.S.R.Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package mindroid.tools.midl;
+
+import java.util.List;
+
+/**
+ * A method of a MIDL interface.
+ */
+final class Method {
+    final Type returnType;
+    final String name;
+    final List<Parameter> parameters;
+    final boolean oneway;
+    // The transaction code, which is the 1-based position of the method in its interface.
+    final int code;
+
+    Method(Type returnType, String name, List<Parameter> parameters, boolean oneway, int code) {
+        this.returnType = returnType;
+        this.name = name;
+        this.parameters = parameters;
+        this.oneway = oneway;
+        this.code = code;
+    }
+
+    /**
+     * Returns the name of the transaction code constant, e.g. {@code MSG_ON_REPLY} for {@code onReply}.
+     */
+    String constantName() {
+        StringBuilder builder = new StringBuilder("MSG_");
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (Character.isUpperCase(c) && i > 0) {
+                builder.append('_');
+            }
+            builder.append(Character.toUpperCase(c));
+        }
+        return builder.toString();
+    }
+}
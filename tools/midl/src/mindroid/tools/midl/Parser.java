@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2018 E.S.R.Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package mindroid.tools.midl;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Parses MIDL files.
+ *
+ * <pre>
+ * package examples.eliza;
+ *
+ * interface IEliza {
+ *     String ask1(String question);
+ *     Promise&lt;String&gt; ask2(String question);
+ *     void ask3(String question, IElizaListener listener) oneway;
+ * }
+ * </pre>
+ *
+ * The comment lines in front of the package declaration are the header of the generated files.
+ */
+final class Parser {
+    private final String mFileName;
+    private final String mSource;
+    private int mPosition = 0;
+    private int mLine = 1;
+    private String mToken;
+    private int mTokenLine;
+
+    Parser(String fileName, String source) {
+        mFileName = fileName;
+        mSource = source;
+    }
+
+    Document parse() throws ParseException {
+        String header = parseHeader();
+        next();
+        expect("package");
+        String packageName = parseQualifiedName();
+        expect(";");
+        List<String> imports = new ArrayList<>();
+        while (accept("import")) {
+            imports.add(parseQualifiedName());
+            expect(";");
+        }
+        List<Interface> interfaces = new ArrayList<>();
+        while (mToken != null) {
+            interfaces.add(parseInterface(packageName));
+        }
+        return new Document(header, packageName, imports, interfaces);
+    }
+
+    private Interface parseInterface(String packageName) throws ParseException {
+        expect("interface");
+        String name = parseIdentifier();
+        expect("{");
+        List<Method> methods = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        while (!accept("}")) {
+            int line = mTokenLine;
+            Method method = parseMethod(methods.size() + 1);
+            if (!names.add(method.name)) {
+                throw error(line, "Duplicate method " + method.name + " in interface " + name);
+            }
+            methods.add(method);
+        }
+        return new Interface(packageName, name, methods);
+    }
+
+    private Method parseMethod(int code) throws ParseException {
+        int line = mTokenLine;
+        Type returnType = parseType();
+        if (returnType.kind == Type.Kind.INTERFACE && (returnType.name.equals("Promise") || returnType.name.equals("Future"))) {
+            expect("<");
+            Type type = parseType();
+            expect(">");
+            if (type.isVoid() || type.isFuture()) {
+                throw error(line, "Invalid future type " + type.name);
+            }
+            returnType = Type.futureOf(type);
+        }
+        String name = parseIdentifier();
+        expect("(");
+        List<Parameter> parameters = new ArrayList<>();
+        if (!accept(")")) {
+            do {
+                Type type = parseType();
+                if (type.isVoid()) {
+                    throw error(mTokenLine, "Invalid parameter type void");
+                }
+                parameters.add(new Parameter(type, parseIdentifier()));
+            } while (accept(","));
+            expect(")");
+        }
+        boolean oneway = accept("oneway");
+        expect(";");
+        if (oneway && !returnType.isVoid()) {
+            throw error(line, "Oneway method " + name + " must return void");
+        }
+        return new Method(returnType, name, parameters, oneway, code);
+    }
+
+    private Type parseType() throws ParseException {
+        int line = mTokenLine;
+        Type type = Type.of(parseQualifiedName());
+        if (accept("[")) {
+            expect("]");
+            if ((type.kind != Type.Kind.PRIMITIVE && type.kind != Type.Kind.STRING) || type.name.equals("byte")) {
+                throw error(line, "Unsupported array type " + type.name + "[]");
+            }
+            type = Type.arrayOf(type);
+        }
+        return type;
+    }
+
+    private String parseQualifiedName() throws ParseException {
+        StringBuilder builder = new StringBuilder(parseIdentifier());
+        while (accept(".")) {
+            builder.append('.').append(parseIdentifier());
+        }
+        return builder.toString();
+    }
+
+    private String parseIdentifier() throws ParseException {
+        if (mToken == null || !Character.isJavaIdentifierStart(mToken.charAt(0))) {
+            throw error(mTokenLine, "Identifier expected instead of " + describeToken());
+        }
+        String identifier = mToken;
+        next();
+        return identifier;
+    }
+
+    private boolean accept(String token) throws ParseException {
+        if (token.equals(mToken)) {
+            next();
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(String token) throws ParseException {
+        if (!accept(token)) {
+            throw error(mTokenLine, "'" + token + "' expected instead of " + describeToken());
+        }
+    }
+
+    private String describeToken() {
+        return (mToken != null) ? "'" + mToken + "'" : "end of file";
+    }
+
+    /**
+     * Collects the comment lines at the beginning of the file.
+     */
+    private String parseHeader() {
+        StringBuilder header = new StringBuilder();
+        while (true) {
+            skipWhitespace();
+            if (mSource.startsWith("//", mPosition)) {
+                int end = lineEnd(mPosition);
+                String line = mSource.substring(mPosition + 2, end);
+                header.append(line.startsWith(" ") ? line.substring(1) : line).append('\n');
+                mPosition = end;
+            } else if (mSource.startsWith("/*", mPosition)) {
+                int end = mSource.indexOf("*/", mPosition + 2);
+                end = (end < 0) ? mSource.length() : end;
+                for (String line : mSource.substring(mPosition + 2, end).split("\n")) {
+                    line = line.trim();
+                    line = line.startsWith("*") ? line.substring(1) : line;
+                    if (!line.trim().isEmpty() || header.length() > 0) {
+                        header.append(line.startsWith(" ") ? line.substring(1) : line).append('\n');
+                    }
+                }
+                countLines(mPosition, Math.min(end + 2, mSource.length()));
+                mPosition = Math.min(end + 2, mSource.length());
+            } else {
+                return header.toString().trim();
+            }
+        }
+    }
+
+    private void next() throws ParseException {
+        skipWhitespaceAndComments();
+        mTokenLine = mLine;
+        if (mPosition >= mSource.length()) {
+            mToken = null;
+            return;
+        }
+        char c = mSource.charAt(mPosition);
+        if (Character.isJavaIdentifierStart(c)) {
+            int start = mPosition;
+            while (mPosition < mSource.length() && Character.isJavaIdentifierPart(mSource.charAt(mPosition))) {
+                mPosition++;
+            }
+            mToken = mSource.substring(start, mPosition);
+        } else if ("{}()<>[];,.".indexOf(c) >= 0) {
+            mToken = String.valueOf(c);
+            mPosition++;
+        } else {
+            throw error(mLine, "Unexpected character '" + c + "'");
+        }
+    }
+
+    private void skipWhitespaceAndComments() throws ParseException {
+        while (true) {
+            skipWhitespace();
+            if (mSource.startsWith("//", mPosition)) {
+                mPosition = lineEnd(mPosition);
+            } else if (mSource.startsWith("/*", mPosition)) {
+                int end = mSource.indexOf("*/", mPosition + 2);
+                if (end < 0) {
+                    throw error(mLine, "Unterminated comment");
+                }
+                countLines(mPosition, end + 2);
+                mPosition = end + 2;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void skipWhitespace() {
+        while (mPosition < mSource.length() && Character.isWhitespace(mSource.charAt(mPosition))) {
+            if (mSource.charAt(mPosition) == '\n') {
+                mLine++;
+            }
+            mPosition++;
+        }
+    }
+
+    private int lineEnd(int position) {
+        int end = mSource.indexOf('\n', position);
+        return (end < 0) ? mSource.length() : end;
+    }
+
+    private void countLines(int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (mSource.charAt(i) == '\n') {
+                mLine++;
+            }
+        }
+    }
+
+    private ParseException error(int line, String message) {
+        return new ParseException(mFileName + ":" + line + ": " + message, line);
+    }
+}
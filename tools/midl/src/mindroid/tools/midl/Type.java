@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2018 E.S.R.Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package mindroid.tools.midl;
+
+/**
+ * A type of a MIDL method parameter or return value.
+ */
+final class Type {
+    enum Kind {
+        VOID,
+        PRIMITIVE,
+        STRING,
+        ARRAY,
+        INTERFACE,
+        FUTURE
+    }
+
+    final Kind kind;
+    final String name;
+    // The element type of arrays and the value type of futures.
+    final Type component;
+
+    private Type(Kind kind, String name, Type component) {
+        this.kind = kind;
+        this.name = name;
+        this.component = component;
+    }
+
+    static Type of(String name) {
+        switch (name) {
+        case "void":
+            return new Type(Kind.VOID, name, null);
+        case "boolean":
+        case "byte":
+        case "char":
+        case "short":
+        case "int":
+        case "long":
+        case "float":
+        case "double":
+            return new Type(Kind.PRIMITIVE, name, null);
+        case "String":
+            return new Type(Kind.STRING, name, null);
+        default:
+            return new Type(Kind.INTERFACE, name, null);
+        }
+    }
+
+    static Type arrayOf(Type component) {
+        return new Type(Kind.ARRAY, component.name + "[]", component);
+    }
+
+    static Type futureOf(Type component) {
+        return new Type(Kind.FUTURE, "Future<" + component.javaObjectName() + ">", component);
+    }
+
+    boolean isVoid() {
+        return kind == Kind.VOID;
+    }
+
+    boolean isFuture() {
+        return kind == Kind.FUTURE;
+    }
+
+    /**
+     * Returns the Java type, e.g. {@code int} or {@code Future<String>}.
+     */
+    String javaName() {
+        return name;
+    }
+
+    /**
+     * Returns the Java type that is usable as type argument, e.g. {@code Integer} for {@code int}.
+     */
+    String javaObjectName() {
+        if (kind == Kind.VOID) {
+            return "Void";
+        } else if (kind != Kind.PRIMITIVE) {
+            return name;
+        }
+        switch (name) {
+        case "int":
+            return "Integer";
+        case "char":
+            return "Character";
+        default:
+            return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+        }
+    }
+
+    /**
+     * Returns the suffix of the {@code Parcel} accessors of the type, e.g. {@code Int} for
+     * {@code putInt} and {@code getInt}.
+     */
+    String parcelName() {
+        switch (kind) {
+        case PRIMITIVE:
+            return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+        case STRING:
+            return "String";
+        case ARRAY:
+            return component.parcelName() + "Array";
+        default:
+            throw new IllegalStateException("No parcel accessor for " + name);
+        }
+    }
+
+    /**
+     * Returns the size of the type in a parcel or -1 if the size depends on the value.
+     */
+    int fixedSize() {
+        if (kind != Kind.PRIMITIVE) {
+            return -1;
+        }
+        switch (name) {
+        case "boolean":
+        case "byte":
+            return 1;
+        case "char":
+        case "short":
+            return 2;
+        case "int":
+        case "float":
+            return 4;
+        default:
+            return 8;
+        }
+    }
+}